@@ -0,0 +1,84 @@
+package net.viperfish.crawler.html;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+import net.viperfish.crawler.core.IOUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the throughput of fingerprinting the body of a saved page of the corpus, fed in chunks
+ * of the size of the pooled buffers as the fetchers do while downloading. The MD5 benchmark is the
+ * base64 encoded digest the fetchers computed before the {@link ContentFingerprint}, and the whole
+ * page benchmark is the fallback of the crawler for the contents that were not fingerprinted.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FingerprintBenchmark {
+
+	private static final int CHUNK_SIZE = 16 * 1024;
+
+	@Param({"article.html", "listing.html", "portal.html"})
+	private String page;
+
+	private byte[] body;
+	private ByteBuffer buffer;
+
+	@Setup
+	public void setup() throws IOException {
+		try (InputStream in = FingerprintBenchmark.class.getResourceAsStream("/corpus/" + page)) {
+			body = IOUtil.read(in);
+		}
+		buffer = ByteBuffer.wrap(body);
+	}
+
+	@Benchmark
+	public String md5() throws NoSuchAlgorithmException {
+		MessageDigest digest = MessageDigest.getInstance("MD5");
+		for (int offset = 0; offset < body.length; offset += CHUNK_SIZE) {
+			digest.update(chunk(offset));
+		}
+		return Base64.getEncoder().encodeToString(digest.digest());
+	}
+
+	@Benchmark
+	public ContentFingerprint murmur3() {
+		Hasher hasher = ContentFingerprint.DEFAULT_FUNCTION.newHasher();
+		for (int offset = 0; offset < body.length; offset += CHUNK_SIZE) {
+			hasher.putBytes(chunk(offset));
+		}
+		return ContentFingerprint.of(hasher.hash());
+	}
+
+	@Benchmark
+	public ContentFingerprint murmur3WholePage() {
+		return ContentFingerprint.of(Hashing.murmur3_128().hashBytes(body));
+	}
+
+	private ByteBuffer chunk(int offset) {
+		ByteBuffer chunk = buffer.duplicate();
+		chunk.position(offset);
+		chunk.limit(Math.min(body.length, offset + CHUNK_SIZE));
+		return chunk;
+	}
+}
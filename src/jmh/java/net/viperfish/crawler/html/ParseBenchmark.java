@@ -0,0 +1,70 @@
+package net.viperfish.crawler.html;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import net.viperfish.crawler.core.IOUtil;
+import net.viperfish.crawler.core.Pair;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.jsoup.safety.Whitelist;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the throughput of turning a saved page of the corpus into the sanitized document handed
+ * to the extraction and the {@link TagProcessor}s. The clean then parse pipeline is the one the
+ * crawler used before it parsed each page only once. The streaming benchmark measures the
+ * extraction of the links without a document, which the crawler uses when nothing needs the
+ * document.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParseBenchmark {
+
+	private static final String BASE_URI = "https://www.example.com/news/today/index.html";
+
+	@Param({"article.html", "listing.html", "portal.html"})
+	private String page;
+
+	private String html;
+
+	@Setup
+	public void setup() throws IOException {
+		try (InputStream in = ParseBenchmark.class.getResourceAsStream("/corpus/" + page)) {
+			html = new String(IOUtil.read(in), StandardCharsets.UTF_8);
+		}
+	}
+
+	@Benchmark
+	public Document cleanThenParse() {
+		String cleanHTML = Jsoup
+			.clean(html, BASE_URI, Whitelist.relaxed().addTags("title").addTags("head"));
+		return Jsoup.parse(cleanHTML);
+	}
+
+	@Benchmark
+	public Document singlePass() {
+		return HttpWebCrawler.parseDocument(html, BASE_URI);
+	}
+
+	@Benchmark
+	public List<Pair<String, String>> streaming() {
+		return new StreamingLinkExtractor(html, BASE_URI).extract().getLinks();
+	}
+}
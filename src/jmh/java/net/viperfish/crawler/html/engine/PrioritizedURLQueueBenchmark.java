@@ -0,0 +1,78 @@
+package net.viperfish.crawler.html.engine;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the cost of the frontier operations of the {@link DefaultPrioritizedURLBlockingQueue}
+ * and the {@link IndexedPrioritizedURLBlockingQueue} with a large amount of queued urls.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PrioritizedURLQueueBenchmark {
+
+	@Param({"default", "indexed"})
+	private String queueType;
+
+	@Param({"10000", "100000"})
+	private int queued;
+
+	private PrioritizedURLBlockingQueue queue;
+	private URL[] urls;
+	private long seed;
+	private int fresh;
+
+	@Setup
+	public void setup() throws MalformedURLException {
+		queue = "indexed".equals(queueType) ? new IndexedPrioritizedURLBlockingQueue()
+			: new DefaultPrioritizedURLBlockingQueue();
+		urls = new URL[queued];
+		for (int i = 0; i < queued; ++i) {
+			urls[i] = new URL("https://host" + (i % 512) + ".example.com/page/" + i);
+			queue.offer(new PrioritizedURL(urls[i], i % 7));
+		}
+		seed = 42;
+		fresh = 0;
+	}
+
+	/**
+	 * a link to a page that is already queued, which increases the priority of the page.
+	 */
+	@Benchmark
+	public int repeatSighting() {
+		queue.offer(urls[nextIndex()]);
+		return queue.size();
+	}
+
+	/**
+	 * a link to a new page followed by a fetch, which keeps the queue at the same size.
+	 */
+	@Benchmark
+	public PrioritizedURL offerAndTake() throws InterruptedException, MalformedURLException {
+		queue.offer(new URL("https://fresh.example.com/page/" + fresh++));
+		return queue.take();
+	}
+
+	private int nextIndex() {
+		seed ^= seed << 13;
+		seed ^= seed >>> 7;
+		seed ^= seed << 17;
+		return (int) ((seed >>> 1) % queued);
+	}
+}
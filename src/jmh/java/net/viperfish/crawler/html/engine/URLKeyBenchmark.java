@@ -0,0 +1,177 @@
+package net.viperfish.crawler.html.engine;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares looking up freshly parsed links in a tracker keyed by {@link URL}, which hashes and
+ * compares through the resolved host address, against a tracker keyed by {@link CanonicalURL}.
+ * The links are parsed from strings in each operation, as they are when they are extracted from a
+ * page. Expect the URL keyed lookups to be dominated by the name resolution of the hosts, and to
+ * depend on the DNS setup of the machine. The retained benchmark measures the heap held by each
+ * queued link instead of a time, and reports it in the bytesPerLink counter.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class URLKeyBenchmark {
+
+	@Benchmark
+	public boolean urlKey(URLTracker tracker) throws MalformedURLException {
+		return tracker.tracker.containsKey(new URL(tracker.links.next()));
+	}
+
+	@Benchmark
+	public boolean canonicalKey(KeyTracker tracker) throws MalformedURLException {
+		return tracker.tracker.containsKey(CanonicalURL.of(new URL(tracker.links.next())));
+	}
+
+	/**
+	 * holds all the links as {@link URL}s, {@link CanonicalURL}s or {@link PrioritizedURL}s, and
+	 * records the heap they retain. The link strings exist before and after, so they are not
+	 * counted. The time of the operation is mostly garbage collection and can be ignored. There is
+	 * a single measurement iteration, as the counters of the iterations are summed.
+	 */
+	@Benchmark
+	@Warmup(iterations = 2, time = 1)
+	@Measurement(iterations = 1, time = 5)
+	public void retained(Retained retained) throws MalformedURLException {
+		// the links held by the previous operation are not counted
+		retained.held = null;
+		Object[] held = new Object[retained.strings.length];
+		long before = usedHeap();
+		for (int i = 0; i < held.length; ++i) {
+			URL url = new URL(retained.strings[i]);
+			if ("url".equals(retained.form)) {
+				held[i] = url;
+			} else if ("canonical".equals(retained.form)) {
+				held[i] = CanonicalURL.of(url);
+			} else {
+				held[i] = new PrioritizedURL(url, 1);
+			}
+		}
+		retained.bytes += usedHeap() - before;
+		retained.count += held.length;
+		retained.held = held;
+	}
+
+	private static long usedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; ++i) {
+			System.gc();
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	/**
+	 * The links to look up, half of which are tracked.
+	 */
+	private static class Links {
+
+		private String[] links;
+		private int next;
+
+		Links(int count) {
+			links = new String[count];
+			for (int i = 0; i < count; ++i) {
+				links[i] = "https://host" + (i % 16) + ".example.com/page/" + i + "?ref=" + (i % 3);
+			}
+			next = 0;
+		}
+
+		String next() {
+			String link = links[next];
+			next = (next + 7919) % links.length;
+			return link;
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class URLTracker {
+
+		@Param({"10000"})
+		private int tracked;
+
+		private Links links;
+		private Map<URL, Boolean> tracker;
+
+		@Setup
+		public void setup() throws MalformedURLException {
+			links = new Links(tracked * 2);
+			tracker = new ConcurrentHashMap<>();
+			for (int i = 0; i < tracked; ++i) {
+				tracker.put(new URL(links.next()), true);
+			}
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class KeyTracker {
+
+		@Param({"10000"})
+		private int tracked;
+
+		private Links links;
+		private Map<CanonicalURL, Boolean> tracker;
+
+		@Setup
+		public void setup() throws MalformedURLException {
+			links = new Links(tracked * 2);
+			tracker = new ConcurrentHashMap<>();
+			for (int i = 0; i < tracked; ++i) {
+				tracker.put(CanonicalURL.of(new URL(links.next())), true);
+			}
+		}
+	}
+
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	public static class Retained {
+
+		@Param({"url", "canonical", "prioritized"})
+		private String form;
+
+		@Param({"100000"})
+		private int links;
+
+		private String[] strings;
+		private Object[] held;
+		private long bytes;
+		private long count;
+
+		@Setup(Level.Iteration)
+		public void setup() {
+			strings = new Links(links).links;
+			held = null;
+			bytes = 0;
+			count = 0;
+		}
+
+		/**
+		 * gets the mean heap retained by a link in this iteration.
+		 *
+		 * @return the retained bytes per link.
+		 */
+		public long bytesPerLink() {
+			return count == 0 ? 0 : bytes / count;
+		}
+	}
+}
@@ -0,0 +1,88 @@
+package net.viperfish.crawler.html.restrictions;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import net.viperfish.crawler.core.IOUtil;
+import net.viperfish.crawler.html.Restriction;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures checking urls against a large robots.txt of the corpus, which has several hundred rules
+ * in the style of the wikis and the shops. The urls mix allowed pages, pages under a disallowed
+ * prefix, and pages that only a wildcard rule disallows.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RobotTxtBenchmark {
+
+	private static final String[] PATHS = {
+		"/wiki/Main_Page", "/wiki/Special:Search?search=fish", "/wiki/Java_(programming_language)",
+		"/wiki/Wikipedia:Articles_for_deletion/Fish", "/w/index.php?title=Fish&action=edit",
+		"/w/load.php?modules=site", "/women/dresses/summer?sort=price&page=2",
+		"/men/shirts/oxford/reviews?page=3", "/home/sale/lamps", "/electronics/tv/4k",
+		"/search?q=tv", "/search/about", "/checkout/step1", "/news/2017/05/story?share=fb",
+		"/archive/2012/03/story", "/archive/2012/03/comments", "/docs/manual.pdf",
+		"/docs/manual.pdf?download=1", "/legacy/books/42/index.html", "/legacy/books/420/",
+		"/about/team", "/kids/toys/lego.json", "/kids/toys/lego.json?v=2", "/"
+	};
+
+	private RobotTxt robotTxt;
+	private URL[] urls;
+	private int next;
+
+	@Setup
+	public void setup() throws IOException {
+		String robots;
+		try (InputStream in = RobotTxtBenchmark.class
+			.getResourceAsStream("/corpus/robots-large.txt")) {
+			robots = new String(IOUtil.read(in), StandardCharsets.UTF_8);
+		}
+		List<String> allowed = new ArrayList<>();
+		List<String> disallowed = new ArrayList<>();
+		for (String line : robots.split("\n")) {
+			int colon = line.indexOf(':');
+			if (colon == -1) {
+				continue;
+			}
+			String key = line.substring(0, colon).trim().toLowerCase();
+			String value = line.substring(colon + 1).trim();
+			if (key.equals("allow")) {
+				allowed.add(value);
+			} else if (key.equals("disallow")) {
+				disallowed.add(value);
+			}
+		}
+		URL base = new URL("https://www.example.org/");
+		robotTxt = new RobotTxt(base, allowed, disallowed, 0);
+		urls = new URL[PATHS.length];
+		for (int i = 0; i < PATHS.length; ++i) {
+			urls[i] = new URL(base, PATHS[i]);
+		}
+		next = 0;
+	}
+
+	@Benchmark
+	public Restriction isAllowed() {
+		URL url = urls[next];
+		next = next + 1 == urls.length ? 0 : next + 1;
+		return robotTxt.isAllowed(url);
+	}
+}
@@ -0,0 +1,287 @@
+package net.viperfish.crawler.core;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A Bloom filter of 64 bit keys that uses a fixed amount of memory, no matter how many keys are
+ * added. The bits are split into blocks of 64 bytes, the size of a cache line, and all the bits of
+ * a key are set in the same block, so a lookup touches a single cache line. The blocks are guarded
+ * by a fixed set of lock stripes, so threads working on different blocks do not contend. The bits
+ * can be kept on the heap or in direct buffers outside of it. The keys should already be well
+ * distributed hashes, such as fingerprints. This class is thread safe.
+ */
+public final class BlockedBloomFilter {
+
+	private static final int BLOCK_BYTES = 64;
+	private static final int BLOCK_LONGS = BLOCK_BYTES / Long.BYTES;
+	private static final int BLOCK_BITS = BLOCK_BYTES * Byte.SIZE;
+	private static final int SEGMENT_BLOCKS = 1 << 22;
+	private static final int STRIPES = 256;
+	private static final int MAX_HASHES = 16;
+
+	private final LongBuffer[] segments;
+	private final Object[] stripes;
+	private final long blocks;
+	private final int hashes;
+	private final boolean offHeap;
+	private final AtomicLong setBits;
+	private final AtomicLong insertions;
+
+	/**
+	 * creates an empty filter that uses the specified amount of memory on the heap.
+	 *
+	 * @param byteBudget the amount of memory for the bits, rounded down to whole blocks.
+	 * @param falsePositiveRate the targeted false positive rate, which sets the amount of bits per
+	 * key.
+	 */
+	public BlockedBloomFilter(long byteBudget, double falsePositiveRate) {
+		this(byteBudget, falsePositiveRate, false);
+	}
+
+	/**
+	 * creates an empty filter that uses the specified amount of memory.
+	 *
+	 * @param byteBudget the amount of memory for the bits, rounded down to whole blocks.
+	 * @param falsePositiveRate the targeted false positive rate, which sets the amount of bits per
+	 * key.
+	 * @param offHeap whether to keep the bits in direct buffers outside of the heap.
+	 */
+	public BlockedBloomFilter(long byteBudget, double falsePositiveRate, boolean offHeap) {
+		if (byteBudget < BLOCK_BYTES) {
+			throw new IllegalArgumentException(
+				"The budget must be at least " + BLOCK_BYTES + " bytes");
+		}
+		if (byteBudget / BLOCK_BYTES > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("The budget is too large");
+		}
+		if (falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+			throw new IllegalArgumentException("The false positive rate must be between 0 and 1");
+		}
+		this.blocks = byteBudget / BLOCK_BYTES;
+		this.hashes = (int) Math
+			.max(1, Math.min(MAX_HASHES, Math.round(-Math.log(falsePositiveRate) / Math.log(2))));
+		this.offHeap = offHeap;
+		this.segments = new LongBuffer[(int) ((blocks + SEGMENT_BLOCKS - 1) / SEGMENT_BLOCKS)];
+		for (int i = 0; i < segments.length; ++i) {
+			int segmentBlocks = (int) Math.min(SEGMENT_BLOCKS, blocks - (long) i * SEGMENT_BLOCKS);
+			if (offHeap) {
+				segments[i] = ByteBuffer.allocateDirect(segmentBlocks * BLOCK_BYTES).asLongBuffer();
+			} else {
+				segments[i] = LongBuffer.allocate(segmentBlocks * BLOCK_LONGS);
+			}
+		}
+		this.stripes = new Object[STRIPES];
+		for (int i = 0; i < STRIPES; ++i) {
+			stripes[i] = new Object();
+		}
+		this.setBits = new AtomicLong(0);
+		this.insertions = new AtomicLong(0);
+	}
+
+	/**
+	 * adds a key to the filter.
+	 *
+	 * @param key the key to add.
+	 * @return true if the key was definitely not in the filter before, false if it might have
+	 * been.
+	 */
+	public boolean put(long key) {
+		long hash = mix(key);
+		long block = blockOf(hash);
+		LongBuffer segment = segments[(int) (block / SEGMENT_BLOCKS)];
+		int offset = (int) (block % SEGMENT_BLOCKS) * BLOCK_LONGS;
+		int h1 = (int) hash;
+		int h2 = (int) mix(hash) | 1;
+		int added = 0;
+		synchronized (stripes[(int) (block % STRIPES)]) {
+			for (int i = 0; i < hashes; ++i) {
+				int bit = (h1 + i * h2) & (BLOCK_BITS - 1);
+				int index = offset + (bit >>> 6);
+				long word = segment.get(index);
+				long mask = 1L << bit;
+				if ((word & mask) == 0) {
+					segment.put(index, word | mask);
+					added++;
+				}
+			}
+		}
+		if (added == 0) {
+			return false;
+		}
+		setBits.addAndGet(added);
+		insertions.incrementAndGet();
+		return true;
+	}
+
+	/**
+	 * checks if a key might be in the filter.
+	 *
+	 * @param key the key to check.
+	 * @return false if the key is definitely not in the filter, true if it might be.
+	 */
+	public boolean mightContain(long key) {
+		long hash = mix(key);
+		long block = blockOf(hash);
+		LongBuffer segment = segments[(int) (block / SEGMENT_BLOCKS)];
+		int offset = (int) (block % SEGMENT_BLOCKS) * BLOCK_LONGS;
+		int h1 = (int) hash;
+		int h2 = (int) mix(hash) | 1;
+		synchronized (stripes[(int) (block % STRIPES)]) {
+			for (int i = 0; i < hashes; ++i) {
+				int bit = (h1 + i * h2) & (BLOCK_BITS - 1);
+				if ((segment.get(offset + (bit >>> 6)) & (1L << bit)) == 0) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * writes the bits of the filter. Only one block is locked at a time, so the filter can be used
+	 * while it is written.
+	 *
+	 * @param out the output.
+	 * @throws IOException if failed to write.
+	 */
+	public void writeTo(DataOutputStream out) throws IOException {
+		out.writeLong(blocks);
+		out.writeInt(hashes);
+		out.writeLong(insertions.get());
+		long[] words = new long[BLOCK_LONGS];
+		for (long block = 0; block < blocks; ++block) {
+			LongBuffer segment = segments[(int) (block / SEGMENT_BLOCKS)];
+			int offset = (int) (block % SEGMENT_BLOCKS) * BLOCK_LONGS;
+			synchronized (stripes[(int) (block % STRIPES)]) {
+				for (int i = 0; i < BLOCK_LONGS; ++i) {
+					words[i] = segment.get(offset + i);
+				}
+			}
+			for (long word : words) {
+				out.writeLong(word);
+			}
+		}
+	}
+
+	/**
+	 * adds the keys of a filter written by {@link #writeTo(DataOutputStream)} to this filter.
+	 *
+	 * @param in the input.
+	 * @throws IOException if failed to read, or if the filter was written with a different size or
+	 * amount of hashes.
+	 */
+	public void readFrom(DataInputStream in) throws IOException {
+		if (in.readLong() != blocks || in.readInt() != hashes) {
+			throw new IOException("The filter was written with different settings");
+		}
+		insertions.addAndGet(in.readLong());
+		for (long block = 0; block < blocks; ++block) {
+			LongBuffer segment = segments[(int) (block / SEGMENT_BLOCKS)];
+			int offset = (int) (block % SEGMENT_BLOCKS) * BLOCK_LONGS;
+			int added = 0;
+			synchronized (stripes[(int) (block % STRIPES)]) {
+				for (int i = 0; i < BLOCK_LONGS; ++i) {
+					long word = segment.get(offset + i);
+					long read = in.readLong();
+					added += Long.bitCount(read & ~word);
+					segment.put(offset + i, word | read);
+				}
+			}
+			setBits.addAndGet(added);
+		}
+	}
+
+	/**
+	 * gets the amount of memory used by the bits of the filter.
+	 *
+	 * @return the size in bytes.
+	 */
+	public long getByteSize() {
+		return blocks * BLOCK_BYTES;
+	}
+
+	/**
+	 * gets the amount of bits set for each key.
+	 *
+	 * @return the amount of hash functions.
+	 */
+	public int getHashCount() {
+		return hashes;
+	}
+
+	/**
+	 * gets the amount of keys the filter can hold before going over the targeted false positive
+	 * rate.
+	 *
+	 * @return the expected capacity.
+	 */
+	public long getExpectedCapacity() {
+		return (long) (getByteSize() * Byte.SIZE * Math.log(2) / hashes);
+	}
+
+	/**
+	 * gets the amount of keys that were added while not already in the filter.
+	 *
+	 * @return the amount of distinct insertions.
+	 */
+	public long getInsertions() {
+		return insertions.get();
+	}
+
+	/**
+	 * gets the fraction of the bits that are set.
+	 *
+	 * @return the fill ratio between 0 and 1.
+	 */
+	public double getFillRatio() {
+		return (double) setBits.get() / (getByteSize() * Byte.SIZE);
+	}
+
+	/**
+	 * estimates the current false positive rate from the fill ratio.
+	 *
+	 * @return the estimated false positive rate.
+	 */
+	public double getEstimatedFalsePositiveRate() {
+		return Math.pow(getFillRatio(), hashes);
+	}
+
+	/**
+	 * checks if the bits are kept outside of the heap.
+	 *
+	 * @return true if off heap, false otherwise.
+	 */
+	public boolean isOffHeap() {
+		return offHeap;
+	}
+
+	/**
+	 * maps a hash to a block without a division.
+	 *
+	 * @param hash the hash.
+	 * @return the index of the block.
+	 */
+	private long blockOf(long hash) {
+		return ((hash >>> 32) * blocks) >>> 32;
+	}
+
+	/**
+	 * the finalizer of the 64 bit murmur3 hash, to spread the bits of the key.
+	 *
+	 * @param key the key.
+	 * @return the mixed key.
+	 */
+	private static long mix(long key) {
+		key ^= key >>> 33;
+		key *= 0xff51afd7ed558ccdL;
+		key ^= key >>> 33;
+		key *= 0xc4ceb9fe1a85ec53L;
+		key ^= key >>> 33;
+		return key;
+	}
+}
@@ -0,0 +1,37 @@
+package net.viperfish.crawler.core;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * A component whose state can be saved to disk and restored after a restart by a {@link
+ * Checkpointer}. A checkpoint is taken while the component is in use, so implementations should
+ * only hold their locks long enough to copy their state, and must be thread safe.
+ */
+public interface Checkpointable {
+
+	/**
+	 * gets a number that changes whenever the state changes. The {@link Checkpointer} skips the
+	 * components whose version did not change since their last checkpoint.
+	 *
+	 * @return the version of the state.
+	 */
+	long getVersion();
+
+	/**
+	 * writes the current state.
+	 *
+	 * @param out the output to write to.
+	 * @throws IOException if failed to write.
+	 */
+	void checkpoint(DataOutputStream out) throws IOException;
+
+	/**
+	 * adds the state written by {@link #checkpoint(DataOutputStream)} to the current state.
+	 *
+	 * @param in the input to read from.
+	 * @throws IOException if failed to read.
+	 */
+	void restore(DataInputStream in) throws IOException;
+}
@@ -0,0 +1,268 @@
+package net.viperfish.crawler.core;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Periodically saves the state of the registered {@link Checkpointable}s to a directory, one file
+ * per component, and restores it after a restart. The checkpoints are taken by a background thread
+ * while the crawl goes on, and only the components that changed since their last checkpoint are
+ * written again. The components are written in a fixed order: by the order given when they were
+ * registered, then by name. A component holding what the others have seen, such as the frontier
+ * that holds the links of the pages the crawl checkers have marked as crawled, is registered as
+ * {@link #LAST}, so that its checkpoint is never older than theirs. Each file is written to a
+ * temporary file first, and the temporary files are moved over the previous checkpoints only once
+ * all of them are written, the last one written first. A crash or a failure during a checkpoint
+ * therefore leaves the previous one intact, and never leaves a component newer than the ones
+ * written after it. A component is restored at most once, by the first call to {@link #restore()}
+ * after it was registered. If the checkpoint of a component cannot be read, the component keeps
+ * its current state. This class is thread safe.
+ */
+public class Checkpointer implements Closeable {
+
+	private static final int FORMAT_VERSION = 2;
+	private static final String SUFFIX = ".ckpt";
+
+	/**
+	 * the order of the components written first, which is the default.
+	 */
+	public static final int FIRST = 0;
+
+	/**
+	 * the order of the components written after all the others.
+	 */
+	public static final int LAST = Integer.MAX_VALUE;
+
+	private final File directory;
+	private final long period;
+	private final TimeUnit unit;
+	private final Map<String, Component> components;
+	private final Object writing;
+	private ScheduledExecutorService scheduler;
+	private Logger logger;
+
+	/**
+	 * creates a new {@link Checkpointer}.
+	 *
+	 * @param directory the directory for the checkpoint files.
+	 * @param period the time between two checkpoints.
+	 * @param unit the unit of the period.
+	 */
+	public Checkpointer(File directory, long period, TimeUnit unit) {
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IllegalArgumentException("Cannot create the directory " + directory);
+		}
+		this.directory = directory;
+		this.period = period;
+		this.unit = unit;
+		this.components = new ConcurrentHashMap<>();
+		this.writing = new Object();
+		this.logger = LoggerFactory.getLogger(this.getClass());
+	}
+
+	/**
+	 * registers a component to be checkpointed, in the {@link #FIRST} order. Registering the same
+	 * component again under the same name does nothing.
+	 *
+	 * @param name the unique name of the component, which is also the name of its file.
+	 * @param component the component.
+	 */
+	public void register(String name, Checkpointable component) {
+		register(name, component, FIRST);
+	}
+
+	/**
+	 * registers a component to be checkpointed. Registering the same component again under the
+	 * same name does nothing.
+	 *
+	 * @param name the unique name of the component, which is also the name of its file.
+	 * @param component the component.
+	 * @param order the order of the component, the lower ones being written first.
+	 */
+	public void register(String name, Checkpointable component, int order) {
+		Component existing = components.putIfAbsent(name, new Component(name, component, order));
+		if (existing != null && existing.state != component) {
+			throw new IllegalArgumentException("A component is already registered as " + name);
+		}
+	}
+
+	/**
+	 * restores the registered components that have not been restored yet from their checkpoint
+	 * files, if there are any.
+	 */
+	public void restore() {
+		for (Component component : inOrder()) {
+			synchronized (component) {
+				if (component.restored) {
+					continue;
+				}
+				component.restored = true;
+				File file = fileOf(component.name);
+				if (!file.isFile()) {
+					continue;
+				}
+				try (DataInputStream in = new DataInputStream(
+					new BufferedInputStream(new FileInputStream(file)))) {
+					if (in.readInt() != FORMAT_VERSION) {
+						throw new IOException("Unknown checkpoint format");
+					}
+					component.state.restore(in);
+					logger.info("Restored {} from {}", component.name, file);
+				} catch (IOException ex) {
+					logger.warn("Failed to restore {}: {}", component.name, ex.getMessage());
+				}
+			}
+		}
+	}
+
+	/**
+	 * starts taking checkpoints periodically in the background. Calling this method again does
+	 * nothing.
+	 */
+	public synchronized void start() {
+		if (scheduler != null) {
+			return;
+		}
+		scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "checkpointer");
+			thread.setDaemon(true);
+			return thread;
+		});
+		scheduler.scheduleWithFixedDelay(() -> {
+			try {
+				checkpoint();
+			} catch (IOException e) {
+				logger.warn("Failed to checkpoint: {}", e.getMessage());
+			}
+		}, period, period, unit);
+	}
+
+	/**
+	 * checkpoints all the registered components that changed since their last checkpoint, in
+	 * order. The components that have not been restored yet are skipped. If a component cannot be
+	 * written, none of the checkpoints is replaced.
+	 *
+	 * @throws IOException if failed to write a checkpoint.
+	 */
+	public void checkpoint() throws IOException {
+		synchronized (writing) {
+			List<Component> written = new ArrayList<>();
+			List<Long> versions = new ArrayList<>();
+			try {
+				for (Component component : inOrder()) {
+					synchronized (component) {
+						long version = component.state.getVersion();
+						// never overwrite a checkpoint that has not been restored yet
+						if (!component.restored
+							|| component.written && version == component.version) {
+							continue;
+						}
+						try (DataOutputStream out = new DataOutputStream(
+							new BufferedOutputStream(new FileOutputStream(tempOf(component))))) {
+							out.writeInt(FORMAT_VERSION);
+							component.state.checkpoint(out);
+						}
+						written.add(component);
+						versions.add(version);
+					}
+				}
+			} catch (IOException e) {
+				for (Component component : written) {
+					Files.deleteIfExists(tempOf(component).toPath());
+				}
+				throw e;
+			}
+			for (int i = written.size() - 1; i >= 0; --i) {
+				Component component = written.get(i);
+				synchronized (component) {
+					Files.move(tempOf(component).toPath(), fileOf(component.name).toPath(),
+						StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+					component.version = versions.get(i);
+					component.written = true;
+					logger.debug("Checkpointed {} at version {}", component.name, versions.get(i));
+				}
+			}
+		}
+	}
+
+	/**
+	 * stops the periodic checkpoints and takes a last checkpoint.
+	 *
+	 * @throws IOException if failed to write the last checkpoint.
+	 */
+	@Override
+	public void close() throws IOException {
+		synchronized (this) {
+			if (scheduler != null) {
+				scheduler.shutdownNow();
+				try {
+					scheduler.awaitTermination(5, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				scheduler = null;
+			}
+		}
+		checkpoint();
+	}
+
+	private File fileOf(String name) {
+		return new File(directory, name + SUFFIX);
+	}
+
+	private File tempOf(Component component) {
+		return new File(directory, component.name + SUFFIX + ".tmp");
+	}
+
+	/**
+	 * gets the registered components in the order they are written.
+	 *
+	 * @return the components.
+	 */
+	private List<Component> inOrder() {
+		List<Component> result = new ArrayList<>(components.values());
+		result.sort(Comparator.<Component>comparingInt(c -> c.order).thenComparing(c -> c.name));
+		return result;
+	}
+
+	/**
+	 * A registered component and the version of its last checkpoint.
+	 */
+	private static class Component {
+
+		private final String name;
+		private final Checkpointable state;
+		private final int order;
+		private long version;
+		private boolean written;
+		private boolean restored;
+
+		Component(String name, Checkpointable state, int order) {
+			this.name = name;
+			this.state = state;
+			this.order = order;
+			this.version = 0;
+			this.written = false;
+			this.restored = false;
+		}
+	}
+}
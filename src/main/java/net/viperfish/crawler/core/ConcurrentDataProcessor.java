@@ -1,21 +1,35 @@
 package net.viperfish.crawler.core;
 
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
-import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * A concurrent data processor that takes input from a {@link ResourcesStream} and output results to
  * a {@link Datasink}. It is the template base class for other classes that provide concrete
- * processing operations. All implementations of this class must be thread safe.
+ * processing operations. All implementations of this class must be thread safe. The items are
+ * pulled with the blocking {@link ResourcesStream#next()}, so the stream wakes the delegator up as
+ * soon as it has an item. Since the processing of an item can feed the stream with new items, the
+ * end of the processing is found by counting: a stream that returns null has nothing left for
+ * now, and if no item is being processed either, nothing can feed it anymore. Otherwise, the
+ * delegator sleeps until an item is done processing and pulls again. By default, each item is
+ * processed as a whole by {@link #process(Object)} on a task of its own. A subclass may instead
+ * split the processing into the stages of a {@link StagedPipeline}, in which case writing to the
+ * {@link Datasink} is the last stage, and the delegator blocks while the first stage is full.
  */
 public abstract class ConcurrentDataProcessor<I, O> implements Processor {
 
 	private ResourcesStream<? extends I> in;
 	private Datasink<? super O> out;
 	private Future<?> delegateTask;
+	private volatile StagedPipeline<I> pipeline;
 	private AtomicInteger activeProcessingTasks;
+	private final ReentrantLock processedLock;
+	private final Condition processed;
 
 	/**
 	 * creates a new {@link ConcurrentDataProcessor} with an input stream and an output stream. The
@@ -25,6 +39,8 @@ public abstract class ConcurrentDataProcessor<I, O> implements Processor {
 		this.in = in;
 		this.out = out;
 		activeProcessingTasks = new AtomicInteger(0);
+		processedLock = new ReentrantLock();
+		processed = processedLock.newCondition();
 	}
 
 	/**
@@ -34,6 +50,10 @@ public abstract class ConcurrentDataProcessor<I, O> implements Processor {
 	@Override
 	public void startProcessing() {
 		if (delegateTask == null) {
+			pipeline = createPipeline();
+			if (pipeline != null) {
+				pipeline.start(this::handleProcessingError, this::itemDone);
+			}
 			delegateTask = this.runDelegator(new Delegator());
 		}
 	}
@@ -76,6 +96,7 @@ public abstract class ConcurrentDataProcessor<I, O> implements Processor {
 	public void reset() {
 		delegateTask.cancel(true);
 		delegateTask = null;
+		stopPipeline();
 		activeProcessingTasks = new AtomicInteger(0);
 	}
 
@@ -88,9 +109,20 @@ public abstract class ConcurrentDataProcessor<I, O> implements Processor {
 		if (delegateTask != null) {
 			delegateTask.cancel(true);
 		}
+		stopPipeline();
 		cleanup();
 	}
 
+	/**
+	 * gets the metrics of each stage of the pipeline, if the processing is split into stages.
+	 *
+	 * @return the metrics of the stages, or an empty list if there is no pipeline running.
+	 */
+	public List<StageMetrics> getStageMetrics() {
+		StagedPipeline<I> current = pipeline;
+		return current == null ? Collections.emptyList() : current.getMetrics();
+	}
+
 	/**
 	 * processes an item from the input stream. This is the template method for this class. The
 	 * calls to this method will be concurrent, so the implementation should ensure thread safety.
@@ -101,6 +133,33 @@ public abstract class ConcurrentDataProcessor<I, O> implements Processor {
 	 */
 	protected abstract ProcessedResult<O> process(I input) throws Exception;
 
+	/**
+	 * creates the pipeline that processes the items in stages. This is called each time the
+	 * processing starts. The last stage should be the {@link #sinkStage()}, as nothing else writes
+	 * the results. By default, no pipeline is used and each item is processed by {@link
+	 * #process(Object)}.
+	 *
+	 * @return the pipeline, not started, or null to process each item as a whole.
+	 */
+	protected StagedPipeline<I> createPipeline() {
+		return null;
+	}
+
+	/**
+	 * gets the stage that writes the results to the {@link Datasink}, to be the last stage of the
+	 * pipeline.
+	 *
+	 * @return the stage writing to the {@link Datasink}.
+	 */
+	protected final StagedPipeline.Stage<ProcessedResult<O>, Void> sinkStage() {
+		return result -> {
+			if (result.shouldOutput()) {
+				out.write(result.getResult());
+			}
+			return null;
+		};
+	}
+
 	/**
 	 * handles an error that occurred when fetching an item from the {@link ResourcesStream}. This
 	 * method should be thread safe.
@@ -142,6 +201,29 @@ public abstract class ConcurrentDataProcessor<I, O> implements Processor {
 	 */
 	protected abstract void cleanup();
 
+	/**
+	 * stops the workers of the pipeline, if any.
+	 */
+	private void stopPipeline() {
+		if (pipeline != null) {
+			pipeline.shutdown();
+			pipeline = null;
+		}
+	}
+
+	/**
+	 * counts an item as done processing, and wakes the delegator up as it may have fed the stream.
+	 */
+	private void itemDone() {
+		activeProcessingTasks.decrementAndGet();
+		processedLock.lock();
+		try {
+			processed.signal();
+		} finally {
+			processedLock.unlock();
+		}
+	}
+
 	/**
 	 * A delegator Runnable that is responsible for dispatching incoming fetched sites to different
 	 * threads in the form of the {@link Processor}.
@@ -151,24 +233,57 @@ public abstract class ConcurrentDataProcessor<I, O> implements Processor {
 		@Override
 		public void run() {
 			while (!Thread.interrupted()) {
+				// only this thread starts processing, so if nothing is being processed now, nothing
+				// can feed the stream until it is pulled from again
+				int active = activeProcessingTasks.get();
+				I next;
+				try {
+					next = in.next();
+				} catch (Throwable e) {
+					processFetchError(e);
+					continue;
+				}
+				if (next != null) {
+					// submit a new item to be concurrently processed
+					activeProcessingTasks.incrementAndGet();
+					if (pipeline == null) {
+						runProcessor(new Processor(next));
+						continue;
+					}
+					try {
+						pipeline.submit(next);
+					} catch (InterruptedException e) {
+						itemDone();
+						return;
+					}
+					continue;
+				}
 				// exit if there are no data left and that no processing are being done.
-				if ((in.isClosed() || in.isEndReached())
-					&& activeProcessingTasks.get() == 0) {
+				if (in.isClosed() || (active == 0 && in.isEndReached())) {
 					return;
 				}
-
 				try {
-					I next = in.next(100, TimeUnit.MILLISECONDS);
-					if (next == null) {
-						continue;
-					}
+					awaitProcessed(active);
+				} catch (InterruptedException e) {
+					return;
+				}
+			}
+		}
 
-					// submit a new item to be concurrently processed
-					activeProcessingTasks.incrementAndGet();
-					runProcessor(new Processor(next));
-				} catch (Throwable e) {
-					processFetchError(e);
+		/**
+		 * waits until an item that was being processed is done, as it may have fed the stream.
+		 *
+		 * @param active the amount of items being processed before the stream was pulled.
+		 * @throws InterruptedException if interrupted while waiting.
+		 */
+		private void awaitProcessed(int active) throws InterruptedException {
+			processedLock.lockInterruptibly();
+			try {
+				while (active != 0 && activeProcessingTasks.get() >= active) {
+					processed.await();
 				}
+			} finally {
+				processedLock.unlock();
 			}
 		}
 	}
@@ -197,7 +312,7 @@ public abstract class ConcurrentDataProcessor<I, O> implements Processor {
 			} catch (Throwable e) {
 				handleProcessingError(e);
 			} finally {
-				activeProcessingTasks.decrementAndGet();
+				itemDone();
 			}
 		}
 	}
@@ -2,8 +2,11 @@ package net.viperfish.crawler.core;
 
 import java.io.BufferedInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 
 /**
  * A container of all the utility functions written for input/output.
@@ -28,12 +31,41 @@ public final class IOUtil {
 			byte[] toRead = new byte[2048];
 			int bytesRead = in.read(toRead);
 			while (bytesRead != -1) {
-				byte[] actuallyRead = new byte[bytesRead];
-				System.arraycopy(toRead, 0, actuallyRead, 0, bytesRead);
-				buffer.write(actuallyRead);
+				buffer.write(toRead, 0, bytesRead);
 				bytesRead = in.read(toRead);
 			}
 			return buffer.toByteArray();
 		}
 	}
+
+	/**
+	 * writes a string as its length followed by its UTF-8 bytes. Unlike {@link
+	 * DataOutput#writeUTF(String)}, the string can be longer than 64 KB.
+	 *
+	 * @param out the output to write to.
+	 * @param value the string to write.
+	 * @throws IOException if an IO error occurred while writing.
+	 */
+	public static void writeString(DataOutput out, String value) throws IOException {
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	/**
+	 * reads a string written by {@link #writeString(DataOutput, String)}.
+	 *
+	 * @param in the input to read from.
+	 * @return the string read.
+	 * @throws IOException if an IO error occurred while reading, or if the length is not valid.
+	 */
+	public static String readString(DataInput in) throws IOException {
+		int length = in.readInt();
+		if (length < 0) {
+			throw new IOException("Invalid string length " + length);
+		}
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
 }
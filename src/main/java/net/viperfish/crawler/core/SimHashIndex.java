@@ -0,0 +1,169 @@
+package net.viperfish.crawler.core;
+
+import java.util.Arrays;
+
+/**
+ * An index of 64 bit SimHash signatures that finds the signatures within a small Hamming distance
+ * of another one. The signatures are split into one more band than the maximum distance, so two
+ * signatures close enough to match agree on at least one whole band. Each band has its own hash
+ * table of chains, and a lookup only compares the signatures that share a band with the one looked
+ * up, which takes constant time no matter how many signatures are kept. The index holds a fixed
+ * amount of signatures in a ring, and once it is full, adding a signature forgets the oldest one.
+ * The chains are never unlinked: they are ordered from the newest to the oldest signature, and a
+ * walk stops at the first slot that was reused since, as everything older than it was forgotten
+ * too. The memory is allocated up front, and is 24 bytes per signature plus up to 12 bytes per band
+ * and signature. Each signature is stored with a key, such as the fingerprint of the url of the
+ * page, so that a page seen again does not match itself. This class is thread safe.
+ */
+public final class SimHashIndex {
+
+	private static final int MAX_DISTANCE = 7;
+	private static final int MIN_TABLE_SIZE = 16;
+
+	private final int capacity;
+	private final int maxDistance;
+	private final int bandWidth;
+	private final int tableBits;
+	private final long[] signatures;
+	private final long[] keys;
+	private final long[] sequences;
+	private final int[][] heads;
+	private final int[][] chains;
+	private long added;
+
+	/**
+	 * creates an empty index.
+	 *
+	 * @param capacity the maximum amount of signatures kept.
+	 * @param maxDistance the maximum amount of differing bits for two signatures to match, between
+	 * 0 and 7.
+	 */
+	public SimHashIndex(int capacity, int maxDistance) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("The capacity must be positive");
+		}
+		if (maxDistance < 0 || maxDistance > MAX_DISTANCE) {
+			throw new IllegalArgumentException(
+				"The maximum distance must be between 0 and " + MAX_DISTANCE);
+		}
+		this.capacity = capacity;
+		this.maxDistance = maxDistance;
+		int bands = maxDistance + 1;
+		this.bandWidth = Long.SIZE / bands;
+		int tableSize = Math.max(MIN_TABLE_SIZE, Integer.highestOneBit(capacity - 1) << 1);
+		tableSize = Math.min(tableSize, 1 << 30);
+		this.tableBits = Integer.numberOfTrailingZeros(tableSize);
+		this.signatures = new long[capacity];
+		this.keys = new long[capacity];
+		this.sequences = new long[capacity];
+		this.heads = new int[bands][tableSize];
+		this.chains = new int[bands][capacity];
+		for (int[] head : heads) {
+			Arrays.fill(head, -1);
+		}
+		this.added = 0;
+	}
+
+	/**
+	 * adds a signature unless a signature of another key is within the maximum distance of it.
+	 *
+	 * @param key the key of the signature.
+	 * @param signature the signature.
+	 * @return true if the signature was added, false if it is a near duplicate.
+	 */
+	public synchronized boolean addIfUnique(long key, long signature) {
+		for (int band = 0; band < heads.length; ++band) {
+			int bucket = bucketOf(band, signature);
+			long newer = Long.MAX_VALUE;
+			int slot = heads[band][bucket];
+			while (slot >= 0 && sequences[slot] < newer
+				&& bucketOf(band, signatures[slot]) == bucket) {
+				if (keys[slot] != key
+					&& Long.bitCount(signatures[slot] ^ signature) <= maxDistance) {
+					return false;
+				}
+				newer = sequences[slot];
+				slot = chains[band][slot];
+			}
+		}
+		add(key, signature);
+		return true;
+	}
+
+	/**
+	 * gets the amount of signatures kept.
+	 *
+	 * @return the amount of signatures.
+	 */
+	public synchronized int size() {
+		return (int) Math.min(added, capacity);
+	}
+
+	/**
+	 * gets the maximum amount of signatures kept.
+	 *
+	 * @return the capacity.
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * gets the maximum amount of differing bits for two signatures to match.
+	 *
+	 * @return the maximum distance.
+	 */
+	public int getMaxDistance() {
+		return maxDistance;
+	}
+
+	/**
+	 * stores a signature in the next slot of the ring, forgetting the signature it held.
+	 *
+	 * @param key the key of the signature.
+	 * @param signature the signature.
+	 */
+	private void add(long key, long signature) {
+		int slot = (int) (added % capacity);
+		for (int band = 0; band < heads.length; ++band) {
+			int bucket = bucketOf(band, signature);
+			int head = heads[band][bucket];
+			// the forgotten signature was the oldest, so nothing older is left after it
+			chains[band][slot] = head == slot ? -1 : head;
+			heads[band][bucket] = slot;
+		}
+		signatures[slot] = signature;
+		keys[slot] = key;
+		sequences[slot] = added++;
+	}
+
+	/**
+	 * gets the bucket of a signature in the table of a band.
+	 *
+	 * @param band the index of the band.
+	 * @param signature the signature.
+	 * @return the index of the bucket.
+	 */
+	private int bucketOf(int band, long signature) {
+		long value = signature >>> (band * bandWidth);
+		if (band < heads.length - 1) {
+			value &= (1L << bandWidth) - 1;
+		}
+		return (int) (mix(value) >>> (Long.SIZE - tableBits));
+	}
+
+	/**
+	 * the finalizer of the 64 bit murmur3 hash, to spread the bits of the band.
+	 *
+	 * @param key the key.
+	 * @return the mixed key.
+	 */
+	private static long mix(long key) {
+		key ^= key >>> 33;
+		key *= 0xff51afd7ed558ccdL;
+		key ^= key >>> 33;
+		key *= 0xc4ceb9fe1a85ec53L;
+		key ^= key >>> 33;
+		return key;
+	}
+}
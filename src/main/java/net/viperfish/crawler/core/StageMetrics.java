@@ -0,0 +1,114 @@
+package net.viperfish.crawler.core;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A snapshot of the metrics of a stage of a {@link StagedPipeline}. The utilization is the share
+ * of the time of the workers of the stage spent on items since the pipeline started, so a stage
+ * close to full utilization with a full queue is the bottleneck of the pipeline. The queue time is
+ * how long the items waited in the queue of the stage before a worker took them. This class is
+ * immutable.
+ */
+public final class StageMetrics {
+
+	private final String name;
+	private final int threads;
+	private final int queued;
+	private final int queueCapacity;
+	private final long processed;
+	private final double utilization;
+	private final long meanQueueNanos;
+
+	/**
+	 * creates a snapshot of the metrics of a stage.
+	 *
+	 * @param name the name of the stage.
+	 * @param threads the amount of workers of the stage.
+	 * @param queued the amount of items in the queue of the stage.
+	 * @param queueCapacity the maximum amount of items in the queue of the stage.
+	 * @param processed the amount of items processed by the stage.
+	 * @param utilization the share of the time of the workers spent on items.
+	 * @param meanQueueNanos the mean time the items waited in the queue, in nanoseconds.
+	 */
+	public StageMetrics(String name, int threads, int queued, int queueCapacity, long processed,
+		double utilization, long meanQueueNanos) {
+		this.name = name;
+		this.threads = threads;
+		this.queued = queued;
+		this.queueCapacity = queueCapacity;
+		this.processed = processed;
+		this.utilization = utilization;
+		this.meanQueueNanos = meanQueueNanos;
+	}
+
+	/**
+	 * gets the name of the stage.
+	 *
+	 * @return the name.
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * gets the amount of workers of the stage.
+	 *
+	 * @return the amount of workers.
+	 */
+	public int getThreads() {
+		return threads;
+	}
+
+	/**
+	 * gets the amount of items waiting in the queue of the stage.
+	 *
+	 * @return the amount of items queued.
+	 */
+	public int getQueued() {
+		return queued;
+	}
+
+	/**
+	 * gets the maximum amount of items in the queue of the stage.
+	 *
+	 * @return the capacity of the queue.
+	 */
+	public int getQueueCapacity() {
+		return queueCapacity;
+	}
+
+	/**
+	 * gets the amount of items processed by the stage, including the failed ones.
+	 *
+	 * @return the amount of items processed.
+	 */
+	public long getProcessed() {
+		return processed;
+	}
+
+	/**
+	 * gets the share of the time of the workers of the stage spent on items.
+	 *
+	 * @return the utilization between 0 and 1.
+	 */
+	public double getUtilization() {
+		return utilization;
+	}
+
+	/**
+	 * gets the mean time the items waited in the queue of the stage.
+	 *
+	 * @param unit the unit of the result.
+	 * @return the mean queue time.
+	 */
+	public long getMeanQueueTime(TimeUnit unit) {
+		return unit.convert(meanQueueNanos, TimeUnit.NANOSECONDS);
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s: %d threads, %.0f%% busy, %d/%d queued, %d processed, "
+				+ "%.3f ms mean queue time", name, threads, utilization * 100, queued,
+			queueCapacity, processed, meanQueueNanos / 1e6);
+	}
+}
@@ -0,0 +1,288 @@
+package net.viperfish.crawler.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * A pipeline that processes items through a sequence of stages, each with its own pool of workers
+ * and its own bounded queue in front of it. A worker takes an item from the queue of its stage,
+ * applies the stage, and puts the result in the queue of the next stage, blocking while that queue
+ * is full, so a slow stage holds back the stages before it instead of letting items pile up in
+ * memory. An item leaves the pipeline once the last stage is done with it, or earlier if a stage
+ * returns null for it or fails on it. Each stage keeps the {@link StageMetrics} that show where the
+ * bottleneck is. This class is thread safe.
+ *
+ * @param <I> the type of the items submitted to the pipeline.
+ */
+public final class StagedPipeline<I> {
+
+	private final List<StageWorkers> stages;
+	private long startNanos;
+	private boolean started;
+
+	private StagedPipeline(List<StageWorkers> stages) {
+		this.stages = stages;
+		this.started = false;
+	}
+
+	/**
+	 * creates a builder for a pipeline with no stage.
+	 *
+	 * @param <I> the type of the items submitted to the pipeline.
+	 * @return the builder.
+	 */
+	public static <I> Builder<I, I> builder() {
+		return new Builder<>(Collections.emptyList());
+	}
+
+	/**
+	 * starts the workers of all the stages. A pipeline can only be started once.
+	 *
+	 * @param errorHandler called with the error of a stage that failed on an item.
+	 * @param onDone called once for each item that left the pipeline, whether processed, dropped or
+	 * failed.
+	 */
+	public synchronized void start(Consumer<Throwable> errorHandler, Runnable onDone) {
+		if (started) {
+			throw new IllegalStateException("The pipeline is already started");
+		}
+		started = true;
+		startNanos = System.nanoTime();
+		for (StageWorkers stage : stages) {
+			stage.start(errorHandler, onDone);
+		}
+	}
+
+	/**
+	 * submits an item to the first stage, blocking while its queue is full.
+	 *
+	 * @param item the item.
+	 * @throws InterruptedException if interrupted while waiting for room in the queue.
+	 */
+	public void submit(I item) throws InterruptedException {
+		stages.get(0).put(item);
+	}
+
+	/**
+	 * gets a snapshot of the metrics of each stage, in the order of the stages.
+	 *
+	 * @return the metrics of the stages.
+	 */
+	public List<StageMetrics> getMetrics() {
+		long elapsed;
+		synchronized (this) {
+			elapsed = started ? System.nanoTime() - startNanos : 0;
+		}
+		List<StageMetrics> result = new ArrayList<>(stages.size());
+		for (StageWorkers stage : stages) {
+			result.add(stage.metrics(elapsed));
+		}
+		return result;
+	}
+
+	/**
+	 * stops the workers of all the stages. The items still in the pipeline are dropped without
+	 * being reported as done.
+	 */
+	public void shutdown() {
+		for (StageWorkers stage : stages) {
+			stage.shutdown();
+		}
+	}
+
+	/**
+	 * A step of the processing of an item.
+	 *
+	 * @param <A> the type of the input.
+	 * @param <B> the type of the output.
+	 */
+	@FunctionalInterface
+	public interface Stage<A, B> {
+
+		/**
+		 * processes an item. The calls to this method will be concurrent.
+		 *
+		 * @param input the item.
+		 * @return the item for the next stage, or null if the item is done with.
+		 * @throws Exception if any error occurred during the processing.
+		 */
+		B apply(A input) throws Exception;
+	}
+
+	/**
+	 * A builder that adds the stages of a pipeline one after the other. Each call returns a new
+	 * builder, which leaves the builder it was called on unchanged.
+	 *
+	 * @param <I> the type of the items submitted to the pipeline.
+	 * @param <T> the type of the output of the last stage added.
+	 */
+	public static final class Builder<I, T> {
+
+		private final List<StageWorkers> stages;
+
+		private Builder(List<StageWorkers> stages) {
+			this.stages = stages;
+		}
+
+		/**
+		 * adds a stage after the last one.
+		 *
+		 * @param name the name of the stage, for the metrics.
+		 * @param threads the amount of workers of the stage.
+		 * @param queueCapacity the maximum amount of items waiting for the stage.
+		 * @param stage the processing of the stage.
+		 * @param <R> the type of the output of the stage.
+		 * @return a builder with the stage added.
+		 */
+		@SuppressWarnings("unchecked")
+		public <R> Builder<I, R> then(String name, int threads, int queueCapacity,
+			Stage<? super T, ? extends R> stage) {
+			if (threads < 1 || queueCapacity < 1) {
+				throw new IllegalArgumentException(
+					"A stage needs at least one thread and room for one item");
+			}
+			List<StageWorkers> result = new ArrayList<>(stages);
+			result.add(
+				new StageWorkers(name, threads, queueCapacity, (Stage<Object, Object>) stage));
+			return new Builder<>(result);
+		}
+
+		/**
+		 * builds the pipeline. The output of the last stage is discarded.
+		 *
+		 * @return the pipeline, not started.
+		 */
+		public StagedPipeline<I> build() {
+			if (stages.isEmpty()) {
+				throw new IllegalStateException("A pipeline needs at least one stage");
+			}
+			// the stages of the builder are only templates, so that each pipeline has its own
+			List<StageWorkers> copies = new ArrayList<>(stages.size());
+			for (StageWorkers stage : stages) {
+				StageWorkers copy = stage.copy();
+				if (!copies.isEmpty()) {
+					copies.get(copies.size() - 1).next = copy;
+				}
+				copies.add(copy);
+			}
+			return new StagedPipeline<>(copies);
+		}
+	}
+
+	/**
+	 * An item waiting in the queue of a stage, with the time it was queued.
+	 */
+	private static final class Queued {
+
+		private final Object item;
+		private final long queuedNanos;
+
+		private Queued(Object item) {
+			this.item = item;
+			this.queuedNanos = System.nanoTime();
+		}
+	}
+
+	/**
+	 * The queue and the workers of a stage.
+	 */
+	private static final class StageWorkers {
+
+		private final String name;
+		private final int threads;
+		private final int queueCapacity;
+		private final Stage<Object, Object> stage;
+		private final BlockingQueue<Queued> queue;
+		private final LongAdder processed;
+		private final LongAdder busyNanos;
+		private final LongAdder queueNanos;
+		private StageWorkers next;
+		private ExecutorService workers;
+
+		private StageWorkers(String name, int threads, int queueCapacity,
+			Stage<Object, Object> stage) {
+			this.name = name;
+			this.threads = threads;
+			this.queueCapacity = queueCapacity;
+			this.stage = stage;
+			this.queue = new ArrayBlockingQueue<>(queueCapacity);
+			this.processed = new LongAdder();
+			this.busyNanos = new LongAdder();
+			this.queueNanos = new LongAdder();
+		}
+
+		private StageWorkers copy() {
+			return new StageWorkers(name, threads, queueCapacity, stage);
+		}
+
+		private void put(Object item) throws InterruptedException {
+			queue.put(new Queued(item));
+		}
+
+		private void start(Consumer<Throwable> errorHandler, Runnable onDone) {
+			workers = Executors.newFixedThreadPool(threads);
+			for (int i = 0; i < threads; ++i) {
+				workers.submit(() -> work(errorHandler, onDone));
+			}
+		}
+
+		/**
+		 * processes the items of the queue until interrupted.
+		 *
+		 * @param errorHandler called with the error of a failed item.
+		 * @param onDone called for each item that leaves the pipeline.
+		 */
+		private void work(Consumer<Throwable> errorHandler, Runnable onDone) {
+			while (!Thread.currentThread().isInterrupted()) {
+				Queued queued;
+				try {
+					queued = queue.take();
+				} catch (InterruptedException e) {
+					return;
+				}
+				long start = System.nanoTime();
+				queueNanos.add(start - queued.queuedNanos);
+				Object result = null;
+				try {
+					result = stage.apply(queued.item);
+				} catch (Throwable e) {
+					errorHandler.accept(e);
+				}
+				busyNanos.add(System.nanoTime() - start);
+				processed.increment();
+				if (result == null || next == null) {
+					onDone.run();
+					continue;
+				}
+				try {
+					next.put(result);
+				} catch (InterruptedException e) {
+					onDone.run();
+					return;
+				}
+			}
+		}
+
+		private StageMetrics metrics(long elapsedNanos) {
+			long count = processed.sum();
+			double utilization = elapsedNanos == 0 ? 0
+				: Math.min(1, (double) busyNanos.sum() / ((double) elapsedNanos * threads));
+			long meanQueueNanos = count == 0 ? 0 : queueNanos.sum() / count;
+			return new StageMetrics(name, threads, queue.size(), queueCapacity, count, utilization,
+				meanQueueNanos);
+		}
+
+		private void shutdown() {
+			if (workers != null) {
+				workers.shutdownNow();
+			}
+		}
+	}
+}
@@ -0,0 +1,146 @@
+package net.viperfish.crawler.html;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import net.viperfish.crawler.core.Checkpointable;
+
+/**
+ * Holds back the checkpoints of the {@link HttpCrawlerHandler}s while a page is between the
+ * moment its url is marked as crawled and the moment its links are submitted. A checkpoint of a
+ * crawl checker taken in between would hold a page marked as crawled whose links are in no
+ * checkpoint of the frontier, so a restart would skip the page and lose the pages reachable only
+ * through it. While a checkpoint waits, no page enters, and the pages already in are waited for up
+ * to 30 seconds before the checkpoint fails. This class is thread safe.
+ */
+final class CheckpointGate {
+
+	private static final long MAX_WAIT_SECONDS = 30;
+
+	private final Map<Checkpointable, Checkpointable> gated;
+	private int inside;
+	private int waiting;
+
+	/**
+	 * creates an open gate with no page in.
+	 */
+	CheckpointGate() {
+		this.gated = new IdentityHashMap<>();
+		this.inside = 0;
+		this.waiting = 0;
+	}
+
+	/**
+	 * gets a component that takes the checkpoints of another one only while no page is in. The
+	 * same component is returned for the same state, so that it can be registered again.
+	 *
+	 * @param state the component to checkpoint.
+	 * @return the gated component.
+	 */
+	synchronized Checkpointable gate(Checkpointable state) {
+		return gated.computeIfAbsent(state, Gated::new);
+	}
+
+	/**
+	 * lets a page in, waiting while a checkpoint is taken. If interrupted, the page is let in at
+	 * once and the interrupt flag is set again.
+	 */
+	synchronized void enter() {
+		try {
+			while (waiting > 0) {
+				wait();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		inside++;
+	}
+
+	/**
+	 * lets a page out.
+	 */
+	synchronized void exit() {
+		if (inside > 0) {
+			inside--;
+		}
+		notifyAll();
+	}
+
+	/**
+	 * forgets the pages in, for the pages dropped when the processing is stopped.
+	 */
+	synchronized void clear() {
+		inside = 0;
+		notifyAll();
+	}
+
+	/**
+	 * stops letting pages in and waits until the pages in are out.
+	 *
+	 * @throws IOException if the pages are not out in time, or if interrupted.
+	 */
+	private synchronized void close() throws IOException {
+		waiting++;
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(MAX_WAIT_SECONDS);
+		try {
+			while (inside > 0) {
+				long remaining = deadline - System.nanoTime();
+				if (remaining <= 0) {
+					throw new IOException("Pages are still being processed");
+				}
+				TimeUnit.NANOSECONDS.timedWait(this, remaining);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			open();
+			throw new InterruptedIOException("Interrupted while waiting for the pages");
+		} catch (IOException e) {
+			open();
+			throw e;
+		}
+	}
+
+	/**
+	 * lets the pages in again.
+	 */
+	private synchronized void open() {
+		waiting--;
+		notifyAll();
+	}
+
+	/**
+	 * A component whose checkpoints are taken while the gate is closed.
+	 */
+	private final class Gated implements Checkpointable {
+
+		private final Checkpointable state;
+
+		private Gated(Checkpointable state) {
+			this.state = state;
+		}
+
+		@Override
+		public long getVersion() {
+			return state.getVersion();
+		}
+
+		@Override
+		public void checkpoint(DataOutputStream out) throws IOException {
+			close();
+			try {
+				state.checkpoint(out);
+			} finally {
+				open();
+			}
+		}
+
+		@Override
+		public void restore(DataInputStream in) throws IOException {
+			state.restore(in);
+		}
+	}
+}
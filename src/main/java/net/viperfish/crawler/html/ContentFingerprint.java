@@ -0,0 +1,134 @@
+package net.viperfish.crawler.html;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * The 128 bit fingerprint of the content of a page, used to find the pages with the same content.
+ * It is computed from the raw bytes of the body by a {@link HashFunction} of at least 128 bits,
+ * which is the non-cryptographic Murmur3 by default, and is kept as two longs rather than as an
+ * encoded string. Only the fingerprints computed by the same function can be compared. This class
+ * is immutable.
+ */
+public final class ContentFingerprint implements Serializable {
+
+	/**
+	 * the function used unless another one is set on the fetcher and the crawler.
+	 */
+	public static final HashFunction DEFAULT_FUNCTION = Hashing.murmur3_128();
+
+	private static final long serialVersionUID = 1;
+	private static final int BITS = 128;
+
+	private final long high;
+	private final long low;
+
+	/**
+	 * creates a fingerprint from its bits.
+	 *
+	 * @param high the upper 64 bits.
+	 * @param low the lower 64 bits.
+	 */
+	public ContentFingerprint(long high, long low) {
+		this.high = high;
+		this.low = low;
+	}
+
+	/**
+	 * creates a fingerprint from the first 128 bits of a hash.
+	 *
+	 * @param hash the hash of the content.
+	 * @return the fingerprint.
+	 */
+	public static ContentFingerprint of(HashCode hash) {
+		if (hash.bits() < BITS) {
+			throw new IllegalArgumentException("A fingerprint needs a hash of 128 bits or more");
+		}
+		ByteBuffer bytes = ByteBuffer.wrap(hash.asBytes()).order(ByteOrder.LITTLE_ENDIAN);
+		long low = bytes.getLong();
+		return new ContentFingerprint(bytes.getLong(), low);
+	}
+
+	/**
+	 * checks that a function produces hashes long enough for a fingerprint.
+	 *
+	 * @param function the function.
+	 * @return the function.
+	 */
+	public static HashFunction checkFunction(HashFunction function) {
+		if (function.bits() < BITS) {
+			throw new IllegalArgumentException("A fingerprint needs a hash of 128 bits or more");
+		}
+		return function;
+	}
+
+	/**
+	 * reads a fingerprint written by {@link #writeTo(DataOutput)}.
+	 *
+	 * @param in the input to read from.
+	 * @return the fingerprint.
+	 * @throws IOException if failed to read.
+	 */
+	public static ContentFingerprint readFrom(DataInput in) throws IOException {
+		long high = in.readLong();
+		return new ContentFingerprint(high, in.readLong());
+	}
+
+	/**
+	 * writes the 16 bytes of this fingerprint.
+	 *
+	 * @param out the output to write to.
+	 * @throws IOException if failed to write.
+	 */
+	public void writeTo(DataOutput out) throws IOException {
+		out.writeLong(high);
+		out.writeLong(low);
+	}
+
+	/**
+	 * gets the upper 64 bits.
+	 *
+	 * @return the upper bits.
+	 */
+	public long getHigh() {
+		return high;
+	}
+
+	/**
+	 * gets the lower 64 bits, which are enough as a key for most uses.
+	 *
+	 * @return the lower bits.
+	 */
+	public long getLow() {
+		return low;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) {
+			return true;
+		}
+		if (o == null || getClass() != o.getClass()) {
+			return false;
+		}
+		ContentFingerprint that = (ContentFingerprint) o;
+		return high == that.high && low == that.low;
+	}
+
+	@Override
+	public int hashCode() {
+		return Long.hashCode(low);
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%016x%016x", high, low);
+	}
+}
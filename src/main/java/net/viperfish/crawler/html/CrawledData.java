@@ -20,7 +20,7 @@ public class CrawledData implements Serializable {
 
 	private String title;
 	private URL url;
-	private String checksum;
+	private ContentFingerprint checksum;
 	private String content;
 	private List<Anchor> anchors;
 	private ConcurrentMap<String, Object> properties;
@@ -100,18 +100,18 @@ public class CrawledData implements Serializable {
 	/**
 	 * gets the checksum of the site.
 	 *
-	 * @return the checksum of the site.
+	 * @return the fingerprint of the content of the site.
 	 */
-	public String getChecksum() {
+	public ContentFingerprint getChecksum() {
 		return checksum;
 	}
 
 	/**
 	 * sets the checksum of the site.
 	 *
-	 * @param checksum the checksum of the site.
+	 * @param checksum the fingerprint of the content of the site.
 	 */
-	public void setChecksum(String checksum) {
+	public void setChecksum(ContentFingerprint checksum) {
 		if (checksum == null) {
 			throw new NullPointerException("Checksum cannot be null");
 		}
@@ -0,0 +1,16 @@
+package net.viperfish.crawler.html;
+
+/**
+ * A {@link HttpCrawlerHandler} that reads the parsed document of a page. The {@link HttpWebCrawler}
+ * only builds the document when a {@link TagProcessor} or a handler implementing this interface is
+ * registered, and extracts the title and the anchors straight from the html otherwise. While
+ * {@link #handlePostParse(CrawledData)} and {@link #handlePostProcess(CrawledData)} run, the
+ * document is available as the {@link #DOCUMENT_PROPERTY} property of the {@link CrawledData}.
+ */
+public interface DocumentHandler extends HttpCrawlerHandler {
+
+	/**
+	 * the name of the property holding the parsed {@link org.jsoup.nodes.Document}.
+	 */
+	String DOCUMENT_PROPERTY = "_doc";
+}
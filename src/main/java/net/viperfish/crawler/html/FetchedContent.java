@@ -1,17 +1,24 @@
 package net.viperfish.crawler.html;
 
+import java.io.UnsupportedEncodingException;
+import java.nio.charset.StandardCharsets;
 import java.util.Objects;
 import net.viperfish.crawler.html.engine.PrioritizedURL;
 
 /**
  * A class containing downloaded contents by the {@link HttpFetcher}. It is a simple POJO class
- * designed to just hold data.
+ * designed to just hold data. The fetchers keep the raw bytes of the body as they were downloaded,
+ * along with the checksum computed while downloading, and the html is only decoded from the bytes
+ * when it is first requested.
  */
 public class FetchedContent {
 
 	private PrioritizedURL url;
 	private int status;
 	private String html;
+	private byte[] body;
+	private String charset;
+	private ContentFingerprint checksum;
 
 	/**
 	 * creates a new FetchedContent with specified data
@@ -26,6 +33,24 @@ public class FetchedContent {
 		this.html = html;
 	}
 
+	/**
+	 * creates a new FetchedContent with the raw body of the response.
+	 *
+	 * @param url the URL of the site.
+	 * @param status the HTTP return status.
+	 * @param body the downloaded bytes.
+	 * @param charset the charset to decode the bytes with.
+	 * @param checksum the fingerprint of the bytes, or null if not computed.
+	 */
+	public FetchedContent(PrioritizedURL url, int status, byte[] body, String charset,
+		ContentFingerprint checksum) {
+		this.url = url;
+		this.status = status;
+		this.body = body;
+		this.charset = charset;
+		this.checksum = checksum;
+	}
+
 	/**
 	 * gets the URL of the site.
 	 *
@@ -54,21 +79,93 @@ public class FetchedContent {
 	}
 
 	/**
-	 * gets the result HTML from the fetch.
+	 * checks if the server confirmed that the page did not change since it was last fetched. Such
+	 * a result has an empty body, and its checksum is the one of the last download.
+	 *
+	 * @return true if the status is 304 Not Modified.
+	 */
+	public boolean isNotModified() {
+		return status == 304;
+	}
+
+	/**
+	 * gets the result HTML from the fetch, decoding the raw bytes on the first call. If the charset
+	 * is not supported, the bytes are decoded as UTF-8.
 	 *
 	 * @return the result HTML
 	 */
 	public String getHtml() {
+		decode();
 		return html;
 	}
 
 	/**
-	 * sets the HTML.
+	 * decodes the raw bytes into the HTML now rather than on the first call to {@link #getHtml()}.
+	 * If the charset is not supported, the bytes are decoded as UTF-8. Nothing is done if the HTML
+	 * is already decoded.
+	 */
+	public void decode() {
+		if (html == null && body != null) {
+			try {
+				html = new String(body, charset == null ? "UTF-8" : charset);
+			} catch (UnsupportedEncodingException e) {
+				html = new String(body, StandardCharsets.UTF_8);
+			}
+		}
+	}
+
+	/**
+	 * sets the HTML. This replaces the raw bytes with the UTF-8 encoding of the HTML, and clears
+	 * the checksum.
 	 *
 	 * @param html the HTML
 	 */
 	public void setHtml(String html) {
 		this.html = html;
+		this.body = null;
+		this.charset = null;
+		this.checksum = null;
+	}
+
+	/**
+	 * gets the raw bytes of the body. If the content was created from a string, this is the UTF-8
+	 * encoding of the HTML.
+	 *
+	 * @return the bytes of the body or null if there is no body.
+	 */
+	public byte[] getBody() {
+		if (body == null && html != null) {
+			body = html.getBytes(StandardCharsets.UTF_8);
+			charset = "UTF-8";
+		}
+		return body;
+	}
+
+	/**
+	 * gets the charset the body is decoded with.
+	 *
+	 * @return the name of the charset or null if unknown.
+	 */
+	public String getCharset() {
+		return charset;
+	}
+
+	/**
+	 * gets the checksum of the body computed while it was downloaded.
+	 *
+	 * @return the fingerprint of the body or null if not computed.
+	 */
+	public ContentFingerprint getChecksum() {
+		return checksum;
+	}
+
+	/**
+	 * sets the checksum of the body, for the contents whose fetcher did not compute it.
+	 *
+	 * @param checksum the fingerprint of the body.
+	 */
+	public void setChecksum(ContentFingerprint checksum) {
+		this.checksum = checksum;
 	}
 
 	@Override
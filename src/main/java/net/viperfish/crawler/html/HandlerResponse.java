@@ -21,7 +21,11 @@ public enum HandlerResponse {
 	/**
 	 * Stop immediately and postpone the processing of this site until later.
 	 */
-	DEFERRED(2);
+	DEFERRED(2),
+	/**
+	 * Stop immediately, the content of this site was already crawled under another URL.
+	 */
+	DUPLICATE(4);
 
 	private int weight;
 
@@ -1,5 +1,6 @@
 package net.viperfish.crawler.html;
 
+import java.util.List;
 import net.viperfish.crawler.html.engine.PrioritizedURL;
 
 /**
@@ -36,6 +37,24 @@ public interface HttpCrawlerHandler {
 	 */
 	HandlerResponse handlePreFetch(PrioritizedURL url);
 
+	/**
+	 * performs operation or control flow before a batch of sites is fetched, such as all the
+	 * distinct links of a page. The crawler only passes the URLs that no previous handler halted.
+	 * By default, each URL is handled by {@link #handlePreFetch(PrioritizedURL)}, which the
+	 * handlers that can check many URLs at once more cheaply may override.
+	 *
+	 * @param urls the URLs about to be fetched.
+	 * @return the control signal for each URL, in the same order as the URLs.
+	 */
+	default HandlerResponse[] handlePreFetch(List<PrioritizedURL> urls) {
+		HandlerResponse[] responses = new HandlerResponse[urls.size()];
+		int i = 0;
+		for (PrioritizedURL url : urls) {
+			responses[i++] = handlePreFetch(url);
+		}
+		return responses;
+	}
+
 	/**
 	 * performs operation or control flow after all the {@link TagProcessor}s are ran. This is ran
 	 * after the handlePostParse method.
@@ -44,4 +63,15 @@ public interface HttpCrawlerHandler {
 	 * @return the control signal.
 	 */
 	HandlerResponse handlePostProcess(CrawledData site);
+
+	/**
+	 * performs an operation when the server confirmed that a page did not change since it was last
+	 * fetched. Such a page is neither parsed nor written to the {@link
+	 * net.viperfish.crawler.core.Datasink}, so this is the only stage called for it. By default,
+	 * nothing is done.
+	 *
+	 * @param content the unchanged content, with no body and the checksum of the last download.
+	 */
+	default void handleUnchanged(FetchedContent content) {
+	}
 }
@@ -1,6 +1,7 @@
 package net.viperfish.crawler.html;
 
 import java.net.URL;
+import java.util.Collection;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
 import net.viperfish.crawler.core.ResourcesStream;
@@ -34,6 +35,29 @@ public interface HttpFetcher extends ResourcesStream<FetchedContent> {
 	 */
 	void submit(PrioritizedURL prioritizedURL);
 
+	/**
+	 * submits a batch of URLs to be fetched, such as all the links of a page. Each URL is submitted
+	 * as if by {@link #submit(PrioritizedURL)}. By default, the URLs are submitted one at a time.
+	 *
+	 * @param prioritizedURLs the urls with priority.
+	 */
+	default void submit(Collection<PrioritizedURL> prioritizedURLs) {
+		for (PrioritizedURL prioritizedURL : prioritizedURLs) {
+			submit(prioritizedURL);
+		}
+	}
+
+	/**
+	 * signals that a page returned by {@link #next()} was processed, and that the links found on it
+	 * were submitted. A fetcher that saves its urls to checkpoints keeps the url of a page in them
+	 * until then, so that a restart fetches the page again instead of losing its links. By
+	 * default, this does nothing.
+	 *
+	 * @param content the page processed.
+	 */
+	default void done(FetchedContent content) {
+	}
+
 	/**
 	 * sets the {@link RestrictionManager} that dictates whether the fetcher should fetch from a
 	 * URL.
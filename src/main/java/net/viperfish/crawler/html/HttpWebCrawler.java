@@ -1,27 +1,33 @@
 package net.viperfish.crawler.html;
 
+import com.google.common.hash.HashFunction;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.nio.charset.StandardCharsets;
-import java.util.Base64;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+import net.viperfish.crawler.core.Checkpointable;
+import net.viperfish.crawler.core.Checkpointer;
 import net.viperfish.crawler.core.ConcurrentDataProcessor;
 import net.viperfish.crawler.core.Datasink;
+import net.viperfish.crawler.core.Pair;
 import net.viperfish.crawler.core.ProcessedResult;
+import net.viperfish.crawler.core.StagedPipeline;
+import net.viperfish.crawler.html.engine.CanonicalURL;
 import net.viperfish.crawler.html.engine.PrioritizedURL;
 import net.viperfish.crawler.html.exception.ParsingException;
-import org.bouncycastle.crypto.Digest;
-import org.bouncycastle.crypto.digests.MD5Digest;
 import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
 import org.jsoup.nodes.Element;
+import org.jsoup.safety.Cleaner;
 import org.jsoup.safety.Whitelist;
 import org.jsoup.select.Elements;
 import org.slf4j.Logger;
@@ -36,13 +42,23 @@ import org.slf4j.LoggerFactory;
  * contain all the successfully retrieved crawled sites. Pages with response code not included in
  * the 2xx codes are discarded. To control the flow of processing, or insert code during the
  * processing, implement and register a {@link HttpCrawlerHandler}. To customize/specialize the
- * output of this class, implement and register a {@link TagProcessor}.
+ * output of this class, implement and register a {@link TagProcessor}. The html is only parsed into
+ * a document when a {@link TagProcessor} or a {@link DocumentHandler} is registered. Otherwise, the
+ * title and the anchors are extracted in a single pass over the html. The pages that the server
+ * reports as not modified since the last crawl are only passed to {@link
+ * HttpCrawlerHandler#handleUnchanged(FetchedContent)}. The checksum of the raw bytes is known
+ * before the pre-parse handlers run, so that a handler can report a page whose content was already
+ * crawled as a {@link HandlerResponse#DUPLICATE} without paying for the parsing. The duplicates are
+ * counted. Each page is reported to {@link HttpFetcher#done(FetchedContent)} once its processing is
+ * over, after its links were submitted.
  */
 public abstract class HttpWebCrawler extends ConcurrentDataProcessor<FetchedContent, CrawledData> {
 
 	// the crawler will save codes contained in this set
 	private static final Set<Integer> ACCEPTED_STATUS_CODE;
 	private static final String DOC_ATTR;
+	// the whitelist is only read once built, so the cleaner can be shared by all the threads
+	private static final Cleaner CLEANER;
 
 
 	static {
@@ -53,13 +69,20 @@ public abstract class HttpWebCrawler extends ConcurrentDataProcessor<FetchedCont
 		buffer.add(203);
 		buffer.add(302);
 		ACCEPTED_STATUS_CODE = Collections.unmodifiableSet(buffer);
-		DOC_ATTR = "_doc";
+		DOC_ATTR = DocumentHandler.DOCUMENT_PROPERTY;
+		CLEANER = new Cleaner(Whitelist.relaxed().addTags("title").addTags("head"));
 	}
 
 	private Map<String, TagProcessor> processors;
-	private ThreadLocal<Digest> hasher;
+	private HashFunction fingerprints;
 	private List<HttpCrawlerHandler> httpCrawlerHandler;
 	private HttpFetcher fetcher;
+	private Checkpointer checkpointer;
+	private final CheckpointGate gate;
+	private LongAdder checkedPages;
+	private LongAdder duplicates;
+	private int[] stageThreads;
+	private int stageQueueCapacity;
 	private Logger logger;
 
 	/**
@@ -74,15 +97,11 @@ public abstract class HttpWebCrawler extends ConcurrentDataProcessor<FetchedCont
 		super(fetcher, db);
 		processors = new ConcurrentHashMap<>();
 		this.fetcher = fetcher;
-		hasher = new ThreadLocal<Digest>() {
-
-			@Override
-			protected Digest initialValue() {
-				return new MD5Digest();
-			}
-
-		};
+		fingerprints = ContentFingerprint.DEFAULT_FUNCTION;
 		httpCrawlerHandler = new CopyOnWriteArrayList<>();
+		checkedPages = new LongAdder();
+		duplicates = new LongAdder();
+		gate = new CheckpointGate();
 		this.logger = LoggerFactory.getLogger(this.getClass());
 	}
 
@@ -145,12 +164,179 @@ public abstract class HttpWebCrawler extends ConcurrentDataProcessor<FetchedCont
 		this.httpCrawlerHandler.add(checker);
 	}
 
+	/**
+	 * sets the function that fingerprints the pages whose fetcher did not. It must be the same as
+	 * the one of the fetcher, so that all the fingerprints can be compared. This must be called
+	 * before {@link #startProcessing()}.
+	 *
+	 * @param function a hash function of at least 128 bits.
+	 */
+	public void setFingerprintFunction(HashFunction function) {
+		this.fingerprints = ContentFingerprint.checkFunction(function);
+	}
+
+	/**
+	 * sets the {@link Checkpointer} that saves the state of the crawler. This must be called before
+	 * {@link #startProcessing()}, and the checkpointer is not closed by this crawler.
+	 *
+	 * @param checkpointer the checkpointer.
+	 */
+	public void setCheckpointer(Checkpointer checkpointer) {
+		this.checkpointer = checkpointer;
+	}
+
+	/**
+	 * sets the crawler to process the pages in a pipeline of stages, each with its own threads and
+	 * a bounded queue in front of it: decoding, which runs the pre-parse handlers, parsing, which
+	 * runs the post-parse handlers, processing, which runs the {@link TagProcessor}s and the
+	 * post-process handlers, and writing to the {@link Datasink}. A slow stage then holds back the
+	 * stages before it and eventually the pulling of the fetched pages, and {@link
+	 * #getStageMetrics()} shows which stage it is. This must be called before {@link
+	 * #startProcessing()}.
+	 *
+	 * @param decodeThreads the amount of threads decoding the pages.
+	 * @param parseThreads the amount of threads parsing the pages.
+	 * @param processThreads the amount of threads processing the pages.
+	 * @param sinkThreads the amount of threads writing to the {@link Datasink}.
+	 * @param queueCapacity the maximum amount of pages waiting for each stage.
+	 */
+	public void setStagedPipeline(int decodeThreads, int parseThreads, int processThreads,
+		int sinkThreads, int queueCapacity) {
+		if (decodeThreads < 1 || parseThreads < 1 || processThreads < 1 || sinkThreads < 1
+			|| queueCapacity < 1) {
+			throw new IllegalArgumentException(
+				"Each stage needs at least one thread and room for one page");
+		}
+		this.stageThreads = new int[]{decodeThreads, parseThreads, processThreads, sinkThreads};
+		this.stageQueueCapacity = queueCapacity;
+	}
+
+	/**
+	 * gets the amount of pages skipped because their content was already crawled.
+	 *
+	 * @return the amount of duplicates.
+	 */
+	public long getDuplicateCount() {
+		return duplicates.sum();
+	}
+
+	/**
+	 * gets the share of the pages passed to the handlers that were duplicates.
+	 *
+	 * @return the duplicate rate between 0 and 1.
+	 */
+	public double getDuplicateRate() {
+		long checked = checkedPages.sum();
+		return checked == 0 ? 0 : (double) duplicates.sum() / checked;
+	}
+
+	/**
+	 * starts crawling. If a {@link Checkpointer} is set, the registered {@link HttpCrawlerHandler}s
+	 * that support checkpoints are registered to it and restored from the last checkpoint first,
+	 * and the periodic checkpoints are started. The checkpoint of a handler is only taken while no
+	 * page is between its post-parse handlers and the submission of its links, so that a page
+	 * marked as crawled in a checkpoint always has its links in the checkpoint of the frontier
+	 * written after it.
+	 */
+	@Override
+	public void startProcessing() {
+		if (checkpointer != null) {
+			int index = 0;
+			for (HttpCrawlerHandler handler : httpCrawlerHandler) {
+				if (handler instanceof Checkpointable) {
+					checkpointer.register("handler-" + index, gate.gate((Checkpointable) handler));
+				}
+				index++;
+			}
+			checkpointer.restore();
+			checkpointer.start();
+		}
+		super.startProcessing();
+	}
+
+	@Override
+	public void reset() {
+		super.reset();
+		gate.clear();
+	}
+
+	@Override
+	public void shutdown() {
+		super.shutdown();
+		gate.clear();
+	}
+
 	@Override
 	protected ProcessedResult<CrawledData> process(FetchedContent content) throws ParsingException {
+		Page page = decode(content);
+		if (page != null) {
+			page = parse(page);
+		}
+		return page == null ? null : finish(page);
+	}
+
+	/**
+	 * splits the processing into a decoding, a parsing and a processing stage, followed by the
+	 * writing to the {@link Datasink}, if set by {@link #setStagedPipeline(int, int, int, int,
+	 * int)}.
+	 *
+	 * @return the pipeline, or null if the pages are processed as a whole.
+	 */
+	@Override
+	protected StagedPipeline<FetchedContent> createPipeline() {
+		if (stageThreads == null) {
+			return null;
+		}
+		return StagedPipeline.<FetchedContent>builder()
+			.then("decode", stageThreads[0], stageQueueCapacity, this::decode)
+			.then("parse", stageThreads[1], stageQueueCapacity, this::parse)
+			.then("process", stageThreads[2], stageQueueCapacity, this::finish)
+			.then("sink", stageThreads[3], stageQueueCapacity, sinkStage())
+			.build();
+	}
+
+	/**
+	 * decodes a fetched page, reporting it as done if it is skipped.
+	 *
+	 * @param content the content fetched.
+	 * @return the page to parse, or null if it is skipped.
+	 */
+	private Page decode(FetchedContent content) {
+		Page page = null;
+		try {
+			page = decodePage(content);
+			return page;
+		} finally {
+			if (page == null) {
+				fetcher.done(content);
+			}
+		}
+	}
+
+	/**
+	 * checks the status and the checksum of a fetched page, runs the pre-parse handlers and
+	 * decodes the body of the page.
+	 *
+	 * @param content the content fetched.
+	 * @return the page to parse, or null if it is skipped.
+	 */
+	private Page decodePage(FetchedContent content) {
+		if (content.isNotModified()) {
+			for (HttpCrawlerHandler handler : httpCrawlerHandler) {
+				handler.handleUnchanged(content);
+			}
+			logger.debug("{} is not modified, skipping", content.getUrl().getSource());
+			return null;
+		}
 		if (!ACCEPTED_STATUS_CODE.contains(content.getStatus())) {
 			return null;
 		}
-		boolean shouldIndex = true;
+		Page page = new Page(content);
+		// hashed from the raw bytes, so that the duplicates are known before any parsing
+		if (content.getChecksum() == null && content.getBody() != null) {
+			content.setChecksum(hashSite(content.getBody()));
+		}
+		checkedPages.increment();
 
 		HandlerResponse preParseResp = HandlerResponse.GO_AHEAD;
 		for (HttpCrawlerHandler handler : httpCrawlerHandler) {
@@ -159,6 +345,9 @@ public abstract class HttpWebCrawler extends ConcurrentDataProcessor<FetchedCont
 			if (resp.overrides(preParseResp)) {
 				preParseResp = resp;
 			}
+			if (preParseResp == HandlerResponse.DUPLICATE) {
+				return duplicate(content.getUrl().getSource());
+			}
 			if (preParseResp == HandlerResponse.DEFERRED) {
 				fetcher.submit(content.getUrl().getSource());
 				return null;
@@ -168,11 +357,42 @@ public abstract class HttpWebCrawler extends ConcurrentDataProcessor<FetchedCont
 			return null;
 		}
 		if (preParseResp == HandlerResponse.NO_INDEX) {
-			shouldIndex = false;
+			page.shouldIndex = false;
 		}
+		content.decode();
+		return page;
+	}
 
-		CrawledData site = parseFetchedContent(content);
-		Document doc = site.getProperty(DOC_ATTR, Document.class);
+	/**
+	 * parses a decoded page, reporting it as done if it is skipped.
+	 *
+	 * @param page the decoded page.
+	 * @return the page to process, or null if it is skipped.
+	 */
+	private Page parse(Page page) {
+		Page parsed = null;
+		try {
+			parsed = parsePage(page);
+			return parsed;
+		} finally {
+			if (parsed == null) {
+				done(page);
+			}
+		}
+	}
+
+	/**
+	 * parses a decoded page and runs the post-parse handlers.
+	 *
+	 * @param page the decoded page.
+	 * @return the page to process, or null if it is skipped.
+	 */
+	private Page parsePage(Page page) {
+		CrawledData site = parseFetchedContent(page.content);
+		page.site = site;
+		// the checkers may mark the page as crawled from here, and its links are not submitted yet
+		gate.enter();
+		page.entered = true;
 		// do post parse operations
 		HandlerResponse postParseResponse = HandlerResponse.GO_AHEAD;
 		for (HttpCrawlerHandler handler : httpCrawlerHandler) {
@@ -181,6 +401,9 @@ public abstract class HttpWebCrawler extends ConcurrentDataProcessor<FetchedCont
 			if (resp.overrides(postParseResponse)) {
 				postParseResponse = resp;
 			}
+			if (postParseResponse == HandlerResponse.DUPLICATE) {
+				return duplicate(site.getUrl());
+			}
 			if (postParseResponse == HandlerResponse.DEFERRED) {
 				fetcher.submit(site.getUrl());
 				return null;
@@ -190,9 +413,37 @@ public abstract class HttpWebCrawler extends ConcurrentDataProcessor<FetchedCont
 			return null;
 		}
 		if (postParseResponse == HandlerResponse.NO_INDEX) {
-			shouldIndex = false;
+			page.shouldIndex = false;
+		}
+		return page;
+	}
+
+	/**
+	 * processes a parsed page, and reports it as done.
+	 *
+	 * @param page the parsed page.
+	 * @return the result to write, or null if the page is skipped.
+	 * @throws ParsingException if failed to process the document.
+	 */
+	private ProcessedResult<CrawledData> finish(Page page) throws ParsingException {
+		try {
+			return finishPage(page);
+		} finally {
+			done(page);
 		}
+	}
 
+	/**
+	 * runs the {@link TagProcessor}s and the post-process handlers on a parsed page, and submits
+	 * its anchors.
+	 *
+	 * @param page the parsed page.
+	 * @return the result to write, or null if the page is skipped.
+	 * @throws ParsingException if failed to process the document.
+	 */
+	private ProcessedResult<CrawledData> finishPage(Page page) throws ParsingException {
+		CrawledData site = page.site;
+		Document doc = site.getProperty(DOC_ATTR, Document.class);
 		// process the document
 		processDocument(doc, site);
 		// do post process operations
@@ -203,6 +454,10 @@ public abstract class HttpWebCrawler extends ConcurrentDataProcessor<FetchedCont
 			if (resp.overrides(postProcessResponse)) {
 				postProcessResponse = resp;
 			}
+			if (postProcessResponse == HandlerResponse.DUPLICATE) {
+				duplicate(site.getUrl());
+				return null;
+			}
 			if (postProcessResponse == HandlerResponse.DEFERRED) {
 				fetcher.submit(site.getUrl());
 				return null;
@@ -212,65 +467,149 @@ public abstract class HttpWebCrawler extends ConcurrentDataProcessor<FetchedCont
 			return null;
 		}
 		if (postProcessResponse == HandlerResponse.NO_INDEX) {
-			shouldIndex = false;
+			page.shouldIndex = false;
 		}
 
 		submitAnchors(site);
 		site.getProperties().remove(DOC_ATTR);
-		return new ProcessedResult<>(site, shouldIndex);
+		return new ProcessedResult<>(site, page.shouldIndex);
+	}
+
+	/**
+	 * lets a page out of the gate if it is in, and reports it as done to the fetcher.
+	 *
+	 * @param page the page.
+	 */
+	private void done(Page page) {
+		if (page.entered) {
+			page.entered = false;
+			gate.exit();
+		}
+		fetcher.done(page.content);
 	}
 
 	/**
-	 * submits all the parsed anchors from a site to be crawled in future.
+	 * counts a page whose content was already crawled, and skips the rest of its processing.
+	 *
+	 * @param url the URL of the page.
+	 * @return null, as nothing is written for the page.
+	 */
+	private Page duplicate(URL url) {
+		duplicates.increment();
+		logger.debug("{} is a duplicate, skipping", url);
+		return null;
+	}
+
+	/**
+	 * submits all the parsed anchors from a site to be crawled in future. The anchors to the same
+	 * URL are submitted once, and the URLs are passed to the handlers and to the fetcher as a
+	 * batch. A URL halted by a handler is not passed to the handlers after it.
 	 *
 	 * @param site the root site.
 	 */
 	private void submitAnchors(CrawledData site) {
-		// add pages to crawl
+		Map<CanonicalURL, PrioritizedURL> distinct = new LinkedHashMap<>();
 		for (Anchor anchor : site.getAnchors()) {
-			HandlerResponse anchorResponse = HandlerResponse.GO_AHEAD;
 			PrioritizedURL prioritizedURL = new PrioritizedURL(anchor.getTargetURL(), 1);
-			for (HttpCrawlerHandler handler : httpCrawlerHandler) {
-				HandlerResponse resp = handler.handlePreFetch(prioritizedURL);
-				logger.debug("{} is handling pre-fetch operation, resulting in {}", handler, resp);
-				if (resp.overrides(anchorResponse)) {
-					anchorResponse = resp;
-				}
+			distinct.putIfAbsent(prioritizedURL.getKey(), prioritizedURL);
+		}
+		List<PrioritizedURL> urls = new ArrayList<>(distinct.values());
+		for (HttpCrawlerHandler handler : httpCrawlerHandler) {
+			if (urls.isEmpty()) {
+				return;
 			}
-			// make sure not repeating
-			if (anchorResponse != HandlerResponse.HALT) {
-				fetcher.submit(prioritizedURL);
+			HandlerResponse[] responses = handler.handlePreFetch(urls);
+			List<PrioritizedURL> passed = new ArrayList<>(urls.size());
+			for (int i = 0; i < responses.length; ++i) {
+				// make sure not repeating
+				if (responses[i] != HandlerResponse.HALT
+					&& responses[i] != HandlerResponse.DUPLICATE) {
+					passed.add(urls.get(i));
+				}
 			}
+			logger.debug("{} is handling pre-fetch operation, passing {} of {} urls", handler,
+				passed.size(), urls.size());
+			urls = passed;
+		}
+		if (!urls.isEmpty()) {
+			fetcher.submit(urls);
 		}
 	}
 
 	/**
-	 * parses and cleans the fetched site into a {@link CrawledData}.
+	 * parses the fetched site into a {@link CrawledData}. The sanitized document is only built when
+	 * a {@link TagProcessor} or a {@link DocumentHandler} needs it.
 	 *
 	 * @param content the content fetched.
 	 * @return the parsed {@link CrawledData}.
 	 */
 	private CrawledData parseFetchedContent(FetchedContent content) {
-		String cleanHTML = Jsoup
-			.clean(content.getHtml(), content.getUrl().getSource().toExternalForm(),
-				Whitelist.relaxed().addTags("title").addTags("head"));
 		CrawledData site = toSite(content);
-		// parse document
-		Document doc = Jsoup.parse(cleanHTML);
-		site.setAnchors(extractAnchors(doc, site.getUrl()));
-		site.setTitle(extractTitle(content.getUrl().getSource(), doc));
-		site.setProperty(DOC_ATTR, doc);
+		URL url = content.getUrl().getSource();
+		if (needsDocument()) {
+			Document doc = parseDocument(content.getHtml(), url.toExternalForm());
+			site.setAnchors(toAnchors(extractLinks(doc), url));
+			site.setTitle(extractTitle(url, doc));
+			site.setProperty(DOC_ATTR, doc);
+		} else {
+			StreamingLinkExtractor extractor = new StreamingLinkExtractor(content.getHtml(),
+				url.toExternalForm()).extract();
+			site.setAnchors(toAnchors(extractor.getLinks(), url));
+			site.setTitle(titleOrURL(extractor.getTitle(), url));
+		}
 		return site;
 	}
 
 	/**
-	 * converts the fetched content into a {@link CrawledData}.
+	 * checks if a registered {@link TagProcessor} or {@link HttpCrawlerHandler} needs the parsed
+	 * document.
+	 *
+	 * @return true if the document must be built.
+	 */
+	private boolean needsDocument() {
+		if (!processors.isEmpty()) {
+			return true;
+		}
+		for (HttpCrawlerHandler handler : httpCrawlerHandler) {
+			if (handler instanceof DocumentHandler) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * parses and sanitizes a html page. The page is parsed once, and the body of the parsed page is
+	 * copied into a clean document by the shared {@link Cleaner}, which drops the tags and
+	 * attributes outside of the relaxed whitelist and makes the links absolute. The cleaner does
+	 * not copy the head, so the title of the page is carried over separately.
+	 *
+	 * @param html the html of the page.
+	 * @param baseUri the URL of the page, to resolve relative links against.
+	 * @return the sanitized document.
+	 */
+	static Document parseDocument(String html, String baseUri) {
+		Document dirty = Jsoup.parse(html, baseUri);
+		Document clean = CLEANER.clean(dirty);
+		Element title = dirty.selectFirst("title");
+		if (title != null) {
+			clean.title(title.text());
+		}
+		return clean;
+	}
+
+	/**
+	 * converts the fetched content into a {@link CrawledData}. The checksum computed by the fetcher
+	 * is used if available, so the page is not encoded and hashed again.
 	 *
 	 * @param content the fetched content
 	 * @return a crawled data built from the fetched content.
 	 */
 	private CrawledData toSite(FetchedContent content) {
-		String checksum = hashSite(content.getHtml().getBytes(StandardCharsets.UTF_8));
+		ContentFingerprint checksum = content.getChecksum();
+		if (checksum == null) {
+			checksum = hashSite(content.getBody());
+		}
 		CrawledData result = new CrawledData();
 		result.setChecksum(checksum);
 		result.setContent(content.getHtml());
@@ -287,6 +626,9 @@ public abstract class HttpWebCrawler extends ConcurrentDataProcessor<FetchedCont
 	 */
 	private void processDocument(Document doc, CrawledData s)
 		throws ParsingException {
+		if (doc == null) {
+			return;
+		}
 		for (TagProcessor t : this.processors.values()) {
 			t.processTag(doc, s);
 		}
@@ -303,44 +645,65 @@ public abstract class HttpWebCrawler extends ConcurrentDataProcessor<FetchedCont
 	private String extractTitle(URL url, Document document) {
 		Elements elements = document.select("title");
 		if (!elements.isEmpty()) {
-			String title = elements.get(0).text().trim();
-			if (title.isEmpty()) {
-				return url.toString();
-			}
-			return title;
+			return titleOrURL(elements.get(0).text(), url);
 		}
 		return url.toString();
 	}
 
 	/**
-	 * generates the checksum of the site.
+	 * gets the title of a site, falling back to the string representation of the URL if the title
+	 * is missing or blank.
+	 *
+	 * @param title the extracted title or null.
+	 * @param url the URL of the site.
+	 * @return the title of the site.
+	 */
+	private String titleOrURL(String title, URL url) {
+		if (title == null || title.trim().isEmpty()) {
+			return url.toString();
+		}
+		return title.trim();
+	}
+
+	/**
+	 * generates the fingerprint of the site.
 	 *
-	 * @param html the html bytes.
-	 * @return a base64 encoded checksum.
+	 * @param html the raw bytes of the page.
+	 * @return the fingerprint of the bytes.
 	 */
-	private String hashSite(byte[] html) {
-		Digest dig = hasher.get();
-		dig.reset();
-		dig.update(html, 0, html.length);
-		byte[] out = new byte[16];
-		dig.doFinal(out, 0);
-		return Base64.getEncoder().encodeToString(out);
+	private ContentFingerprint hashSite(byte[] html) {
+		return ContentFingerprint.of(fingerprints.hashBytes(html));
 	}
 
 	// TODO: add support for size parsing for anchors.
 
 	/**
-	 * gets all the anchors on a html page. It converts all the relative URLs to absolute URLs.
+	 * gets the links of a parsed html page.
 	 *
 	 * @param document the html document.
+	 * @return the absolute URL and the text of the links.
+	 */
+	private List<Pair<String, String>> extractLinks(Document document) {
+		Elements elements = document.select("a");
+		List<Pair<String, String>> links = new ArrayList<>(elements.size());
+		for (Element e : elements) {
+			links.add(new Pair<>(e.attr("abs:href"), e.text()));
+		}
+		return links;
+	}
+
+	/**
+	 * converts the links of a html page into anchors. It converts all the relative URLs to absolute
+	 * URLs.
+	 *
+	 * @param links the URL and the text of the links.
 	 * @param siteURL the URL of the site.
 	 * @return a list of anchors on the page.
 	 */
-	private List<Anchor> extractAnchors(Document document, URL siteURL) {
+	private List<Anchor> toAnchors(List<Pair<String, String>> links, URL siteURL) {
 		List<Anchor> anchors = new LinkedList<>();
-		Elements links = document.select("a");
-		for (Element e : links) {
-			String href = e.attr("abs:href");
+		for (Pair<String, String> link : links) {
+			String href = link.getFirst();
 			if (href == null || href.trim().isEmpty()) {
 				continue;
 			}
@@ -358,7 +721,7 @@ public abstract class HttpWebCrawler extends ConcurrentDataProcessor<FetchedCont
 				}
 				Anchor anchor = new Anchor();
 				URL anchorURL = new URL(href);
-				anchor.setAnchorText(e.text());
+				anchor.setAnchorText(link.getSecond());
 				anchor.setTargetURL(anchorURL);
 				anchor.setSize(16);
 				anchors.add(anchor);
@@ -403,4 +766,20 @@ public abstract class HttpWebCrawler extends ConcurrentDataProcessor<FetchedCont
 			base.toExternalForm().substring(0, base.toExternalForm().lastIndexOf("/") + 1));
 	}
 
+	/**
+	 * A page passed between the stages of the processing.
+	 */
+	private static final class Page {
+
+		private final FetchedContent content;
+		private CrawledData site;
+		private boolean shouldIndex;
+		private boolean entered;
+
+		private Page(FetchedContent content) {
+			this.content = content;
+			this.shouldIndex = true;
+			this.entered = false;
+		}
+	}
 }
@@ -18,4 +18,14 @@ public interface Restriction {
 	 * @return true if the crawler can, false otherwise.
 	 */
 	boolean canFetch();
+
+	/**
+	 * gets the minimum delay between two requests to the host of the restricted url. By default,
+	 * there is no delay.
+	 *
+	 * @return the delay in seconds, or 0 if there is no delay.
+	 */
+	default int getCrawlDelay() {
+		return 0;
+	}
 }
@@ -1,6 +1,7 @@
 package net.viperfish.crawler.html;
 
 import java.net.URL;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * A manager of {@link Restriction}s.
@@ -15,4 +16,17 @@ public interface RestrictionManager {
 	 */
 	Restriction getRestriction(URL url);
 
+	/**
+	 * starts preparing the restrictions for the host of the specified URL in the background, so
+	 * that {@link #getRestriction(URL)} does not have to wait for them. The fetchers call this when
+	 * the first URL of a host is submitted, and keep the URLs of the host queued until the returned
+	 * future completes. By default, there is nothing to prepare.
+	 *
+	 * @param url the first URL of a host.
+	 * @return a future that completes once the restrictions for the host are ready.
+	 */
+	default CompletableFuture<?> prepare(URL url) {
+		return CompletableFuture.completedFuture(null);
+	}
+
 }
@@ -0,0 +1,305 @@
+package net.viperfish.crawler.html;
+
+import java.util.ArrayList;
+import java.util.List;
+import net.viperfish.crawler.core.Pair;
+import org.jsoup.helper.StringUtil;
+import org.jsoup.parser.Parser;
+
+/**
+ * Extracts the title and the links of a html page in a single forward pass over the raw html,
+ * without building a document. It looks at the &lt;a href&gt;, &lt;base href&gt; and &lt;title&gt;
+ * tags only, skips comments and the content of scripts and styles, and does not allocate anything
+ * for the rest of the page. The links are resolved and filtered the same way as in the document
+ * sanitized by {@link HttpWebCrawler}: against the first base of the page, and only the http,
+ * https, ftp and mailto links are kept. The anchor text has its whitespace normalized, but unlike a
+ * parsed document, no space is inserted between the text of nested elements other than the line
+ * breaks and the common block elements. An instance is used for one page and is not thread safe.
+ */
+final class StreamingLinkExtractor {
+
+	private static final String[] PROTOCOLS = {"http:", "https:", "ftp:", "mailto:"};
+	private static final String[] BLOCK_TAGS = {"br", "p", "div", "li", "td", "th", "tr", "h1",
+		"h2", "h3", "h4", "h5", "h6"};
+
+	private final String html;
+	private final String pageURL;
+	private final StringBuilder text;
+	private final List<String> hrefs;
+	private final List<String> texts;
+	private String base;
+	private String title;
+	private String attribute;
+	private String currentHref;
+	private boolean inAnchor;
+
+	/**
+	 * creates an extractor for a page.
+	 *
+	 * @param html the html of the page.
+	 * @param pageURL the URL of the page.
+	 */
+	StreamingLinkExtractor(String html, String pageURL) {
+		this.html = html;
+		this.pageURL = pageURL;
+		this.text = new StringBuilder();
+		this.hrefs = new ArrayList<>();
+		this.texts = new ArrayList<>();
+		this.inAnchor = false;
+	}
+
+	/**
+	 * scans the page.
+	 *
+	 * @return this extractor.
+	 */
+	StreamingLinkExtractor extract() {
+		int length = html.length();
+		int textStart = 0;
+		int i = html.indexOf('<');
+		while (i >= 0 && i + 1 < length) {
+			if (inAnchor) {
+				text.append(html, textStart, i);
+			}
+			char next = html.charAt(i + 1);
+			if (html.startsWith("<!--", i)) {
+				i = skipPast("-->", i + 4);
+			} else if (next == '!' || next == '?') {
+				i = skipPast(">", i + 2);
+			} else {
+				boolean closing = next == '/';
+				int nameStart = closing ? i + 2 : i + 1;
+				int nameEnd = nameStart;
+				while (nameEnd < length && Character.isLetterOrDigit(html.charAt(nameEnd))) {
+					nameEnd++;
+				}
+				if (nameEnd == nameStart || !Character.isLetter(html.charAt(nameStart))) {
+					// not a tag, so the bracket is text
+					textStart = i;
+					i = html.indexOf('<', i + 1);
+					continue;
+				}
+				i = handleTag(nameStart, nameEnd, closing);
+			}
+			textStart = i;
+			i = i < length ? html.indexOf('<', i) : -1;
+		}
+		if (inAnchor) {
+			text.append(html, Math.min(textStart, length), length);
+			endAnchor();
+		}
+		return this;
+	}
+
+	/**
+	 * gets the normalized text of the first title of the page.
+	 *
+	 * @return the title or null if the page has no title.
+	 */
+	String getTitle() {
+		return title;
+	}
+
+	/**
+	 * gets the links of the page.
+	 *
+	 * @return the absolute URL and the normalized text of the links, in the page order.
+	 */
+	List<Pair<String, String>> getLinks() {
+		String baseURL = base == null ? pageURL : StringUtil.resolve(pageURL, base);
+		if (baseURL.isEmpty()) {
+			baseURL = pageURL;
+		}
+		List<Pair<String, String>> links = new ArrayList<>(hrefs.size());
+		for (int i = 0; i < hrefs.size(); ++i) {
+			String href = StringUtil.resolve(baseURL, hrefs.get(i));
+			if (href.isEmpty()) {
+				href = hrefs.get(i);
+			}
+			if (!hasAllowedProtocol(href)) {
+				continue;
+			}
+			links.add(new Pair<>(StringUtil.resolve(baseURL, href), texts.get(i)));
+		}
+		return links;
+	}
+
+	/**
+	 * handles a start or end tag. The name is matched against the raw html, so that no string is
+	 * allocated for the tags of no interest.
+	 *
+	 * @param nameStart the start of the tag name.
+	 * @param nameEnd the end of the tag name.
+	 * @param closing whether it is an end tag.
+	 * @return the position after the tag, or after the raw text content of the tag.
+	 */
+	private int handleTag(int nameStart, int nameEnd, boolean closing) {
+		boolean anchor = isTag("a", nameStart, nameEnd);
+		if (closing) {
+			if (anchor && inAnchor) {
+				endAnchor();
+			} else if (inAnchor && isBlock(nameStart, nameEnd)) {
+				text.append(' ');
+			}
+			return skipPast(">", nameEnd);
+		}
+		boolean isBase = isTag("base", nameStart, nameEnd);
+		int end = parseAttributes(nameEnd, anchor || isBase && base == null ? "href" : null);
+		if (anchor) {
+			if (inAnchor) {
+				endAnchor();
+			}
+			inAnchor = true;
+			currentHref = attribute;
+			return end;
+		}
+		if (isBase) {
+			if (base == null && attribute != null) {
+				base = attribute;
+			}
+			return end;
+		}
+		if (isTag("title", nameStart, nameEnd)) {
+			int close = indexOfEndTag("title", end);
+			if (title == null) {
+				title = normalize(html.substring(end, close));
+			}
+			return skipPast(">", close);
+		}
+		if (isTag("script", nameStart, nameEnd)) {
+			return skipPast(">", indexOfEndTag("script", end));
+		}
+		if (isTag("style", nameStart, nameEnd)) {
+			return skipPast(">", indexOfEndTag("style", end));
+		}
+		if (inAnchor && isBlock(nameStart, nameEnd)) {
+			text.append(' ');
+		}
+		return end;
+	}
+
+	/**
+	 * reads the attributes of a start tag up to its closing bracket.
+	 *
+	 * @param from the position after the tag name.
+	 * @param wanted the name of the attribute to keep in {@link #attribute}, or null.
+	 * @return the position after the closing bracket.
+	 */
+	private int parseAttributes(int from, String wanted) {
+		attribute = null;
+		int length = html.length();
+		int i = from;
+		while (i < length) {
+			char c = html.charAt(i);
+			if (c == '>') {
+				return i + 1;
+			}
+			if (Character.isWhitespace(c) || c == '/') {
+				i++;
+				continue;
+			}
+			int nameStart = i;
+			while (i < length && "= \t\n\r\f/>".indexOf(html.charAt(i)) < 0) {
+				i++;
+			}
+			int nameEnd = i;
+			while (i < length && Character.isWhitespace(html.charAt(i))) {
+				i++;
+			}
+			if (i >= length || html.charAt(i) != '=') {
+				continue;
+			}
+			i++;
+			while (i < length && Character.isWhitespace(html.charAt(i))) {
+				i++;
+			}
+			int valueStart;
+			int valueEnd;
+			if (i < length && (html.charAt(i) == '"' || html.charAt(i) == '\'')) {
+				valueStart = i + 1;
+				valueEnd = html.indexOf(html.charAt(i), valueStart);
+				if (valueEnd < 0) {
+					valueEnd = length;
+				}
+				i = Math.min(length, valueEnd + 1);
+			} else {
+				valueStart = i;
+				while (i < length && !Character.isWhitespace(html.charAt(i))
+					&& html.charAt(i) != '>') {
+					i++;
+				}
+				valueEnd = i;
+			}
+			if (wanted != null && attribute == null && nameEnd - nameStart == wanted.length()
+				&& html.regionMatches(true, nameStart, wanted, 0, wanted.length())) {
+				attribute = unescape(html.substring(valueStart, valueEnd), true).trim();
+			}
+		}
+		return length;
+	}
+
+	private void endAnchor() {
+		if (currentHref != null) {
+			hrefs.add(currentHref);
+			texts.add(normalize(text.toString()));
+		}
+		text.setLength(0);
+		currentHref = null;
+		inAnchor = false;
+	}
+
+	/**
+	 * finds the end tag of an element with raw text content.
+	 *
+	 * @param name the name of the element.
+	 * @param from the position to search from.
+	 * @return the position of the end tag or the end of the page.
+	 */
+	private int indexOfEndTag(String name, int from) {
+		int length = html.length();
+		int i = html.indexOf("</", from);
+		while (i >= 0) {
+			if (html.regionMatches(true, i + 2, name, 0, name.length())) {
+				return i;
+			}
+			i = html.indexOf("</", i + 2);
+		}
+		return length;
+	}
+
+	private int skipPast(String token, int from) {
+		int found = html.indexOf(token, Math.min(from, html.length()));
+		return found < 0 ? html.length() : found + token.length();
+	}
+
+	private boolean isTag(String name, int nameStart, int nameEnd) {
+		return nameEnd - nameStart == name.length()
+			&& html.regionMatches(true, nameStart, name, 0, name.length());
+	}
+
+	private boolean isBlock(int nameStart, int nameEnd) {
+		for (String block : BLOCK_TAGS) {
+			if (isTag(block, nameStart, nameEnd)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean hasAllowedProtocol(String url) {
+		for (String protocol : PROTOCOLS) {
+			if (url.regionMatches(true, 0, protocol, 0, protocol.length())) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static String normalize(String raw) {
+		return StringUtil.normaliseWhitespace(unescape(raw, false)).trim();
+	}
+
+	private static String unescape(String raw, boolean inAttribute) {
+		return raw.indexOf('&') < 0 ? raw : Parser.unescapeEntities(raw, inAttribute);
+	}
+}
@@ -1,6 +1,8 @@
 package net.viperfish.crawler.html.crawlHandler;
 
 import java.net.URL;
+import java.util.List;
+import net.viperfish.crawler.html.ContentFingerprint;
 import net.viperfish.crawler.html.CrawledData;
 import net.viperfish.crawler.html.FetchedContent;
 import net.viperfish.crawler.html.HandlerResponse;
@@ -12,8 +14,11 @@ import org.slf4j.LoggerFactory;
 /**
  * The base implementation of a {@link HttpCrawlerHandler} that ensures all pages are only crawled
  * once. It can be seen as a locking mechanism that locks a page after it is crawled or while it is
- * being crawled. It is expected that this class would be called across multiple threads. So, all
- * implementations of this class must be thread safe.
+ * being crawled. Pages whose raw content was already crawled under another URL are reported as
+ * {@link HandlerResponse#DUPLICATE} before they are parsed, and their URL is locked so that they
+ * are not fetched again, if the implementation keeps the content it has seen. It is expected that
+ * this class would be called across multiple threads. So, all implementations of this class must
+ * be thread safe.
  */
 public abstract class BaseCrawlChecker implements HttpCrawlerHandler {
 
@@ -46,14 +51,48 @@ public abstract class BaseCrawlChecker implements HttpCrawlerHandler {
 	 */
 	protected abstract boolean isFetched(URL url);
 
+	/**
+	 * checks if a page with the same content has already been processed. By default, no content
+	 * is seen, so that the duplicates are only halted once parsed.
+	 *
+	 * @param checksum the fingerprint of the raw content.
+	 * @return true if the content has been seen.
+	 */
+	protected boolean isContentSeen(ContentFingerprint checksum) {
+		return false;
+	}
+
+	/**
+	 * locks a URL whose page is not processed, so that it is not fetched again. It is only called
+	 * for a page whose content is seen. By default, nothing is locked.
+	 *
+	 * @param url the url of the page.
+	 * @return true if successfully locked.
+	 */
+	protected boolean lock(URL url) {
+		return true;
+	}
+
 	@Override
 	public HandlerResponse handlePreParse(FetchedContent content) {
-		logger.debug("PreParse: Checking {} against fetched:",
-			content.getUrl().getSource().toExternalForm());
-		if (isFetched(content.getUrl().getSource())) {
-			logger.debug("PreParse: {} already fetched, halting.", content.getUrl().getSource());
+		URL source = content.getUrl().getSource();
+		logger.debug("PreParse: Checking {} against fetched:", content.getUrl().getKey());
+		if (isFetched(source)) {
+			logger.debug("PreParse: {} already fetched, halting.", content.getUrl().getKey());
 			return HandlerResponse.HALT;
 		}
+		// only checked here, the content is claimed once parsed so that a deferred page does not
+		// collide with itself
+		ContentFingerprint checksum = content.getChecksum();
+		if (checksum != null && isContentSeen(checksum)) {
+			logger.debug("PreParse: the content of {} was already crawled, skipping",
+				content.getUrl().getKey());
+			// the url is locked as well, or every link to a mirror would fetch it again
+			if (!lock(source)) {
+				return HandlerResponse.HALT;
+			}
+			return HandlerResponse.DUPLICATE;
+		}
 		return HandlerResponse.GO_AHEAD;
 	}
 
@@ -78,15 +117,40 @@ public abstract class BaseCrawlChecker implements HttpCrawlerHandler {
 
 	@Override
 	public HandlerResponse handlePreFetch(PrioritizedURL url) {
-		logger.debug("PreFetch: Checking if {} is fetched", url.getSource().toExternalForm());
+		logger.debug("PreFetch: Checking if {} is fetched", url.getKey());
 		boolean isFetched = isFetched(url.getSource());
 		if (isFetched) {
-			logger.debug("PreFetch: {} already fetched, halting", url.getSource().toExternalForm());
+			logger.debug("PreFetch: {} already fetched, halting", url.getKey());
 			return HandlerResponse.HALT;
 		}
 		return HandlerResponse.GO_AHEAD;
 	}
 
+	/**
+	 * checks a batch of URLs against the fetched ones, without building the log messages of each
+	 * URL.
+	 *
+	 * @param urls the URLs about to be fetched.
+	 * @return {@link HandlerResponse#HALT} for the URLs already fetched, or else {@link
+	 * HandlerResponse#GO_AHEAD}.
+	 */
+	@Override
+	public HandlerResponse[] handlePreFetch(List<PrioritizedURL> urls) {
+		HandlerResponse[] responses = new HandlerResponse[urls.size()];
+		int halted = 0;
+		int i = 0;
+		for (PrioritizedURL url : urls) {
+			if (isFetched(url.getSource())) {
+				responses[i++] = HandlerResponse.HALT;
+				halted++;
+			} else {
+				responses[i++] = HandlerResponse.GO_AHEAD;
+			}
+		}
+		logger.debug("PreFetch: {} of {} urls already fetched", halted, urls.size());
+		return responses;
+	}
+
 	@Override
 	public HandlerResponse handlePostProcess(CrawledData site) {
 		return HandlerResponse.GO_AHEAD;
@@ -1,17 +1,27 @@
 package net.viperfish.crawler.html.crawlHandler;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.net.URL;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import net.viperfish.crawler.core.Checkpointable;
+import net.viperfish.crawler.core.IOUtil;
+import net.viperfish.crawler.html.ContentFingerprint;
 import net.viperfish.crawler.html.CrawledData;
+import net.viperfish.crawler.html.engine.CanonicalURL;
 
 /**
- * A basic implementation of the {@link BaseCrawlChecker} that keeps all the data in memory.
+ * A basic implementation of the {@link BaseCrawlChecker} that keeps all the data in memory. A
+ * checkpoint of this checker is taken without blocking the other operations.
  */
-public class BaseInMemCrawlChecker extends BaseCrawlChecker {
+public class BaseInMemCrawlChecker extends BaseCrawlChecker implements Checkpointable {
 
-	private ConcurrentMap<URL, Boolean> tracker;
-	private ConcurrentMap<String, Boolean> hashTracker;
+	private ConcurrentMap<CanonicalURL, Boolean> tracker;
+	private ConcurrentMap<ContentFingerprint, Boolean> hashTracker;
+	private AtomicLong version;
 
 	/**
 	 * creates a new {@link BaseInMemCrawlChecker}.
@@ -19,6 +29,7 @@ public class BaseInMemCrawlChecker extends BaseCrawlChecker {
 	public BaseInMemCrawlChecker() {
 		tracker = new ConcurrentHashMap<>();
 		hashTracker = new ConcurrentHashMap<>();
+		version = new AtomicLong(0);
 	}
 
 	@Override
@@ -28,20 +39,62 @@ public class BaseInMemCrawlChecker extends BaseCrawlChecker {
 
 	@Override
 	protected boolean isFetched(URL url) {
-		return tracker.containsKey(url);
+		return tracker.containsKey(CanonicalURL.of(url));
+	}
+
+	@Override
+	protected boolean isContentSeen(ContentFingerprint checksum) {
+		return hashTracker.containsKey(checksum);
 	}
 
 	@Override
 	protected boolean lock(CrawledData s) {
-		return tracker.putIfAbsent(s.getUrl(), true) == null
+		version.incrementAndGet();
+		return tracker.putIfAbsent(CanonicalURL.of(s.getUrl()), true) == null
 			&& hashTracker.putIfAbsent(s.getChecksum(), true) == null;
 	}
 
-	protected ConcurrentMap<URL, Boolean> getURLTracker() {
+	@Override
+	protected boolean lock(URL url) {
+		version.incrementAndGet();
+		return tracker.putIfAbsent(CanonicalURL.of(url), true) == null;
+	}
+
+	@Override
+	public long getVersion() {
+		return version.get();
+	}
+
+	@Override
+	public void checkpoint(DataOutputStream out) throws IOException {
+		for (CanonicalURL url : tracker.keySet()) {
+			out.writeBoolean(true);
+			IOUtil.writeString(out, url.getNormalized());
+		}
+		out.writeBoolean(false);
+		for (ContentFingerprint hash : hashTracker.keySet()) {
+			out.writeBoolean(true);
+			hash.writeTo(out);
+		}
+		out.writeBoolean(false);
+	}
+
+	@Override
+	public void restore(DataInputStream in) throws IOException {
+		while (in.readBoolean()) {
+			tracker.putIfAbsent(CanonicalURL.fromNormalized(IOUtil.readString(in)), true);
+		}
+		while (in.readBoolean()) {
+			hashTracker.putIfAbsent(ContentFingerprint.readFrom(in), true);
+		}
+		version.incrementAndGet();
+	}
+
+	protected ConcurrentMap<CanonicalURL, Boolean> getURLTracker() {
 		return this.tracker;
 	}
 
-	protected ConcurrentMap<String, Boolean> getHashTracker() {
+	protected ConcurrentMap<ContentFingerprint, Boolean> getHashTracker() {
 		return this.hashTracker;
 	}
 }
@@ -0,0 +1,104 @@
+package net.viperfish.crawler.html.crawlHandler;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import net.viperfish.crawler.core.BlockedBloomFilter;
+import net.viperfish.crawler.core.Checkpointable;
+import net.viperfish.crawler.html.ContentFingerprint;
+import net.viperfish.crawler.html.CrawledData;
+import net.viperfish.crawler.html.engine.CanonicalURL;
+
+/**
+ * An implementation of the {@link BaseCrawlChecker} that remembers the fetched urls and the
+ * checksums of the parsed pages in a {@link BlockedBloomFilter}. Unlike the {@link
+ * BaseInMemCrawlChecker}, its memory use is fixed when it is created, so it can be used for crawls
+ * of any length. In exchange, a small fraction of the pages that were never crawled are reported as
+ * crawled and skipped. The fraction grows as the filter fills up, and can be monitored with the
+ * statistics of the filter. A checkpoint of this checker contains the bits of the filter, and can
+ * only be restored into a checker with the same budget and false positive rate.
+ */
+public class BloomFilterCrawlChecker extends BaseCrawlChecker implements Checkpointable {
+
+	// keeps the keys of the checksums apart from the fingerprints of the urls
+	private static final long CHECKSUM_SALT = 0x9e3779b97f4a7c15L;
+
+	private BlockedBloomFilter filter;
+
+	/**
+	 * creates a new {@link BloomFilterCrawlChecker} that keeps its filter on the heap.
+	 *
+	 * @param byteBudget the amount of memory for the filter.
+	 * @param falsePositiveRate the targeted false positive rate.
+	 */
+	public BloomFilterCrawlChecker(long byteBudget, double falsePositiveRate) {
+		this(byteBudget, falsePositiveRate, false);
+	}
+
+	/**
+	 * creates a new {@link BloomFilterCrawlChecker}.
+	 *
+	 * @param byteBudget the amount of memory for the filter.
+	 * @param falsePositiveRate the targeted false positive rate.
+	 * @param offHeap whether to keep the filter outside of the heap.
+	 */
+	public BloomFilterCrawlChecker(long byteBudget, double falsePositiveRate, boolean offHeap) {
+		this.filter = new BlockedBloomFilter(byteBudget, falsePositiveRate, offHeap);
+	}
+
+	@Override
+	protected boolean isParsed(CrawledData site) {
+		return isFetched(site.getUrl()) && filter.mightContain(checksumKey(site.getChecksum()));
+	}
+
+	@Override
+	protected boolean isFetched(URL url) {
+		return filter.mightContain(CanonicalURL.of(url).getFingerprint());
+	}
+
+	@Override
+	protected boolean isContentSeen(ContentFingerprint checksum) {
+		return filter.mightContain(checksumKey(checksum));
+	}
+
+	@Override
+	protected boolean lock(CrawledData s) {
+		return filter.put(CanonicalURL.of(s.getUrl()).getFingerprint())
+			&& filter.put(checksumKey(s.getChecksum()));
+	}
+
+	@Override
+	protected boolean lock(URL url) {
+		return filter.put(CanonicalURL.of(url).getFingerprint());
+	}
+
+	@Override
+	public long getVersion() {
+		return filter.getInsertions();
+	}
+
+	@Override
+	public void checkpoint(DataOutputStream out) throws IOException {
+		filter.writeTo(out);
+	}
+
+	@Override
+	public void restore(DataInputStream in) throws IOException {
+		filter.readFrom(in);
+	}
+
+	/**
+	 * gets the filter of this checker, which exposes the memory and fill statistics.
+	 *
+	 * @return the filter.
+	 */
+	public BlockedBloomFilter getFilter() {
+		return filter;
+	}
+
+	private long checksumKey(ContentFingerprint checksum) {
+		// the fingerprint is already a hash, so its bits are used as they are
+		return checksum.getLow() ^ CHECKSUM_SALT;
+	}
+}
@@ -7,6 +7,7 @@ import net.viperfish.crawler.html.Anchor;
 import net.viperfish.crawler.html.CrawledData;
 import net.viperfish.crawler.html.FetchedContent;
 import net.viperfish.crawler.html.HandlerResponse;
+import net.viperfish.crawler.html.engine.CanonicalURL;
 import net.viperfish.crawler.html.engine.PrioritizedURL;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -20,8 +21,8 @@ public class CascadingPriorityBooster extends YesCrawlChecker {
 
 	private int boostFactor;
 	private double dampener;
-	private Map<URL, URL> parentTracker;
-	private Map<URL, Integer> priorityTracker;
+	private Map<CanonicalURL, CanonicalURL> parentTracker;
+	private Map<CanonicalURL, Integer> priorityTracker;
 	private Logger logger;
 
 	/**
@@ -42,7 +43,8 @@ public class CascadingPriorityBooster extends YesCrawlChecker {
 	public HandlerResponse handlePostParse(CrawledData site) {
 		for (Anchor a : site.getAnchors()) {
 			logger.debug("Adding {} as child of {}", a.getTargetURL(), site.getUrl());
-			parentTracker.putIfAbsent(a.getTargetURL(), site.getUrl());
+			parentTracker
+				.putIfAbsent(CanonicalURL.of(a.getTargetURL()), CanonicalURL.of(site.getUrl()));
 		}
 		return HandlerResponse.GO_AHEAD;
 	}
@@ -52,16 +54,16 @@ public class CascadingPriorityBooster extends YesCrawlChecker {
 		if (isMainPage(content.getUrl().getSource())) {
 			logger.debug("{} is main page, boosting by {}", content.getUrl().getSource(),
 				boostFactor);
-			priorityTracker.putIfAbsent(content.getUrl().getSource(), boostFactor);
+			priorityTracker.putIfAbsent(content.getUrl().getKey(), boostFactor);
 			content.getUrl().increasePriority(boostFactor);
 		}
-		priorityTracker.putIfAbsent(content.getUrl().getSource(), content.getUrl().getPriority());
+		priorityTracker.putIfAbsent(content.getUrl().getKey(), content.getUrl().getPriority());
 		return HandlerResponse.GO_AHEAD;
 	}
 
 	@Override
 	public HandlerResponse handlePreFetch(PrioritizedURL url) {
-		URL parent = parentTracker.get(url.getSource());
+		CanonicalURL parent = parentTracker.get(url.getKey());
 		logger.debug("Cascading priority from {} to {}", parent, url.getSource());
 		Integer parentPriority = priorityTracker.get(parent);
 		int boostedAmount = (int) (parentPriority * dampener);
@@ -0,0 +1,253 @@
+package net.viperfish.crawler.html.crawlHandler;
+
+import java.util.LinkedList;
+import java.util.concurrent.atomic.LongAdder;
+import net.viperfish.crawler.core.SimHashIndex;
+import net.viperfish.crawler.html.CrawledData;
+import net.viperfish.crawler.html.HandlerResponse;
+import net.viperfish.crawler.html.engine.CanonicalURL;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link net.viperfish.crawler.html.HttpCrawlerHandler} that detects the pages that are nearly
+ * identical to a page already crawled, such as the pages that only differ by a timestamp, an ad or
+ * a session token. The text of each page is reduced to a 64 bit SimHash signature of its three word
+ * shingles, and the pages whose signature differs from the one of a page of another url by no more
+ * than a few bits are near duplicates. The signatures are kept in a {@link SimHashIndex} of bounded
+ * size, so the oldest pages are forgotten once it is full. By default, the near duplicates are not
+ * indexed and their links are not followed, which can be changed before the crawl starts. The
+ * exact duplicates are left to a {@link BaseCrawlChecker}.
+ */
+public class NearDuplicateCrawlHandler extends YesCrawlChecker {
+
+	private static final int DEFAULT_CAPACITY = 1 << 20;
+	private static final int DEFAULT_MAX_DISTANCE = 3;
+	private static final int SHINGLE_SIZE = 3;
+	private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+	private static final long FNV_PRIME = 0x100000001b3L;
+
+	private final SimHashIndex index;
+	private final LongAdder nearDuplicates;
+	private boolean noIndex;
+	private boolean followAnchors;
+	private Logger logger;
+
+	/**
+	 * creates a handler that remembers about a million pages, and that treats the pages whose
+	 * signature differs by up to 3 bits as near duplicates.
+	 */
+	public NearDuplicateCrawlHandler() {
+		this(DEFAULT_CAPACITY, DEFAULT_MAX_DISTANCE);
+	}
+
+	/**
+	 * creates a handler with the specified limits.
+	 *
+	 * @param capacity the maximum amount of pages remembered.
+	 * @param maxDistance the maximum amount of differing bits of two near duplicates, between 0
+	 * and 7.
+	 */
+	public NearDuplicateCrawlHandler(int capacity, int maxDistance) {
+		this.index = new SimHashIndex(capacity, maxDistance);
+		this.nearDuplicates = new LongAdder();
+		this.noIndex = true;
+		this.followAnchors = false;
+		this.logger = LoggerFactory.getLogger(this.getClass());
+	}
+
+	/**
+	 * sets whether the near duplicates are written to the {@link
+	 * net.viperfish.crawler.core.Datasink}. This must be called before the crawl starts.
+	 *
+	 * @param noIndex true to mark the near duplicates as {@link HandlerResponse#NO_INDEX}.
+	 */
+	public void setNoIndex(boolean noIndex) {
+		this.noIndex = noIndex;
+	}
+
+	/**
+	 * sets whether the links of the near duplicates are crawled. This must be called before the
+	 * crawl starts.
+	 *
+	 * @param followAnchors true to crawl the links of the near duplicates.
+	 */
+	public void setFollowAnchors(boolean followAnchors) {
+		this.followAnchors = followAnchors;
+	}
+
+	/**
+	 * gets the amount of near duplicates found.
+	 *
+	 * @return the amount of near duplicates.
+	 */
+	public long getNearDuplicateCount() {
+		return nearDuplicates.sum();
+	}
+
+	/**
+	 * gets the index of the signatures of the pages crawled.
+	 *
+	 * @return the index.
+	 */
+	public SimHashIndex getIndex() {
+		return index;
+	}
+
+	@Override
+	public HandlerResponse handlePostParse(CrawledData site) {
+		long signature = simHash(site.getContent());
+		if (signature == 0) {
+			return HandlerResponse.GO_AHEAD;
+		}
+		if (index.addIfUnique(CanonicalURL.of(site.getUrl()).getFingerprint(), signature)) {
+			return HandlerResponse.GO_AHEAD;
+		}
+		nearDuplicates.increment();
+		logger.debug("{} is a near duplicate", site.getUrl());
+		if (!followAnchors) {
+			site.setAnchors(new LinkedList<>());
+		}
+		return noIndex ? HandlerResponse.NO_INDEX : HandlerResponse.GO_AHEAD;
+	}
+
+	/**
+	 * computes the SimHash signature of the text of a html page. The markup, the comments and the
+	 * content of the scripts and styles are skipped, and the text is split into lower case words of
+	 * letters and digits. Each shingle of three consecutive words votes on the 64 bits of the
+	 * signature with its hash. A page of fewer words is reduced to a single shingle.
+	 *
+	 * @param html the html of the page.
+	 * @return the signature, or 0 if the page has no text.
+	 */
+	static long simHash(String html) {
+		if (html == null) {
+			return 0;
+		}
+		int[] votes = new int[Long.SIZE];
+		long[] words = new long[SHINGLE_SIZE];
+		int wordCount = 0;
+		int length = html.length();
+		int i = 0;
+		while (i < length) {
+			char c = html.charAt(i);
+			if (c == '<') {
+				i = skipMarkup(html, i);
+			} else if (c == '&') {
+				// an entity is not a word
+				int end = html.indexOf(';', i);
+				i = end > i && end - i <= 10 ? end + 1 : i + 1;
+			} else if (Character.isLetterOrDigit(c)) {
+				long hash = FNV_OFFSET;
+				while (i < length && Character.isLetterOrDigit(c = html.charAt(i))) {
+					hash = (hash ^ Character.toLowerCase(c)) * FNV_PRIME;
+					i++;
+				}
+				words[wordCount % SHINGLE_SIZE] = hash;
+				wordCount++;
+				if (wordCount >= SHINGLE_SIZE) {
+					vote(votes, shingle(words, wordCount));
+				}
+			} else {
+				i++;
+			}
+		}
+		if (wordCount == 0) {
+			return 0;
+		}
+		if (wordCount < SHINGLE_SIZE) {
+			vote(votes, shingle(words, wordCount));
+		}
+		long signature = 0;
+		for (int bit = 0; bit < Long.SIZE; ++bit) {
+			if (votes[bit] > 0) {
+				signature |= 1L << bit;
+			}
+		}
+		return signature;
+	}
+
+	/**
+	 * hashes the last words read into a shingle, in the order they were read.
+	 *
+	 * @param words the hashes of the last words, as a ring.
+	 * @param wordCount the amount of words read so far.
+	 * @return the hash of the shingle.
+	 */
+	private static long shingle(long[] words, int wordCount) {
+		long hash = 0;
+		for (int i = Math.max(0, wordCount - SHINGLE_SIZE); i < wordCount; ++i) {
+			hash = mix(hash * 31 + words[i % SHINGLE_SIZE]);
+		}
+		return hash;
+	}
+
+	/**
+	 * adds the vote of a shingle on each bit of the signature.
+	 *
+	 * @param votes the votes for each bit.
+	 * @param hash the hash of the shingle.
+	 */
+	private static void vote(int[] votes, long hash) {
+		for (int bit = 0; bit < Long.SIZE; ++bit) {
+			votes[bit] += (hash >>> bit & 1) == 0 ? -1 : 1;
+		}
+	}
+
+	/**
+	 * skips a tag, a comment, or a script or a style with its content.
+	 *
+	 * @param html the html of the page.
+	 * @param start the index of the opening bracket.
+	 * @return the index after the markup.
+	 */
+	private static int skipMarkup(String html, int start) {
+		if (html.startsWith("<!--", start)) {
+			return skipPast(html, "-->", start + 4);
+		}
+		if (start + 1 < html.length() && !isTagStart(html.charAt(start + 1))) {
+			// not a tag, so the bracket is text
+			return start + 1;
+		}
+		int end = skipPast(html, ">", start + 1);
+		if (html.regionMatches(true, start, "<script", 0, 7)) {
+			return skipPastIgnoreCase(html, "</script", end);
+		}
+		if (html.regionMatches(true, start, "<style", 0, 6)) {
+			return skipPastIgnoreCase(html, "</style", end);
+		}
+		return end;
+	}
+
+	private static boolean isTagStart(char c) {
+		return Character.isLetter(c) || c == '/' || c == '!' || c == '?';
+	}
+
+	private static int skipPast(String html, String marker, int from) {
+		int end = html.indexOf(marker, from);
+		return end < 0 ? html.length() : end + marker.length();
+	}
+
+	private static int skipPastIgnoreCase(String html, String marker, int from) {
+		int end = html.indexOf('<', from);
+		while (end >= 0 && !html.regionMatches(true, end, marker, 0, marker.length())) {
+			end = html.indexOf('<', end + 1);
+		}
+		return end < 0 ? html.length() : end + marker.length();
+	}
+
+	/**
+	 * the finalizer of the 64 bit murmur3 hash, to spread the bits of the shingle.
+	 *
+	 * @param key the key.
+	 * @return the mixed key.
+	 */
+	private static long mix(long key) {
+		key ^= key >>> 33;
+		key *= 0xff51afd7ed558ccdL;
+		key ^= key >>> 33;
+		key *= 0xc4ceb9fe1a85ec53L;
+		key ^= key >>> 33;
+		return key;
+	}
+}
@@ -1,11 +1,11 @@
 package net.viperfish.crawler.html.crawlHandler;
 
-import java.net.URL;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicInteger;
 import net.viperfish.crawler.html.FetchedContent;
 import net.viperfish.crawler.html.HandlerResponse;
+import net.viperfish.crawler.html.engine.CanonicalURL;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -17,7 +17,7 @@ import org.slf4j.LoggerFactory;
  */
 public class TTLCrawlHandler extends YesCrawlChecker {
 
-	private ConcurrentMap<URL, AtomicInteger> ttlTracker;
+	private ConcurrentMap<CanonicalURL, AtomicInteger> ttlTracker;
 	private int priorityThreshold;
 	private int deferredThreshold;
 	private Logger logger;
@@ -38,8 +38,8 @@ public class TTLCrawlHandler extends YesCrawlChecker {
 
 	@Override
 	public HandlerResponse handlePreParse(FetchedContent content) {
-		ttlTracker.putIfAbsent(content.getUrl().getSource(), new AtomicInteger(0));
-		AtomicInteger current = ttlTracker.get(content.getUrl().getSource());
+		ttlTracker.putIfAbsent(content.getUrl().getKey(), new AtomicInteger(0));
+		AtomicInteger current = ttlTracker.get(content.getUrl().getKey());
 		logger.debug("Deferred count for {}: {}", content.getUrl().getSource().toExternalForm(),
 			current.get());
 		if (content.getUrl().getPriority() - current.get() < priorityThreshold) {
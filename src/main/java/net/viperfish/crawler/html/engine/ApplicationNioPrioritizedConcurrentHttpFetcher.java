@@ -0,0 +1,56 @@
+package net.viperfish.crawler.html.engine;
+
+/**
+ * A {@link NioPrioritizedConcurrentHttpFetcher} that is geared toward use with a standalone
+ * application. Once there are no more submission request and no more requests in flight, this
+ * {@link net.viperfish.crawler.html.HttpFetcher} is considered to reach its end.
+ */
+public class ApplicationNioPrioritizedConcurrentHttpFetcher extends
+	NioPrioritizedConcurrentHttpFetcher {
+
+	/**
+	 * creates a new non-blocking application fetcher.
+	 *
+	 * @param ioThreads the amount of selector threads that drive the network traffic.
+	 * @param maxInFlight the maximum amount of requests in flight at any given time.
+	 * @param userAgent the user-agent sent to the servers.
+	 */
+	public ApplicationNioPrioritizedConcurrentHttpFetcher(int ioThreads, int maxInFlight,
+		String userAgent) {
+		super(ioThreads, maxInFlight, userAgent);
+	}
+
+	/**
+	 * creates a new non-blocking application fetcher with the queue that schedules the submitted
+	 * urls.
+	 *
+	 * @param ioThreads the amount of selector threads that drive the network traffic.
+	 * @param maxInFlight the maximum amount of requests in flight at any given time.
+	 * @param userAgent the user-agent sent to the servers.
+	 * @param urlQueue the queue for the submitted urls.
+	 */
+	public ApplicationNioPrioritizedConcurrentHttpFetcher(int ioThreads, int maxInFlight,
+		String userAgent, PrioritizedURLBlockingQueue urlQueue) {
+		super(ioThreads, maxInFlight, userAgent, urlQueue);
+	}
+
+	/**
+	 * creates a new non-blocking application fetcher with the default "halbot" user-agent.
+	 *
+	 * @param ioThreads the amount of selector threads that drive the network traffic.
+	 * @param maxInFlight the maximum amount of requests in flight at any given time.
+	 */
+	public ApplicationNioPrioritizedConcurrentHttpFetcher(int ioThreads, int maxInFlight) {
+		super(ioThreads, maxInFlight, "halbot");
+	}
+
+	@Override
+	public boolean isEndReached() {
+		return isQuiescent();
+	}
+
+	@Override
+	public boolean isClosed() {
+		return closeCalled();
+	}
+}
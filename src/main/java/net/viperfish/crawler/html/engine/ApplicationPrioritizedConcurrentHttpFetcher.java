@@ -20,6 +20,18 @@ public class ApplicationPrioritizedConcurrentHttpFetcher extends
 		super(threadCount, userAgent);
 	}
 
+	/**
+	 * creates a new application fetcher with the queue that schedules the submitted urls.
+	 *
+	 * @param threadCount the amount of thread for fetching.
+	 * @param userAgent the user-agent sent to the servers.
+	 * @param urlQueue the queue for the submitted urls.
+	 */
+	public ApplicationPrioritizedConcurrentHttpFetcher(int threadCount, String userAgent,
+		PrioritizedURLBlockingQueue urlQueue) {
+		super(threadCount, userAgent, urlQueue);
+	}
+
 	/**
 	 * creates a new application fetcher with the default "halbot" user-agent.
 	 *
@@ -31,7 +43,7 @@ public class ApplicationPrioritizedConcurrentHttpFetcher extends
 
 	@Override
 	public boolean isEndReached() {
-		return resultQueue().size() == 0 && getTaskNumber().get() == 0 && urlQueue().size() == 0;
+		return isQuiescent();
 	}
 
 	@Override
@@ -0,0 +1,205 @@
+package net.viperfish.crawler.html.engine;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import net.viperfish.crawler.html.ContentFingerprint;
+import net.viperfish.crawler.html.exception.PageTooLargeException;
+
+/**
+ * The body of a response being downloaded, kept in buffers taken from a {@link BufferPool}. The
+ * {@link ContentFingerprint} of the body is computed as the bytes arrive, so the page never has to
+ * be hashed again, and the download is aborted with a {@link PageTooLargeException} as soon as the
+ * body exceeds the maximum page size. The buffers must be given back with {@link #release()} once
+ * the body has been copied out. This class is not thread safe.
+ */
+class BodyBuffer {
+
+	private final BufferPool pool;
+	private final long maxSize;
+	private final Hasher hasher;
+	private final List<ByteBuffer> chunks;
+	private byte[] scratch;
+	private long size;
+
+	/**
+	 * creates an empty body fingerprinted with the default function.
+	 *
+	 * @param pool the pool to take the buffers from.
+	 * @param maxSize the maximum size of the body in bytes.
+	 */
+	BodyBuffer(BufferPool pool, long maxSize) {
+		this(pool, maxSize, ContentFingerprint.DEFAULT_FUNCTION);
+	}
+
+	/**
+	 * creates an empty body.
+	 *
+	 * @param pool the pool to take the buffers from.
+	 * @param maxSize the maximum size of the body in bytes.
+	 * @param fingerprints the function that fingerprints the body.
+	 */
+	BodyBuffer(BufferPool pool, long maxSize, HashFunction fingerprints) {
+		this.pool = pool;
+		this.maxSize = maxSize;
+		this.chunks = new ArrayList<>();
+		this.size = 0;
+		this.hasher = fingerprints.newHasher();
+	}
+
+	/**
+	 * checks the length announced by the server before anything is read.
+	 *
+	 * @param contentLength the value of the Content-Length header, or a negative number if unknown.
+	 * @throws PageTooLargeException if the announced length exceeds the maximum size.
+	 */
+	void expect(long contentLength) throws PageTooLargeException {
+		if (contentLength > maxSize) {
+			throw new PageTooLargeException(maxSize);
+		}
+	}
+
+	/**
+	 * gets a buffer with room to write the next bytes of the body into. Once written, the bytes
+	 * must be committed with {@link #written(int)}.
+	 *
+	 * @return the buffer with room left.
+	 */
+	ByteBuffer writable() {
+		ByteBuffer tail = chunks.isEmpty() ? null : chunks.get(chunks.size() - 1);
+		if (tail == null || !tail.hasRemaining()) {
+			tail = pool.acquire();
+			chunks.add(tail);
+		}
+		return tail;
+	}
+
+	/**
+	 * commits the bytes just written before the position of the buffer returned by {@link
+	 * #writable()}.
+	 *
+	 * @param count the amount of bytes written.
+	 * @throws PageTooLargeException if the body exceeds the maximum size.
+	 */
+	void written(int count) throws PageTooLargeException {
+		if (count <= 0) {
+			return;
+		}
+		ByteBuffer tail = chunks.get(chunks.size() - 1);
+		ByteBuffer added = tail.duplicate();
+		added.flip();
+		added.position(tail.position() - count);
+		hasher.putBytes(added);
+		size += count;
+		if (size > maxSize) {
+			throw new PageTooLargeException(maxSize);
+		}
+	}
+
+	/**
+	 * reads a stream to its end into the body. The stream is not closed.
+	 *
+	 * @param in the stream to read.
+	 * @throws IOException if failed to read, or if the body exceeds the maximum size.
+	 */
+	void readFrom(InputStream in) throws IOException {
+		readFrom(in, null);
+	}
+
+	/**
+	 * reads a compressed stream to its end and decompresses it into the body. The stream is not
+	 * closed.
+	 *
+	 * @param in the stream to read.
+	 * @param inflater the inflater for the stream, or null if the stream is not compressed.
+	 * @throws IOException if failed to read or decompress, or if the body exceeds the maximum
+	 * size.
+	 */
+	void readFrom(InputStream in, BodyInflater inflater) throws IOException {
+		if (inflater != null) {
+			if (scratch == null) {
+				scratch = new byte[8192];
+			}
+			int read = in.read(scratch);
+			while (read != -1) {
+				inflater.inflate(scratch, 0, read, this);
+				read = in.read(scratch);
+			}
+			return;
+		}
+		while (true) {
+			ByteBuffer buffer = writable();
+			int read;
+			if (buffer.hasArray()) {
+				read = in.read(buffer.array(), buffer.arrayOffset() + buffer.position(),
+					buffer.remaining());
+				if (read > 0) {
+					buffer.position(buffer.position() + read);
+				}
+			} else {
+				if (scratch == null) {
+					scratch = new byte[Math.min(buffer.capacity(), 8192)];
+				}
+				read = in.read(scratch, 0, Math.min(scratch.length, buffer.remaining()));
+				if (read > 0) {
+					buffer.put(scratch, 0, read);
+				}
+			}
+			if (read < 0) {
+				return;
+			}
+			written(read);
+		}
+	}
+
+	/**
+	 * gets the amount of bytes in the body.
+	 *
+	 * @return the size in bytes.
+	 */
+	long size() {
+		return size;
+	}
+
+	/**
+	 * copies the body into an array of its exact size.
+	 *
+	 * @return the bytes of the body.
+	 */
+	byte[] toByteArray() {
+		byte[] result = new byte[(int) size];
+		int offset = 0;
+		for (ByteBuffer chunk : chunks) {
+			ByteBuffer read = chunk.duplicate();
+			read.flip();
+			int length = read.remaining();
+			read.get(result, offset, length);
+			offset += length;
+		}
+		return result;
+	}
+
+	/**
+	 * gets the fingerprint of the body. This can only be called once.
+	 *
+	 * @return the fingerprint of the body.
+	 */
+	ContentFingerprint checksum() {
+		return ContentFingerprint.of(hasher.hash());
+	}
+
+	/**
+	 * gives the buffers back to the pool. The body is empty afterward.
+	 */
+	void release() {
+		for (ByteBuffer chunk : chunks) {
+			pool.release(chunk);
+		}
+		chunks.clear();
+		size = 0;
+	}
+}
@@ -0,0 +1,234 @@
+package net.viperfish.crawler.html.engine;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Decompresses a gzip or deflate encoded body chunk by chunk, as the chunks arrive, into a {@link
+ * BodyBuffer}. The size limit of the body buffer applies to the decompressed bytes, so a small
+ * compressed response cannot expand into an unbounded page. The gzip header is parsed by this
+ * class, and the trailer is ignored. A deflate body may be wrapped in a zlib header or not, as
+ * servers disagree on what deflate means. This class is not thread safe.
+ */
+class BodyInflater {
+
+	private static final int MAX_HEADER = 64 * 1024;
+	private static final int FHCRC = 2;
+	private static final int FEXTRA = 4;
+	private static final int FNAME = 8;
+	private static final int FCOMMENT = 16;
+
+	private final boolean gzip;
+	private Inflater inflater;
+	private byte[] header;
+	private int headerLength;
+	private byte[] scratch;
+	private byte[] copy;
+
+	private BodyInflater(boolean gzip) {
+		this.gzip = gzip;
+		this.header = new byte[64];
+		this.headerLength = 0;
+	}
+
+	/**
+	 * creates an inflater for the value of a Content-Encoding header.
+	 *
+	 * @param contentEncoding the content encoding, or null.
+	 * @return the inflater, or null if the body is not compressed.
+	 * @throws IOException if the encoding is not supported.
+	 */
+	static BodyInflater forEncoding(String contentEncoding) throws IOException {
+		if (contentEncoding == null) {
+			return null;
+		}
+		String encoding = contentEncoding.trim().toLowerCase();
+		switch (encoding) {
+			case "":
+			case "identity":
+				return null;
+			case "gzip":
+			case "x-gzip":
+				return new BodyInflater(true);
+			case "deflate":
+				return new BodyInflater(false);
+			default:
+				throw new ZipException("Unsupported content encoding " + contentEncoding);
+		}
+	}
+
+	/**
+	 * decompresses a chunk of the body. All the remaining bytes of the chunk are consumed.
+	 *
+	 * @param compressed the chunk, ready to be read.
+	 * @param out the body to write the decompressed bytes into.
+	 * @throws IOException if the chunk is corrupted or the body is too large.
+	 */
+	void inflate(ByteBuffer compressed, BodyBuffer out) throws IOException {
+		byte[] input;
+		int offset;
+		int length = compressed.remaining();
+		if (compressed.hasArray()) {
+			input = compressed.array();
+			offset = compressed.arrayOffset() + compressed.position();
+		} else {
+			if (copy == null || copy.length < length) {
+				copy = new byte[length];
+			}
+			input = copy;
+			compressed.duplicate().get(input, 0, length);
+			offset = 0;
+		}
+		compressed.position(compressed.limit());
+		inflate(input, offset, length, out);
+	}
+
+	/**
+	 * decompresses a chunk of the body.
+	 *
+	 * @param input the array holding the chunk.
+	 * @param offset the start of the chunk.
+	 * @param length the length of the chunk.
+	 * @param out the body to write the decompressed bytes into.
+	 * @throws IOException if the chunk is corrupted or the body is too large.
+	 */
+	void inflate(byte[] input, int offset, int length, BodyBuffer out) throws IOException {
+		if (length == 0) {
+			return;
+		}
+		if (inflater == null) {
+			// wait for the whole header before inflating
+			appendHeader(input, offset, length);
+			int start = gzip ? gzipHeaderLength() : deflateStart();
+			if (start < 0) {
+				return;
+			}
+			byte[] buffered = header;
+			header = null;
+			inflate(buffered, start, headerLength - start, out);
+			return;
+		}
+		if (inflater.finished()) {
+			return;
+		}
+		inflater.setInput(input, offset, length);
+		try {
+			while (true) {
+				ByteBuffer target = out.writable();
+				int inflated;
+				if (target.hasArray()) {
+					inflated = inflater.inflate(target.array(),
+						target.arrayOffset() + target.position(), target.remaining());
+					target.position(target.position() + inflated);
+				} else {
+					if (scratch == null) {
+						scratch = new byte[Math.min(target.capacity(), 8192)];
+					}
+					inflated = inflater.inflate(scratch, 0,
+						Math.min(scratch.length, target.remaining()));
+					target.put(scratch, 0, inflated);
+				}
+				out.written(inflated);
+				if (inflated == 0) {
+					if (inflater.needsDictionary()) {
+						throw new ZipException("A preset dictionary is not supported");
+					}
+					if (inflater.finished() || inflater.needsInput()) {
+						return;
+					}
+				}
+			}
+		} catch (DataFormatException e) {
+			throw new ZipException(e.getMessage());
+		}
+	}
+
+	/**
+	 * releases the native memory of the inflater.
+	 */
+	void end() {
+		if (inflater != null) {
+			inflater.end();
+		}
+	}
+
+	private void appendHeader(byte[] input, int offset, int length) throws ZipException {
+		if (headerLength > MAX_HEADER) {
+			throw new ZipException("The gzip header is too large");
+		}
+		if (headerLength + length > header.length) {
+			header = Arrays.copyOf(header, Math.max(header.length * 2, headerLength + length));
+		}
+		System.arraycopy(input, offset, header, headerLength, length);
+		headerLength += length;
+	}
+
+	/**
+	 * finds the end of the gzip header.
+	 *
+	 * @return the length of the header or -1 if it is not complete yet.
+	 * @throws ZipException if the header is not a gzip header.
+	 */
+	private int gzipHeaderLength() throws ZipException {
+		if (headerLength < 10) {
+			return -1;
+		}
+		if ((header[0] & 0xff) != 0x1f || (header[1] & 0xff) != 0x8b || header[2] != 8) {
+			throw new ZipException("Not in gzip format");
+		}
+		int flags = header[3] & 0xff;
+		int position = 10;
+		if ((flags & FEXTRA) != 0) {
+			if (headerLength < position + 2) {
+				return -1;
+			}
+			position += 2 + ((header[position] & 0xff) | (header[position + 1] & 0xff) << 8);
+		}
+		if ((flags & FNAME) != 0) {
+			position = skipZeroTerminated(position);
+		}
+		if ((flags & FCOMMENT) != 0) {
+			position = skipZeroTerminated(position);
+		}
+		if ((flags & FHCRC) != 0 && position >= 0) {
+			position += 2;
+		}
+		if (position < 0 || position > headerLength) {
+			return -1;
+		}
+		inflater = new Inflater(true);
+		return position;
+	}
+
+	/**
+	 * decides if the deflate body has a zlib header.
+	 *
+	 * @return the start of the body or -1 if more bytes are needed to decide.
+	 */
+	private int deflateStart() {
+		if (headerLength < 2) {
+			return -1;
+		}
+		int cmf = header[0] & 0xff;
+		int flg = header[1] & 0xff;
+		boolean zlib = (cmf & 0x0f) == 8 && ((cmf << 8) | flg) % 31 == 0;
+		inflater = new Inflater(!zlib);
+		return 0;
+	}
+
+	private int skipZeroTerminated(int position) {
+		if (position < 0) {
+			return -1;
+		}
+		for (int i = position; i < headerLength; ++i) {
+			if (header[i] == 0) {
+				return i + 1;
+			}
+		}
+		return -1;
+	}
+}
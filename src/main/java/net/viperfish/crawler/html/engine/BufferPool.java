@@ -0,0 +1,97 @@
+package net.viperfish.crawler.html.engine;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A pool of fixed size byte buffers that the fetch tasks read the response bodies into, so that
+ * reading a page does not allocate new buffers once the pool is warm. The buffers can be allocated
+ * on the heap or outside of it as direct buffers, which the non-blocking fetcher reads into without
+ * an intermediate copy. At most a fixed amount of free buffers is kept, and the buffers released
+ * beyond that are left to the garbage collector. This class is thread safe.
+ */
+public class BufferPool {
+
+	private final ConcurrentLinkedQueue<ByteBuffer> free;
+	private final AtomicInteger freeCount;
+	private final int bufferSize;
+	private final int maxFree;
+	private final boolean direct;
+
+	/**
+	 * creates an empty pool.
+	 *
+	 * @param bufferSize the size of the buffers in bytes.
+	 * @param maxFree the maximum amount of free buffers kept.
+	 * @param direct whether to allocate direct buffers outside of the heap.
+	 */
+	public BufferPool(int bufferSize, int maxFree, boolean direct) {
+		if (bufferSize < 1 || maxFree < 0) {
+			throw new IllegalArgumentException("Invalid buffer pool size");
+		}
+		this.free = new ConcurrentLinkedQueue<>();
+		this.freeCount = new AtomicInteger(0);
+		this.bufferSize = bufferSize;
+		this.maxFree = maxFree;
+		this.direct = direct;
+	}
+
+	/**
+	 * takes a free buffer from the pool, or allocates a new one if none is free.
+	 *
+	 * @return an empty buffer ready to be written.
+	 */
+	public ByteBuffer acquire() {
+		ByteBuffer buffer = free.poll();
+		if (buffer == null) {
+			return direct ? ByteBuffer.allocateDirect(bufferSize) : ByteBuffer.allocate(bufferSize);
+		}
+		freeCount.decrementAndGet();
+		buffer.clear();
+		return buffer;
+	}
+
+	/**
+	 * returns a buffer to the pool. The buffer must not be used afterward.
+	 *
+	 * @param buffer a buffer acquired from this pool.
+	 */
+	public void release(ByteBuffer buffer) {
+		if (buffer.capacity() != bufferSize || buffer.isDirect() != direct) {
+			return;
+		}
+		if (freeCount.incrementAndGet() <= maxFree) {
+			free.offer(buffer);
+		} else {
+			freeCount.decrementAndGet();
+		}
+	}
+
+	/**
+	 * gets the size of the buffers.
+	 *
+	 * @return the size in bytes.
+	 */
+	public int getBufferSize() {
+		return bufferSize;
+	}
+
+	/**
+	 * gets the amount of free buffers in the pool.
+	 *
+	 * @return the amount of free buffers.
+	 */
+	public int getFreeCount() {
+		return freeCount.get();
+	}
+
+	/**
+	 * checks if the buffers are allocated outside of the heap.
+	 *
+	 * @return true if the buffers are direct.
+	 */
+	public boolean isDirect() {
+		return direct;
+	}
+}
@@ -0,0 +1,150 @@
+package net.viperfish.crawler.html.engine;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The identity of a URL, made of its normalized form and a 64 bit fingerprint of that form. It is
+ * meant to be used as the key of the maps and sets that track urls, because the {@link
+ * URL#equals(Object)} and {@link URL#hashCode()} methods may resolve the host name, which blocks
+ * on DNS, and a {@link URL} keeps many more fields than needed to identify a page. The normalized
+ * form has a lower case scheme and host, no default port, "/" as the empty path, and no fragment,
+ * since the fragment never reaches the server. The user information is dropped as well. Two
+ * instances are equal if their normalized forms are equal. This class is immutable.
+ */
+public final class CanonicalURL {
+
+	private static final HashFunction FINGERPRINT = Hashing.farmHashFingerprint64();
+
+	private final String normalized;
+	private final long fingerprint;
+
+	private CanonicalURL(String normalized) {
+		this.normalized = normalized;
+		this.fingerprint = FINGERPRINT.hashString(normalized, StandardCharsets.UTF_8).asLong();
+	}
+
+	/**
+	 * creates the identity of a URL without any network access.
+	 *
+	 * @param url the url.
+	 * @return the identity of the url.
+	 */
+	public static CanonicalURL of(URL url) {
+		if (url == null) {
+			throw new IllegalArgumentException("URL cannot be null");
+		}
+		return new CanonicalURL(normalize(url));
+	}
+
+	/**
+	 * creates the identity of a URL from its normalized form, as returned by {@link
+	 * #getNormalized()}. The string is not checked.
+	 *
+	 * @param normalized the normalized form.
+	 * @return the identity of the url.
+	 */
+	public static CanonicalURL fromNormalized(String normalized) {
+		return new CanonicalURL(normalized);
+	}
+
+	/**
+	 * gets the normalized form of a URL.
+	 *
+	 * @param url the url.
+	 * @return the normalized string.
+	 */
+	static String normalize(URL url) {
+		String protocol = url.getProtocol().toLowerCase();
+		String host = url.getHost().toLowerCase();
+		String path = url.getPath();
+		String query = url.getQuery();
+		StringBuilder sb = new StringBuilder(
+			protocol.length() + host.length() + path.length() + 16
+				+ (query == null ? 0 : query.length()));
+		sb.append(protocol).append("://").append(host);
+		if (url.getPort() != -1 && url.getPort() != url.getDefaultPort()) {
+			sb.append(':').append(url.getPort());
+		}
+		sb.append(path.isEmpty() ? "/" : path);
+		if (query != null) {
+			sb.append('?').append(query);
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * gets the normalized form of the URL.
+	 *
+	 * @return the normalized form.
+	 */
+	public String getNormalized() {
+		return normalized;
+	}
+
+	/**
+	 * gets the lower case host of the URL from the normalized form, without parsing it as a URL.
+	 *
+	 * @return the host.
+	 */
+	public String getHost() {
+		int start = normalized.indexOf("://") + 3;
+		int end = start;
+		if (normalized.startsWith("[", start)) {
+			end = normalized.indexOf(']', start) + 1;
+		} else {
+			while (end < normalized.length() && normalized.charAt(end) != ':'
+				&& normalized.charAt(end) != '/') {
+				end++;
+			}
+		}
+		return normalized.substring(start, end);
+	}
+
+	/**
+	 * parses the normalized form as a URL.
+	 *
+	 * @return the URL.
+	 */
+	public URL toURL() {
+		try {
+			return new URL(normalized);
+		} catch (MalformedURLException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * gets the 64 bit fingerprint of the normalized form.
+	 *
+	 * @return the fingerprint.
+	 */
+	public long getFingerprint() {
+		return fingerprint;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) {
+			return true;
+		}
+		if (o == null || getClass() != o.getClass()) {
+			return false;
+		}
+		CanonicalURL that = (CanonicalURL) o;
+		return fingerprint == that.fingerprint && normalized.equals(that.normalized);
+	}
+
+	@Override
+	public int hashCode() {
+		return Long.hashCode(fingerprint);
+	}
+
+	@Override
+	public String toString() {
+		return normalized;
+	}
+}
@@ -1,22 +1,36 @@
 package net.viperfish.crawler.html.engine;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.PriorityBlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import net.viperfish.crawler.core.Checkpointable;
 
 /**
  * The default implementation for the {@link PrioritizedURLBlockingQueue}. For this queue, the
- * higher the priority number, the greater the importance.
+ * higher the priority number, the greater the importance. A checkpoint of this queue is taken
+ * without blocking the other operations, and holds the urls handed out but not released, or kept
+ * until done, yet along with the queued ones.
  */
-public class DefaultPrioritizedURLBlockingQueue implements PrioritizedURLBlockingQueue {
+public class DefaultPrioritizedURLBlockingQueue implements PrioritizedURLBlockingQueue,
+	Checkpointable {
 
 	private static final int INITIAL_CAPACITY = 100;
 
 	private PriorityBlockingQueue<PrioritizedURL> queue;
-	private ConcurrentMap<URL, PrioritizedURL> urlTracker;
+	private ConcurrentMap<CanonicalURL, PrioritizedURL> urlTracker;
+	private AtomicLong version;
+	private AtomicInteger handedOut;
+	private HandedOutURLs handedOutURLs;
 
 	/**
 	 * creates an empty queue.
@@ -24,6 +38,9 @@ public class DefaultPrioritizedURLBlockingQueue implements PrioritizedURLBlockin
 	public DefaultPrioritizedURLBlockingQueue() {
 		queue = new PriorityBlockingQueue<>(INITIAL_CAPACITY, comparator());
 		urlTracker = new ConcurrentHashMap<>();
+		version = new AtomicLong(0);
+		handedOut = new AtomicInteger(0);
+		handedOutURLs = new HandedOutURLs();
 	}
 
 	@Override
@@ -33,9 +50,10 @@ public class DefaultPrioritizedURLBlockingQueue implements PrioritizedURLBlockin
 
 	@Override
 	public void offer(PrioritizedURL prioritizedURL) {
-		PrioritizedURL existing = urlTracker.get(prioritizedURL.getSource());
+		version.incrementAndGet();
+		PrioritizedURL existing = urlTracker.get(prioritizedURL.getKey());
 		if (existing == null) {
-			if (urlTracker.putIfAbsent(prioritizedURL.getSource(), prioritizedURL) == null) {
+			if (urlTracker.putIfAbsent(prioritizedURL.getKey(), prioritizedURL) == null) {
 				queue.offer(prioritizedURL);
 			}
 		} else {
@@ -49,7 +67,11 @@ public class DefaultPrioritizedURLBlockingQueue implements PrioritizedURLBlockin
 	@Override
 	public PrioritizedURL take() throws InterruptedException {
 		PrioritizedURL result = queue.take();
-		urlTracker.remove(result.getSource());
+		// counted as handed out before it stops being tracked as queued
+		handedOut.incrementAndGet();
+		handedOutURLs.add(result);
+		urlTracker.remove(result.getKey());
+		version.incrementAndGet();
 		return result;
 	}
 
@@ -57,16 +79,75 @@ public class DefaultPrioritizedURLBlockingQueue implements PrioritizedURLBlockin
 	public PrioritizedURL take(int time, TimeUnit unit) throws InterruptedException {
 		PrioritizedURL result = queue.poll(time, unit);
 		if (result != null) {
-			urlTracker.remove(result.getSource());
+			handedOut.incrementAndGet();
+			handedOutURLs.add(result);
+			urlTracker.remove(result.getKey());
+			version.incrementAndGet();
 		}
 		return result;
 	}
 
+	/**
+	 * counts the url as done with. The delay is ignored, as this queue hands out urls purely by
+	 * priority.
+	 *
+	 * @param url the URL that was fetched.
+	 * @param delay the minimum delay before the next request to the host.
+	 * @param unit the unit of the delay.
+	 */
+	@Override
+	public void release(PrioritizedURL url, long delay, TimeUnit unit) {
+		if (handedOutURLs.remove(url)) {
+			version.incrementAndGet();
+		}
+		handedOut.updateAndGet(count -> Math.max(0, count - 1));
+	}
+
+	@Override
+	public void keep(PrioritizedURL url) {
+		handedOutURLs.add(url);
+		version.incrementAndGet();
+	}
+
+	@Override
+	public void done(PrioritizedURL url) {
+		if (handedOutURLs.remove(url)) {
+			version.incrementAndGet();
+		}
+	}
+
 	@Override
 	public int size() {
 		return queue.size();
 	}
 
+	@Override
+	public int outstanding() {
+		// the queued urls are read first, as a url being handed out is counted as handed out
+		// before it is removed from them
+		int queued = urlTracker.size();
+		return queued + handedOut.get();
+	}
+
+	@Override
+	public long getVersion() {
+		return version.get();
+	}
+
+	@Override
+	public void checkpoint(DataOutputStream out) throws IOException {
+		// the queued urls are copied first, as a url being handed out is recorded as handed out
+		// before it is removed from them
+		List<PrioritizedURL> urls = new ArrayList<>(urlTracker.values());
+		handedOutURLs.copyTo(urls);
+		URLCheckpoints.write(out, urls);
+	}
+
+	@Override
+	public void restore(DataInputStream in) throws IOException {
+		URLCheckpoints.read(in, this);
+	}
+
 	/**
 	 * gets a comparator that can be used to compare priorities.
 	 *
@@ -76,7 +157,7 @@ public class DefaultPrioritizedURLBlockingQueue implements PrioritizedURLBlockin
 		return new DefaultComparator();
 	}
 
-	private static class DefaultComparator implements Comparator<PrioritizedURL> {
+	static class DefaultComparator implements Comparator<PrioritizedURL> {
 
 		@Override
 		public int compare(PrioritizedURL o1, PrioritizedURL o2) {
@@ -85,11 +166,11 @@ public class DefaultPrioritizedURLBlockingQueue implements PrioritizedURLBlockin
 			} else if (o1.getPriority() < o2.getPriority()) {
 				return 1;
 			} else {
-				if (o1.getSource().equals(o2.getSource())) {
+				if (o1.getKey().equals(o2.getKey())) {
 					return 0;
 				}
-				return Integer.compare(o1.getSource().toExternalForm().length(),
-					o2.getSource().toExternalForm().length());
+				return Integer.compare(o1.getKey().getNormalized().length(),
+					o2.getKey().getNormalized().length());
 			}
 		}
 	}
@@ -0,0 +1,143 @@
+package net.viperfish.crawler.html.engine;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The latency of the fetches of a fetcher and the amount of connections it opened. The latency of
+ * a fetch is the time from sending the request to having read the whole response, so it includes
+ * the connection and the TLS handshake when no pooled connection could be reused. The bytes
+ * received are counted both as transferred, possibly compressed, and as decompressed. This class
+ * is thread safe.
+ */
+public class FetchMetrics {
+
+	private final LongAdder fetches;
+	private final LongAdder failures;
+	private final LongAdder totalNanos;
+	private final LongAccumulator maxNanos;
+	private final LongAdder connections;
+	private final LongAdder wireBytes;
+	private final LongAdder bodyBytes;
+
+	/**
+	 * creates empty metrics.
+	 */
+	public FetchMetrics() {
+		this.fetches = new LongAdder();
+		this.failures = new LongAdder();
+		this.totalNanos = new LongAdder();
+		this.maxNanos = new LongAccumulator(Math::max, 0);
+		this.connections = new LongAdder();
+		this.wireBytes = new LongAdder();
+		this.bodyBytes = new LongAdder();
+	}
+
+	/**
+	 * records a completed fetch.
+	 *
+	 * @param nanos the latency of the fetch in nanoseconds.
+	 */
+	void recordFetch(long nanos) {
+		fetches.increment();
+		totalNanos.add(nanos);
+		maxNanos.accumulate(nanos);
+	}
+
+	/**
+	 * records the size of a fetched body.
+	 *
+	 * @param transferred the amount of bytes received, possibly compressed.
+	 * @param decoded the amount of bytes after decompression.
+	 */
+	void recordTransfer(long transferred, long decoded) {
+		wireBytes.add(transferred);
+		bodyBytes.add(decoded);
+	}
+
+	/**
+	 * records a failed fetch.
+	 */
+	void recordFailure() {
+		failures.increment();
+	}
+
+	/**
+	 * records a newly opened connection.
+	 */
+	void recordConnection() {
+		connections.increment();
+	}
+
+	/**
+	 * gets the amount of completed fetches.
+	 *
+	 * @return the amount of fetches.
+	 */
+	public long getFetchCount() {
+		return fetches.sum();
+	}
+
+	/**
+	 * gets the amount of fetches that failed with an error.
+	 *
+	 * @return the amount of failures.
+	 */
+	public long getFailureCount() {
+		return failures.sum();
+	}
+
+	/**
+	 * gets the mean latency of the completed fetches.
+	 *
+	 * @param unit the unit of the result.
+	 * @return the mean latency or 0 if nothing was fetched.
+	 */
+	public long getMeanLatency(TimeUnit unit) {
+		long count = fetches.sum();
+		if (count == 0) {
+			return 0;
+		}
+		return unit.convert(totalNanos.sum() / count, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * gets the largest latency of the completed fetches.
+	 *
+	 * @param unit the unit of the result.
+	 * @return the maximum latency.
+	 */
+	public long getMaxLatency(TimeUnit unit) {
+		return unit.convert(maxNanos.get(), TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * gets the amount of bytes of the bodies received over the network.
+	 *
+	 * @return the amount of transferred bytes.
+	 */
+	public long getTransferredBytes() {
+		return wireBytes.sum();
+	}
+
+	/**
+	 * gets the amount of bytes of the bodies after decompression. Compared to the transferred
+	 * bytes, it shows the bandwidth saved by the compression.
+	 *
+	 * @return the amount of decoded bytes.
+	 */
+	public long getDecodedBytes() {
+		return bodyBytes.sum();
+	}
+
+	/**
+	 * gets the amount of connections opened by the blocking fetch tasks. The fewer connections per
+	 * fetch, the more handshakes were saved by reusing the pooled connections.
+	 *
+	 * @return the amount of opened connections.
+	 */
+	public long getConnectionCount() {
+		return connections.sum();
+	}
+}
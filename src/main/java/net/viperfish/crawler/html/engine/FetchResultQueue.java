@@ -0,0 +1,323 @@
+package net.viperfish.crawler.html.engine;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.function.BooleanSupplier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import net.viperfish.crawler.core.Pair;
+import net.viperfish.crawler.html.FetchedContent;
+
+/**
+ * The queue between the fetch tasks and the consumers of the fetched pages, bounded by an amount of
+ * pages and an amount of bytes. The size of a page is the size of its raw body. The bound is
+ * enforced on the admission of new fetches rather than on the results: the results are always
+ * accepted, so that the fetch tasks and the IO callbacks never block, and the delegator waits in
+ * {@link #awaitCapacity(long, TimeUnit)} before starting a new fetch while the queue is full. The
+ * queue may therefore go over its bound by the amount of fetches in flight. The queue keeps the
+ * time spent waiting for capacity and the largest depth reached, to size the fetch and processing
+ * pools against each other. A consumer can also wait for either a result or the end of the
+ * fetching, which is checked again each time {@link #wakeUp()} is called. This class is thread
+ * safe.
+ */
+public class FetchResultQueue {
+
+	private final ReentrantLock lock;
+	private final Condition notEmpty;
+	private final Condition notFull;
+	private final Deque<Pair<FetchedContent, Throwable>> results;
+	private int maxPages;
+	private long maxBytes;
+	private long bytes;
+	private int peakSize;
+	private long blockedNanos;
+	private long blockedCount;
+
+	/**
+	 * creates an empty queue.
+	 *
+	 * @param maxPages the amount of pages at which new fetches are paused.
+	 * @param maxBytes the amount of bytes at which new fetches are paused.
+	 */
+	public FetchResultQueue(int maxPages, long maxBytes) {
+		this.lock = new ReentrantLock();
+		this.notEmpty = lock.newCondition();
+		this.notFull = lock.newCondition();
+		this.results = new ArrayDeque<>();
+		setLimits(maxPages, maxBytes);
+	}
+
+	/**
+	 * changes the bounds of the queue. The fetches waiting for capacity are woken up if the new
+	 * bounds leave room.
+	 *
+	 * @param maxPages the amount of pages at which new fetches are paused.
+	 * @param maxBytes the amount of bytes at which new fetches are paused.
+	 */
+	public void setLimits(int maxPages, long maxBytes) {
+		if (maxPages < 1 || maxBytes < 1) {
+			throw new IllegalArgumentException("The limits must be positive");
+		}
+		lock.lock();
+		try {
+			this.maxPages = maxPages;
+			this.maxBytes = maxBytes;
+			notFull.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * adds a result to the queue. This never blocks, even if the queue is full.
+	 *
+	 * @param result the fetched page and null, or null and the cause of the failure.
+	 */
+	public void offer(Pair<FetchedContent, Throwable> result) {
+		lock.lock();
+		try {
+			results.addLast(result);
+			bytes += sizeOf(result);
+			peakSize = Math.max(peakSize, results.size());
+			notEmpty.signal();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * removes the oldest result, waiting until one is available.
+	 *
+	 * @return the oldest result.
+	 * @throws InterruptedException if interrupted while waiting.
+	 */
+	public Pair<FetchedContent, Throwable> take() throws InterruptedException {
+		lock.lockInterruptibly();
+		try {
+			while (results.isEmpty()) {
+				notEmpty.await();
+			}
+			return remove();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * removes the oldest result, waiting until one is available or until there will be no more
+	 * results. The condition is checked with the lock of the queue held, first and then whenever
+	 * {@link #wakeUp()} is called, so a change signaled by it cannot be missed.
+	 *
+	 * @param ended checks whether no more results will be offered.
+	 * @return the oldest result or null if there are no results and the condition holds.
+	 * @throws InterruptedException if interrupted while waiting.
+	 */
+	public Pair<FetchedContent, Throwable> take(BooleanSupplier ended)
+		throws InterruptedException {
+		lock.lockInterruptibly();
+		try {
+			while (results.isEmpty()) {
+				if (ended.getAsBoolean()) {
+					return null;
+				}
+				notEmpty.await();
+			}
+			return remove();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * wakes up the consumers waiting in {@link #take(BooleanSupplier)} to check their condition
+	 * again.
+	 */
+	public void wakeUp() {
+		lock.lock();
+		try {
+			notEmpty.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * removes the oldest result, waiting up to the specified time until one is available.
+	 *
+	 * @param timeout the maximum time to wait.
+	 * @param unit the unit of the timeout.
+	 * @return the oldest result or null if the time elapsed.
+	 * @throws InterruptedException if interrupted while waiting.
+	 */
+	public Pair<FetchedContent, Throwable> poll(long timeout, TimeUnit unit)
+		throws InterruptedException {
+		long remaining = unit.toNanos(timeout);
+		lock.lockInterruptibly();
+		try {
+			while (results.isEmpty()) {
+				if (remaining <= 0) {
+					return null;
+				}
+				remaining = notEmpty.awaitNanos(remaining);
+			}
+			return remove();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * waits until the queue is below both of its bounds.
+	 *
+	 * @throws InterruptedException if interrupted while waiting.
+	 */
+	public void awaitCapacity() throws InterruptedException {
+		lock.lockInterruptibly();
+		try {
+			if (!isFull()) {
+				return;
+			}
+			long start = System.nanoTime();
+			try {
+				while (isFull()) {
+					notFull.await();
+				}
+			} finally {
+				blockedNanos += System.nanoTime() - start;
+				blockedCount++;
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * waits up to the specified time until the queue is below both of its bounds.
+	 *
+	 * @param timeout the maximum time to wait.
+	 * @param unit the unit of the timeout.
+	 * @return true if the queue has room, false if the time elapsed.
+	 * @throws InterruptedException if interrupted while waiting.
+	 */
+	public boolean awaitCapacity(long timeout, TimeUnit unit) throws InterruptedException {
+		lock.lockInterruptibly();
+		try {
+			if (!isFull()) {
+				return true;
+			}
+			long start = System.nanoTime();
+			long remaining = unit.toNanos(timeout);
+			try {
+				while (isFull()) {
+					if (remaining <= 0) {
+						return false;
+					}
+					remaining = notFull.awaitNanos(remaining);
+				}
+				return true;
+			} finally {
+				blockedNanos += System.nanoTime() - start;
+				blockedCount++;
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * gets the amount of results in the queue.
+	 *
+	 * @return the depth of the queue.
+	 */
+	public int size() {
+		lock.lock();
+		try {
+			return results.size();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * gets the amount of memory used by the bodies of the pages in the queue.
+	 *
+	 * @return the size in bytes.
+	 */
+	public long byteSize() {
+		lock.lock();
+		try {
+			return bytes;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * gets the largest amount of results that were in the queue at once.
+	 *
+	 * @return the peak depth of the queue.
+	 */
+	public int getPeakSize() {
+		lock.lock();
+		try {
+			return peakSize;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * gets the total time spent waiting for the queue to have room.
+	 *
+	 * @param unit the unit of the result.
+	 * @return the time spent blocked.
+	 */
+	public long getBlockedTime(TimeUnit unit) {
+		lock.lock();
+		try {
+			return unit.convert(blockedNanos, TimeUnit.NANOSECONDS);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * gets the amount of times a new fetch had to wait for the queue to have room.
+	 *
+	 * @return the amount of waits.
+	 */
+	public long getBlockedCount() {
+		lock.lock();
+		try {
+			return blockedCount;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private Pair<FetchedContent, Throwable> remove() {
+		Pair<FetchedContent, Throwable> result = results.removeFirst();
+		bytes -= sizeOf(result);
+		if (!isFull()) {
+			notFull.signalAll();
+		}
+		if (results.isEmpty()) {
+			// the other consumers may be waiting for the last result to be taken
+			notEmpty.signalAll();
+		}
+		return result;
+	}
+
+	private boolean isFull() {
+		return results.size() >= maxPages || bytes >= maxBytes;
+	}
+
+	private static long sizeOf(Pair<FetchedContent, Throwable> result) {
+		FetchedContent content = result.getFirst();
+		if (content == null || content.getBody() == null) {
+			return 0;
+		}
+		return content.getBody().length;
+	}
+}
@@ -1,32 +1,62 @@
 package net.viperfish.crawler.html.engine;
 
+import com.google.common.hash.HashFunction;
+import com.google.common.io.CountingInputStream;
 import java.io.IOException;
-import java.net.HttpURLConnection;
-import java.net.URLConnection;
+import java.io.InterruptedIOException;
+import java.net.URISyntaxException;
+import java.net.URL;
 import java.util.List;
-import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
-import net.viperfish.crawler.core.IOUtil;
 import net.viperfish.crawler.core.Pair;
+import net.viperfish.crawler.html.ContentFingerprint;
 import net.viperfish.crawler.html.FetchedContent;
 import net.viperfish.crawler.html.Restriction;
 import net.viperfish.crawler.html.RestrictionManager;
 import net.viperfish.crawler.html.exception.FetchFailedException;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
  * A fetch task that fetches a specified URL. This task checks the url to fetch against a {@link
  * RestrictionManager}, registers iteself as a running task, and pushes the result to a result
- * queue.
+ * queue. The request is sent over a connection leased from a {@link HttpConnectionPool}, which is
+ * returned to the pool once the response is read. The body is read into a {@link BodyBuffer},
+ * which hashes it on the fly and aborts the download of pages over the maximum size. Compressed
+ * responses are requested and inflated as they are read. If a {@link ValidatorStore} is given, the
+ * request is conditional on the stored validators, and a 304 response is pushed as an unchanged
+ * result. If a {@link HostConcurrencyLimiter} is given, the response or the timeout is reported to
+ * it. If a {@link RetryScheduler} is given, a retryable failure or error response is scheduled to
+ * be fetched again instead of being pushed to the result queue. Once done, it releases the url to
+ * the submission queue with the crawl delay required by the restrictions, or the Retry-After of an
+ * overloaded host if it is longer. The url of a fetched page is kept by the submission queue until
+ * the page is processed, if asked to.
  */
 class FetchRunnable implements Runnable {
 
 	private PrioritizedURL url;
-	private BlockingQueue<Pair<FetchedContent, Throwable>> queue;
+	private URL source;
+	private FetchResultQueue queue;
+	private PrioritizedURLBlockingQueue frontier;
 	private List<RestrictionManager> managers;
 	private AtomicInteger runningTasks;
-	private String userAgent;
+	private HttpConnectionPool connections;
+	private FetchMetrics metrics;
+	private BufferPool buffers;
+	private long maxPageSize;
+	private HashFunction fingerprints;
+	private ValidatorStore validators;
+	private HostConcurrencyLimiter limiter;
+	private RetryScheduler retries;
+	private boolean keep;
+	private int status;
+	private long retryAfter;
 	private Logger logger;
 
 	/**
@@ -34,111 +64,170 @@ class FetchRunnable implements Runnable {
 	 *
 	 * @param url the url to fetch.
 	 * @param queue the result queue.
+	 * @param frontier the submission queue the url was taken from.
 	 * @param managers the list of restriction managers to check against.
 	 * @param runningTasks the running task counter to register to.
-	 * @param userAgent the user-agent sent to the server.
+	 * @param connections the pool of connections to send the request with.
+	 * @param metrics the metrics to record the latency of the fetch in.
+	 * @param buffers the pool of buffers to read the body into.
+	 * @param maxPageSize the maximum size of the body in bytes.
+	 * @param fingerprints the function that fingerprints the body.
+	 * @param validators the store of the cache validators, or null to always fetch the body.
+	 * @param limiter the limiter to report the response to, or null.
+	 * @param retries the scheduler of the retries, or null to report every failure.
+	 * @param keep whether to keep the url of a fetched page in the submission queue.
 	 */
-	public FetchRunnable(PrioritizedURL url,
-		BlockingQueue<Pair<FetchedContent, Throwable>> queue,
-		List<RestrictionManager> managers, AtomicInteger runningTasks, String userAgent) {
+	public FetchRunnable(PrioritizedURL url, FetchResultQueue queue,
+		PrioritizedURLBlockingQueue frontier, List<RestrictionManager> managers,
+		AtomicInteger runningTasks, HttpConnectionPool connections, FetchMetrics metrics,
+		BufferPool buffers, long maxPageSize, HashFunction fingerprints, ValidatorStore validators,
+		HostConcurrencyLimiter limiter, RetryScheduler retries, boolean keep) {
 		this.url = url;
+		// parsed once, as the url only keeps its normalized form
+		this.source = url.getSource();
 		this.queue = queue;
+		this.frontier = frontier;
 		this.managers = managers;
 		this.runningTasks = runningTasks;
-		this.userAgent = userAgent;
+		this.connections = connections;
+		this.metrics = metrics;
+		this.buffers = buffers;
+		this.maxPageSize = maxPageSize;
+		this.fingerprints = fingerprints;
+		this.validators = validators;
+		this.limiter = limiter;
+		this.retries = retries;
+		this.keep = keep;
+		this.status = 0;
+		this.retryAfter = 0;
 		this.logger = LoggerFactory.getLogger(this.getClass());
 	}
 
 	@Override
 	public void run() {
+		int crawlDelay = 0;
+		long pause = 0;
+		long start = 0;
 		try {
 			for (RestrictionManager rm : managers) {
-				logger.debug("Checking {} against {}", url.getSource(), rm);
-				Restriction restriction = rm.getRestriction(url.getSource());
+				logger.debug("Checking {} against {}", source, rm);
+				Restriction restriction = rm.getRestriction(source);
 				if (!restriction.canFetch()) {
-					logger.debug("Restriction check failed for {}", url.getSource());
+					logger.debug("Restriction check failed for {}", source);
+					crawlDelay = 0;
 					return;
 				}
+				crawlDelay = Math.max(crawlDelay, restriction.getCrawlDelay());
 			}
-			logger.info("Fetching: {}", url.getSource());
+			logger.info("Fetching: {}", source);
+			start = System.nanoTime();
 			FetchedContent fetched = fetchSite(url);
+			if (limiter != null) {
+				pause = limiter.onResponse(source, status, System.nanoTime() - start,
+					retryAfter);
+			}
+			if (retries != null && retries
+				.retry(url, status, frontier, Math.max(pause, retryAfter))) {
+				logger.debug("Retrying {} after status {}", source, status);
+				return;
+			}
 			if (fetched != null) {
-				queue.put(new Pair<>(fetched, null));
+				if (keep) {
+					frontier.keep(url);
+				}
+				queue.offer(new Pair<>(fetched, null));
 			}
 		} catch (Throwable e) {
-			queue.offer(new Pair<>(null, new FetchFailedException(e, url.getSource())));
+			if (limiter != null && start != 0) {
+				if (e instanceof InterruptedIOException) {
+					limiter.onTimeout(source, System.nanoTime() - start);
+				} else if (status != 0) {
+					pause = limiter.onResponse(source, status, System.nanoTime() - start,
+						retryAfter);
+				}
+			}
+			metrics.recordFailure();
+			if (retries != null && retries.retry(url, e, frontier, Math.max(pause, retryAfter))) {
+				logger.debug("Retrying {} after {}", source, e.toString());
+				return;
+			}
+			queue.offer(new Pair<>(null, new FetchFailedException(e, source)));
 		} finally {
+			frontier.release(url, Math.max(TimeUnit.SECONDS.toMillis(crawlDelay), pause),
+				TimeUnit.MILLISECONDS);
 			runningTasks.decrementAndGet();
+			// the consumers check if that was the last url
+			queue.wakeUp();
 		}
 	}
 
 
 	/**
-	 * fetches the specified url with the user-agent.
+	 * fetches the specified url.
 	 *
 	 * @param url the url of the site.
-	 * @return the fetched page, or null if the page is not html.
-	 * @throws IOException if failed to fetch the site.
+	 * @return the fetched page, the unchanged result if the page was not modified, or null if the
+	 * page is not html.
+	 * @throws IOException if failed to fetch the site or to read the whole body, if the page is too
+	 * large, or if the body cannot be decompressed.
+	 * @throws URISyntaxException if the url is not a valid URI.
 	 */
-	private FetchedContent fetchSite(PrioritizedURL url) throws IOException {
-		URLConnection conn = url.getSource().openConnection();
-		HttpURLConnection urlc;
-		if (url.getSource().openConnection() instanceof HttpURLConnection) {
-			// establish connection
-			urlc = (HttpURLConnection) conn;
-		} else {
-			return null;
+	private FetchedContent fetchSite(PrioritizedURL url) throws IOException, URISyntaxException {
+		long start = System.nanoTime();
+		HttpGet get = new HttpGet(source.toURI());
+		get.setHeader("Accept-Encoding", FetchSupport.ACCEPT_ENCODING);
+		if (validators != null) {
+			validators.addConditions(url.getKey(), get);
 		}
-		try {
-			// fetch content
-			urlc.setRequestMethod("GET");
-			urlc.setRequestProperty("User-Agent", userAgent);
-			urlc.connect();
-
-			String mime = urlc.getContentType();
-			if (mime == null) {
-				return null;
+		try (CloseableHttpResponse response = connections.getClient().execute(get)) {
+			status = response.getStatusLine().getStatusCode();
+			retryAfter = FetchSupport.getRetryAfter(response);
+			if (status == HttpStatus.SC_NOT_MODIFIED && validators != null) {
+				ValidatorStore.Validators stored = validators
+					.notModified(url.getKey(), response);
+				if (stored != null) {
+					metrics.recordFetch(System.nanoTime() - start);
+					return new FetchedContent(url, status, new byte[0], null,
+						stored.getChecksum());
+				}
 			}
-			boolean isHTML = mime.contains("text/html") || mime.contains("text/htm") || mime
-				.contains("text/plain");
-			if (!isHTML) {
+			HttpEntity entity = response.getEntity();
+			Header contentType = response.getFirstHeader("Content-Type");
+			String mime = contentType == null ? null : contentType.getValue();
+			if (entity == null || !FetchSupport.isHTML(mime)) {
+				// closing the response without reading the body discards the connection
+				get.abort();
 				return null;
 			}
 
-			String pageHtml;
+			Header encoding = response.getFirstHeader("Content-Encoding");
+			BodyBuffer body = new BodyBuffer(buffers, maxPageSize, fingerprints);
+			BodyInflater inflater = null;
 			try {
-				pageHtml = new String(IOUtil.read(urlc.getInputStream()),
-					getEncoding(urlc));
+				inflater = BodyInflater.forEncoding(encoding == null ? null : encoding.getValue());
+				body.expect(entity.getContentLength());
+				// not closed on failure, as closing the stream reads the rest of the body
+				CountingInputStream in = new CountingInputStream(entity.getContent());
+				body.readFrom(in, inflater);
+				in.close();
+				metrics.recordFetch(System.nanoTime() - start);
+				metrics.recordTransfer(in.getCount(), body.size());
+				byte[] bytes = body.toByteArray();
+				ContentFingerprint checksum = body.checksum();
+				if (validators != null && status == HttpStatus.SC_OK) {
+					validators.update(url.getKey(), response, checksum);
+				}
+				return new FetchedContent(url, status, bytes, FetchSupport.getCharset(mime, bytes),
+					checksum);
 			} catch (IOException e) {
-				pageHtml = "";
-			}
-			return new FetchedContent(url, urlc.getResponseCode(), pageHtml);
-		} finally {
-			if (urlc != null) {
-				urlc.disconnect();
+				get.abort();
+				throw e;
+			} finally {
+				body.release();
+				if (inflater != null) {
+					inflater.end();
+				}
 			}
 		}
 	}
-
-	/**
-	 * gets the encoding of a http remote resource.
-	 *
-	 * @param urlConnection the connection to the remote resource.
-	 * @return the encofing or UTF-8 if encoding information unavailable.
-	 */
-	private String getEncoding(HttpURLConnection urlConnection) {
-		String mime = urlConnection.getContentType();
-		String encoding = urlConnection.getContentEncoding();
-		if (encoding != null) {
-			return encoding;
-		}
-
-		int charsetIndex = mime.lastIndexOf("charset");
-		if (charsetIndex != -1) {
-			int encodingIndex = charsetIndex + 8;
-			return mime.substring(encodingIndex).trim();
-		}
-
-		return "UTF-8";
-	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,160 @@
+package net.viperfish.crawler.html.engine;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.apache.http.Header;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.utils.DateUtils;
+
+/**
+ * A container of the utility functions shared by the fetch engines for interpreting http
+ * responses.
+ */
+final class FetchSupport {
+
+	// the compressions the fetchers can decode
+	static final String ACCEPT_ENCODING = "gzip, deflate";
+
+	// the html spec only looks for the meta charset in the first 1024 bytes
+	private static final int SNIFF_LENGTH = 1024;
+	private static final Pattern META_CHARSET = Pattern
+		.compile("<meta[^>]+charset\\s*=\\s*[\"']?([a-z0-9_:.\\-]+)", Pattern.CASE_INSENSITIVE);
+
+	// ensures that it is a singleton.
+	private FetchSupport() {
+
+	}
+
+	/**
+	 * checks if a mime type denotes a page that the crawler can process.
+	 *
+	 * @param mime the value of the Content-Type header.
+	 * @return true if the page is html or plain text, false otherwise.
+	 */
+	static boolean isHTML(String mime) {
+		if (mime == null) {
+			return false;
+		}
+		return mime.contains("text/html") || mime.contains("text/htm") || mime
+			.contains("text/plain");
+	}
+
+	/**
+	 * gets the charset to decode a page with. In order, it is the charset of the byte order mark,
+	 * the charset declared in the Content-Type header, and the charset declared by a meta tag in
+	 * the first bytes of the page. The charsets not supported by the platform are ignored.
+	 *
+	 * @param mime the value of the Content-Type header.
+	 * @param body the body of the page.
+	 * @return the charset of the page, or UTF-8 if none was found.
+	 */
+	static String getCharset(String mime, byte[] body) {
+		String bom = getBOMCharset(body);
+		if (bom != null) {
+			return bom;
+		}
+		String declared = getDeclaredCharset(mime);
+		if (declared != null) {
+			return declared;
+		}
+		String sniffed = sniffCharset(body);
+		if (sniffed != null) {
+			return sniffed;
+		}
+		return "UTF-8";
+	}
+
+	/**
+	 * gets the charset declared in the value of a Content-Type header.
+	 *
+	 * @param mime the value of the Content-Type header.
+	 * @return the declared charset or null if no supported charset is declared.
+	 */
+	static String getDeclaredCharset(String mime) {
+		if (mime == null) {
+			return null;
+		}
+		for (String parameter : mime.split(";")) {
+			int equals = parameter.indexOf('=');
+			if (equals != -1 && parameter.substring(0, equals).trim().equalsIgnoreCase("charset")) {
+				String charset = parameter.substring(equals + 1).trim().replace("\"", "")
+					.replace("'", "");
+				return isSupported(charset) ? charset : null;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * looks for a meta tag declaring the charset in the first bytes of a page, either as <code>
+	 * &lt;meta charset&gt;</code> or as <code>&lt;meta http-equiv="Content-Type"&gt;</code>.
+	 *
+	 * @param body the body of the page.
+	 * @return the declared charset or null if no supported charset is declared.
+	 */
+	static String sniffCharset(byte[] body) {
+		if (body == null) {
+			return null;
+		}
+		// the declaration is ascii in every charset a page can be declared in
+		String head = new String(body, 0, Math.min(SNIFF_LENGTH, body.length),
+			StandardCharsets.ISO_8859_1);
+		Matcher matcher = META_CHARSET.matcher(head);
+		if (matcher.find() && isSupported(matcher.group(1))) {
+			return matcher.group(1);
+		}
+		return null;
+	}
+
+	/**
+	 * gets the time a server asked to wait before the next request with the Retry-After header,
+	 * which is either an amount of seconds or a date.
+	 *
+	 * @param response the response of the server.
+	 * @return the time to wait in milliseconds, or 0 if the header is missing or invalid.
+	 */
+	static long getRetryAfter(HttpResponse response) {
+		Header header = response.getFirstHeader("Retry-After");
+		if (header == null) {
+			return 0;
+		}
+		String value = header.getValue().trim();
+		if (value.matches("\\d{1,9}")) {
+			return Long.parseLong(value) * 1000;
+		}
+		Date date = DateUtils.parseDate(value);
+		if (date == null) {
+			return 0;
+		}
+		return Math.max(0, date.getTime() - System.currentTimeMillis());
+	}
+
+	private static String getBOMCharset(byte[] body) {
+		if (body == null || body.length < 2) {
+			return null;
+		}
+		int b0 = body[0] & 0xff;
+		int b1 = body[1] & 0xff;
+		if (body.length >= 3 && b0 == 0xef && b1 == 0xbb && (body[2] & 0xff) == 0xbf) {
+			return "UTF-8";
+		}
+		if (b0 == 0xfe && b1 == 0xff) {
+			return "UTF-16BE";
+		}
+		if (b0 == 0xff && b1 == 0xfe) {
+			return "UTF-16LE";
+		}
+		return null;
+	}
+
+	private static boolean isSupported(String charset) {
+		try {
+			return !charset.isEmpty() && Charset.isSupported(charset);
+		} catch (IllegalArgumentException e) {
+			return false;
+		}
+	}
+}
@@ -0,0 +1,76 @@
+package net.viperfish.crawler.html.engine;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The urls handed out by a url queue and not released yet, which its checkpoints hold along with
+ * the queued urls, so that the urls being fetched are not lost when the crawl is restarted. A url
+ * kept until its page is processed is added once more before it is released. A url handed out or
+ * kept again before it is removed is counted twice. This class is thread safe.
+ */
+final class HandedOutURLs {
+
+	private final Map<CanonicalURL, Entry> urls;
+
+	/**
+	 * creates an empty set of urls.
+	 */
+	HandedOutURLs() {
+		urls = new HashMap<>();
+	}
+
+	/**
+	 * records a url as handed out or kept.
+	 *
+	 * @param url the url handed out or kept.
+	 */
+	synchronized void add(PrioritizedURL url) {
+		Entry entry = urls.get(url.getKey());
+		if (entry == null) {
+			urls.put(url.getKey(), new Entry(url));
+		} else {
+			entry.count++;
+		}
+	}
+
+	/**
+	 * records a url as released or done.
+	 *
+	 * @param url the url released or done.
+	 * @return true if the url was handed out.
+	 */
+	synchronized boolean remove(PrioritizedURL url) {
+		Entry entry = urls.get(url.getKey());
+		if (entry == null) {
+			return false;
+		}
+		if (--entry.count == 0) {
+			urls.remove(url.getKey());
+		}
+		return true;
+	}
+
+	/**
+	 * copies the urls handed out to a collection, once each.
+	 *
+	 * @param result the collection to add the urls to.
+	 */
+	synchronized void copyTo(Collection<PrioritizedURL> result) {
+		for (Entry entry : urls.values()) {
+			result.add(entry.url);
+		}
+	}
+
+	private static final class Entry {
+
+		private final PrioritizedURL url;
+		private int count;
+
+		private Entry(PrioritizedURL url) {
+			this.url = url;
+			this.count = 1;
+		}
+	}
+}
@@ -0,0 +1,271 @@
+package net.viperfish.crawler.html.engine;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import java.net.URL;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Adapts the amount of fetches in flight allowed for each host to how the host responds, following
+ * the additive increase and multiplicative decrease of TCP. Each host starts at the initial limit.
+ * Once as many responses as the limit came back, the average latency of that window is compared
+ * against the usual latency of the host, and the limit is raised by one if the latency stayed
+ * within the tolerance. A slower window keeps the limit as it is. A timeout, a 429 Too Many
+ * Requests or a 503 Service Unavailable cuts the limit by the backoff ratio, once per burst: the
+ * requests sent before the last cut do not cut it again. The Retry-After header of these responses
+ * is returned to the caller as the time to leave the host alone, up to the maximum pause. The
+ * limits are read by a {@link HostPartitionedURLBlockingQueue} when it schedules the hosts, and the
+ * hosts not heard from for an hour are forgotten. This class is thread safe.
+ */
+public class HostConcurrencyLimiter {
+
+	private static final int DEFAULT_INITIAL_LIMIT = 1;
+	private static final int DEFAULT_MAX_LIMIT = 16;
+	private static final double DEFAULT_BACKOFF_RATIO = 0.5;
+	private static final double DEFAULT_LATENCY_TOLERANCE = 1.5;
+	private static final long DEFAULT_MAX_PAUSE_MINUTES = 10;
+	// how fast the usual latency follows a host that got slower for good
+	private static final double BASELINE_DRIFT = 0.1;
+
+	private final int initialLimit;
+	private final int maxLimit;
+	private final double backoffRatio;
+	private final double latencyTolerance;
+	private final long maxPause;
+	private final Cache<String, HostLimit> hosts;
+	private final LongAdder increases;
+	private final LongAdder backoffs;
+	private final Logger logger;
+
+	/**
+	 * creates a limiter that starts each host at one fetch in flight, raises it up to 16, halves it
+	 * on overload, and tolerates windows up to 50% slower than usual.
+	 */
+	public HostConcurrencyLimiter() {
+		this(DEFAULT_INITIAL_LIMIT, DEFAULT_MAX_LIMIT, DEFAULT_BACKOFF_RATIO,
+			DEFAULT_LATENCY_TOLERANCE);
+	}
+
+	/**
+	 * creates a limiter with the specified settings. The Retry-After pauses are capped at 10
+	 * minutes.
+	 *
+	 * @param initialLimit the limit of a host seen for the first time.
+	 * @param maxLimit the highest limit of a host.
+	 * @param backoffRatio the factor the limit is multiplied by on overload, between 0 and 1.
+	 * @param latencyTolerance how many times the usual latency a window can take and still raise
+	 * the limit.
+	 */
+	public HostConcurrencyLimiter(int initialLimit, int maxLimit, double backoffRatio,
+		double latencyTolerance) {
+		if (initialLimit < 1 || maxLimit < initialLimit) {
+			throw new IllegalArgumentException("The limits must satisfy 1 <= initial <= max");
+		}
+		if (backoffRatio <= 0 || backoffRatio >= 1) {
+			throw new IllegalArgumentException("The backoff ratio must be between 0 and 1");
+		}
+		this.initialLimit = initialLimit;
+		this.maxLimit = maxLimit;
+		this.backoffRatio = backoffRatio;
+		this.latencyTolerance = latencyTolerance;
+		this.maxPause = TimeUnit.MINUTES.toMillis(DEFAULT_MAX_PAUSE_MINUTES);
+		this.hosts = CacheBuilder.newBuilder().expireAfterAccess(1, TimeUnit.HOURS).build();
+		this.increases = new LongAdder();
+		this.backoffs = new LongAdder();
+		this.logger = LoggerFactory.getLogger(this.getClass());
+	}
+
+	/**
+	 * records a response from a host.
+	 *
+	 * @param url the url that was fetched.
+	 * @param status the status code of the response.
+	 * @param latencyNanos the time from sending the request to having read the response.
+	 * @param retryAfter the time the server asked to wait in milliseconds, or 0.
+	 * @return the time to wait before the next request to the host in milliseconds, which is the
+	 * capped Retry-After on overload and 0 otherwise.
+	 */
+	public long onResponse(URL url, int status, long latencyNanos, long retryAfter) {
+		if (status == 429 || status == 503) {
+			backoff(url, latencyNanos);
+			return Math.min(retryAfter, maxPause);
+		}
+		if (status < 500) {
+			HostLimit host = hostLimit(hostOf(url));
+			int raised = host.sample(latencyNanos);
+			if (raised != 0) {
+				increases.increment();
+				logger.debug("Raised the concurrency limit of {} to {}", url.getHost(), raised);
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * records a request to a host that timed out.
+	 *
+	 * @param url the url that was fetched.
+	 * @param latencyNanos the time from sending the request to giving up.
+	 */
+	public void onTimeout(URL url, long latencyNanos) {
+		backoff(url, latencyNanos);
+	}
+
+	/**
+	 * gets the highest limit a host can reach.
+	 *
+	 * @return the maximum amount of fetches in flight for a host.
+	 */
+	public int getMaxLimit() {
+		return maxLimit;
+	}
+
+	/**
+	 * gets the current limit of a host.
+	 *
+	 * @param host the name of the host.
+	 * @return the maximum amount of fetches in flight for the host.
+	 */
+	public int getLimit(String host) {
+		HostLimit limit = hosts.getIfPresent(host.toLowerCase());
+		return limit == null ? initialLimit : limit.get();
+	}
+
+	/**
+	 * gets the limits of all the hosts heard from in the last hour.
+	 *
+	 * @return the limits by host name, sorted by name.
+	 */
+	public Map<String, Integer> getLimits() {
+		Map<String, Integer> result = new TreeMap<>();
+		for (Map.Entry<String, HostLimit> e : hosts.asMap().entrySet()) {
+			result.put(e.getKey(), e.getValue().get());
+		}
+		return result;
+	}
+
+	/**
+	 * gets the amount of times the limit of a host was raised.
+	 *
+	 * @return the amount of increases.
+	 */
+	public long getIncreaseCount() {
+		return increases.sum();
+	}
+
+	/**
+	 * gets the amount of times the limit of a host was cut.
+	 *
+	 * @return the amount of backoffs.
+	 */
+	public long getBackoffCount() {
+		return backoffs.sum();
+	}
+
+	/**
+	 * gets the limit of a host without refreshing it. Called by the queue with its lock held.
+	 *
+	 * @param host the lower case name of the host.
+	 * @return the maximum amount of fetches in flight for the host.
+	 */
+	int limit(String host) {
+		HostLimit limit = hosts.getIfPresent(host);
+		return limit == null ? initialLimit : limit.get();
+	}
+
+	private void backoff(URL url, long latencyNanos) {
+		HostLimit host = hostLimit(hostOf(url));
+		int cut = host.backoff(System.nanoTime() - latencyNanos);
+		if (cut != 0) {
+			backoffs.increment();
+			logger.debug("Cut the concurrency limit of {} to {}", url.getHost(), cut);
+		}
+	}
+
+	private HostLimit hostLimit(String host) {
+		HostLimit limit = hosts.getIfPresent(host);
+		if (limit == null) {
+			limit = hosts.asMap().computeIfAbsent(host, h -> new HostLimit(initialLimit));
+		}
+		return limit;
+	}
+
+	private static String hostOf(URL url) {
+		return url.getHost().toLowerCase();
+	}
+
+	/**
+	 * The limit of a single host and the latency samples of its current window.
+	 */
+	private final class HostLimit {
+
+		private volatile int limit;
+		private long baseline;
+		private long windowNanos;
+		private int windowSamples;
+		private long lastBackoff;
+		private boolean backedOff;
+
+		HostLimit(int limit) {
+			this.limit = limit;
+			this.baseline = 0;
+			this.backedOff = false;
+		}
+
+		int get() {
+			return limit;
+		}
+
+		/**
+		 * adds a latency sample to the window, and closes the window once it has as many samples
+		 * as the limit.
+		 *
+		 * @param latency the latency in nanoseconds.
+		 * @return the new limit if it was raised, or 0.
+		 */
+		synchronized int sample(long latency) {
+			windowNanos += latency;
+			windowSamples++;
+			if (windowSamples < limit) {
+				return 0;
+			}
+			long average = windowNanos / windowSamples;
+			windowNanos = 0;
+			windowSamples = 0;
+			boolean stable = baseline == 0 || average <= baseline * latencyTolerance;
+			if (baseline == 0 || average < baseline) {
+				baseline = average;
+			} else {
+				baseline += (long) ((average - baseline) * BASELINE_DRIFT);
+			}
+			if (stable && limit < maxLimit) {
+				limit++;
+				return limit;
+			}
+			return 0;
+		}
+
+		/**
+		 * cuts the limit, unless it was already cut after the request was sent.
+		 *
+		 * @param sent the time the request was sent in nanoseconds.
+		 * @return the new limit if it was cut, or 0.
+		 */
+		synchronized int backoff(long sent) {
+			if (backedOff && sent - lastBackoff < 0) {
+				return 0;
+			}
+			backedOff = true;
+			lastBackoff = System.nanoTime();
+			windowNanos = 0;
+			windowSamples = 0;
+			limit = Math.max(1, (int) (limit * backoffRatio));
+			return limit;
+		}
+	}
+}
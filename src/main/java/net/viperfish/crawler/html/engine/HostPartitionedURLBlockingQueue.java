@@ -0,0 +1,532 @@
+package net.viperfish.crawler.html.engine;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import net.viperfish.crawler.core.Checkpointable;
+
+/**
+ * A {@link PrioritizedURLBlockingQueue} that enforces politeness towards the hosts being crawled.
+ * Each host has its own priority queue of urls and the earliest time at which it may be hit again.
+ * A host is ready when that time has passed and it has less fetches in flight than the per host
+ * limit. The take methods hand out the url with the highest priority among all the ready hosts, so
+ * the fetch slots are spread across many hosts instead of serializing on the busiest one. The delay
+ * for a host is set when its fetch is released, which is usually the crawl-delay from its
+ * robots.txt. Both the urls of a host and the hosts themselves are kept in indexed heaps, so a
+ * change in priority is applied in logarithmic time. For this queue, the higher the priority
+ * number, the greater the importance. If a host gate is set, a host seen for the first time is
+ * held back until the future returned by the gate completes, which lets the restrictions of the
+ * host be fetched in the background while its urls wait in this queue rather than in a fetch
+ * thread. If a {@link HostConcurrencyLimiter} is set, the limit of fetches in flight of each host
+ * is taken from it instead of the fixed per host limit. A checkpoint of this queue contains the
+ * pending urls and the urls handed out but not released or kept until done yet, and the delays of
+ * the hosts start over after a restore.
+ */
+public class HostPartitionedURLBlockingQueue implements PrioritizedURLBlockingQueue,
+	Checkpointable {
+
+	private final ReentrantLock lock;
+	private final Condition hostReady;
+	private final Map<String, HostQueue> hosts;
+	private final IndexedHeap<HostQueue> readyHosts;
+	private final IndexedHeap<HostQueue> waitingHosts;
+	private final int maxInFlightPerHost;
+	private final long minDelay;
+	private final HandedOutURLs handedOutURLs;
+	private Function<URL, CompletableFuture<?>> hostGate;
+	private HostConcurrencyLimiter limiter;
+	private int size;
+	private int handedOut;
+	private long version;
+
+	/**
+	 * creates an empty queue that allows one fetch in flight per host and has no minimal delay
+	 * between requests to the same host.
+	 */
+	public HostPartitionedURLBlockingQueue() {
+		this(1, 0, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * creates an empty queue with the specified politeness settings.
+	 *
+	 * @param maxInFlightPerHost the maximum amount of urls from the same host handed out but not
+	 * yet released.
+	 * @param minDelay the minimal delay between two requests to the same host, applied when the
+	 * released delay is shorter.
+	 * @param unit the unit of the minimal delay.
+	 */
+	public HostPartitionedURLBlockingQueue(int maxInFlightPerHost, long minDelay, TimeUnit unit) {
+		if (maxInFlightPerHost < 1) {
+			throw new IllegalArgumentException("At least one fetch per host must be allowed");
+		}
+		this.lock = new ReentrantLock();
+		this.hostReady = lock.newCondition();
+		this.hosts = new HashMap<>();
+		this.readyHosts = new IndexedHeap<>(new ReadyComparator());
+		this.waitingHosts = new IndexedHeap<>(new WaitingComparator());
+		this.maxInFlightPerHost = maxInFlightPerHost;
+		this.minDelay = unit.toNanos(minDelay);
+		this.handedOutURLs = new HandedOutURLs();
+		this.size = 0;
+		this.handedOut = 0;
+		this.version = 0;
+	}
+
+	@Override
+	public void offer(URL url) {
+		this.offer(new PrioritizedURL(url, 1));
+	}
+
+	@Override
+	public void offer(PrioritizedURL prioritizedURL) {
+		lock.lock();
+		try {
+			insert(prioritizedURL);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public void offerAll(Collection<PrioritizedURL> prioritizedURLs) {
+		lock.lock();
+		try {
+			for (PrioritizedURL prioritizedURL : prioritizedURLs) {
+				insert(prioritizedURL);
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public PrioritizedURL take() throws InterruptedException {
+		lock.lockInterruptibly();
+		try {
+			while (true) {
+				long now = System.nanoTime();
+				PrioritizedURL result = poll(now);
+				if (result != null) {
+					return result;
+				}
+				HostQueue next = waitingHosts.peek();
+				if (next == null) {
+					hostReady.await();
+				} else {
+					hostReady.awaitNanos(next.nextEligible - now);
+				}
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public PrioritizedURL take(int time, TimeUnit unit) throws InterruptedException {
+		long remaining = unit.toNanos(time);
+		lock.lockInterruptibly();
+		try {
+			while (true) {
+				long now = System.nanoTime();
+				PrioritizedURL result = poll(now);
+				if (result != null) {
+					return result;
+				}
+				if (remaining <= 0) {
+					return null;
+				}
+				long wait = remaining;
+				HostQueue next = waitingHosts.peek();
+				if (next != null) {
+					wait = Math.min(wait, next.nextEligible - now);
+				}
+				long left = hostReady.awaitNanos(wait);
+				remaining -= wait - left;
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public void release(PrioritizedURL url, long delay, TimeUnit unit) {
+		lock.lock();
+		try {
+			HostQueue host = hosts.get(hostOf(url));
+			if (host == null) {
+				return;
+			}
+			long now = System.nanoTime();
+			if (host.state == HostState.READY) {
+				readyHosts.remove(host);
+			} else if (host.state == HostState.WAITING) {
+				waitingHosts.remove(host);
+			}
+			host.state = HostState.IDLE;
+			if (host.inFlight > 0) {
+				host.inFlight--;
+				handedOut--;
+			}
+			if (handedOutURLs.remove(url)) {
+				version++;
+			}
+			host.nextEligible = Math
+				.max(host.nextEligible, now + Math.max(minDelay, unit.toNanos(delay)));
+			schedule(host, now);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public void keep(PrioritizedURL url) {
+		lock.lock();
+		try {
+			handedOutURLs.add(url);
+			version++;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public void done(PrioritizedURL url) {
+		lock.lock();
+		try {
+			if (handedOutURLs.remove(url)) {
+				version++;
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public int size() {
+		lock.lock();
+		try {
+			return size;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public int outstanding() {
+		lock.lock();
+		try {
+			return size + handedOut;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * sets the gate for the new hosts. When the first url of a host that is not tracked is offered,
+	 * the gate is called with that url, and the host is not handed out until the returned future
+	 * completes, successfully or not. This must be called before the queue is used.
+	 *
+	 * @param hostGate the function that starts preparing a host.
+	 */
+	public void setHostGate(Function<URL, CompletableFuture<?>> hostGate) {
+		lock.lock();
+		try {
+			this.hostGate = hostGate;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * sets the limiter that decides how many fetches each host can have in flight. The limits
+	 * change as the limiter learns about the hosts, and they are applied when the hosts are
+	 * scheduled again. This must be called before the queue is used.
+	 *
+	 * @param limiter the concurrency limiter.
+	 */
+	public void setConcurrencyLimiter(HostConcurrencyLimiter limiter) {
+		lock.lock();
+		try {
+			this.limiter = limiter;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * gets the maximum amount of urls from the same host handed out at once, when no concurrency
+	 * limiter is set.
+	 *
+	 * @return the maximum amount of fetches in flight for a host.
+	 */
+	public int getMaxInFlightPerHost() {
+		return maxInFlightPerHost;
+	}
+
+	/**
+	 * gets the amount of hosts currently tracked by this queue, including the hosts that have no
+	 * pending urls but are still under their delay.
+	 *
+	 * @return the amount of tracked hosts.
+	 */
+	public int hostCount() {
+		lock.lock();
+		try {
+			return hosts.size();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public long getVersion() {
+		lock.lock();
+		try {
+			return version;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public void checkpoint(DataOutputStream out) throws IOException {
+		List<PrioritizedURL> urls = new ArrayList<>(size());
+		lock.lock();
+		try {
+			for (HostQueue host : hosts.values()) {
+				host.urls.copyTo(urls);
+			}
+			handedOutURLs.copyTo(urls);
+		} finally {
+			lock.unlock();
+		}
+		URLCheckpoints.write(out, urls);
+	}
+
+	@Override
+	public void restore(DataInputStream in) throws IOException {
+		URLCheckpoints.read(in, this);
+	}
+
+	/**
+	 * removes the best url from the best ready host, after moving all the hosts whose delay has
+	 * passed to the ready hosts. Must be called with the lock held.
+	 *
+	 * @param now the current time in nanoseconds.
+	 * @return the best url or null if no host is ready.
+	 */
+	private PrioritizedURL poll(long now) {
+		while (!waitingHosts.isEmpty() && waitingHosts.peek().nextEligible - now <= 0) {
+			HostQueue host = waitingHosts.poll();
+			host.state = HostState.IDLE;
+			schedule(host, now);
+		}
+		HostQueue host = readyHosts.poll();
+		if (host == null) {
+			return null;
+		}
+		host.state = HostState.IDLE;
+		PrioritizedURL result = host.urls.poll();
+		size--;
+		version++;
+		host.inFlight++;
+		handedOut++;
+		handedOutURLs.add(result);
+		host.nextEligible = now + minDelay;
+		schedule(host, now);
+		return result;
+	}
+
+	/**
+	 * adds a url to the queue of its host, creating and gating the host if it is new, and makes
+	 * the host available to the takers. Must be called with the lock held.
+	 *
+	 * @param prioritizedURL the url with priority.
+	 */
+	private void insert(PrioritizedURL prioritizedURL) {
+		version++;
+		String hostName = hostOf(prioritizedURL);
+		HostQueue host = hosts.get(hostName);
+		boolean added = host == null;
+		if (added) {
+			host = new HostQueue(hostName);
+			hosts.put(hostName, host);
+		}
+		if (host.urls.offer(prioritizedURL)) {
+			size++;
+		}
+		if (added) {
+			gate(host, prioritizedURL.getSource());
+		}
+		if (host.state == HostState.READY) {
+			readyHosts.update(host);
+		} else if (host.state == HostState.WAITING) {
+			// the host may have been kept around without urls, which nobody waits for
+			hostReady.signal();
+		} else {
+			schedule(host, System.nanoTime());
+		}
+	}
+
+	/**
+	 * holds a new host back until the gate opens. Must be called with the lock held.
+	 *
+	 * @param host the new host.
+	 * @param url the first url of the host.
+	 */
+	private void gate(HostQueue host, URL url) {
+		if (hostGate == null) {
+			return;
+		}
+		CompletableFuture<?> ready;
+		try {
+			ready = hostGate.apply(url);
+		} catch (RuntimeException e) {
+			return;
+		}
+		if (ready == null || ready.isDone()) {
+			return;
+		}
+		host.state = HostState.GATED;
+		ready.whenComplete((result, error) -> open(host));
+	}
+
+	/**
+	 * schedules a host whose gate has opened.
+	 *
+	 * @param host the host.
+	 */
+	private void open(HostQueue host) {
+		lock.lock();
+		try {
+			if (host.state != HostState.GATED) {
+				return;
+			}
+			host.state = HostState.IDLE;
+			schedule(host, System.nanoTime());
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * places an idle host into the ready hosts or the waiting hosts depending on its state. Hosts
+	 * without urls or fetches in flight are dropped once their delay has passed. Must be called
+	 * with the lock held.
+	 *
+	 * @param host the host to schedule.
+	 * @param now the current time in nanoseconds.
+	 */
+	private void schedule(HostQueue host, long now) {
+		int maxInFlight = limiter == null ? maxInFlightPerHost : limiter.limit(host.name);
+		if (host.state != HostState.IDLE || host.inFlight >= maxInFlight) {
+			return;
+		}
+		boolean eligible = host.nextEligible - now <= 0;
+		if (host.urls.isEmpty()) {
+			if (!eligible) {
+				// keep the host around until its delay passes
+				host.state = HostState.WAITING;
+				waitingHosts.add(host);
+			} else if (host.inFlight == 0) {
+				hosts.remove(host.name);
+			}
+			return;
+		}
+		if (eligible) {
+			host.state = HostState.READY;
+			readyHosts.add(host);
+		} else {
+			host.state = HostState.WAITING;
+			waitingHosts.add(host);
+		}
+		hostReady.signal();
+	}
+
+	/**
+	 * gets the name of the host the url belongs to.
+	 *
+	 * @param url the url.
+	 * @return the lower case host name.
+	 */
+	private String hostOf(PrioritizedURL url) {
+		return url.getKey().getHost();
+	}
+
+	/**
+	 * The scheduling state of a host.
+	 */
+	private enum HostState {
+		/**
+		 * not in any of the heaps.
+		 */
+		IDLE,
+		/**
+		 * in the ready heap.
+		 */
+		READY,
+		/**
+		 * in the waiting heap.
+		 */
+		WAITING,
+		/**
+		 * not in any of the heaps until the gate of the new host opens.
+		 */
+		GATED
+	}
+
+	/**
+	 * The urls and the scheduling information for a single host.
+	 */
+	private static class HostQueue extends IndexedHeap.Node {
+
+		private final String name;
+		private final PrioritizedURLHeap urls;
+		private int inFlight;
+		private long nextEligible;
+		private HostState state;
+
+		HostQueue(String name) {
+			this.name = name;
+			this.urls = new PrioritizedURLHeap();
+			this.inFlight = 0;
+			this.nextEligible = System.nanoTime();
+			this.state = HostState.IDLE;
+		}
+	}
+
+	/**
+	 * Orders the ready hosts by the priority of their best url.
+	 */
+	private static class ReadyComparator implements Comparator<HostQueue> {
+
+		@Override
+		public int compare(HostQueue o1, HostQueue o2) {
+			return PrioritizedURLHeap.ORDER.compare(o1.urls.peek(), o2.urls.peek());
+		}
+	}
+
+	/**
+	 * Orders the waiting hosts by the time they become eligible.
+	 */
+	private static class WaitingComparator implements Comparator<HostQueue> {
+
+		@Override
+		public int compare(HostQueue o1, HostQueue o2) {
+			return Long.compare(o1.nextEligible - o2.nextEligible, 0);
+		}
+	}
+}
@@ -0,0 +1,179 @@
+package net.viperfish.crawler.html.engine;
+
+import com.google.common.hash.HashFunction;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import net.viperfish.crawler.html.ContentFingerprint;
+import net.viperfish.crawler.html.FetchedContent;
+import net.viperfish.crawler.html.exception.PageTooLargeException;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.entity.ContentType;
+import org.apache.http.nio.ContentDecoder;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.protocol.AbstractAsyncResponseConsumer;
+import org.apache.http.protocol.HttpContext;
+
+/**
+ * A non-blocking response consumer that collects the body of a html page as it arrives from the IO
+ * reactor. The body is decoded straight into pooled buffers and hashed on the fly by a {@link
+ * BodyBuffer}, and the request fails as soon as the body exceeds the maximum page size. A
+ * compressed body is read into a pooled buffer and inflated chunk by chunk. A 304 response to a
+ * conditional request results in an unchanged page carrying the checksum from the {@link
+ * ValidatorStore}. Responses that are not html are drained and discarded, in which case the result
+ * of the consumer is null, and they are aborted as well once they exceed the maximum page size,
+ * so that the connection is not kept busy by a large download. An instance of this class can
+ * only be used for a single request.
+ */
+class HtmlResponseConsumer extends AbstractAsyncResponseConsumer<FetchedContent> {
+
+	private PrioritizedURL url;
+	private BufferPool buffers;
+	private long maxPageSize;
+	private HashFunction fingerprints;
+	private FetchMetrics metrics;
+	private ValidatorStore validators;
+	private HttpResponse response;
+	private ValidatorStore.Validators unchanged;
+	private int status;
+	private long retryAfter;
+	private String mime;
+	private ByteBuffer chunk;
+	private BodyBuffer body;
+	private BodyInflater inflater;
+	private long transferred;
+
+	/**
+	 * creates a new consumer for the response of the specified url.
+	 *
+	 * @param url the url being fetched.
+	 * @param buffers the pool of buffers to read the body into.
+	 * @param maxPageSize the maximum size of the body in bytes.
+	 * @param fingerprints the function that fingerprints the body.
+	 * @param metrics the metrics to record the size of the body in.
+	 * @param validators the store of the cache validators, or null if the request is not
+	 * conditional.
+	 */
+	HtmlResponseConsumer(PrioritizedURL url, BufferPool buffers, long maxPageSize,
+		HashFunction fingerprints, FetchMetrics metrics, ValidatorStore validators) {
+		this.url = url;
+		this.buffers = buffers;
+		this.maxPageSize = maxPageSize;
+		this.fingerprints = fingerprints;
+		this.metrics = metrics;
+		this.validators = validators;
+		this.transferred = 0;
+	}
+
+	@Override
+	protected void onResponseReceived(HttpResponse response) throws IOException {
+		this.response = response;
+		status = response.getStatusLine().getStatusCode();
+		retryAfter = FetchSupport.getRetryAfter(response);
+		if (status == HttpStatus.SC_NOT_MODIFIED && validators != null) {
+			unchanged = validators.notModified(url.getKey(), response);
+		}
+		Header contentType = response.getFirstHeader("Content-Type");
+		mime = contentType == null ? null : contentType.getValue();
+		if (FetchSupport.isHTML(mime)) {
+			body = new BodyBuffer(buffers, maxPageSize, fingerprints);
+			Header encoding = response.getFirstHeader("Content-Encoding");
+			inflater = BodyInflater.forEncoding(encoding == null ? null : encoding.getValue());
+		}
+		if (body == null || inflater != null) {
+			chunk = buffers.acquire();
+		}
+	}
+
+	@Override
+	protected void onContentReceived(ContentDecoder decoder, IOControl ioctrl)
+		throws IOException {
+		if (body == null || inflater != null) {
+			int bytesRead = decoder.read(chunk);
+			while (bytesRead > 0) {
+				transferred += bytesRead;
+				if (body == null && transferred > maxPageSize) {
+					throw new PageTooLargeException(maxPageSize);
+				}
+				if (inflater != null) {
+					chunk.flip();
+					inflater.inflate(chunk, body);
+				}
+				chunk.clear();
+				bytesRead = decoder.read(chunk);
+			}
+			return;
+		}
+		int bytesRead = decoder.read(body.writable());
+		while (bytesRead > 0) {
+			transferred += bytesRead;
+			body.written(bytesRead);
+			bytesRead = decoder.read(body.writable());
+		}
+	}
+
+	@Override
+	protected void onEntityEnclosed(HttpEntity entity, ContentType contentType)
+		throws IOException {
+		if (body != null) {
+			body.expect(entity.getContentLength());
+		} else if (entity.getContentLength() > maxPageSize) {
+			throw new PageTooLargeException(maxPageSize);
+		}
+	}
+
+	/**
+	 * gets the status code of the response.
+	 *
+	 * @return the status code, or 0 if no response was received.
+	 */
+	int getStatus() {
+		return status;
+	}
+
+	/**
+	 * gets the time the server asked to wait before the next request.
+	 *
+	 * @return the Retry-After in milliseconds, or 0.
+	 */
+	long getRetryAfter() {
+		return retryAfter;
+	}
+
+	@Override
+	protected FetchedContent buildResult(HttpContext context) throws IOException {
+		if (unchanged != null) {
+			return new FetchedContent(url, status, new byte[0], null, unchanged.getChecksum());
+		}
+		if (body == null) {
+			return null;
+		}
+		metrics.recordTransfer(transferred, body.size());
+		byte[] bytes = body.toByteArray();
+		ContentFingerprint checksum = body.checksum();
+		if (validators != null && status == HttpStatus.SC_OK) {
+			validators.update(url.getKey(), response, checksum);
+		}
+		return new FetchedContent(url, status, bytes, FetchSupport.getCharset(mime, bytes),
+			checksum);
+	}
+
+	@Override
+	protected void releaseResources() {
+		response = null;
+		if (body != null) {
+			body.release();
+			body = null;
+		}
+		if (inflater != null) {
+			inflater.end();
+			inflater = null;
+		}
+		if (chunk != null) {
+			buffers.release(chunk);
+			chunk = null;
+		}
+	}
+}
@@ -0,0 +1,202 @@
+package net.viperfish.crawler.html.engine;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+import org.apache.http.HttpHost;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.LayeredConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.impl.NoConnectionReuseStrategy;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.protocol.HttpContext;
+
+/**
+ * A pool of keep-alive http connections shared by the blocking fetch tasks. A connection is
+ * returned to the pool once its response has been read, and is reused by the next request to the
+ * same host, which saves the TCP handshake and, for https, the TLS handshake. The amount of
+ * connections per host and in total is capped, and a request waits at most 10 seconds for a
+ * connection before it fails with a timeout. The connections that stay idle longer than the idle
+ * timeout, or longer than the keep-alive time announced by the server, are closed by a background
+ * thread. The connections opened are counted in the {@link FetchMetrics}. This class
+ * is thread safe.
+ */
+public class HttpConnectionPool implements Closeable {
+
+	static final int DEFAULT_MAX_PER_HOST = 4;
+	private static final int DEFAULT_MAX_TOTAL = 200;
+	private static final int CONNECT_TIMEOUT = 10000;
+	private static final int SOCKET_TIMEOUT = 30000;
+	private static final int CONNECTION_REQUEST_TIMEOUT = 10000;
+
+	private final PoolingHttpClientConnectionManager manager;
+	private final CloseableHttpClient client;
+
+	/**
+	 * creates a pool that keeps up to 4 connections per host and 200 in total, and closes the
+	 * connections idle for 30 seconds.
+	 *
+	 * @param userAgent the user-agent sent with the requests.
+	 * @param metrics the metrics to count the opened connections in.
+	 */
+	public HttpConnectionPool(String userAgent, FetchMetrics metrics) {
+		this(userAgent, metrics, DEFAULT_MAX_PER_HOST);
+	}
+
+	/**
+	 * creates a pool that keeps up to the specified amount of connections per host and 200 in
+	 * total, or as many as per host if more, and closes the connections idle for 30 seconds.
+	 *
+	 * @param userAgent the user-agent sent with the requests.
+	 * @param metrics the metrics to count the opened connections in.
+	 * @param maxPerHost the maximum amount of connections to a host.
+	 */
+	public HttpConnectionPool(String userAgent, FetchMetrics metrics, int maxPerHost) {
+		this(userAgent, metrics, maxPerHost, Math.max(DEFAULT_MAX_TOTAL, maxPerHost), 30,
+			TimeUnit.SECONDS, true);
+	}
+
+	/**
+	 * creates a pool.
+	 *
+	 * @param userAgent the user-agent sent with the requests.
+	 * @param metrics the metrics to count the opened connections in.
+	 * @param maxPerHost the maximum amount of connections to a host.
+	 * @param maxTotal the maximum amount of connections.
+	 * @param idleTimeout the time after which an idle connection is closed.
+	 * @param unit the unit of the idle timeout.
+	 * @param keepAlive whether to reuse the connections, if false every request opens a new
+	 * connection.
+	 */
+	public HttpConnectionPool(String userAgent, FetchMetrics metrics, int maxPerHost,
+		int maxTotal, long idleTimeout, TimeUnit unit, boolean keepAlive) {
+		if (maxPerHost < 1 || maxTotal < maxPerHost) {
+			throw new IllegalArgumentException("Invalid connection limits");
+		}
+		Registry<ConnectionSocketFactory> sockets = RegistryBuilder
+			.<ConnectionSocketFactory>create()
+			.register("http", new CountingSocketFactory(
+				PlainConnectionSocketFactory.getSocketFactory(), metrics))
+			.register("https", new CountingSocketFactory(
+				SSLConnectionSocketFactory.getSocketFactory(), metrics))
+			.build();
+		this.manager = new PoolingHttpClientConnectionManager(sockets);
+		manager.setDefaultMaxPerRoute(maxPerHost);
+		manager.setMaxTotal(maxTotal);
+		manager.setValidateAfterInactivity(1000);
+		HttpClientBuilder builder = HttpClients.custom()
+			.setConnectionManager(manager)
+			.setUserAgent(userAgent)
+			.setDefaultRequestConfig(RequestConfig.custom()
+				.setConnectTimeout(CONNECT_TIMEOUT)
+				.setSocketTimeout(SOCKET_TIMEOUT)
+				.setConnectionRequestTimeout(CONNECTION_REQUEST_TIMEOUT)
+				.build())
+			.disableContentCompression()
+			.evictExpiredConnections()
+			.evictIdleConnections(idleTimeout, unit);
+		if (!keepAlive) {
+			builder.setConnectionReuseStrategy(NoConnectionReuseStrategy.INSTANCE);
+		}
+		this.client = builder.build();
+	}
+
+	/**
+	 * gets the client that leases its connections from this pool.
+	 *
+	 * @return the http client.
+	 */
+	CloseableHttpClient getClient() {
+		return client;
+	}
+
+	/**
+	 * gets the amount of connections that are open and not in use.
+	 *
+	 * @return the amount of idle connections.
+	 */
+	public int getIdleConnections() {
+		return manager.getTotalStats().getAvailable();
+	}
+
+	/**
+	 * gets the amount of connections that are in use.
+	 *
+	 * @return the amount of leased connections.
+	 */
+	public int getLeasedConnections() {
+		return manager.getTotalStats().getLeased();
+	}
+
+	/**
+	 * gets the state of the connections to a host.
+	 *
+	 * @param host the host name.
+	 * @param port the port.
+	 * @param scheme the scheme, http or https.
+	 * @return the statistics of the connections to the host.
+	 */
+	public PoolStats getHostStats(String host, int port, String scheme) {
+		return manager.getStats(new HttpRoute(new HttpHost(host, port, scheme)));
+	}
+
+	/**
+	 * closes all the connections and stops the eviction thread.
+	 *
+	 * @throws IOException if failed to close.
+	 */
+	@Override
+	public void close() throws IOException {
+		client.close();
+	}
+
+	/**
+	 * A socket factory that counts the connections it opens.
+	 */
+	private static class CountingSocketFactory implements LayeredConnectionSocketFactory {
+
+		private final ConnectionSocketFactory delegate;
+		private final FetchMetrics metrics;
+
+		CountingSocketFactory(ConnectionSocketFactory delegate, FetchMetrics metrics) {
+			this.delegate = delegate;
+			this.metrics = metrics;
+		}
+
+		@Override
+		public Socket createSocket(HttpContext context) throws IOException {
+			return delegate.createSocket(context);
+		}
+
+		@Override
+		public Socket connectSocket(int connectTimeout, Socket sock, HttpHost host,
+			InetSocketAddress remoteAddress, InetSocketAddress localAddress, HttpContext context)
+			throws IOException {
+			Socket connected = delegate
+				.connectSocket(connectTimeout, sock, host, remoteAddress, localAddress, context);
+			metrics.recordConnection();
+			return connected;
+		}
+
+		@Override
+		public Socket createLayeredSocket(Socket socket, String target, int port,
+			HttpContext context) throws IOException {
+			if (!(delegate instanceof LayeredConnectionSocketFactory)) {
+				throw new IOException("Cannot layer a connection over " + target);
+			}
+			return ((LayeredConnectionSocketFactory) delegate)
+				.createLayeredSocket(socket, target, port, context);
+		}
+	}
+}
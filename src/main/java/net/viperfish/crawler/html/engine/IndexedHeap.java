@@ -0,0 +1,210 @@
+package net.viperfish.crawler.html.engine;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * A binary heap whose nodes keep track of their own position in the heap. Knowing the position
+ * allows a node to be removed or re-sorted after a change of its key in logarithmic time, instead
+ * of the linear search of {@link java.util.PriorityQueue#remove(Object)}. The head of the heap is
+ * the least node according to the comparator. A node can only be in one heap at a time. This class
+ * is not thread safe.
+ *
+ * @param <N> the type of the nodes.
+ */
+class IndexedHeap<N extends IndexedHeap.Node> {
+
+	private static final int INITIAL_CAPACITY = 16;
+
+	private Node[] nodes;
+	private int size;
+	private Comparator<? super N> comparator;
+
+	/**
+	 * creates an empty heap ordered by the comparator.
+	 *
+	 * @param comparator the order of the nodes.
+	 */
+	IndexedHeap(Comparator<? super N> comparator) {
+		this.nodes = new Node[INITIAL_CAPACITY];
+		this.size = 0;
+		this.comparator = comparator;
+	}
+
+	/**
+	 * adds a node to the heap.
+	 *
+	 * @param node the node to add.
+	 */
+	void add(N node) {
+		if (size == nodes.length) {
+			nodes = Arrays.copyOf(nodes, size * 2);
+		}
+		nodes[size] = node;
+		node.heapIndex = size;
+		size++;
+		siftUp(size - 1);
+	}
+
+	/**
+	 * gets the least node without removing it.
+	 *
+	 * @return the least node or null if the heap is empty.
+	 */
+	N peek() {
+		return size == 0 ? null : nodeAt(0);
+	}
+
+	/**
+	 * removes the least node.
+	 *
+	 * @return the least node or null if the heap is empty.
+	 */
+	N poll() {
+		if (size == 0) {
+			return null;
+		}
+		N result = nodeAt(0);
+		removeAt(0);
+		return result;
+	}
+
+	/**
+	 * removes a node from the heap.
+	 *
+	 * @param node the node to remove.
+	 * @return true if the node was in the heap, false otherwise.
+	 */
+	boolean remove(N node) {
+		if (!contains(node)) {
+			return false;
+		}
+		removeAt(node.heapIndex);
+		return true;
+	}
+
+	/**
+	 * restores the order of the heap after the key of a node has changed.
+	 *
+	 * @param node the changed node.
+	 */
+	void update(N node) {
+		if (!contains(node)) {
+			return;
+		}
+		int index = siftUp(node.heapIndex);
+		siftDown(index);
+	}
+
+	/**
+	 * checks if a node is in this heap.
+	 *
+	 * @param node the node to check.
+	 * @return true if the node is in this heap, false otherwise.
+	 */
+	boolean contains(N node) {
+		int index = node.heapIndex;
+		return index >= 0 && index < size && nodes[index] == node;
+	}
+
+	/**
+	 * gets the amount of nodes in the heap.
+	 *
+	 * @return the amount of nodes.
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * checks if the heap is empty.
+	 *
+	 * @return true if empty, false otherwise.
+	 */
+	boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * removes the node at the specified position and fills the gap with the last node.
+	 *
+	 * @param index the position to remove.
+	 */
+	private void removeAt(int index) {
+		nodes[index].heapIndex = -1;
+		size--;
+		if (index == size) {
+			nodes[size] = null;
+			return;
+		}
+		nodes[index] = nodes[size];
+		nodes[index].heapIndex = index;
+		nodes[size] = null;
+		siftDown(siftUp(index));
+	}
+
+	/**
+	 * moves the node at the position up until its parent is not greater.
+	 *
+	 * @param index the position of the node.
+	 * @return the final position of the node.
+	 */
+	private int siftUp(int index) {
+		Node node = nodes[index];
+		while (index > 0) {
+			int parent = (index - 1) >>> 1;
+			if (compare(node, nodes[parent]) >= 0) {
+				break;
+			}
+			nodes[index] = nodes[parent];
+			nodes[index].heapIndex = index;
+			index = parent;
+		}
+		nodes[index] = node;
+		node.heapIndex = index;
+		return index;
+	}
+
+	/**
+	 * moves the node at the position down until its children are not less.
+	 *
+	 * @param index the position of the node.
+	 */
+	private void siftDown(int index) {
+		Node node = nodes[index];
+		int half = size >>> 1;
+		while (index < half) {
+			int child = (index << 1) + 1;
+			int right = child + 1;
+			if (right < size && compare(nodes[right], nodes[child]) < 0) {
+				child = right;
+			}
+			if (compare(node, nodes[child]) <= 0) {
+				break;
+			}
+			nodes[index] = nodes[child];
+			nodes[index].heapIndex = index;
+			index = child;
+		}
+		nodes[index] = node;
+		node.heapIndex = index;
+	}
+
+	@SuppressWarnings("unchecked")
+	private N nodeAt(int index) {
+		return (N) nodes[index];
+	}
+
+	@SuppressWarnings("unchecked")
+	private int compare(Node o1, Node o2) {
+		return comparator.compare((N) o1, (N) o2);
+	}
+
+	/**
+	 * The base class of the nodes stored in an {@link IndexedHeap}.
+	 */
+	static class Node {
+
+		int heapIndex = -1;
+	}
+}
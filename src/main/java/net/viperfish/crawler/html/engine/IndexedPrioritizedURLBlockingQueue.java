@@ -0,0 +1,214 @@
+package net.viperfish.crawler.html.engine;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import net.viperfish.crawler.core.Checkpointable;
+
+/**
+ * A {@link PrioritizedURLBlockingQueue} backed by an indexed heap. It hands out urls in the same
+ * order as the {@link DefaultPrioritizedURLBlockingQueue}, but a repeated offer of a queued URL
+ * increases its priority in logarithmic time instead of searching the whole queue, and the sort
+ * keys are cached when the URL is queued. For this queue, the higher the priority number, the
+ * greater the importance. A checkpoint of this queue only holds the lock while copying the
+ * references to the queued urls and to the urls handed out but not released, or kept until done,
+ * yet.
+ */
+public class IndexedPrioritizedURLBlockingQueue implements PrioritizedURLBlockingQueue,
+	Checkpointable {
+
+	private final ReentrantLock lock;
+	private final Condition notEmpty;
+	private final PrioritizedURLHeap heap;
+	private final HandedOutURLs handedOutURLs;
+	private long version;
+	private int handedOut;
+
+	/**
+	 * creates an empty queue.
+	 */
+	public IndexedPrioritizedURLBlockingQueue() {
+		lock = new ReentrantLock();
+		notEmpty = lock.newCondition();
+		heap = new PrioritizedURLHeap();
+		handedOutURLs = new HandedOutURLs();
+		version = 0;
+		handedOut = 0;
+	}
+
+	@Override
+	public void offer(URL url) {
+		this.offer(new PrioritizedURL(url, 1));
+	}
+
+	@Override
+	public void offer(PrioritizedURL prioritizedURL) {
+		lock.lock();
+		try {
+			version++;
+			if (heap.offer(prioritizedURL)) {
+				notEmpty.signal();
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public void offerAll(Collection<PrioritizedURL> prioritizedURLs) {
+		lock.lock();
+		try {
+			for (PrioritizedURL prioritizedURL : prioritizedURLs) {
+				version++;
+				if (heap.offer(prioritizedURL)) {
+					notEmpty.signal();
+				}
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public PrioritizedURL take() throws InterruptedException {
+		lock.lockInterruptibly();
+		try {
+			while (heap.isEmpty()) {
+				notEmpty.await();
+			}
+			return handOut();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public PrioritizedURL take(int time, TimeUnit unit) throws InterruptedException {
+		long remaining = unit.toNanos(time);
+		lock.lockInterruptibly();
+		try {
+			while (heap.isEmpty()) {
+				if (remaining <= 0) {
+					return null;
+				}
+				remaining = notEmpty.awaitNanos(remaining);
+			}
+			return handOut();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * counts the url as done with. The delay is ignored, as this queue hands out urls purely by
+	 * priority.
+	 *
+	 * @param url the URL that was fetched.
+	 * @param delay the minimum delay before the next request to the host.
+	 * @param unit the unit of the delay.
+	 */
+	@Override
+	public void release(PrioritizedURL url, long delay, TimeUnit unit) {
+		lock.lock();
+		try {
+			if (handedOutURLs.remove(url)) {
+				version++;
+			}
+			handedOut = Math.max(0, handedOut - 1);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public void keep(PrioritizedURL url) {
+		lock.lock();
+		try {
+			handedOutURLs.add(url);
+			version++;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public void done(PrioritizedURL url) {
+		lock.lock();
+		try {
+			if (handedOutURLs.remove(url)) {
+				version++;
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public int size() {
+		lock.lock();
+		try {
+			return heap.size();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public int outstanding() {
+		lock.lock();
+		try {
+			return heap.size() + handedOut;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public long getVersion() {
+		lock.lock();
+		try {
+			return version;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public void checkpoint(DataOutputStream out) throws IOException {
+		List<PrioritizedURL> urls = new ArrayList<>();
+		lock.lock();
+		try {
+			heap.copyTo(urls);
+			handedOutURLs.copyTo(urls);
+		} finally {
+			lock.unlock();
+		}
+		URLCheckpoints.write(out, urls);
+	}
+
+	@Override
+	public void restore(DataInputStream in) throws IOException {
+		URLCheckpoints.read(in, this);
+	}
+
+	/**
+	 * removes the best url from the heap and records it as handed out. Must be called with the
+	 * lock held and the heap not empty.
+	 *
+	 * @return the best url.
+	 */
+	private PrioritizedURL handOut() {
+		version++;
+		handedOut++;
+		PrioritizedURL result = heap.poll();
+		handedOutURLs.add(result);
+		return result;
+	}
+}
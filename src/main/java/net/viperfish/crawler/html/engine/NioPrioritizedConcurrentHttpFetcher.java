@@ -0,0 +1,302 @@
+package net.viperfish.crawler.html.engine;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URL;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import net.viperfish.crawler.core.Pair;
+import net.viperfish.crawler.html.FetchedContent;
+import net.viperfish.crawler.html.Restriction;
+import net.viperfish.crawler.html.RestrictionManager;
+import net.viperfish.crawler.html.exception.FetchFailedException;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.nio.client.methods.HttpAsyncMethods;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link PrioritizedConcurrentHttpFetcher} that performs the fetching with non-blocking IO. The
+ * network traffic of all the requests is driven by a handful of selector threads, so the amount
+ * of requests in flight is not bound by the amount of threads. A small dispatch pool runs the
+ * delegator and the checks against the {@link RestrictionManager}s, after which each request is
+ * handed to the selector threads and the dispatch thread is freed immediately.
+ */
+public abstract class NioPrioritizedConcurrentHttpFetcher extends
+	PrioritizedConcurrentHttpFetcher {
+
+	private static final int DISPATCH_THREADS = 4;
+	private static final int CONNECT_TIMEOUT = 10000;
+	private static final int SOCKET_TIMEOUT = 30000;
+
+	private CloseableHttpAsyncClient client;
+	private ExecutorService dispatchPool;
+	private Semaphore inFlight;
+	private Logger logger;
+
+	/**
+	 * creates a new non-blocking fetcher.
+	 *
+	 * @param ioThreads the amount of selector threads that drive the network traffic.
+	 * @param maxInFlight the maximum amount of requests in flight at any given time.
+	 * @param userAgent the user-agent sent to the servers.
+	 */
+	public NioPrioritizedConcurrentHttpFetcher(int ioThreads, int maxInFlight, String userAgent) {
+		this(ioThreads, maxInFlight, userAgent, new HostPartitionedURLBlockingQueue());
+	}
+
+	/**
+	 * creates a new non-blocking fetcher with the queue that schedules the submitted urls.
+	 *
+	 * @param ioThreads the amount of selector threads that drive the network traffic.
+	 * @param maxInFlight the maximum amount of requests in flight at any given time.
+	 * @param userAgent the user-agent sent to the servers.
+	 * @param urlQueue the queue for the submitted urls.
+	 */
+	public NioPrioritizedConcurrentHttpFetcher(int ioThreads, int maxInFlight, String userAgent,
+		PrioritizedURLBlockingQueue urlQueue) {
+		super(userAgent, urlQueue);
+		this.inFlight = new Semaphore(maxInFlight);
+		this.dispatchPool = Executors.newFixedThreadPool(DISPATCH_THREADS + 1);
+		this.client = HttpAsyncClients.custom()
+			.setDefaultIOReactorConfig(IOReactorConfig.custom()
+				.setIoThreadCount(ioThreads)
+				.setConnectTimeout(CONNECT_TIMEOUT)
+				.setSoTimeout(SOCKET_TIMEOUT)
+				.build())
+			.setDefaultRequestConfig(RequestConfig.custom()
+				.setConnectTimeout(CONNECT_TIMEOUT)
+				.setSocketTimeout(SOCKET_TIMEOUT)
+				.build())
+			.setMaxConnTotal(maxInFlight)
+			.setMaxConnPerRoute(maxInFlight)
+			.setUserAgent(userAgent)
+			.build();
+		this.logger = LoggerFactory.getLogger(this.getClass());
+	}
+
+	/**
+	 * starts the selector threads and the delegator.
+	 */
+	@Override
+	public void init() {
+		client.start();
+		super.init();
+	}
+
+	@Override
+	protected Runnable createFetchTask(PrioritizedURL url) {
+		return new NioFetchTask(url);
+	}
+
+	/**
+	 * run the delegator task with the dispatch pool.
+	 *
+	 * @param delegator the delegator runnable.
+	 * @return the control point from the dispatch pool.
+	 */
+	@Override
+	protected Future<?> runDelegator(Runnable delegator) {
+		return dispatchPool.submit(delegator);
+	}
+
+	/**
+	 * run the dispatching part of the fetch task with the dispatch pool.
+	 *
+	 * @param fetcher the fetch task runnable.
+	 * @return the control point for the dispatching.
+	 */
+	@Override
+	protected Future<?> runFetcher(Runnable fetcher) {
+		return dispatchPool.submit(fetcher);
+	}
+
+	/**
+	 * shuts down the dispatch pool and the selector threads.
+	 */
+	@Override
+	protected void cleanup() {
+		dispatchPool.shutdown();
+		try {
+			dispatchPool.awaitTermination(5, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			logger.debug("Interrupted while waiting for the dispatch pool to terminate");
+			Thread.currentThread().interrupt();
+		}
+		dispatchPool.shutdownNow();
+		try {
+			client.close();
+		} catch (IOException e) {
+			logger.warn("Failed to shutdown the IO reactor", e);
+		}
+	}
+
+	/**
+	 * A fetch task that checks a url against the {@link RestrictionManager}s and starts a
+	 * non-blocking request for it. The result is pushed to the result queue by the selector thread
+	 * once the response is complete, and the url is released to the submission queue with the
+	 * crawl delay required by the restrictions. The response or the timeout is reported to the
+	 * {@link HostConcurrencyLimiter}, if any, and the transient failures are handed to the {@link
+	 * RetryScheduler}, if any.
+	 */
+	private class NioFetchTask implements Runnable, FutureCallback<FetchedContent> {
+
+		private PrioritizedURL url;
+		private URL source;
+		private long start;
+		private int crawlDelay;
+		private long pause;
+		private HtmlResponseConsumer consumer;
+
+		NioFetchTask(PrioritizedURL url) {
+			this.url = url;
+			// parsed once, as the url only keeps its normalized form
+			this.source = url.getSource();
+			this.crawlDelay = 0;
+			this.pause = 0;
+		}
+
+		@Override
+		public void run() {
+			try {
+				for (RestrictionManager rm : getRestrictionManagers()) {
+					logger.debug("Checking {} against {}", source, rm);
+					Restriction restriction = rm.getRestriction(source);
+					if (!restriction.canFetch()) {
+						logger.debug("Restriction check failed for {}", source);
+						crawlDelay = 0;
+						deregister();
+						return;
+					}
+					crawlDelay = Math.max(crawlDelay, restriction.getCrawlDelay());
+				}
+				inFlight.acquire();
+			} catch (InterruptedException e) {
+				deregister();
+				Thread.currentThread().interrupt();
+				return;
+			} catch (Throwable e) {
+				getFetchMetrics().recordFailure();
+				resultQueue()
+					.offer(new Pair<>(null, new FetchFailedException(e, source)));
+				deregister();
+				return;
+			}
+
+			// from here on, the in flight slot is released by the callback
+			try {
+				logger.info("Fetching: {}", source);
+				start = System.nanoTime();
+				HttpGet get = new HttpGet(source.toURI());
+				get.setHeader("Accept-Encoding", FetchSupport.ACCEPT_ENCODING);
+				if (validatorStore() != null) {
+					validatorStore().addConditions(url.getKey(), get);
+				}
+				consumer = new HtmlResponseConsumer(url, bufferPool(), getMaxPageSize(),
+					fingerprintFunction(), getFetchMetrics(), validatorStore());
+				client.execute(HttpAsyncMethods.create(get), consumer, this);
+			} catch (Exception e) {
+				failed(e);
+			}
+		}
+
+		@Override
+		public void completed(FetchedContent result) {
+			try {
+				report(null);
+				if (retryScheduler() != null && consumer != null && retryScheduler()
+					.retry(url, consumer.getStatus(), urlQueue(), retryPause())) {
+					logger.debug("Retrying {} after status {}", source,
+						consumer.getStatus());
+					return;
+				}
+				if (result != null) {
+					getFetchMetrics().recordFetch(System.nanoTime() - start);
+					if (keepsFetchedURLs()) {
+						urlQueue().keep(url);
+					}
+					resultQueue().offer(new Pair<>(result, null));
+				}
+			} finally {
+				finish();
+			}
+		}
+
+		@Override
+		public void failed(Exception ex) {
+			try {
+				report(ex);
+				getFetchMetrics().recordFailure();
+				if (retryScheduler() != null && retryScheduler()
+					.retry(url, ex, urlQueue(), retryPause())) {
+					logger.debug("Retrying {} after {}", source, ex.toString());
+					return;
+				}
+				resultQueue()
+					.offer(new Pair<>(null, new FetchFailedException(ex, source)));
+			} finally {
+				finish();
+			}
+		}
+
+		@Override
+		public void cancelled() {
+			finish();
+		}
+
+		/**
+		 * reports the outcome of the request to the concurrency limiter.
+		 *
+		 * @param error the failure of the request, or null if it completed.
+		 */
+		private void report(Exception error) {
+			HostConcurrencyLimiter limiter = concurrencyLimiter();
+			if (limiter == null || consumer == null) {
+				return;
+			}
+			long latency = System.nanoTime() - start;
+			if (error instanceof InterruptedIOException) {
+				limiter.onTimeout(source, latency);
+			} else if (consumer.getStatus() != 0) {
+				pause = limiter.onResponse(source, consumer.getStatus(), latency,
+					consumer.getRetryAfter());
+			}
+		}
+
+		/**
+		 * gets the minimal delay before retrying the url.
+		 *
+		 * @return the pause of the host or the Retry-After, whichever is longer, in milliseconds.
+		 */
+		private long retryPause() {
+			return consumer == null ? pause : Math.max(pause, consumer.getRetryAfter());
+		}
+
+		/**
+		 * releases the in flight slot and deregisters the task.
+		 */
+		private void finish() {
+			inFlight.release();
+			deregister();
+		}
+
+		/**
+		 * releases the url to the submission queue, deregisters the task and wakes up the
+		 * consumers to check if that was the last url.
+		 */
+		private void deregister() {
+			urlQueue().release(url, Math.max(TimeUnit.SECONDS.toMillis(crawlDelay), pause),
+				TimeUnit.MILLISECONDS);
+			getTaskNumber().decrementAndGet();
+			resultQueue().wakeUp();
+		}
+	}
+}
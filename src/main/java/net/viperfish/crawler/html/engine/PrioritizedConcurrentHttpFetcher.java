@@ -1,14 +1,19 @@
 package net.viperfish.crawler.html.engine;
 
+import com.google.common.hash.HashFunction;
+import java.io.IOException;
 import java.net.URL;
+import java.util.Collection;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Future;
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import net.viperfish.crawler.core.Checkpointable;
+import net.viperfish.crawler.core.Checkpointer;
 import net.viperfish.crawler.core.Pair;
+import net.viperfish.crawler.html.ContentFingerprint;
 import net.viperfish.crawler.html.FetchedContent;
 import net.viperfish.crawler.html.HttpFetcher;
 import net.viperfish.crawler.html.RestrictionManager;
@@ -18,39 +23,110 @@ import org.slf4j.LoggerFactory;
 
 /**
  * A base implementation of the {@link HttpFetcher} that delegates fetch to threads. All
- * implementations of this base class need to provide the threading/concurrent mechanism.
+ * implementations of this base class need to provide the threading/concurrent mechanism. The
+ * submitted urls are taken from a {@link PrioritizedURLBlockingQueue} as soon as they can be
+ * fetched, and the fetched pages wait in a bounded {@link FetchResultQueue} until they are
+ * consumed.
  */
 public abstract class PrioritizedConcurrentHttpFetcher implements HttpFetcher {
 
+	private static final int DEFAULT_MAX_PENDING_PAGES = 512;
+	private static final long DEFAULT_MAX_PENDING_BYTES = 64L * 1024 * 1024;
+	private static final long DEFAULT_MAX_PAGE_SIZE = 10L * 1024 * 1024;
+	private static final int BUFFER_SIZE = 16 * 1024;
+	private static final int MAX_FREE_BUFFERS = 256;
+
 	// concurrency stuff
-	private BlockingQueue<Pair<FetchedContent, Throwable>> resultQueue;
+	private FetchResultQueue resultQueue;
 	private PrioritizedURLBlockingQueue prioritizedURLBlockingQueue;
 	private AtomicInteger runningTasks;
 	private Future<?> delegateInterrupter;
+	private volatile HttpConnectionPool connectionPool;
+	private FetchMetrics metrics;
+	private BufferPool bufferPool;
+	private long maxPageSize;
+	private HashFunction fingerprints;
+	private ValidatorStore validatorStore;
+	private HostConcurrencyLimiter concurrencyLimiter;
+	private RetryScheduler retryScheduler;
 
 	// meta-info
 	private List<RestrictionManager> managers;
 	private String userAgent;
-	private boolean closed;
+	private volatile boolean closed;
+	private Checkpointer checkpointer;
+	private volatile boolean keepFetched;
 	private Logger logger;
 
 	/**
-	 * creates a new {@link PrioritizedConcurrentHttpFetcher} with the user-agent string.
+	 * creates a new {@link PrioritizedConcurrentHttpFetcher} with the user-agent string. The
+	 * submitted urls are scheduled by a {@link HostPartitionedURLBlockingQueue}, which allows one
+	 * request in flight per host and enforces the crawl delays of the hosts.
 	 *
 	 * @param userAgent the user-agent sent with the requests.
 	 */
 	public PrioritizedConcurrentHttpFetcher(String userAgent) {
-		resultQueue = new LinkedBlockingQueue<>();
+		this(userAgent, new HostPartitionedURLBlockingQueue());
+	}
+
+	/**
+	 * creates a new {@link PrioritizedConcurrentHttpFetcher} with the user-agent string and the
+	 * queue that schedules the submitted urls.
+	 *
+	 * @param userAgent the user-agent sent with the requests.
+	 * @param urlQueue the queue for the submitted urls.
+	 */
+	public PrioritizedConcurrentHttpFetcher(String userAgent,
+		PrioritizedURLBlockingQueue urlQueue) {
+		resultQueue = new FetchResultQueue(DEFAULT_MAX_PENDING_PAGES, DEFAULT_MAX_PENDING_BYTES);
 		runningTasks = new AtomicInteger(0);
-		prioritizedURLBlockingQueue = new DefaultPrioritizedURLBlockingQueue();
+		metrics = new FetchMetrics();
+		bufferPool = new BufferPool(BUFFER_SIZE, MAX_FREE_BUFFERS, false);
+		maxPageSize = DEFAULT_MAX_PAGE_SIZE;
+		fingerprints = ContentFingerprint.DEFAULT_FUNCTION;
+		prioritizedURLBlockingQueue = urlQueue;
 		this.managers = new LinkedList<>();
 		closed = false;
 		this.userAgent = userAgent;
 		logger = LoggerFactory.getLogger(this.getClass());
 	}
 
+	/**
+	 * starts fetching the submitted urls. If a {@link Checkpointer} is set, the submission queue,
+	 * the validator store and the restriction managers that support checkpoints are registered to
+	 * it and restored from the last checkpoint before the fetching starts, and the periodic
+	 * checkpoints are started. The submission queue is written last, and it keeps the url of each
+	 * fetched page until the page is reported to {@link #done(FetchedContent)}.
+	 */
 	@Override
 	public void init() {
+		if (prioritizedURLBlockingQueue instanceof HostPartitionedURLBlockingQueue) {
+			((HostPartitionedURLBlockingQueue) prioritizedURLBlockingQueue)
+				.setHostGate(this::prepareRestrictions);
+			if (concurrencyLimiter != null) {
+				((HostPartitionedURLBlockingQueue) prioritizedURLBlockingQueue)
+					.setConcurrencyLimiter(concurrencyLimiter);
+			}
+		}
+		if (checkpointer != null) {
+			if (prioritizedURLBlockingQueue instanceof Checkpointable) {
+				checkpointer.register("frontier", (Checkpointable) prioritizedURLBlockingQueue,
+					Checkpointer.LAST);
+				keepFetched = true;
+			}
+			if (validatorStore != null) {
+				checkpointer.register("validators", validatorStore);
+			}
+			int index = 0;
+			for (RestrictionManager mger : managers) {
+				if (mger instanceof Checkpointable) {
+					checkpointer.register("restriction-" + index, (Checkpointable) mger);
+				}
+				index++;
+			}
+			checkpointer.restore();
+			checkpointer.start();
+		}
 		this.delegateInterrupter = runDelegator(new DelegatorRunnable());
 	}
 
@@ -64,15 +140,35 @@ public abstract class PrioritizedConcurrentHttpFetcher implements HttpFetcher {
 		prioritizedURLBlockingQueue.offer(prioritizedURL);
 	}
 
+	@Override
+	public void submit(Collection<PrioritizedURL> prioritizedURLs) {
+		prioritizedURLBlockingQueue.offerAll(prioritizedURLs);
+	}
+
+	/**
+	 * gets the next fetched page, waiting until one is available. Returns null once the fetcher is
+	 * closed or has reached its end, without waiting for a timeout.
+	 *
+	 * @return the next page or null if there will be none.
+	 * @throws FetchFailedException if the fetch failed.
+	 */
 	@Override
 	public FetchedContent next() throws FetchFailedException {
 		try {
-			Pair<FetchedContent, Throwable> result = resultQueue.take();
+			Pair<FetchedContent, Throwable> result = resultQueue
+				.take(() -> closed || isEndReached());
+			if (result == null) {
+				return null;
+			}
 			if (result.getSecond() != null) {
-				throw new FetchFailedException(null, result.getFirst().getUrl().getSource());
+				if (result.getSecond() instanceof FetchFailedException) {
+					throw (FetchFailedException) result.getSecond();
+				}
+				throw new FetchFailedException(result.getSecond());
 			}
 			return result.getFirst();
 		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
 			return null;
 		}
 	}
@@ -100,7 +196,25 @@ public abstract class PrioritizedConcurrentHttpFetcher implements HttpFetcher {
 	public void close() {
 		delegateInterrupter.cancel(true);
 		cleanup();
+		if (retryScheduler != null) {
+			retryScheduler.close();
+		}
+		if (connectionPool != null) {
+			try {
+				connectionPool.close();
+			} catch (IOException e) {
+				logger.warn("Failed to close the connection pool", e);
+			}
+		}
 		closed = true;
+		resultQueue.wakeUp();
+	}
+
+	@Override
+	public void done(FetchedContent content) {
+		if (keepFetched) {
+			prioritizedURLBlockingQueue.done(content.getUrl());
+		}
 	}
 
 	@Override
@@ -113,6 +227,155 @@ public abstract class PrioritizedConcurrentHttpFetcher implements HttpFetcher {
 		return managers;
 	}
 
+	/**
+	 * sets the {@link Checkpointer} that saves the state of the fetcher. This must be called
+	 * before {@link #init()}, and the checkpointer is not closed by this fetcher.
+	 *
+	 * @param checkpointer the checkpointer.
+	 */
+	public void setCheckpointer(Checkpointer checkpointer) {
+		this.checkpointer = checkpointer;
+	}
+
+	/**
+	 * sets the {@link HttpConnectionPool} used by the blocking fetch tasks. This must be called
+	 * before {@link #init()}, and the pool is closed with this fetcher. If no pool is set, a pool
+	 * is created when the first fetch starts, with at least as many connections per host as the
+	 * submission queue or the concurrency limiter lets fetches in flight for a host.
+	 *
+	 * @param connectionPool the connection pool.
+	 */
+	public void setConnectionPool(HttpConnectionPool connectionPool) {
+		this.connectionPool = connectionPool;
+	}
+
+	/**
+	 * sets the pool of buffers the bodies are read into. This must be called before {@link
+	 * #init()}.
+	 *
+	 * @param bufferPool the buffer pool.
+	 */
+	public void setBufferPool(BufferPool bufferPool) {
+		this.bufferPool = bufferPool;
+	}
+
+	/**
+	 * sets the maximum size of a page. The download of a larger page is aborted as soon as its
+	 * size is known, and it is reported as a failed fetch. This must be called before {@link
+	 * #init()}.
+	 *
+	 * @param maxPageSize the maximum size of a page in bytes.
+	 */
+	public void setMaxPageSize(long maxPageSize) {
+		if (maxPageSize < 1) {
+			throw new IllegalArgumentException("The maximum page size must be positive");
+		}
+		this.maxPageSize = maxPageSize;
+	}
+
+	/**
+	 * sets the function that fingerprints the bodies as they are read. This must be called before
+	 * {@link #init()}.
+	 *
+	 * @param function a hash function of at least 128 bits.
+	 */
+	public void setFingerprintFunction(HashFunction function) {
+		this.fingerprints = ContentFingerprint.checkFunction(function);
+	}
+
+	/**
+	 * sets the store of the cache validators used to revisit the pages conditionally. This must be
+	 * called before {@link #init()}. Without a store, every page is downloaded in full.
+	 *
+	 * @param validatorStore the validator store.
+	 */
+	public void setValidatorStore(ValidatorStore validatorStore) {
+		this.validatorStore = validatorStore;
+	}
+
+	/**
+	 * sets the limiter that adapts the amount of fetches in flight for each host. The responses
+	 * and timeouts of the fetches are reported to it, and the Retry-After of the overloaded hosts
+	 * is honored. This must be called before {@link #init()}, and only has an effect if the
+	 * submission queue is a {@link HostPartitionedURLBlockingQueue}. The total amount of fetches
+	 * in flight is still bound by the threads or connections of the fetcher.
+	 *
+	 * @param concurrencyLimiter the concurrency limiter.
+	 */
+	public void setConcurrencyLimiter(HostConcurrencyLimiter concurrencyLimiter) {
+		this.concurrencyLimiter = concurrencyLimiter;
+	}
+
+	/**
+	 * sets the scheduler that fetches the urls again after a transient failure. Only the failures
+	 * of the last attempt of a url are reported by {@link #next()}. This must be called before
+	 * {@link #init()}, and the scheduler is closed with this fetcher.
+	 *
+	 * @param retryScheduler the retry scheduler.
+	 */
+	public void setRetryScheduler(RetryScheduler retryScheduler) {
+		this.retryScheduler = retryScheduler;
+	}
+
+	/**
+	 * gets the latency of the fetches and the amount of connections opened by this fetcher.
+	 *
+	 * @return the fetch metrics.
+	 */
+	public FetchMetrics getFetchMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * sets the amount of fetched pages that can wait to be consumed before the fetcher stops
+	 * starting new fetches. The fetches in flight still complete, so the limits can be exceeded by
+	 * the amount of concurrent fetches.
+	 *
+	 * @param maxPages the maximum amount of pending pages.
+	 * @param maxBytes the maximum size of the bodies of the pending pages in bytes.
+	 */
+	public void setResultQueueLimits(int maxPages, long maxBytes) {
+		resultQueue.setLimits(maxPages, maxBytes);
+	}
+
+	/**
+	 * gets the amount of fetched pages and failures waiting to be consumed.
+	 *
+	 * @return the depth of the result queue.
+	 */
+	public int getResultQueueSize() {
+		return resultQueue.size();
+	}
+
+	/**
+	 * gets the largest amount of fetched pages and failures that waited to be consumed at once.
+	 *
+	 * @return the peak depth of the result queue.
+	 */
+	public int getPeakResultQueueSize() {
+		return resultQueue.getPeakSize();
+	}
+
+	/**
+	 * gets the amount of memory used by the bodies of the fetched pages waiting to be consumed.
+	 *
+	 * @return the size of the pending pages in bytes.
+	 */
+	public long getResultQueueByteSize() {
+		return resultQueue.byteSize();
+	}
+
+	/**
+	 * gets the total time the fetcher waited for the consumers before starting new fetches. A
+	 * large value means that the consumers are slower than the fetch tasks.
+	 *
+	 * @param unit the unit of the result.
+	 * @return the time spent blocked.
+	 */
+	public long getBlockedTime(TimeUnit unit) {
+		return resultQueue.getBlockedTime(unit);
+	}
+
 	/**
 	 * gets the amount of fetching tasks that are submitted. This method is mostly for subclasses to
 	 * determine when fetching is done.
@@ -137,7 +400,7 @@ public abstract class PrioritizedConcurrentHttpFetcher implements HttpFetcher {
 	 *
 	 * @return the queue with all the fetch result.
 	 */
-	protected BlockingQueue<Pair<FetchedContent, Throwable>> resultQueue() {
+	protected FetchResultQueue resultQueue() {
 		return resultQueue;
 	}
 
@@ -150,6 +413,176 @@ public abstract class PrioritizedConcurrentHttpFetcher implements HttpFetcher {
 		return prioritizedURLBlockingQueue;
 	}
 
+	/**
+	 * gets the pool of buffers the bodies are read into.
+	 *
+	 * @return the buffer pool.
+	 */
+	protected BufferPool bufferPool() {
+		return bufferPool;
+	}
+
+	/**
+	 * gets the function that fingerprints the bodies.
+	 *
+	 * @return the hash function.
+	 */
+	protected HashFunction fingerprintFunction() {
+		return fingerprints;
+	}
+
+	/**
+	 * gets the store of the cache validators.
+	 *
+	 * @return the validator store or null if the requests are not conditional.
+	 */
+	protected ValidatorStore validatorStore() {
+		return validatorStore;
+	}
+
+	/**
+	 * gets the limiter of the fetches in flight for each host.
+	 *
+	 * @return the concurrency limiter or null if the limits are fixed.
+	 */
+	protected HostConcurrencyLimiter concurrencyLimiter() {
+		return concurrencyLimiter;
+	}
+
+	/**
+	 * gets the pool of connections of the blocking fetch tasks.
+	 *
+	 * @return the connection pool, or null if no fetch started and no pool was set.
+	 */
+	protected HttpConnectionPool connectionPool() {
+		return connectionPool;
+	}
+
+	/**
+	 * gets the scheduler of the retries.
+	 *
+	 * @return the retry scheduler or null if the failures are not retried.
+	 */
+	protected RetryScheduler retryScheduler() {
+		return retryScheduler;
+	}
+
+	/**
+	 * gets the amount of urls waiting to be retried. They are in neither the submission queue nor
+	 * a fetch task, so a fetcher that has reached its end must have none.
+	 *
+	 * @return the amount of pending retries.
+	 */
+	protected int pendingRetries() {
+		return retryScheduler == null ? 0 : retryScheduler.getPendingCount();
+	}
+
+	/**
+	 * checks if every submitted url is done with: none is queued, being fetched, waiting for a
+	 * retry or waiting to be consumed. The stages are counted in the order the urls flow through
+	 * them, each fetch task handing its url to the next stage before it releases it, so a url
+	 * moving between stages is always counted in at least one of them. The only url moving
+	 * backward is a retry offered back to the submission queue, and the amount of retries fired
+	 * is read before and after so that the check fails if one moved in between. A fetcher with no
+	 * more submissions coming has reached its end once this returns true.
+	 *
+	 * @return true if no url is left in the fetcher.
+	 */
+	protected boolean isQuiescent() {
+		long fired = retryScheduler == null ? 0 : retryScheduler.getFiredCount();
+		if (prioritizedURLBlockingQueue.outstanding() != 0 || pendingRetries() != 0
+			|| resultQueue.size() != 0) {
+			return false;
+		}
+		return retryScheduler == null || retryScheduler.getFiredCount() == fired;
+	}
+
+	/**
+	 * checks if the url of a fetched page must be kept by the submission queue until the page is
+	 * done with, which is the case when the queue is saved to checkpoints. A fetch task then calls
+	 * {@link PrioritizedURLBlockingQueue#keep(PrioritizedURL)} before handing the page to the
+	 * result queue.
+	 *
+	 * @return true if the urls of the fetched pages are kept.
+	 */
+	protected boolean keepsFetchedURLs() {
+		return keepFetched;
+	}
+
+	/**
+	 * gets the maximum size of a page.
+	 *
+	 * @return the maximum size in bytes.
+	 */
+	protected long getMaxPageSize() {
+		return maxPageSize;
+	}
+
+	/**
+	 * gets the user-agent sent with the requests.
+	 *
+	 * @return the user-agent.
+	 */
+	protected String getUserAgent() {
+		return userAgent;
+	}
+
+	/**
+	 * creates the task that fetches a url handed out by the submission queue. The returned task is
+	 * passed to {@link #runFetcher(Runnable)}, and once it is done with the url, it must hand its
+	 * result to the result queue or the retry scheduler first, then release the url to the
+	 * submission queue, decrement the task counter and wake up the result queue, in this order.
+	 * By default, this is a {@link FetchRunnable} that fetches the url with blocking IO over the
+	 * connection pool.
+	 *
+	 * @param url the url to fetch.
+	 * @return the fetch task.
+	 */
+	protected Runnable createFetchTask(PrioritizedURL url) {
+		// only called by the delegator thread
+		if (connectionPool == null) {
+			connectionPool = new HttpConnectionPool(userAgent, metrics,
+				Math.max(HttpConnectionPool.DEFAULT_MAX_PER_HOST, maxFetchesPerHost()));
+		}
+		return new FetchRunnable(url, resultQueue, prioritizedURLBlockingQueue, managers,
+			runningTasks, connectionPool, metrics, bufferPool, maxPageSize, fingerprints,
+			validatorStore, concurrencyLimiter, retryScheduler, keepFetched);
+	}
+
+	/**
+	 * gets the most fetches the submission queue hands out at once for a host, so that the default
+	 * connection pool has a connection for each of them.
+	 *
+	 * @return the maximum amount of fetches in flight for a host, or 1 if the queue does not limit
+	 * them.
+	 */
+	private int maxFetchesPerHost() {
+		if (!(prioritizedURLBlockingQueue instanceof HostPartitionedURLBlockingQueue)) {
+			return 1;
+		}
+		if (concurrencyLimiter != null) {
+			return concurrencyLimiter.getMaxLimit();
+		}
+		return ((HostPartitionedURLBlockingQueue) prioritizedURLBlockingQueue)
+			.getMaxInFlightPerHost();
+	}
+
+	/**
+	 * starts preparing the restrictions of all the {@link RestrictionManager}s for the host of a
+	 * url.
+	 *
+	 * @param url the first url of a host.
+	 * @return a future that completes once all the restrictions are ready.
+	 */
+	private CompletableFuture<?> prepareRestrictions(URL url) {
+		CompletableFuture<?>[] prepared = new CompletableFuture<?>[managers.size()];
+		int index = 0;
+		for (RestrictionManager mger : managers) {
+			prepared[index++] = mger.prepare(url);
+		}
+		return CompletableFuture.allOf(prepared);
+	}
+
 	/**
 	 * run the fetch task delegator concurrently.
 	 *
@@ -173,7 +606,9 @@ public abstract class PrioritizedConcurrentHttpFetcher implements HttpFetcher {
 
 	/**
 	 * The delegator runnable task. It takes a url from the submission queue and delegate the
-	 * fetching to {@link FetchRunnable}.
+	 * fetching to the task created by {@link #createFetchTask(PrioritizedURL)}, pausing while the
+	 * result queue is full. It sleeps on the conditions of both queues until it is woken up by a
+	 * new url, a released host or a consumed result, and it stops when it is interrupted.
 	 */
 	private class DelegatorRunnable implements Runnable {
 
@@ -181,28 +616,17 @@ public abstract class PrioritizedConcurrentHttpFetcher implements HttpFetcher {
 		public void run() {
 			try {
 				while (!Thread.interrupted()) {
-					PrioritizedURL pURL = prioritizedURLBlockingQueue
-						.take(200, TimeUnit.MILLISECONDS);
-					if (pURL != null) {
-						runningTasks.incrementAndGet();
-						logger.info("Going to fetch: {}", pURL.getSource());
-						runFetcher(getRunnable(pURL));
-					}
+					// leave the urls in the submission queue while the consumers lag behind
+					resultQueue.awaitCapacity();
+					PrioritizedURL pURL = prioritizedURLBlockingQueue.take();
+					runningTasks.incrementAndGet();
+					logger.info("Going to fetch: {}", pURL.getKey());
+					runFetcher(createFetchTask(pURL));
 				}
 			} catch (InterruptedException e) {
-				System.out.println("Interruption Received");
+				logger.debug("Delegator interrupted, stopping");
 			}
 		}
-
-		/**
-		 * shorthand for creating a {@link FetchRunnable}.
-		 *
-		 * @param url the url to fetch.
-		 * @return a fetch runnable that will fetch the url.
-		 */
-		private FetchRunnable getRunnable(PrioritizedURL url) {
-			return new FetchRunnable(url, resultQueue, managers, runningTasks, userAgent);
-		}
 	}
 
 }
@@ -6,12 +6,15 @@ import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.IntBinaryOperator;
 
 /**
- * A URL that has a priority in respect to fetching. This class is safe for multi-threading.
+ * A URL that has a priority in respect to fetching. Only the {@link CanonicalURL} of the URL is
+ * kept, so a queued url costs a single string, and the {@link URL} to fetch is parsed again from
+ * it when asked for. The fetched URL therefore has no fragment or user information, as in its
+ * normalized form. This class is safe for multi-threading.
  */
 public final class PrioritizedURL {
 
 	private AtomicInteger priority;
-	private URL source;
+	private CanonicalURL key;
 
 	/**
 	 * creates a priority url with the url and the priority.
@@ -24,17 +27,26 @@ public final class PrioritizedURL {
 			throw new IllegalArgumentException("URL cannot be null");
 		}
 
-		this.source = source;
+		this.key = CanonicalURL.of(source);
 		this.priority = new AtomicInteger(priority);
 	}
 
 	/**
-	 * get the url to fetch.
+	 * get the url to fetch, parsed from the normalized form each time.
 	 *
 	 * @return the url to fetch.
 	 */
 	public URL getSource() {
-		return source;
+		return key.toURL();
+	}
+
+	/**
+	 * get the identity of the url, which should be used instead of the url to track it.
+	 *
+	 * @return the identity of the url.
+	 */
+	public CanonicalURL getKey() {
+		return key;
 	}
 
 	/**
@@ -76,11 +88,11 @@ public final class PrioritizedURL {
 			return false;
 		}
 		PrioritizedURL that = (PrioritizedURL) o;
-		return Objects.equals(source, that.source);
+		return Objects.equals(key, that.key);
 	}
 
 	@Override
 	public int hashCode() {
-		return Objects.hash(source);
+		return key.hashCode();
 	}
 }
\ No newline at end of file
@@ -1,6 +1,7 @@
 package net.viperfish.crawler.html.engine;
 
 import java.net.URL;
+import java.util.Collection;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -25,6 +26,19 @@ public interface PrioritizedURLBlockingQueue {
 	 */
 	void offer(PrioritizedURL prioritizedURL);
 
+	/**
+	 * offers a batch of URLs to the queue, such as all the links of a page. Each URL is offered as
+	 * if by {@link #offer(PrioritizedURL)}. By default, the URLs are offered one at a time, and
+	 * the queues guarded by a lock override this to insert the whole batch under one lock.
+	 *
+	 * @param prioritizedURLs the urls with priority.
+	 */
+	default void offerAll(Collection<PrioritizedURL> prioritizedURLs) {
+		for (PrioritizedURL prioritizedURL : prioritizedURLs) {
+			offer(prioritizedURL);
+		}
+	}
+
 	/**
 	 * takes a URL from the resultQueue, blocking if no data available. This removes the URL. The
 	 * URL with the higher frequency of submission is returned.
@@ -46,10 +60,50 @@ public interface PrioritizedURLBlockingQueue {
 	 */
 	PrioritizedURL take(int time, TimeUnit unit) throws InterruptedException;
 
+	/**
+	 * signals that the fetching of a URL handed out by take has finished. The host of the URL
+	 * should not be handed out again before the delay has passed. Queues that do not schedule by
+	 * host may ignore this signal.
+	 *
+	 * @param url the URL that was fetched.
+	 * @param delay the minimum delay before the next request to the host.
+	 * @param unit the unit of the delay.
+	 */
+	void release(PrioritizedURL url, long delay, TimeUnit unit);
+
+	/**
+	 * keeps a URL handed out by take in the checkpoints of this queue after it is released, until
+	 * {@link #done(PrioritizedURL)} is called for it. This is for a URL whose page was fetched but
+	 * not processed yet, so that a restart fetches it again instead of losing the links of the
+	 * page. It must be called before the URL is released. By default, nothing is kept.
+	 *
+	 * @param url the URL handed out.
+	 */
+	default void keep(PrioritizedURL url) {
+	}
+
+	/**
+	 * signals that the page of a URL kept by {@link #keep(PrioritizedURL)} was processed, so that
+	 * it is no longer kept in the checkpoints of this queue. By default, this does nothing.
+	 *
+	 * @param url the URL kept.
+	 */
+	default void done(PrioritizedURL url) {
+	}
+
 	/**
 	 * gets the size of the resultQueue.
 	 *
 	 * @return the size of the resultQueue.
 	 */
 	int size();
+
+	/**
+	 * gets the amount of URLs that are either in the queue or handed out by take and not yet
+	 * released. Handing out a URL moves it from one to the other at once, so that a fetcher can
+	 * tell that it has no work left without missing a URL on its way to a fetch task.
+	 *
+	 * @return the amount of URLs not done with.
+	 */
+	int outstanding();
 }
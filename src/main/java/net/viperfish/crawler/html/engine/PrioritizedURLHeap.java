@@ -0,0 +1,142 @@
+package net.viperfish.crawler.html.engine;
+
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A heap of {@link PrioritizedURL}s indexed by their {@link CanonicalURL}. Each entry caches the
+ * keys it is sorted by, so that the comparisons do not go through the atomic priority or rebuild
+ * the normalized form of the URL. Offering a URL that is already in the heap increases its priority
+ * in logarithmic time. The URL with the highest priority is at the head of the heap, with the
+ * shorter URL first among equal priorities. This class is not thread safe.
+ */
+class PrioritizedURLHeap {
+
+	/**
+	 * The order of the entries, with the most important entry as the least.
+	 */
+	static final Comparator<Entry> ORDER = new EntryComparator();
+
+	private Map<CanonicalURL, Entry> index;
+	private IndexedHeap<Entry> heap;
+
+	/**
+	 * creates an empty heap.
+	 */
+	PrioritizedURLHeap() {
+		index = new HashMap<>();
+		heap = new IndexedHeap<>(ORDER);
+	}
+
+	/**
+	 * adds a URL to the heap. If the URL is already in the heap, the priority of the existing entry
+	 * is increased by one instead.
+	 *
+	 * @param url the url to add.
+	 * @return true if the URL was added, false if an existing entry was increased.
+	 */
+	boolean offer(PrioritizedURL url) {
+		Entry existing = index.get(url.getKey());
+		if (existing != null) {
+			existing.url.increasePriority();
+			existing.priority = existing.url.getPriority();
+			heap.update(existing);
+			return false;
+		}
+		Entry entry = new Entry(url);
+		index.put(url.getKey(), entry);
+		heap.add(entry);
+		return true;
+	}
+
+	/**
+	 * removes the URL with the highest priority.
+	 *
+	 * @return the URL with the highest priority or null if empty.
+	 */
+	PrioritizedURL poll() {
+		Entry entry = heap.poll();
+		if (entry == null) {
+			return null;
+		}
+		index.remove(entry.url.getKey());
+		return entry.url;
+	}
+
+	/**
+	 * gets the entry with the highest priority without removing it.
+	 *
+	 * @return the entry with the highest priority or null if empty.
+	 */
+	Entry peek() {
+		return heap.peek();
+	}
+
+	/**
+	 * checks if a URL is in the heap.
+	 *
+	 * @param url the identity of the URL to check.
+	 * @return true if the URL is in the heap, false otherwise.
+	 */
+	boolean contains(CanonicalURL url) {
+		return index.containsKey(url);
+	}
+
+	/**
+	 * adds all the URLs in the heap to a collection, in no particular order.
+	 *
+	 * @param out the collection to add to.
+	 */
+	void copyTo(Collection<PrioritizedURL> out) {
+		for (Entry e : index.values()) {
+			out.add(e.url);
+		}
+	}
+
+	/**
+	 * gets the amount of URLs in the heap.
+	 *
+	 * @return the amount of URLs.
+	 */
+	int size() {
+		return heap.size();
+	}
+
+	/**
+	 * checks if the heap is empty.
+	 *
+	 * @return true if empty, false otherwise.
+	 */
+	boolean isEmpty() {
+		return heap.isEmpty();
+	}
+
+	/**
+	 * A URL in the heap with its cached sort keys.
+	 */
+	static final class Entry extends IndexedHeap.Node {
+
+		private final PrioritizedURL url;
+		private final int length;
+		private int priority;
+
+		Entry(PrioritizedURL url) {
+			this.url = url;
+			this.priority = url.getPriority();
+			this.length = url.getKey().getNormalized().length();
+		}
+	}
+
+	private static class EntryComparator implements Comparator<Entry> {
+
+		@Override
+		public int compare(Entry o1, Entry o2) {
+			if (o1.priority != o2.priority) {
+				return o1.priority > o2.priority ? -1 : 1;
+			}
+			return Integer.compare(o1.length, o2.length);
+		}
+	}
+}
@@ -0,0 +1,249 @@
+package net.viperfish.crawler.html.engine;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.UnknownHostException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.ZipException;
+import javax.net.ssl.SSLException;
+import net.viperfish.crawler.html.exception.FetchFailedException;
+import net.viperfish.crawler.html.exception.PageTooLargeException;
+import org.apache.http.client.ClientProtocolException;
+
+/**
+ * Schedules the fetches that failed for a transient reason to be tried again later. A failure is
+ * retryable if it is a timeout or another network error, or a response with a status of 408, 429,
+ * 500, 502, 503 or 504. Unknown hosts, TLS errors, malformed urls, pages too large or that cannot
+ * be decompressed, and any other status are permanent. A retryable url is offered back to the
+ * submission queue after a backoff that doubles with every attempt, up to the maximum delay, and up
+ * to half of which is taken off at random so that the urls that failed together are not retried
+ * together. The backoff is never shorter than the pause asked for by the server. Once a url has
+ * been attempted the maximum amount of times, it is given up on and its failure is reported as
+ * usual. The waiting urls are kept in a {@link TimingWheel} rather than in the fetch threads, and
+ * they are lost when the scheduler is closed. This class is thread safe.
+ */
+public class RetryScheduler implements Closeable {
+
+	private static final int DEFAULT_MAX_ATTEMPTS = 4;
+	private static final long DEFAULT_BASE_DELAY_MILLIS = 1000;
+	private static final long DEFAULT_MAX_DELAY_MILLIS = TimeUnit.MINUTES.toMillis(10);
+	private static final long TICK_MILLIS = 100;
+	private static final int WHEEL_SIZE = 512;
+
+	private final int maxAttempts;
+	private final long baseDelay;
+	private final long maxDelay;
+	private final ConcurrentMap<CanonicalURL, Integer> attempts;
+	private final TimingWheel wheel;
+	private final LongAdder retries;
+	private final LongAdder giveUps;
+	private final LongAdder recoveries;
+	private final AtomicLong fired;
+
+	/**
+	 * creates a scheduler that attempts a url up to 4 times, with a backoff starting at a second
+	 * and capped at 10 minutes.
+	 */
+	public RetryScheduler() {
+		this(DEFAULT_MAX_ATTEMPTS, DEFAULT_BASE_DELAY_MILLIS, DEFAULT_MAX_DELAY_MILLIS,
+			TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * creates a scheduler with the specified limits.
+	 *
+	 * @param maxAttempts the maximum amount of times a url is fetched, including the first one.
+	 * @param baseDelay the backoff before the first retry.
+	 * @param maxDelay the maximum backoff.
+	 * @param unit the unit of the delays.
+	 */
+	public RetryScheduler(int maxAttempts, long baseDelay, long maxDelay, TimeUnit unit) {
+		if (maxAttempts < 1) {
+			throw new IllegalArgumentException("At least one attempt must be allowed");
+		}
+		this.maxAttempts = maxAttempts;
+		this.baseDelay = Math.max(1, unit.toMillis(baseDelay));
+		this.maxDelay = Math.max(this.baseDelay, unit.toMillis(maxDelay));
+		this.attempts = new ConcurrentHashMap<>();
+		this.wheel = new TimingWheel(TICK_MILLIS, TimeUnit.MILLISECONDS, WHEEL_SIZE,
+			new ThreadFactoryBuilder().setDaemon(true).setNameFormat("fetch-retry-%d").build());
+		this.retries = new LongAdder();
+		this.giveUps = new LongAdder();
+		this.recoveries = new LongAdder();
+		this.fired = new AtomicLong(0);
+	}
+
+	/**
+	 * checks if a failure is worth retrying.
+	 *
+	 * @param error the failure of the fetch.
+	 * @return true if the failure is transient.
+	 */
+	public static boolean isRetryable(Throwable error) {
+		Throwable cause = error;
+		while (cause instanceof FetchFailedException && cause.getCause() != null) {
+			cause = cause.getCause();
+		}
+		if (cause instanceof PageTooLargeException || cause instanceof ZipException
+			|| cause instanceof UnknownHostException || cause instanceof SSLException
+			|| cause instanceof MalformedURLException
+			|| cause instanceof ClientProtocolException) {
+			return false;
+		}
+		// timeouts, refused and reset connections, and responses cut short
+		return cause instanceof IOException;
+	}
+
+	/**
+	 * checks if a status code is worth retrying.
+	 *
+	 * @param status the status code of the response.
+	 * @return true if the server may answer differently later.
+	 */
+	public static boolean isRetryable(int status) {
+		return status == 408 || status == 429 || status == 500 || status == 502 || status == 503
+			|| status == 504;
+	}
+
+	/**
+	 * schedules a url that failed to be fetched again, if the failure is retryable and the url has
+	 * attempts left.
+	 *
+	 * @param url the url that failed.
+	 * @param error the failure.
+	 * @param frontier the submission queue to offer the url back to.
+	 * @param pause the minimal delay before the retry in milliseconds.
+	 * @return true if the url will be retried, false if the failure should be reported.
+	 */
+	boolean retry(PrioritizedURL url, Throwable error, PrioritizedURLBlockingQueue frontier,
+		long pause) {
+		if (!isRetryable(error)) {
+			attempts.remove(url.getKey());
+			return false;
+		}
+		return schedule(url, frontier, pause);
+	}
+
+	/**
+	 * schedules a url that got an error response to be fetched again, if the status is retryable
+	 * and the url has attempts left.
+	 *
+	 * @param url the url that failed.
+	 * @param status the status code of the response.
+	 * @param frontier the submission queue to offer the url back to.
+	 * @param pause the minimal delay before the retry in milliseconds.
+	 * @return true if the url will be retried, false if the response should be handed out.
+	 */
+	boolean retry(PrioritizedURL url, int status, PrioritizedURLBlockingQueue frontier,
+		long pause) {
+		if (!isRetryable(status)) {
+			succeeded(url);
+			return false;
+		}
+		return schedule(url, frontier, pause);
+	}
+
+	/**
+	 * forgets the attempts of a url that was fetched.
+	 *
+	 * @param url the url.
+	 */
+	void succeeded(PrioritizedURL url) {
+		if (attempts.remove(url.getKey()) != null) {
+			recoveries.increment();
+		}
+	}
+
+	/**
+	 * gets the amount of retries scheduled.
+	 *
+	 * @return the amount of retries.
+	 */
+	public long getRetryCount() {
+		return retries.sum();
+	}
+
+	/**
+	 * gets the amount of urls given up on after their last attempt.
+	 *
+	 * @return the amount of urls given up on.
+	 */
+	public long getGiveUpCount() {
+		return giveUps.sum();
+	}
+
+	/**
+	 * gets the amount of urls fetched after at least one retry.
+	 *
+	 * @return the amount of urls recovered by retrying.
+	 */
+	public long getRecoveryCount() {
+		return recoveries.sum();
+	}
+
+	/**
+	 * gets the amount of retries offered back to the submission queue so far.
+	 *
+	 * @return the amount of retries that are due.
+	 */
+	public long getFiredCount() {
+		return fired.get();
+	}
+
+	/**
+	 * gets the amount of urls waiting for their retry.
+	 *
+	 * @return the amount of pending retries.
+	 */
+	public int getPendingCount() {
+		return wheel.size();
+	}
+
+	/**
+	 * stops the scheduler. The pending retries are dropped.
+	 */
+	@Override
+	public void close() {
+		wheel.close();
+	}
+
+	/**
+	 * computes the backoff before an attempt.
+	 *
+	 * @param attempt the attempt that failed, starting at 1.
+	 * @return the backoff in milliseconds.
+	 */
+	long backoff(int attempt) {
+		long delay = maxDelay;
+		if (attempt - 1 < Long.numberOfLeadingZeros(baseDelay) - 1) {
+			delay = Math.min(maxDelay, baseDelay << (attempt - 1));
+		}
+		long half = delay / 2;
+		return delay - half + ThreadLocalRandom.current().nextLong(half + 1);
+	}
+
+	private boolean schedule(PrioritizedURL url, PrioritizedURLBlockingQueue frontier,
+		long pause) {
+		CanonicalURL key = url.getKey();
+		int attempt = attempts.merge(key, 1, Integer::sum);
+		if (attempt >= maxAttempts) {
+			attempts.remove(key);
+			giveUps.increment();
+			return false;
+		}
+		retries.increment();
+		// counted as fired once in the submission queue and before it stops being pending
+		wheel.schedule(() -> {
+			frontier.offer(url);
+			fired.incrementAndGet();
+		}, Math.max(pause, backoff(attempt)), TimeUnit.MILLISECONDS);
+		return true;
+	}
+}
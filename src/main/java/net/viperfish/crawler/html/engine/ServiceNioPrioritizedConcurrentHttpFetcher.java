@@ -0,0 +1,55 @@
+package net.viperfish.crawler.html.engine;
+
+/**
+ * A {@link NioPrioritizedConcurrentHttpFetcher} geared towards a service context. The {@link
+ * net.viperfish.crawler.html.HttpFetcher} will not reach the end of stream until the close method
+ * is called.
+ */
+public class ServiceNioPrioritizedConcurrentHttpFetcher extends
+	NioPrioritizedConcurrentHttpFetcher {
+
+	/**
+	 * creates a new non-blocking service fetcher.
+	 *
+	 * @param ioThreads the amount of selector threads that drive the network traffic.
+	 * @param maxInFlight the maximum amount of requests in flight at any given time.
+	 * @param userAgent the user-agent sent to the servers.
+	 */
+	public ServiceNioPrioritizedConcurrentHttpFetcher(int ioThreads, int maxInFlight,
+		String userAgent) {
+		super(ioThreads, maxInFlight, userAgent);
+	}
+
+	/**
+	 * creates a new non-blocking service fetcher with the queue that schedules the submitted urls.
+	 *
+	 * @param ioThreads the amount of selector threads that drive the network traffic.
+	 * @param maxInFlight the maximum amount of requests in flight at any given time.
+	 * @param userAgent the user-agent sent to the servers.
+	 * @param urlQueue the queue for the submitted urls.
+	 */
+	public ServiceNioPrioritizedConcurrentHttpFetcher(int ioThreads, int maxInFlight,
+		String userAgent, PrioritizedURLBlockingQueue urlQueue) {
+		super(ioThreads, maxInFlight, userAgent, urlQueue);
+	}
+
+	/**
+	 * creates a new non-blocking service fetcher with the default "halbot" user-agent.
+	 *
+	 * @param ioThreads the amount of selector threads that drive the network traffic.
+	 * @param maxInFlight the maximum amount of requests in flight at any given time.
+	 */
+	public ServiceNioPrioritizedConcurrentHttpFetcher(int ioThreads, int maxInFlight) {
+		super(ioThreads, maxInFlight, "halbot");
+	}
+
+	@Override
+	public boolean isEndReached() {
+		return isClosed();
+	}
+
+	@Override
+	public boolean isClosed() {
+		return closeCalled();
+	}
+}
@@ -19,6 +19,19 @@ public class ServicePrioritizedConcurrentHttpFetcher extends
 		super(threadCount, userAgent);
 	}
 
+	/**
+	 * creates a new fetcher with specified thread count, user-agent and the queue that schedules
+	 * the submitted urls.
+	 *
+	 * @param threadCount the amount of thread for fetching.
+	 * @param userAgent the user-agent sent to servers.
+	 * @param urlQueue the queue for the submitted urls.
+	 */
+	public ServicePrioritizedConcurrentHttpFetcher(int threadCount, String userAgent,
+		PrioritizedURLBlockingQueue urlQueue) {
+		super(threadCount, userAgent, urlQueue);
+	}
+
 	/**
 	 * creates a new fetcher with default user-agent "halbot" and a specified number of fetching
 	 * thread.
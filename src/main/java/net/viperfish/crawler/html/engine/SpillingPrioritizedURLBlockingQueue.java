@@ -0,0 +1,350 @@
+package net.viperfish.crawler.html.engine;
+
+import net.viperfish.crawler.core.BlockedBloomFilter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A {@link PrioritizedURLBlockingQueue} that keeps only a bounded amount of urls on the heap and
+ * spills the rest to disk. The urls are split into priority bands by the logarithm of their
+ * priority. Each band has an in memory head, which is an indexed heap like the one of the {@link
+ * IndexedPrioritizedURLBlockingQueue}, and a {@link URLSegmentLog} of memory mapped segment files.
+ * A url goes to the head of its band while the head has room, and is appended to the log of the
+ * band otherwise. When the head of a band runs empty, it is refilled from the log in a batch. The
+ * take methods hand out the best url of the highest band that has urls. The order is therefore
+ * exact between bands but only approximate inside a band, and the band of a url is chosen when it
+ * enters the queue. A repeated offer increases the priority of a url in a head, while a repeated
+ * offer of a spilled url is told apart by a {@link BlockedBloomFilter} of fixed size per band and
+ * ignored, so the heap used does not grow with the amount of spilled urls. Like any Bloom filter,
+ * it may mistake a new url for a spilled one and drop it, at the false positive rate of the
+ * filter. Once a filter holds more urls than its expected capacity, it is no longer consulted and
+ * repeated offers are spilled again, so a url may then be handed out twice and the crawl checker
+ * is left to halt the duplicate. The filter of a band starts over when its log runs empty. For
+ * this queue, the higher the priority number, the greater the importance. The segment files are
+ * deleted when the queue is closed.
+ */
+public class SpillingPrioritizedURLBlockingQueue implements PrioritizedURLBlockingQueue,
+	Closeable {
+
+	private static final int BANDS = 16;
+	private static final int DEFAULT_HEAD_CAPACITY = 10000;
+	private static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+	private static final long DEFAULT_FILTER_SIZE = 1024 * 1024;
+	private static final double FILTER_FALSE_POSITIVE_RATE = 0.001;
+
+	private final ReentrantLock lock;
+	private final Condition notEmpty;
+	private final PrioritizedURLHeap[] heads;
+	private final URLSegmentLog[] logs;
+	private final BlockedBloomFilter[] spilledFilters;
+	private final long filterSize;
+	private final int headCapacity;
+	private final int refillBatch;
+	private int handedOut;
+
+	/**
+	 * creates an empty queue that keeps up to 10000 urls per band in memory and spills the rest to
+	 * segments of 64 MB, with a filter of the spilled urls of 1 MB per band.
+	 *
+	 * @param directory the directory for the segment files.
+	 */
+	public SpillingPrioritizedURLBlockingQueue(File directory) {
+		this(directory, DEFAULT_HEAD_CAPACITY, DEFAULT_SEGMENT_SIZE);
+	}
+
+	/**
+	 * creates an empty queue with a filter of the spilled urls of 1 MB per band.
+	 *
+	 * @param directory the directory for the segment files.
+	 * @param headCapacity the maximum amount of urls in memory per priority band.
+	 * @param segmentSize the size of a segment file in bytes.
+	 */
+	public SpillingPrioritizedURLBlockingQueue(File directory, int headCapacity,
+		int segmentSize) {
+		this(directory, headCapacity, segmentSize, DEFAULT_FILTER_SIZE);
+	}
+
+	/**
+	 * creates an empty queue.
+	 *
+	 * @param directory the directory for the segment files.
+	 * @param headCapacity the maximum amount of urls in memory per priority band.
+	 * @param segmentSize the size of a segment file in bytes.
+	 * @param filterSize the size in bytes of the filter of the spilled urls of a band.
+	 */
+	public SpillingPrioritizedURLBlockingQueue(File directory, int headCapacity,
+		int segmentSize, long filterSize) {
+		if (headCapacity < 1) {
+			throw new IllegalArgumentException("The head capacity must be positive");
+		}
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IllegalArgumentException("Cannot create the directory " + directory);
+		}
+		this.lock = new ReentrantLock();
+		this.notEmpty = lock.newCondition();
+		this.heads = new PrioritizedURLHeap[BANDS];
+		this.logs = new URLSegmentLog[BANDS];
+		this.spilledFilters = new BlockedBloomFilter[BANDS];
+		for (int i = 0; i < BANDS; ++i) {
+			heads[i] = new PrioritizedURLHeap();
+			logs[i] = new URLSegmentLog(directory, "band" + i, segmentSize);
+			spilledFilters[i] = new BlockedBloomFilter(filterSize, FILTER_FALSE_POSITIVE_RATE);
+		}
+		this.filterSize = filterSize;
+		this.headCapacity = headCapacity;
+		this.refillBatch = Math.max(1, headCapacity / 2);
+		this.handedOut = 0;
+	}
+
+	@Override
+	public void offer(URL url) {
+		this.offer(new PrioritizedURL(url, 1));
+	}
+
+	@Override
+	public void offer(PrioritizedURL prioritizedURL) {
+		lock.lock();
+		try {
+			insert(prioritizedURL);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public void offerAll(Collection<PrioritizedURL> prioritizedURLs) {
+		lock.lock();
+		try {
+			for (PrioritizedURL prioritizedURL : prioritizedURLs) {
+				insert(prioritizedURL);
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public PrioritizedURL take() throws InterruptedException {
+		lock.lockInterruptibly();
+		try {
+			PrioritizedURL result = poll();
+			while (result == null) {
+				notEmpty.await();
+				result = poll();
+			}
+			return result;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public PrioritizedURL take(int time, TimeUnit unit) throws InterruptedException {
+		long remaining = unit.toNanos(time);
+		lock.lockInterruptibly();
+		try {
+			PrioritizedURL result = poll();
+			while (result == null) {
+				if (remaining <= 0) {
+					return null;
+				}
+				remaining = notEmpty.awaitNanos(remaining);
+				result = poll();
+			}
+			return result;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * counts the url as done with. The delay is ignored, as this queue hands out urls purely by
+	 * priority.
+	 *
+	 * @param url the URL that was fetched.
+	 * @param delay the minimum delay before the next request to the host.
+	 * @param unit the unit of the delay.
+	 */
+	@Override
+	public void release(PrioritizedURL url, long delay, TimeUnit unit) {
+		lock.lock();
+		try {
+			handedOut = Math.max(0, handedOut - 1);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public int size() {
+		lock.lock();
+		try {
+			return (int) Math.min(Integer.MAX_VALUE, queued());
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public int outstanding() {
+		lock.lock();
+		try {
+			return (int) Math.min(Integer.MAX_VALUE, queued() + handedOut);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * gets the amount of urls spilled to disk.
+	 *
+	 * @return the amount of urls in the segment files.
+	 */
+	public long spilledSize() {
+		lock.lock();
+		try {
+			long size = 0;
+			for (URLSegmentLog log : logs) {
+				size += log.size();
+			}
+			return size;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * deletes all the segment files. The spilled urls are lost.
+	 */
+	@Override
+	public void close() {
+		lock.lock();
+		try {
+			for (int i = 0; i < BANDS; ++i) {
+				logs[i].close();
+				resetFilter(i);
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * adds a url to the head holding it already, or else to its band, spilling it to the log of
+	 * the band if the head is full. A url that a filter tells as spilled already is left as it is.
+	 * Must be called with the lock held.
+	 *
+	 * @param prioritizedURL the url with priority.
+	 * @throws IOException if failed to write to the log.
+	 */
+	private void insert(PrioritizedURL prioritizedURL) throws IOException {
+		for (PrioritizedURLHeap head : heads) {
+			if (head.contains(prioritizedURL.getKey())) {
+				head.offer(prioritizedURL);
+				return;
+			}
+		}
+		long fingerprint = prioritizedURL.getKey().getFingerprint();
+		for (BlockedBloomFilter filter : spilledFilters) {
+			if (isConsulted(filter) && filter.mightContain(fingerprint)) {
+				return;
+			}
+		}
+		int band = bandOf(prioritizedURL.getPriority());
+		if (heads[band].size() < headCapacity || !logs[band].fits(prioritizedURL)) {
+			heads[band].offer(prioritizedURL);
+		} else {
+			logs[band].append(prioritizedURL);
+			spilledFilters[band].put(fingerprint);
+		}
+		notEmpty.signal();
+	}
+
+	/**
+	 * checks if a filter of spilled urls holds any and few enough of them to keep to its false
+	 * positive rate.
+	 *
+	 * @param filter the filter.
+	 * @return true if the filter should be consulted.
+	 */
+	private static boolean isConsulted(BlockedBloomFilter filter) {
+		return filter.getInsertions() > 0
+			&& filter.getInsertions() <= filter.getExpectedCapacity();
+	}
+
+	/**
+	 * replaces the filter of a band with an empty one, unless it is empty already. Must be called
+	 * with the lock held.
+	 *
+	 * @param band the band.
+	 */
+	private void resetFilter(int band) {
+		if (spilledFilters[band].getInsertions() > 0) {
+			spilledFilters[band] = new BlockedBloomFilter(filterSize, FILTER_FALSE_POSITIVE_RATE);
+		}
+	}
+
+	/**
+	 * removes the best url of the highest band, refilling the head of a band from its log when
+	 * needed. Must be called with the lock held.
+	 *
+	 * @return the best url or null if the queue is empty.
+	 */
+	private PrioritizedURL poll() {
+		try {
+			for (int band = BANDS - 1; band >= 0; --band) {
+				if (heads[band].isEmpty() && logs[band].size() > 0) {
+					for (PrioritizedURL url : logs[band].read(refillBatch)) {
+						heads[band].offer(url);
+					}
+					if (logs[band].size() == 0) {
+						resetFilter(band);
+					}
+				}
+				if (!heads[band].isEmpty()) {
+					handedOut++;
+					return heads[band].poll();
+				}
+			}
+			return null;
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * counts the urls in memory and on disk. Must be called with the lock held.
+	 *
+	 * @return the amount of queued urls.
+	 */
+	private long queued() {
+		long size = 0;
+		for (int i = 0; i < BANDS; ++i) {
+			size += heads[i].size() + logs[i].size();
+		}
+		return size;
+	}
+
+	/**
+	 * gets the band of a priority, which is its base 2 logarithm.
+	 *
+	 * @param priority the priority.
+	 * @return the band.
+	 */
+	private static int bandOf(int priority) {
+		if (priority <= 1) {
+			return 0;
+		}
+		return Math.min(BANDS - 1, 31 - Integer.numberOfLeadingZeros(priority));
+	}
+}
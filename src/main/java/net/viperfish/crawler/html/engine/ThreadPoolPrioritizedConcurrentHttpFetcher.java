@@ -27,6 +27,20 @@ public abstract class ThreadPoolPrioritizedConcurrentHttpFetcher extends
 		this.threadPool = Executors.newFixedThreadPool(this.threadCount);
 	}
 
+	/**
+	 * creates a new fetcher with the queue that schedules the submitted urls.
+	 *
+	 * @param threadCount the amount of thread used for fetching.
+	 * @param userAgent the user-agent sent to the servers.
+	 * @param urlQueue the queue for the submitted urls.
+	 */
+	public ThreadPoolPrioritizedConcurrentHttpFetcher(int threadCount, String userAgent,
+		PrioritizedURLBlockingQueue urlQueue) {
+		super(userAgent, urlQueue);
+		this.threadCount = threadCount + 1;
+		this.threadPool = Executors.newFixedThreadPool(this.threadCount);
+	}
+
 	/**
 	 * run the delegator task with the thread pool.
 	 *
@@ -0,0 +1,170 @@
+package net.viperfish.crawler.html.engine;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A hashed timing wheel that runs tasks after a delay. The wheel is a ring of buckets, each
+ * covering one tick, and a single thread advances through the ring one tick at a time and runs the
+ * tasks of the bucket it reaches. A task due in more than one turn of the wheel stays in its bucket
+ * with the amount of turns left. Scheduling a task only appends it to a queue that the thread
+ * drains into the buckets on the next tick, so it is a constant time operation no matter how many
+ * tasks are pending, and the tasks run at most one tick late. The tasks are run by the thread of
+ * the wheel, so they must be short. This class is thread safe.
+ */
+class TimingWheel implements Closeable {
+
+	private final long tickNanos;
+	private final List<List<Timeout>> buckets;
+	private final Queue<Timeout> incoming;
+	private final AtomicInteger pending;
+	private final Thread worker;
+	private final long startTime;
+	private final Logger logger;
+	private volatile boolean closed;
+
+	/**
+	 * creates and starts a timing wheel.
+	 *
+	 * @param tick the duration of a tick.
+	 * @param unit the unit of the tick.
+	 * @param wheelSize the amount of buckets in the wheel.
+	 * @param threadFactory the factory of the thread advancing the wheel.
+	 */
+	TimingWheel(long tick, TimeUnit unit, int wheelSize, ThreadFactory threadFactory) {
+		if (tick < 1 || wheelSize < 1) {
+			throw new IllegalArgumentException("The tick and the wheel size must be positive");
+		}
+		this.tickNanos = unit.toNanos(tick);
+		this.buckets = new ArrayList<>(wheelSize);
+		for (int i = 0; i < wheelSize; ++i) {
+			buckets.add(new ArrayList<>());
+		}
+		this.incoming = new ConcurrentLinkedQueue<>();
+		this.pending = new AtomicInteger(0);
+		this.logger = LoggerFactory.getLogger(this.getClass());
+		this.closed = false;
+		this.startTime = System.nanoTime();
+		this.worker = threadFactory.newThread(this::advance);
+		worker.start();
+	}
+
+	/**
+	 * schedules a task to run after a delay.
+	 *
+	 * @param task the task.
+	 * @param delay the delay.
+	 * @param unit the unit of the delay.
+	 */
+	void schedule(Runnable task, long delay, TimeUnit unit) {
+		if (closed) {
+			throw new IllegalStateException("The timing wheel is closed");
+		}
+		pending.incrementAndGet();
+		incoming.offer(new Timeout(task, System.nanoTime() + Math.max(0, unit.toNanos(delay))));
+	}
+
+	/**
+	 * gets the amount of tasks that have not run yet.
+	 *
+	 * @return the amount of pending tasks.
+	 */
+	int size() {
+		return pending.get();
+	}
+
+	/**
+	 * stops the wheel. The pending tasks never run.
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		worker.interrupt();
+	}
+
+	/**
+	 * advances the wheel by a tick at a time until it is closed.
+	 */
+	private void advance() {
+		long tick = 0;
+		while (!closed) {
+			long deadline = startTime + (tick + 1) * tickNanos;
+			long sleep = deadline - System.nanoTime();
+			if (sleep > 0) {
+				try {
+					TimeUnit.NANOSECONDS.sleep(sleep);
+				} catch (InterruptedException e) {
+					return;
+				}
+			}
+			transfer(tick);
+			expire(buckets.get((int) (tick % buckets.size())));
+			tick++;
+		}
+	}
+
+	/**
+	 * moves the newly scheduled tasks into their bucket.
+	 *
+	 * @param tick the current tick.
+	 */
+	private void transfer(long tick) {
+		Timeout timeout = incoming.poll();
+		while (timeout != null) {
+			long due = (timeout.deadline - startTime + tickNanos - 1) / tickNanos;
+			// a task already due runs in the current bucket
+			due = Math.max(due, tick);
+			timeout.rounds = (due - tick) / buckets.size();
+			buckets.get((int) (due % buckets.size())).add(timeout);
+			timeout = incoming.poll();
+		}
+	}
+
+	/**
+	 * runs the tasks of a bucket that are due in this turn of the wheel.
+	 *
+	 * @param bucket the bucket of the current tick.
+	 */
+	private void expire(List<Timeout> bucket) {
+		Iterator<Timeout> iterator = bucket.iterator();
+		while (iterator.hasNext()) {
+			Timeout timeout = iterator.next();
+			if (timeout.rounds > 0) {
+				timeout.rounds--;
+				continue;
+			}
+			iterator.remove();
+			try {
+				timeout.task.run();
+			} catch (RuntimeException e) {
+				logger.warn("A scheduled task failed", e);
+			} finally {
+				pending.decrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * A scheduled task.
+	 */
+	private static final class Timeout {
+
+		private final Runnable task;
+		private final long deadline;
+		private long rounds;
+
+		Timeout(Runnable task, long deadline) {
+			this.task = task;
+			this.deadline = deadline;
+		}
+	}
+}
@@ -0,0 +1,60 @@
+package net.viperfish.crawler.html.engine;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import net.viperfish.crawler.core.IOUtil;
+
+/**
+ * The format shared by the checkpoints of the url queues. Each url is written as a marker, its
+ * normalized form and its priority, and the list ends with a false marker. The normalized form is
+ * written with its length, as a url can be longer than {@link DataOutputStream#writeUTF(String)}
+ * allows.
+ */
+final class URLCheckpoints {
+
+	// ensures that it is a utility class.
+	private URLCheckpoints() {
+
+	}
+
+	/**
+	 * writes a list of urls with their current priority. A url listed more than once is only
+	 * written the first time.
+	 *
+	 * @param out the output.
+	 * @param urls the urls to write.
+	 * @throws IOException if failed to write.
+	 */
+	static void write(DataOutputStream out, Collection<PrioritizedURL> urls) throws IOException {
+		Set<CanonicalURL> written = new HashSet<>();
+		for (PrioritizedURL url : urls) {
+			if (!written.add(url.getKey())) {
+				continue;
+			}
+			out.writeBoolean(true);
+			IOUtil.writeString(out, url.getKey().getNormalized());
+			out.writeInt(url.getPriority());
+		}
+		out.writeBoolean(false);
+	}
+
+	/**
+	 * reads a list of urls written by {@link #write(DataOutputStream, Collection)} and offers them
+	 * to a queue.
+	 *
+	 * @param in the input.
+	 * @param queue the queue to fill.
+	 * @throws IOException if failed to read.
+	 */
+	static void read(DataInputStream in, PrioritizedURLBlockingQueue queue) throws IOException {
+		while (in.readBoolean()) {
+			URL url = new URL(IOUtil.readString(in));
+			queue.offer(new PrioritizedURL(url, in.readInt()));
+		}
+	}
+}
@@ -0,0 +1,171 @@
+package net.viperfish.crawler.html.engine;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * An append only log of {@link PrioritizedURL}s stored in memory mapped segment files. The urls are
+ * read back in the order they were appended. Only the segment being written and the segment being
+ * read are mapped, and a segment file is deleted as soon as it has been read completely, so the
+ * heap and the address space used stay bounded no matter how many urls are in the log. Each record
+ * is the priority, the length of the url and the url in UTF-8. This class is not thread safe.
+ */
+class URLSegmentLog implements Closeable {
+
+	private static final int HEADER_BYTES = Integer.BYTES * 2;
+
+	private final File directory;
+	private final String prefix;
+	private final int segmentSize;
+	private final Deque<Segment> segments;
+	private long records;
+	private int nextSegmentId;
+
+	/**
+	 * creates an empty log.
+	 *
+	 * @param directory the directory of the segment files.
+	 * @param prefix the prefix of the names of the segment files.
+	 * @param segmentSize the size of a segment file in bytes.
+	 */
+	URLSegmentLog(File directory, String prefix, int segmentSize) {
+		this.directory = directory;
+		this.prefix = prefix;
+		this.segmentSize = segmentSize;
+		this.segments = new ArrayDeque<>();
+		this.records = 0;
+		this.nextSegmentId = 0;
+	}
+
+	/**
+	 * checks if a URL is small enough to be stored in a segment.
+	 *
+	 * @param url the URL.
+	 * @return true if the URL fits.
+	 */
+	boolean fits(PrioritizedURL url) {
+		return HEADER_BYTES + url.getKey().getNormalized().length() * 3 <= segmentSize;
+	}
+
+	/**
+	 * appends a URL to the end of the log.
+	 *
+	 * @param url the URL to append.
+	 * @throws IOException if the segment file cannot be created.
+	 */
+	void append(PrioritizedURL url) throws IOException {
+		byte[] bytes = url.getKey().getNormalized().getBytes(StandardCharsets.UTF_8);
+		Segment tail = segments.peekLast();
+		if (tail == null || tail.writePosition + HEADER_BYTES + bytes.length > segmentSize) {
+			if (tail != null && tail != segments.peekFirst()) {
+				tail.buffer = null;
+			}
+			tail = new Segment(new File(directory, prefix + "-" + nextSegmentId++ + ".seg"));
+			tail.buffer = map(tail.file, MapMode.READ_WRITE, segmentSize);
+			segments.addLast(tail);
+		}
+		ByteBuffer out = tail.buffer.duplicate();
+		out.position(tail.writePosition);
+		out.putInt(url.getPriority()).putInt(bytes.length).put(bytes);
+		tail.writePosition += HEADER_BYTES + bytes.length;
+		records++;
+	}
+
+	/**
+	 * removes urls from the start of the log.
+	 *
+	 * @param max the maximum amount of urls to remove.
+	 * @return the removed urls, in the order they were appended.
+	 * @throws IOException if a segment file cannot be read.
+	 */
+	List<PrioritizedURL> read(int max) throws IOException {
+		List<PrioritizedURL> result = new LinkedList<>();
+		while (result.size() < max && records > 0) {
+			Segment head = segments.peekFirst();
+			if (head.readPosition == head.writePosition) {
+				segments.pollFirst();
+				head.buffer = null;
+				head.file.delete();
+				continue;
+			}
+			if (head.buffer == null) {
+				head.buffer = map(head.file, MapMode.READ_ONLY, head.writePosition);
+			}
+			ByteBuffer in = head.buffer.duplicate();
+			in.position(head.readPosition);
+			int priority = in.getInt();
+			byte[] bytes = new byte[in.getInt()];
+			in.get(bytes);
+			head.readPosition += HEADER_BYTES + bytes.length;
+			records--;
+			try {
+				result.add(new PrioritizedURL(new URL(new String(bytes, StandardCharsets.UTF_8)),
+					priority));
+			} catch (MalformedURLException e) {
+				// the url was valid when appended
+				throw new IOException("Corrupted segment " + head.file, e);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * gets the amount of urls in the log.
+	 *
+	 * @return the amount of urls.
+	 */
+	long size() {
+		return records;
+	}
+
+	/**
+	 * deletes all the segment files of the log.
+	 */
+	@Override
+	public void close() {
+		for (Segment s : segments) {
+			s.buffer = null;
+			s.file.delete();
+		}
+		segments.clear();
+		records = 0;
+	}
+
+	private MappedByteBuffer map(File file, MapMode mode, int size) throws IOException {
+		try (RandomAccessFile raf = new RandomAccessFile(file,
+			mode == MapMode.READ_ONLY ? "r" : "rw")) {
+			FileChannel channel = raf.getChannel();
+			return channel.map(mode, 0, size);
+		}
+	}
+
+	/**
+	 * A segment file and the positions of the reader and the writer in it.
+	 */
+	private static class Segment {
+
+		private final File file;
+		private MappedByteBuffer buffer;
+		private int writePosition;
+		private int readPosition;
+
+		Segment(File file) {
+			this.file = file;
+			this.writePosition = 0;
+			this.readPosition = 0;
+		}
+	}
+}
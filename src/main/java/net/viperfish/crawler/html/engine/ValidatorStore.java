@@ -0,0 +1,254 @@
+package net.viperfish.crawler.html.engine;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import net.viperfish.crawler.core.Checkpointable;
+import net.viperfish.crawler.html.ContentFingerprint;
+import org.apache.http.Header;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+
+/**
+ * The cache validators of the pages fetched in the previous crawls, which are the ETag and the
+ * Last-Modified date sent by the server along with the checksum of the body. When a page is
+ * fetched again, the fetchers send the validators as a conditional request, and a server that
+ * answers with 304 Not Modified does not send the body again. The fetcher then hands out an
+ * unchanged result carrying the last checksum, which the crawler does not parse. Only the pages
+ * that came with at least one validator are stored. The store is persisted across crawls by
+ * registering it to a {@link net.viperfish.crawler.core.Checkpointer}. This class is thread safe.
+ */
+public class ValidatorStore implements Checkpointable {
+
+	private final ConcurrentMap<CanonicalURL, Validators> validators;
+	private final AtomicLong version;
+	private final LongAdder notModified;
+
+	/**
+	 * creates an empty store.
+	 */
+	public ValidatorStore() {
+		this.validators = new ConcurrentHashMap<>();
+		this.version = new AtomicLong(0);
+		this.notModified = new LongAdder();
+	}
+
+	/**
+	 * gets the validators of a page.
+	 *
+	 * @param url the url of the page.
+	 * @return the validators or null if none are stored.
+	 */
+	public Validators get(URL url) {
+		return validators.get(CanonicalURL.of(url));
+	}
+
+	/**
+	 * removes the validators of a page, so the next fetch downloads it unconditionally.
+	 *
+	 * @param url the url of the page.
+	 */
+	public void remove(URL url) {
+		if (validators.remove(CanonicalURL.of(url)) != null) {
+			version.incrementAndGet();
+		}
+	}
+
+	/**
+	 * gets the amount of pages with stored validators.
+	 *
+	 * @return the size of the store.
+	 */
+	public int size() {
+		return validators.size();
+	}
+
+	/**
+	 * gets the amount of conditional requests that were answered with 304 Not Modified.
+	 *
+	 * @return the amount of unchanged pages.
+	 */
+	public long getNotModifiedCount() {
+		return notModified.sum();
+	}
+
+	/**
+	 * adds the conditional headers for the stored validators of a page to a request.
+	 *
+	 * @param key the identity of the url of the page.
+	 * @param request the request for the page.
+	 */
+	void addConditions(CanonicalURL key, HttpRequest request) {
+		Validators stored = validators.get(key);
+		if (stored == null) {
+			return;
+		}
+		if (stored.getETag() != null) {
+			request.setHeader("If-None-Match", stored.getETag());
+		}
+		if (stored.getLastModified() != null) {
+			request.setHeader("If-Modified-Since", stored.getLastModified());
+		}
+	}
+
+	/**
+	 * stores the validators of a freshly downloaded page. If the response has no validators, the
+	 * stored ones are removed, as they no longer describe the page.
+	 *
+	 * @param key the identity of the url of the page.
+	 * @param response the response of the server.
+	 * @param checksum the fingerprint of the body.
+	 */
+	void update(CanonicalURL key, HttpResponse response, ContentFingerprint checksum) {
+		String etag = headerValue(response, "ETag");
+		String lastModified = headerValue(response, "Last-Modified");
+		if (etag == null && lastModified == null) {
+			if (validators.remove(key) != null) {
+				version.incrementAndGet();
+			}
+			return;
+		}
+		validators.put(key,
+			new Validators(etag, lastModified, checksum, System.currentTimeMillis()));
+		version.incrementAndGet();
+	}
+
+	/**
+	 * records a 304 Not Modified response. The validators are refreshed with the ones in the
+	 * response, if any, and the time of the last verification is updated.
+	 *
+	 * @param key the identity of the url of the page.
+	 * @param response the response of the server.
+	 * @return the refreshed validators, or null if no validators were stored for the page.
+	 */
+	Validators notModified(CanonicalURL key, HttpResponse response) {
+		String etag = headerValue(response, "ETag");
+		String lastModified = headerValue(response, "Last-Modified");
+		Validators refreshed = validators.computeIfPresent(key,
+			(url, stored) -> new Validators(etag == null ? stored.getETag() : etag,
+				lastModified == null ? stored.getLastModified() : lastModified,
+				stored.getChecksum(), System.currentTimeMillis()));
+		if (refreshed != null) {
+			notModified.increment();
+			version.incrementAndGet();
+		}
+		return refreshed;
+	}
+
+	@Override
+	public long getVersion() {
+		return version.get();
+	}
+
+	@Override
+	public void checkpoint(DataOutputStream out) throws IOException {
+		for (Map.Entry<CanonicalURL, Validators> entry : validators.entrySet()) {
+			Validators value = entry.getValue();
+			out.writeBoolean(true);
+			out.writeUTF(entry.getKey().getNormalized());
+			writeNullable(out, value.getETag());
+			writeNullable(out, value.getLastModified());
+			out.writeBoolean(value.getChecksum() != null);
+			if (value.getChecksum() != null) {
+				value.getChecksum().writeTo(out);
+			}
+			out.writeLong(value.getLastVerified());
+		}
+		out.writeBoolean(false);
+	}
+
+	@Override
+	public void restore(DataInputStream in) throws IOException {
+		while (in.readBoolean()) {
+			CanonicalURL key = CanonicalURL.fromNormalized(in.readUTF());
+			String etag = readNullable(in);
+			String lastModified = readNullable(in);
+			ContentFingerprint checksum =
+				in.readBoolean() ? ContentFingerprint.readFrom(in) : null;
+			long lastVerified = in.readLong();
+			validators.putIfAbsent(key, new Validators(etag, lastModified, checksum,
+				lastVerified));
+		}
+		version.incrementAndGet();
+	}
+
+	private static String headerValue(HttpResponse response, String name) {
+		Header header = response.getFirstHeader(name);
+		if (header == null || header.getValue().trim().isEmpty()) {
+			return null;
+		}
+		return header.getValue().trim();
+	}
+
+	private static void writeNullable(DataOutputStream out, String value) throws IOException {
+		out.writeBoolean(value != null);
+		if (value != null) {
+			out.writeUTF(value);
+		}
+	}
+
+	private static String readNullable(DataInputStream in) throws IOException {
+		return in.readBoolean() ? in.readUTF() : null;
+	}
+
+	/**
+	 * The validators of a page. This class is immutable.
+	 */
+	public static final class Validators {
+
+		private final String etag;
+		private final String lastModified;
+		private final ContentFingerprint checksum;
+		private final long lastVerified;
+
+		Validators(String etag, String lastModified, ContentFingerprint checksum,
+			long lastVerified) {
+			this.etag = etag;
+			this.lastModified = lastModified;
+			this.checksum = checksum;
+			this.lastVerified = lastVerified;
+		}
+
+		/**
+		 * gets the entity tag of the page.
+		 *
+		 * @return the ETag header as sent by the server, or null.
+		 */
+		public String getETag() {
+			return etag;
+		}
+
+		/**
+		 * gets the last modification date of the page.
+		 *
+		 * @return the Last-Modified header as sent by the server, or null.
+		 */
+		public String getLastModified() {
+			return lastModified;
+		}
+
+		/**
+		 * gets the checksum of the body of the page when it was last downloaded.
+		 *
+		 * @return the fingerprint of the body, or null if not computed.
+		 */
+		public ContentFingerprint getChecksum() {
+			return checksum;
+		}
+
+		/**
+		 * gets the last time the page was downloaded or confirmed unchanged by the server.
+		 *
+		 * @return the time in milliseconds since the epoch.
+		 */
+		public long getLastVerified() {
+			return lastVerified;
+		}
+	}
+}
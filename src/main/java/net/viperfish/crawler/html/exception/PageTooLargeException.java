@@ -0,0 +1,33 @@
+package net.viperfish.crawler.html.exception;
+
+import java.io.IOException;
+
+/**
+ * An exception where the body of a page is larger than the maximum page size allowed, in which case
+ * the download is aborted.
+ */
+public class PageTooLargeException extends IOException {
+
+	private static final long serialVersionUID = 1;
+
+	private long maxSize;
+
+	/**
+	 * creates a new exception with the maximum page size that was exceeded.
+	 *
+	 * @param maxSize the maximum page size in bytes.
+	 */
+	public PageTooLargeException(long maxSize) {
+		super("The page is larger than " + maxSize + " bytes");
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * gets the maximum page size that was exceeded.
+	 *
+	 * @return the maximum page size in bytes.
+	 */
+	public long getMaxSize() {
+		return maxSize;
+	}
+}
@@ -9,16 +9,29 @@ public class BasicRestriction implements Restriction {
 
 	private boolean canCrawl;
 	private boolean canIndex;
+	private int crawlDelay;
 
 	/**
-	 * creates a new BaseRestriction with specified boolean restrictions.
+	 * creates a new BaseRestriction with specified boolean restrictions and no crawl delay.
 	 *
 	 * @param canCrawl if the crawler can crawl the url.
 	 * @param canIndex if the crawler can process the content.
 	 */
 	public BasicRestriction(boolean canCrawl, boolean canIndex) {
+		this(canCrawl, canIndex, 0);
+	}
+
+	/**
+	 * creates a new BaseRestriction with specified boolean restrictions and crawl delay.
+	 *
+	 * @param canCrawl if the crawler can crawl the url.
+	 * @param canIndex if the crawler can process the content.
+	 * @param crawlDelay the delay between requests to the host in seconds.
+	 */
+	public BasicRestriction(boolean canCrawl, boolean canIndex, int crawlDelay) {
 		this.canCrawl = canCrawl;
 		this.canIndex = canIndex;
+		this.crawlDelay = crawlDelay;
 	}
 
 	@Override
@@ -30,4 +43,9 @@ public class BasicRestriction implements Restriction {
 	public boolean canFetch() {
 		return canCrawl;
 	}
+
+	@Override
+	public int getCrawlDelay() {
+		return crawlDelay;
+	}
 }
@@ -0,0 +1,238 @@
+package net.viperfish.crawler.html.restrictions;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The allow and disallow rules of a robots.txt compiled into a trie over the literal prefix of the
+ * rules, which is the part of the rule before its first wildcard. A path is matched by walking the
+ * trie along the path once, so the cost of a match depends on the length of the path rather than
+ * on the amount of rules. The rules with wildcards hang off the node of their literal prefix, and
+ * their remaining parts are only searched for once the walk reaches that node. A rule matches the
+ * beginning of the path, a <code>*</code> matches any sequence of characters, and a rule ending
+ * with <code>$</code> only matches if its end is the end of the path. When several rules match, the
+ * longest one wins, and an allow rule wins over a disallow rule of the same length. Before
+ * searching for the parts of a wildcard rule, the ascii characters they need are checked against
+ * the ones in the path, which rules out most of the wildcard rules in a couple of bit operations.
+ * Matching does not allocate. This class is immutable and thread safe.
+ */
+final class RobotRuleTrie {
+
+	private static final Rule[] NO_RULES = new Rule[0];
+	private static final char[] NO_KEYS = new char[0];
+	private static final Node[] NO_CHILDREN = new Node[0];
+
+	private final Node root;
+
+	/**
+	 * compiles the rules of a robots.txt. Empty rules do not match anything, as specified for
+	 * robots.txt.
+	 *
+	 * @param allowed the allow rules.
+	 * @param disallowed the disallow rules.
+	 */
+	RobotRuleTrie(List<String> allowed, List<String> disallowed) {
+		Builder root = new Builder();
+		for (String rule : disallowed) {
+			add(root, rule, false);
+		}
+		for (String rule : allowed) {
+			add(root, rule, true);
+		}
+		this.root = root.build();
+	}
+
+	/**
+	 * checks if a path is allowed by the rules.
+	 *
+	 * @param path the path of the url along with its query string, starting with a slash.
+	 * @return true if no rule matches or if the longest matching rule is an allow rule.
+	 */
+	boolean isAllowed(String path) {
+		long pathLow = 0;
+		long pathHigh = 0;
+		boolean masked = false;
+		int bestLength = -1;
+		boolean bestAllow = true;
+		Node node = root;
+		int depth = 0;
+		while (true) {
+			for (Rule rule : node.rules) {
+				if (rule.length < bestLength || (rule.length == bestLength && !rule.allow)) {
+					continue;
+				}
+				if (rule.tail.length != 0) {
+					if (!masked) {
+						for (int i = 0; i < path.length(); ++i) {
+							char c = path.charAt(i);
+							if (c < 64) {
+								pathLow |= 1L << c;
+							} else if (c < 128) {
+								pathHigh |= 1L << (c - 64);
+							}
+						}
+						masked = true;
+					}
+					if ((rule.low & ~pathLow) != 0 || (rule.high & ~pathHigh) != 0) {
+						continue;
+					}
+				}
+				if (rule.matchesTail(path, depth)) {
+					bestLength = rule.length;
+					bestAllow = rule.allow;
+				}
+			}
+			if (depth == path.length()) {
+				break;
+			}
+			node = node.child(path.charAt(depth));
+			if (node == null) {
+				break;
+			}
+			depth++;
+		}
+		return bestAllow;
+	}
+
+	private static void add(Builder root, String pattern, boolean allow) {
+		String rule = pattern;
+		boolean anchored = rule.endsWith("$");
+		if (anchored) {
+			rule = rule.substring(0, rule.length() - 1);
+			// a wildcard before the anchor matches up to the end anyway
+			anchored = !rule.endsWith("*");
+		}
+		if (rule.isEmpty()) {
+			return;
+		}
+		int wildcard = rule.indexOf('*');
+		String prefix = wildcard == -1 ? rule : rule.substring(0, wildcard);
+		List<String> tail = new ArrayList<>();
+		if (wildcard != -1) {
+			// a trailing wildcard or consecutive wildcards do not change what is matched
+			for (String segment : rule.substring(wildcard + 1).split("\\*")) {
+				if (!segment.isEmpty()) {
+					tail.add(segment);
+				}
+			}
+		}
+		Builder node = root;
+		for (int i = 0; i < prefix.length(); ++i) {
+			node = node.children.computeIfAbsent(prefix.charAt(i), c -> new Builder());
+		}
+		node.rules.add(new Rule(allow, pattern.length(), anchored, tail.toArray(new String[0])));
+	}
+
+	/**
+	 * A compiled rule, attached to the node of its literal prefix.
+	 */
+	private static final class Rule {
+
+		private final boolean allow;
+		private final int length;
+		private final boolean anchored;
+		private final String[] tail;
+		// the ascii characters needed by the tail, as a bit set
+		private final long low;
+		private final long high;
+
+		Rule(boolean allow, int length, boolean anchored, String[] tail) {
+			this.allow = allow;
+			this.length = length;
+			this.anchored = anchored;
+			this.tail = tail;
+			long lowBits = 0;
+			long highBits = 0;
+			for (String segment : tail) {
+				for (int i = 0; i < segment.length(); ++i) {
+					char c = segment.charAt(i);
+					if (c < 64) {
+						lowBits |= 1L << c;
+					} else if (c < 128) {
+						highBits |= 1L << (c - 64);
+					}
+				}
+			}
+			this.low = lowBits;
+			this.high = highBits;
+		}
+
+		/**
+		 * checks if the parts of the rule after its first wildcard can be found in order in the
+		 * path. Taking the earliest occurrence of each part is enough to decide, except for the
+		 * last part of an anchored rule, which has to be at the end of the path.
+		 *
+		 * @param path the path.
+		 * @param from the end of the literal prefix in the path.
+		 * @return true if the rule matches.
+		 */
+		boolean matchesTail(String path, int from) {
+			int position = from;
+			int free = anchored ? tail.length - 1 : tail.length;
+			for (int i = 0; i < free; ++i) {
+				int found = path.indexOf(tail[i], position);
+				if (found == -1) {
+					return false;
+				}
+				position = found + tail[i].length();
+			}
+			if (!anchored) {
+				return true;
+			}
+			if (tail.length == 0) {
+				return position == path.length();
+			}
+			String last = tail[tail.length - 1];
+			return path.length() - last.length() >= position && path.endsWith(last);
+		}
+	}
+
+	/**
+	 * A node of the compiled trie. The children are kept in arrays sorted by their character.
+	 */
+	private static final class Node {
+
+		private final char[] keys;
+		private final Node[] children;
+		private final Rule[] rules;
+
+		Node(char[] keys, Node[] children, Rule[] rules) {
+			this.keys = keys;
+			this.children = children;
+			this.rules = rules;
+		}
+
+		Node child(char c) {
+			int index = Arrays.binarySearch(keys, c);
+			return index < 0 ? null : children[index];
+		}
+	}
+
+	/**
+	 * A node of the trie being built.
+	 */
+	private static final class Builder {
+
+		private final Map<Character, Builder> children = new TreeMap<>();
+		private final List<Rule> rules = new ArrayList<>();
+
+		Node build() {
+			if (children.isEmpty()) {
+				return new Node(NO_KEYS, NO_CHILDREN, rules.isEmpty() ? NO_RULES
+					: rules.toArray(NO_RULES));
+			}
+			char[] keys = new char[children.size()];
+			Node[] nodes = new Node[children.size()];
+			int index = 0;
+			for (Map.Entry<Character, Builder> e : children.entrySet()) {
+				keys[index] = e.getKey();
+				nodes[index] = e.getValue().build();
+				index++;
+			}
+			return new Node(keys, nodes, rules.toArray(NO_RULES));
+		}
+	}
+}
@@ -1,16 +1,18 @@
 package net.viperfish.crawler.html.restrictions;
 
+import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Objects;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 import net.viperfish.crawler.html.Restriction;
 
 /**
  * A representation of the robots.txt file with utilities to match urls against the url patterns.
+ * The patterns are compiled into a {@link RobotRuleTrie} once, so checking a url does not depend
+ * on the amount of patterns and does not allocate.
  */
 public class RobotTxt {
 
@@ -18,8 +20,9 @@ public class RobotTxt {
 	private List<String> allowed;
 	private List<String> disallowed;
 	private int crawlDelay;
-	private List<Pattern> disallowedPattern;
-	private List<Pattern> allowedPattern;
+	private RobotRuleTrie rules;
+	private Restriction allowedRestriction;
+	private Restriction disallowedRestriction;
 
 
 	/**
@@ -35,8 +38,19 @@ public class RobotTxt {
 		this.disallowed = Collections.unmodifiableList(new LinkedList<>(disallowed));
 		this.baseURL = baseURL;
 		this.crawlDelay = crawlDelay;
+		this.rules = new RobotRuleTrie(toPaths(allowed), toPaths(disallowed));
+		// the restrictions are immutable, so they are shared by all the checks
+		this.allowedRestriction = new BasicRestriction(true, true, crawlDelay);
+		this.disallowedRestriction = new BasicRestriction(false, false, crawlDelay);
+	}
 
-		createPatterns();
+	/**
+	 * gets the base url of the site.
+	 *
+	 * @return the base url.
+	 */
+	public URL getBaseURL() {
+		return baseURL;
 	}
 
 	/**
@@ -68,17 +82,23 @@ public class RobotTxt {
 
 	/**
 	 * tests whether a given url is allowed based on the allowed list and the disallowed list. This
-	 * implementation uses Google's standard where allowed can override disallowed.
+	 * implementation uses Google's standard where the longest matching rule wins, and allowed
+	 * overrides disallowed when the rules are as long. The rules are matched against the path and
+	 * the query string of the url, and the urls of other hosts are always allowed. The returned
+	 * restriction also carries the crawl delay of the site.
 	 *
 	 * @param url the url to check
 	 * @return a restriction representing the permissions regarding the specified URL.
 	 */
 	public Restriction isAllowed(URL url) {
-		boolean disallowed = checkDisallowed(url);
-		boolean allowed = checkAllowed(url);
-
-		boolean finalVerdict = !disallowed || allowed;
-		return new BasicRestriction(finalVerdict, finalVerdict);
+		if (!url.getHost().equalsIgnoreCase(baseURL.getHost())) {
+			return allowedRestriction;
+		}
+		String path = url.getFile();
+		if (!path.startsWith("/")) {
+			path = "/" + path;
+		}
+		return rules.isAllowed(path) ? allowedRestriction : disallowedRestriction;
 	}
 
 	@Override
@@ -102,120 +122,28 @@ public class RobotTxt {
 
 
 	/**
-	 * checks if the specified URL matches any disallowed urls.
-	 *
-	 * @param toTest the URL to test
-	 * @return true if matches false otherwise.
-	 */
-	private boolean checkDisallowed(URL toTest) {
-		for (Pattern p : disallowedPattern) {
-			Matcher match = p.matcher(toTest.toExternalForm());
-			if (match.find()) {
-				return true;
-			}
-		}
-		return false;
-	}
-
-	/**
-	 * checks if the specified URL matches any allowed URLs
+	 * converts the rules given as absolute urls into paths. The rules for other hosts are dropped.
 	 *
-	 * @param toTest the URL to test
-	 * @return true if matches false otherwise.
+	 * @param rules the rules.
+	 * @return the rules as paths.
 	 */
-	private boolean checkAllowed(URL toTest) {
-		for (Pattern p : allowedPattern) {
-			Matcher match = p.matcher(toTest.toExternalForm());
-			if (match.find()) {
-				return true;
+	private List<String> toPaths(List<String> rules) {
+		List<String> paths = new ArrayList<>(rules.size());
+		for (String rule : rules) {
+			if (rule.startsWith("http:") || rule.startsWith("https:")) {
+				try {
+					URL absolute = new URL(rule);
+					if (!absolute.getHost().equalsIgnoreCase(baseURL.getHost())) {
+						continue;
+					}
+					rule = absolute.getFile().isEmpty() ? "/" : absolute.getFile();
+				} catch (MalformedURLException e) {
+					continue;
+				}
 			}
+			paths.add(rule);
 		}
-		return false;
-	}
-
-	/**
-	 * generates the Java regex patterns based on the robots.txt patterns.
-	 *
-	 * @param str the URL pattern
-	 * @return a regex pattern representing the URL pattern.
-	 */
-	private Pattern generatePattern(String str) {
-		if (str.startsWith("http:") || str.startsWith("https")) {
-			return Pattern.compile(str);
-		}
-		String baseURLString = baseURL.toExternalForm();
-		if (baseURLString.endsWith("/")) {
-			baseURLString = baseURLString.substring(0, baseURLString.length() - 1);
-		}
-		if (!(str.equals("/") || str.equals("/*"))) {
-			str = baseURLString + str;
-		} else {
-			str = baseURLString;
-		}
-		str = quoteNonWildcard(str);
-		if (!str.contains("*")) {
-			if (str.endsWith("$")) {
-				str = str.substring(0, str.length() - 1) + "*$";
-			} else {
-				str += "*";
-			}
-		}
-		str = str.replaceAll("\\*", "(\\\\S+)?");
-		if (str.endsWith("$")) {
-			str = "(?!\\S+\\?)" + str.substring(0, str.length() - 1);
-		}
-		return Pattern.compile(str);
-	}
-
-	/**
-	 * generates a regex pattern for each URL pattern in the allowed and disallowed lists.
-	 */
-	private void createPatterns() {
-		allowedPattern = new LinkedList<>();
-		disallowedPattern = new LinkedList<>();
-
-		for (String disallow : disallowed) {
-			disallowedPattern.add(generatePattern(disallow));
-		}
-		for (String allow : allowed) {
-			allowedPattern.add(generatePattern(allow));
-		}
-	}
-
-	/**
-	 * pre-processes the url pattern before converting regex to make processing easier. It escapes
-	 * all the special characters in the non-special parts of the URL pattern, and pieces the
-	 * pattern back together with special pattern characters.
-	 *
-	 * @param str the pattern to escape
-	 * @return the escaped pattern.
-	 */
-	private String quoteNonWildcard(String str) {
-		boolean endsInWildCard = str.endsWith("*");
-		boolean beginsWithWildCard = str.startsWith("*");
-		boolean endsWithDollarSign = str.endsWith("$");
-		if (endsWithDollarSign) {
-			str = str.substring(0, str.length() - 1);
-		}
-		String[] segments = str.split("\\*");
-		String[] quotedSegments = new String[segments.length];
-		for (int i = 0; i < segments.length; ++i) {
-			quotedSegments[i] = Pattern.quote(segments[i]);
-		}
-		StringBuilder sb = new StringBuilder();
-		for (String i : quotedSegments) {
-			sb.append(i).append("*");
-		}
-		if (!endsInWildCard) {
-			sb.deleteCharAt(sb.length() - 1);
-		}
-		if (beginsWithWildCard) {
-			sb.insert(0, "*");
-		}
-		if (endsWithDollarSign) {
-			sb.append("$");
-		}
-		return sb.toString();
+		return paths;
 	}
 
 }
@@ -1,28 +1,64 @@
 package net.viperfish.crawler.html.restrictions;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import net.viperfish.crawler.core.Checkpointable;
 import net.viperfish.crawler.core.IOUtil;
 import net.viperfish.crawler.html.Restriction;
 import net.viperfish.crawler.html.RestrictionManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * A {@link RestrictionManager} that creates {@link Restriction}s based on a Site's robots.txt. This
  * class follows the convention for robots.txt as specified by Google's guide. However, it does
- * respect crawl-delay. It will try to find a robots.txt file under the root directory of the site,
- * and fetch it. If the fetching fails, it will assume that nothing is restricted. Then, this class
- * will parse the section under the specified user-agent, or wildcard if no user-agent matching this
- * user-agent is found. This class is thread safe.
+ * respect crawl-delay, which is reported through {@link Restriction#getCrawlDelay()}. It will try
+ * to find a robots.txt file under the root directory of the site, and fetch it. If the fetching
+ * fails, it will assume that nothing is restricted. Then, this class will parse the section under
+ * the specified user-agent, or wildcard if no user-agent matching this user-agent is found. The
+ * robots.txt of a host is only fetched once, however many threads ask for it at the same time: the
+ * first one fetches it and the others wait for its result. It can also be fetched ahead of time in
+ * the background with {@link #prepare(URL)}.
+ *
+ * <p>The fetched robots.txt are kept in a cache bounded by the amount of hosts, from which the
+ * least recently used hosts are evicted. Each robots.txt expires a fixed time after it was fetched,
+ * and is fetched again on the next request for its host. If fetching it again fails, the expired
+ * one is kept. When a spill directory is set, the evicted robots.txt are written to a small file
+ * per host and read back the next time the host is requested, even by another instance after a
+ * restart, as long as they have not expired. The cache can also be checkpointed, so that they are
+ * not fetched again after a restart. This class is thread safe.
  */
-public class RobotsTxtRestrictionManager implements RestrictionManager {
+public class RobotsTxtRestrictionManager implements RestrictionManager, Checkpointable {
 
 	/**
 	 * A reference representing a null RobotTxt
@@ -38,15 +74,87 @@ public class RobotsTxtRestrictionManager implements RestrictionManager {
 		}
 	}
 
-	private ConcurrentMap<String, RobotTxt> robotTxts;
+	private static final int PREFETCH_THREADS = 4;
+	private static final int CONNECT_TIMEOUT = 10000;
+	private static final int READ_TIMEOUT = 30000;
+	private static final int DEFAULT_MAX_HOSTS = 10000;
+	private static final long DEFAULT_TTL_HOURS = 24;
+	private static final String SPILL_SUFFIX = ".robots";
+	private static final String TEMP_SUFFIX = ".tmp";
+
+	private Cache<String, CachedRobotTxt> robotTxts;
 	private String userAgent;
+	private Executor prefetcher;
+	private long ttl;
+	private File spillDirectory;
+	private AtomicLong version;
+	private LongAdder hits;
+	private LongAdder misses;
+	private LongAdder refreshes;
+	private LongAdder spills;
+	private LongAdder spillHits;
+	private Logger logger;
 
 	/**
-	 * creates a new instance with specified userAgent
+	 * creates a new instance with specified userAgent. The robots.txt are prefetched by a small
+	 * pool of daemon threads, and up to 10000 hosts are cached for 24 hours.
+	 *
+	 * @param userAgent the user-agent to fetch with and to match the sections against.
 	 */
 	public RobotsTxtRestrictionManager(String userAgent) {
-		robotTxts = new ConcurrentHashMap<>();
+		this(userAgent, Executors.newFixedThreadPool(PREFETCH_THREADS,
+			new ThreadFactoryBuilder().setDaemon(true).setNameFormat("robots-prefetch-%d")
+				.build()));
+	}
+
+	/**
+	 * creates a new instance with specified userAgent and the executor to prefetch the robots.txt
+	 * with. Up to 10000 hosts are cached for 24 hours.
+	 *
+	 * @param userAgent the user-agent to fetch with and to match the sections against.
+	 * @param prefetcher the executor running the prefetches.
+	 */
+	public RobotsTxtRestrictionManager(String userAgent, Executor prefetcher) {
+		this(userAgent, prefetcher, DEFAULT_MAX_HOSTS, DEFAULT_TTL_HOURS, TimeUnit.HOURS);
+	}
+
+	/**
+	 * creates a new instance with specified userAgent, the executor to prefetch the robots.txt with
+	 * and the bounds of the cache.
+	 *
+	 * @param userAgent the user-agent to fetch with and to match the sections against.
+	 * @param prefetcher the executor running the prefetches.
+	 * @param maxHosts the maximum amount of hosts to keep the robots.txt of in memory.
+	 * @param ttl the time after which a robots.txt is fetched again.
+	 * @param unit the unit of the ttl.
+	 */
+	public RobotsTxtRestrictionManager(String userAgent, Executor prefetcher, int maxHosts,
+		long ttl, TimeUnit unit) {
+		this.robotTxts = CacheBuilder.newBuilder().maximumSize(maxHosts)
+			.removalListener(this::evicted).build();
 		this.userAgent = userAgent;
+		this.prefetcher = prefetcher;
+		this.ttl = unit.toMillis(ttl);
+		this.version = new AtomicLong(0);
+		this.hits = new LongAdder();
+		this.misses = new LongAdder();
+		this.refreshes = new LongAdder();
+		this.spills = new LongAdder();
+		this.spillHits = new LongAdder();
+		this.logger = LoggerFactory.getLogger(this.getClass());
+	}
+
+	/**
+	 * sets the directory to write the evicted robots.txt to. It must be set before the first
+	 * request, and may be shared with the previous runs of the crawl.
+	 *
+	 * @param spillDirectory the directory, which is created if needed.
+	 */
+	public void setSpillDirectory(File spillDirectory) {
+		if (!spillDirectory.isDirectory() && !spillDirectory.mkdirs()) {
+			throw new IllegalArgumentException("Cannot create the directory " + spillDirectory);
+		}
+		this.spillDirectory = spillDirectory;
 	}
 
 	@Override
@@ -57,30 +165,352 @@ public class RobotsTxtRestrictionManager implements RestrictionManager {
 	}
 
 	/**
-	 * gets a {@link RobotTxt} by either fetching it online or pulling it from the cache.
+	 * starts fetching the robots.txt of the host in the background, unless it is cached or already
+	 * being fetched.
+	 *
+	 * @param url the URL of the host.
+	 * @return a future that completes once the robots.txt is cached.
+	 */
+	@Override
+	public CompletableFuture<?> prepare(URL url) {
+		return resolve(url, true);
+	}
+
+	/**
+	 * gets the amount of requests answered by a robots.txt in memory, whether it was already
+	 * fetched or still being fetched.
+	 *
+	 * @return the amount of hits.
+	 */
+	public long getHitCount() {
+		return hits.sum();
+	}
+
+	/**
+	 * gets the amount of requests for a host that was not in memory. They include the ones read
+	 * back from the spill directory.
+	 *
+	 * @return the amount of misses.
+	 */
+	public long getMissCount() {
+		return misses.sum();
+	}
+
+	/**
+	 * gets the amount of expired robots.txt that were fetched again.
+	 *
+	 * @return the amount of refreshes.
+	 */
+	public long getRefreshCount() {
+		return refreshes.sum();
+	}
+
+	/**
+	 * gets the amount of evicted robots.txt written to the spill directory.
+	 *
+	 * @return the amount of spilled robots.txt.
+	 */
+	public long getSpillCount() {
+		return spills.sum();
+	}
+
+	/**
+	 * gets the amount of misses answered by a robots.txt read back from the spill directory.
+	 *
+	 * @return the amount of spilled robots.txt that were used again.
+	 */
+	public long getSpillHitCount() {
+		return spillHits.sum();
+	}
+
+	/**
+	 * gets the amount of hosts whose robots.txt is in memory.
+	 *
+	 * @return the amount of cached hosts.
+	 */
+	public long size() {
+		return robotTxts.size();
+	}
+
+	/**
+	 * gets the last time the robots.txt of the host of a URL was requested.
+	 *
+	 * @param url the URL.
+	 * @return the time in milliseconds since the epoch, or -1 if the host is not in memory.
+	 */
+	public long getLastAccess(URL url) {
+		CachedRobotTxt cached = robotTxts.getIfPresent(keyOf(url));
+		return cached == null ? -1 : cached.lastAccess;
+	}
+
+	/**
+	 * gets a {@link RobotTxt} by either fetching it online or pulling it from the cache. If it is
+	 * being fetched by another thread, this waits for that fetch instead of fetching it again.
 	 *
 	 * @param url the URL to check
 	 * @return a fetched robots.txt
 	 */
 	private RobotTxt getRobotsTxt(URL url) {
-		if (robotTxts.containsKey(url.getProtocol() + url.getHost())) {
-			return robotTxts.get(url.getProtocol() + url.getHost());
+		while (true) {
+			try {
+				return resolve(url, false).join();
+			} catch (CompletionException e) {
+				// the prefetch waited for was rejected, so it is fetched in this thread
+			}
 		}
-		RobotTxt fetched = null;
+	}
+
+	/**
+	 * gets the cached or pending robots.txt for the host of a URL, starting to fetch it if this is
+	 * the first request for the host or if the cached one expired.
+	 *
+	 * @param url the URL to check.
+	 * @param async whether to fetch with the prefetcher rather than in the calling thread.
+	 * @return the future robots.txt.
+	 */
+	private CompletableFuture<RobotTxt> resolve(URL url, boolean async) {
+		String key = keyOf(url);
+		long now = System.currentTimeMillis();
+		while (true) {
+			CachedRobotTxt cached = robotTxts.getIfPresent(key);
+			if (cached != null) {
+				cached.lastAccess = now;
+				if (!cached.isExpired(now, ttl)) {
+					hits.increment();
+					return cached.robotTxt;
+				}
+				CachedRobotTxt refresh = new CachedRobotTxt(now);
+				if (robotTxts.asMap().replace(key, cached, refresh)) {
+					refreshes.increment();
+					start(url, key, refresh, cached.robotTxt.join(), async);
+					return refresh.robotTxt;
+				}
+				// refreshed or evicted by another thread
+				continue;
+			}
+			CachedRobotTxt flight = new CachedRobotTxt(now);
+			if (robotTxts.asMap().putIfAbsent(key, flight) == null) {
+				misses.increment();
+				start(url, key, flight, null, async);
+				return flight.robotTxt;
+			}
+		}
+	}
+
+	/**
+	 * runs the fetch of a robots.txt, either in the calling thread or with the prefetcher. If the
+	 * prefetcher rejects the fetch, the pending entry is dropped and failed rather than fetched in
+	 * the calling thread, which may be holding the lock of the submission queue.
+	 *
+	 * @param url the URL to fetch the robots.txt for.
+	 * @param key the key of the host.
+	 * @param flight the pending entry.
+	 * @param expired the expired robots.txt being refreshed, or null.
+	 * @param async whether to fetch with the prefetcher.
+	 */
+	private void start(URL url, String key, CachedRobotTxt flight, RobotTxt expired,
+		boolean async) {
+		if (async) {
+			try {
+				prefetcher.execute(() -> complete(url, key, flight, expired));
+			} catch (RejectedExecutionException e) {
+				logger.debug("Prefetch of the robots.txt of {} rejected", key);
+				robotTxts.asMap().remove(key, flight);
+				flight.robotTxt.completeExceptionally(e);
+			}
+			return;
+		}
+		complete(url, key, flight, expired);
+	}
+
+	/**
+	 * completes a pending entry with the spilled robots.txt of the host, or by fetching it. If the
+	 * fetching fails, the entry is completed with the expired robots.txt if there is one, or the
+	 * NULL_ROBOT_TXT.
+	 *
+	 * @param url the URL to fetch the robots.txt for.
+	 * @param key the key of the host.
+	 * @param flight the pending entry.
+	 * @param expired the expired robots.txt being refreshed, or null.
+	 */
+	private void complete(URL url, String key, CachedRobotTxt flight, RobotTxt expired) {
+		RobotTxt fetched = expired == null ? unspill(key, flight) : null;
+		if (fetched == null) {
+			try {
+				fetched = fetchRobotsTxt(url);
+			} catch (IOException | RuntimeException e) {
+				System.out.println("Failed to get robots.txt:" + e.getMessage());
+				fetched = expired == null ? NULL_ROBOT_TXT : expired;
+			}
+			flight.fetchedAt = System.currentTimeMillis();
+		}
+		version.incrementAndGet();
+		flight.robotTxt.complete(fetched);
+	}
+
+	/**
+	 * hands a robots.txt evicted for lack of space to the prefetch executor to spill. The evictions
+	 * happen on the thread asking for a restriction, which may hold the lock of the url queue, so
+	 * the file is not written there. If the executor rejects the spill, the robots.txt is dropped.
+	 *
+	 * @param removal the eviction.
+	 */
+	private void evicted(RemovalNotification<String, CachedRobotTxt> removal) {
+		CachedRobotTxt cached = removal.getValue();
+		if (removal.getCause() != RemovalCause.SIZE || spillDirectory == null
+			|| !cached.robotTxt.isDone() || cached.isExpired(System.currentTimeMillis(), ttl)) {
+			return;
+		}
+		try {
+			prefetcher.execute(() -> spill(removal.getKey(), cached));
+		} catch (RejectedExecutionException e) {
+			logger.debug("Spill of the robots.txt of {} rejected", removal.getKey());
+		}
+	}
+
+	/**
+	 * writes a robots.txt to the spill directory. The file is written aside and moved in place, so
+	 * that it is never read back half written.
+	 *
+	 * @param key the key of the host.
+	 * @param cached the evicted entry.
+	 */
+	private void spill(String key, CachedRobotTxt cached) {
+		File file = spillFile(key);
+		File temp = new File(file.getPath() + TEMP_SUFFIX);
 		try {
-			fetched = fetchRobotsTxt(url);
+			try (DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(temp)))) {
+				out.writeUTF(key);
+				writeEntry(out, cached);
+			}
+			Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+			spills.increment();
 		} catch (IOException e) {
-			System.out.println("Failed to get robots.txt:" + e.getMessage());
-			fetched = NULL_ROBOT_TXT;
-		} finally {
-			robotTxts.putIfAbsent(url.getProtocol() + url.getHost(), fetched);
+			logger.warn("Failed to spill the robots.txt of {}", key, e);
+			temp.delete();
+		}
+	}
+
+	/**
+	 * reads back and deletes the spilled robots.txt of a host.
+	 *
+	 * @param key the key of the host.
+	 * @param flight the pending entry, which takes the fetch and access time of the spilled one.
+	 * @return the spilled robots.txt, or null if there is none or it expired.
+	 */
+	private RobotTxt unspill(String key, CachedRobotTxt flight) {
+		if (spillDirectory == null) {
+			return null;
+		}
+		File file = spillFile(key);
+		if (!file.isFile()) {
+			return null;
+		}
+		try (DataInputStream in = new DataInputStream(
+			new BufferedInputStream(new FileInputStream(file)))) {
+			if (!in.readUTF().equals(key)) {
+				// another host with the same hash
+				return null;
+			}
+			long fetchedAt = in.readLong();
+			in.readLong();
+			RobotTxt robotTxt = readRobotTxt(in);
+			file.delete();
+			if (System.currentTimeMillis() - fetchedAt >= ttl) {
+				return null;
+			}
+			flight.fetchedAt = fetchedAt;
+			spillHits.increment();
+			return robotTxt;
+		} catch (IOException e) {
+			logger.warn("Failed to read the spilled robots.txt of {}", key, e);
+			file.delete();
+			return null;
+		}
+	}
+
+	private File spillFile(String key) {
+		return new File(spillDirectory,
+			Hashing.murmur3_128().hashString(key, StandardCharsets.UTF_8) + SPILL_SUFFIX);
+	}
+
+	@Override
+	public long getVersion() {
+		return version.get();
+	}
+
+	@Override
+	public void checkpoint(DataOutputStream out) throws IOException {
+		for (Map.Entry<String, CachedRobotTxt> e : robotTxts.asMap().entrySet()) {
+			if (!e.getValue().robotTxt.isDone()) {
+				// still being fetched
+				continue;
+			}
+			out.writeBoolean(true);
+			out.writeUTF(e.getKey());
+			writeEntry(out, e.getValue());
+		}
+		out.writeBoolean(false);
+	}
+
+	@Override
+	public void restore(DataInputStream in) throws IOException {
+		while (in.readBoolean()) {
+			String key = in.readUTF();
+			CachedRobotTxt cached = new CachedRobotTxt(0);
+			cached.fetchedAt = in.readLong();
+			cached.lastAccess = in.readLong();
+			cached.robotTxt.complete(readRobotTxt(in));
+			robotTxts.asMap().putIfAbsent(key, cached);
+		}
+		version.incrementAndGet();
+	}
+
+	private void writeEntry(DataOutputStream out, CachedRobotTxt cached) throws IOException {
+		RobotTxt robotTxt = cached.robotTxt.join();
+		out.writeLong(cached.fetchedAt);
+		out.writeLong(cached.lastAccess);
+		out.writeBoolean(robotTxt == NULL_ROBOT_TXT);
+		if (robotTxt != NULL_ROBOT_TXT) {
+			out.writeUTF(robotTxt.getBaseURL().toExternalForm());
+			writeRules(out, robotTxt.getAllowed());
+			writeRules(out, robotTxt.getDisallowed());
+			out.writeInt(robotTxt.getCrawlDelay());
+		}
+	}
+
+	private RobotTxt readRobotTxt(DataInputStream in) throws IOException {
+		if (in.readBoolean()) {
+			return NULL_ROBOT_TXT;
+		}
+		URL base = new URL(in.readUTF());
+		List<String> allowed = readRules(in);
+		List<String> disallowed = readRules(in);
+		return new RobotTxt(base, allowed, disallowed, in.readInt());
+	}
+
+	private void writeRules(DataOutputStream out, List<String> rules) throws IOException {
+		out.writeInt(rules.size());
+		for (String rule : rules) {
+			out.writeUTF(rule);
+		}
+	}
+
+	private List<String> readRules(DataInputStream in) throws IOException {
+		int size = in.readInt();
+		List<String> rules = new LinkedList<>();
+		for (int i = 0; i < size; ++i) {
+			rules.add(in.readUTF());
 		}
-		return fetched;
+		return rules;
 	}
 
 	/**
 	 * fetch a {@link RobotTxt} from the base url of the specified url. If fetching failed, return
-	 * the NULL_ROBOT_TXT.
+	 * the NULL_ROBOT_TXT. The connection times out as the ones of the fetchers do, so that a host
+	 * that does not answer does not hold one of the prefetch threads.
 	 *
 	 * @param url the url from which the base url will be derived.
 	 * @return the parsed {@link RobotTxt} or NULL_ROBOT_TXT if failed to fetch.
@@ -88,10 +518,12 @@ public class RobotsTxtRestrictionManager implements RestrictionManager {
 	 */
 	private RobotTxt fetchRobotsTxt(URL url) throws IOException {
 		URL baseURL = getBaseURL(url);
-		URL robotsTxtURL = new URL(baseURL.toExternalForm() + "/robots.txt");
+		URL robotsTxtURL = new URL(baseURL, "/robots.txt");
 		HttpURLConnection urlc = (HttpURLConnection) robotsTxtURL.openConnection();
 		// fetch robot.txt
 		urlc.setRequestMethod("GET");
+		urlc.setConnectTimeout(CONNECT_TIMEOUT);
+		urlc.setReadTimeout(READ_TIMEOUT);
 		urlc.setRequestProperty("User-Agent",
 			userAgent);
 		try {
@@ -119,10 +551,34 @@ public class RobotsTxtRestrictionManager implements RestrictionManager {
 	 * @throws MalformedURLException if the format is wrong.
 	 */
 	private URL getBaseURL(URL url) throws MalformedURLException {
-		String baseStr = url.getProtocol() + "://" + url.getHost() + "/";
+		String baseStr = url.getProtocol() + "://" + hostOf(url) + "/";
 		return new URL(baseStr);
 	}
 
+	/**
+	 * gets the key of the host of a url in the cache.
+	 *
+	 * @param url the url.
+	 * @return the protocol, the host and the port.
+	 */
+	private String keyOf(URL url) {
+		return url.getProtocol() + hostOf(url);
+	}
+
+	/**
+	 * gets the host of a url along with its port if it is not the default port, as each port of a
+	 * host has its own robots.txt.
+	 *
+	 * @param url the url.
+	 * @return the host and the port.
+	 */
+	private String hostOf(URL url) {
+		if (url.getPort() == -1 || url.getPort() == url.getDefaultPort()) {
+			return url.getHost();
+		}
+		return url.getHost() + ":" + url.getPort();
+	}
+
 	/**
 	 * gets a specific section of the robots.txt as the {@link RobotTxt} object based on the
 	 * user-agent.
@@ -143,7 +599,8 @@ public class RobotsTxtRestrictionManager implements RestrictionManager {
 		for (String l : lines) {
 			// remove all control characters
 			l = l.replaceAll("\\p{Cntrl}", "");
-			String[] parameters = l.split(":");
+			// the value of a rule may contain colons itself
+			String[] parameters = l.split(":", 2);
 			if (parameters.length != 2) {
 				continue;
 			}
@@ -198,4 +655,22 @@ public class RobotsTxtRestrictionManager implements RestrictionManager {
 		}
 	}
 
+	/**
+	 * A robots.txt in the cache, along with the time it was fetched and last requested.
+	 */
+	private static final class CachedRobotTxt {
+
+		private final CompletableFuture<RobotTxt> robotTxt;
+		private volatile long fetchedAt;
+		private volatile long lastAccess;
+
+		CachedRobotTxt(long lastAccess) {
+			this.robotTxt = new CompletableFuture<>();
+			this.lastAccess = lastAccess;
+		}
+
+		boolean isExpired(long now, long ttl) {
+			return robotTxt.isDone() && now - fetchedAt >= ttl;
+		}
+	}
 }
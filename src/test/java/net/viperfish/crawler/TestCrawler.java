@@ -1,10 +1,11 @@
 package net.viperfish.crawler;
 
+import com.google.common.hash.Hashing;
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
-import java.util.Base64;
 import java.util.Date;
 import net.viperfish.crawler.core.IOUtil;
+import net.viperfish.crawler.html.ContentFingerprint;
 import net.viperfish.crawler.html.CrawledData;
 import net.viperfish.crawler.html.HttpFetcher;
 import net.viperfish.crawler.html.HttpWebCrawler;
@@ -12,8 +13,6 @@ import net.viperfish.crawler.html.InMemSiteDatabase;
 import net.viperfish.crawler.html.ThreadPoolHttpWebCrawler;
 import net.viperfish.crawler.html.crawlHandler.Limit2HostHandler;
 import net.viperfish.crawler.html.engine.ApplicationPrioritizedConcurrentHttpFetcher;
-import org.bouncycastle.crypto.Digest;
-import org.bouncycastle.crypto.digests.MD5Digest;
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -45,14 +44,11 @@ public class TestCrawler {
 
 		String rawHTML = new String(IOUtil.read(url2Test.openStream()), StandardCharsets.UTF_8);
 
-		Digest md5 = new MD5Digest();
-		md5.update(rawHTML.getBytes(StandardCharsets.UTF_8), 0,
-			rawHTML.getBytes(StandardCharsets.UTF_8).length);
-		byte[] hashOut = new byte[16];
-		md5.doFinal(hashOut, 0);
+		ContentFingerprint fingerprint = ContentFingerprint
+			.of(Hashing.murmur3_128().hashBytes(rawHTML.getBytes(StandardCharsets.UTF_8)));
 
 		Assert.assertEquals(new URL("https://example.com/"), crawled.getUrl());
 		Assert.assertEquals(rawHTML, crawled.getContent());
-		Assert.assertEquals(Base64.getEncoder().encodeToString(hashOut), crawled.getChecksum());
+		Assert.assertEquals(fingerprint, crawled.getChecksum());
 	}
 }
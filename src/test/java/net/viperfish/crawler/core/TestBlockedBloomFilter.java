@@ -0,0 +1,54 @@
+package net.viperfish.crawler.core;
+
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestBlockedBloomFilter {
+
+	private static final int KEYS = 100000;
+
+	@Test
+	public void testHeapFilter() {
+		testFilter(new BlockedBloomFilter(256 * 1024, 0.01));
+	}
+
+	@Test
+	public void testOffHeapFilter() {
+		testFilter(new BlockedBloomFilter(256 * 1024, 0.01, true));
+	}
+
+	private void testFilter(BlockedBloomFilter filter) {
+		Assert.assertEquals(256 * 1024, filter.getByteSize());
+		Assert.assertEquals(7, filter.getHashCount());
+		Assert.assertTrue(filter.getExpectedCapacity() > KEYS);
+
+		Random random = new Random(5);
+		long[] keys = new long[KEYS];
+		int duplicates = 0;
+		for (int i = 0; i < KEYS; ++i) {
+			keys[i] = random.nextLong();
+			if (!filter.put(keys[i])) {
+				duplicates++;
+			}
+		}
+		for (long key : keys) {
+			Assert.assertTrue(filter.mightContain(key));
+			Assert.assertFalse(filter.put(key));
+		}
+		Assert.assertEquals(KEYS - duplicates, filter.getInsertions());
+		Assert.assertTrue(duplicates < KEYS * 0.02);
+
+		int falsePositives = 0;
+		for (int i = 0; i < KEYS; ++i) {
+			if (filter.mightContain(random.nextLong())) {
+				falsePositives++;
+			}
+		}
+		Assert.assertTrue(falsePositives < KEYS * 0.03);
+		Assert.assertTrue(filter.getFillRatio() > 0.2 && filter.getFillRatio() < 0.6);
+		Assert.assertTrue(filter.getEstimatedFalsePositiveRate() < 0.03);
+		// the memory does not grow with the keys
+		Assert.assertEquals(256 * 1024, filter.getByteSize());
+	}
+}
@@ -0,0 +1,159 @@
+package net.viperfish.crawler.core;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import net.viperfish.crawler.html.ContentFingerprint;
+import net.viperfish.crawler.html.CrawledData;
+import net.viperfish.crawler.html.HandlerResponse;
+import net.viperfish.crawler.html.crawlHandler.BaseInMemCrawlChecker;
+import net.viperfish.crawler.html.crawlHandler.BloomFilterCrawlChecker;
+import net.viperfish.crawler.html.engine.DefaultPrioritizedURLBlockingQueue;
+import net.viperfish.crawler.html.engine.HostPartitionedURLBlockingQueue;
+import net.viperfish.crawler.html.engine.IndexedPrioritizedURLBlockingQueue;
+import net.viperfish.crawler.html.engine.PrioritizedURL;
+import net.viperfish.crawler.html.engine.PrioritizedURLBlockingQueue;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TestCheckpointer {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testCheckpointAndRestore() throws Exception {
+		File directory = folder.newFolder();
+		PrioritizedURLBlockingQueue queue = new HostPartitionedURLBlockingQueue();
+		BaseInMemCrawlChecker checker = new BaseInMemCrawlChecker();
+		BloomFilterCrawlChecker bloomChecker = new BloomFilterCrawlChecker(4096, 0.01);
+
+		Checkpointer checkpointer = new Checkpointer(directory, 1, TimeUnit.HOURS);
+		checkpointer.register("frontier", (Checkpointable) queue);
+		checkpointer.register("checker", checker);
+		checkpointer.register("bloom", bloomChecker);
+		checkpointer.restore();
+		checkpointer.start();
+
+		queue.offer(new PrioritizedURL(new URL("https://www.example.com/first"), 10));
+		queue.offer(new PrioritizedURL(new URL("https://www.other.com/second"), 5));
+		CrawledData site = new CrawledData();
+		site.setUrl(new URL("https://www.example.com/crawled"));
+		site.setChecksum(new ContentFingerprint(0, 12345));
+		Assert.assertEquals(HandlerResponse.GO_AHEAD, checker.handlePostParse(site));
+		Assert.assertEquals(HandlerResponse.GO_AHEAD, bloomChecker.handlePostParse(site));
+		checkpointer.close();
+		Assert.assertEquals(3, directory.listFiles().length);
+
+		PrioritizedURLBlockingQueue restoredQueue = new HostPartitionedURLBlockingQueue();
+		BaseInMemCrawlChecker restoredChecker = new BaseInMemCrawlChecker();
+		BloomFilterCrawlChecker restoredBloom = new BloomFilterCrawlChecker(4096, 0.01);
+		Checkpointer restorer = new Checkpointer(directory, 1, TimeUnit.HOURS);
+		restorer.register("frontier", (Checkpointable) restoredQueue);
+		restorer.register("checker", restoredChecker);
+		restorer.register("bloom", restoredBloom);
+		restorer.restore();
+
+		Assert.assertEquals(2, restoredQueue.size());
+		PrioritizedURL first = restoredQueue.take();
+		Assert.assertEquals(new URL("https://www.example.com/first"), first.getSource());
+		Assert.assertEquals(10, first.getPriority());
+		Assert.assertEquals(new URL("https://www.other.com/second"),
+			restoredQueue.take().getSource());
+		Assert.assertEquals(HandlerResponse.HALT,
+			restoredChecker.handlePreFetch(new PrioritizedURL(site.getUrl(), 1)));
+		Assert.assertEquals(HandlerResponse.HALT, restoredChecker.handlePostParse(site));
+		Assert.assertEquals(HandlerResponse.HALT,
+			restoredBloom.handlePreFetch(new PrioritizedURL(site.getUrl(), 1)));
+	}
+
+	@Test
+	public void testUnchangedComponentsAreSkipped() throws IOException {
+		File directory = folder.newFolder();
+		BaseInMemCrawlChecker checker = new BaseInMemCrawlChecker();
+		Checkpointer checkpointer = new Checkpointer(directory, 1, TimeUnit.HOURS);
+		checkpointer.register("checker", checker);
+
+		// nothing is written before the component is restored
+		checkpointer.checkpoint();
+		Assert.assertEquals(0, directory.listFiles().length);
+
+		checkpointer.restore();
+		checkpointer.checkpoint();
+		File file = new File(directory, "checker.ckpt");
+		Assert.assertTrue(file.delete());
+		checkpointer.checkpoint();
+		Assert.assertFalse(file.exists());
+
+		CrawledData site = new CrawledData();
+		site.setUrl(new URL("https://www.example.com/crawled"));
+		site.setChecksum(new ContentFingerprint(0, 12345));
+		checker.handlePostParse(site);
+		checkpointer.checkpoint();
+		Assert.assertTrue(file.exists());
+	}
+
+	@Test
+	public void testHandedOutURLs() throws Exception {
+		testHandedOutURLs(HostPartitionedURLBlockingQueue::new);
+		testHandedOutURLs(IndexedPrioritizedURLBlockingQueue::new);
+		testHandedOutURLs(DefaultPrioritizedURLBlockingQueue::new);
+	}
+
+	private void testHandedOutURLs(Supplier<PrioritizedURLBlockingQueue> queues)
+		throws Exception {
+		PrioritizedURLBlockingQueue queue = queues.get();
+		char[] path = new char[70000];
+		Arrays.fill(path, 'a');
+		// longer than what writeUTF allows
+		URL longURL = new URL("https://www.example.com/" + new String(path));
+		URL shortURL = new URL("https://www.other.com/short");
+		queue.offer(new PrioritizedURL(longURL, 10));
+		queue.offer(new PrioritizedURL(shortURL, 5));
+		Checkpointable state = (Checkpointable) queue;
+		long version = state.getVersion();
+		PrioritizedURL fetching = queue.take();
+		Assert.assertEquals(longURL, fetching.getSource());
+
+		// the url being fetched is kept until it is released
+		byte[] checkpoint = checkpoint(state);
+		Assert.assertNotEquals(version, state.getVersion());
+		PrioritizedURLBlockingQueue restored = queues.get();
+		((Checkpointable) restored).restore(
+			new DataInputStream(new ByteArrayInputStream(checkpoint)));
+		Assert.assertEquals(2, restored.size());
+		Set<URL> urls = new HashSet<>();
+		urls.add(restored.take(1, TimeUnit.SECONDS).getSource());
+		urls.add(restored.take(1, TimeUnit.SECONDS).getSource());
+		Assert.assertEquals(new HashSet<>(Arrays.asList(longURL, shortURL)), urls);
+
+		version = state.getVersion();
+		queue.release(fetching, 0, TimeUnit.MILLISECONDS);
+		Assert.assertNotEquals(version, state.getVersion());
+		checkpoint = checkpoint(state);
+		PrioritizedURLBlockingQueue afterRelease = queues.get();
+		((Checkpointable) afterRelease).restore(
+			new DataInputStream(new ByteArrayInputStream(checkpoint)));
+		Assert.assertEquals(1, afterRelease.size());
+		Assert.assertEquals(shortURL, afterRelease.take(1, TimeUnit.SECONDS).getSource());
+	}
+
+	private byte[] checkpoint(Checkpointable state) throws IOException {
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		try (DataOutputStream out = new DataOutputStream(buffer)) {
+			state.checkpoint(out);
+		}
+		return buffer.toByteArray();
+	}
+}
@@ -0,0 +1,66 @@
+package net.viperfish.crawler.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestSimHashIndex {
+
+	@Test
+	public void testNearSignatures() {
+		SimHashIndex index = new SimHashIndex(1024, 3);
+		long signature = 0x0123456789abcdefL;
+		Assert.assertTrue(index.addIfUnique(1, signature));
+		Assert.assertFalse(index.addIfUnique(2, signature));
+		Assert.assertFalse(index.addIfUnique(2, signature ^ 1L ^ 1L << 20 ^ 1L << 63));
+		Assert.assertTrue(index.addIfUnique(3, signature ^ 0xf0000L));
+		// the same key does not match itself
+		Assert.assertTrue(index.addIfUnique(1, signature ^ 1L));
+		Assert.assertEquals(3, index.size());
+	}
+
+	@Test
+	public void testEviction() {
+		SimHashIndex index = new SimHashIndex(4, 3);
+		for (int i = 0; i < 5; ++i) {
+			Assert.assertTrue(index.addIfUnique(i, (long) i << 32 | 0xffffL << (i * 4)));
+		}
+		Assert.assertEquals(4, index.size());
+		// the second signature is still there, but the first was forgotten
+		Assert.assertFalse(index.addIfUnique(11, 1L << 32 | 0xffffL << 4));
+		Assert.assertTrue(index.addIfUnique(10, 0xffffL));
+		Assert.assertEquals(4, index.size());
+	}
+
+	@Test
+	public void testAgainstBruteForce() {
+		int capacity = 500;
+		SimHashIndex index = new SimHashIndex(capacity, 3);
+		List<Long> kept = new ArrayList<>();
+		Random random = new Random(7);
+		long[] bases = new long[50];
+		for (int i = 0; i < bases.length; ++i) {
+			bases[i] = random.nextLong();
+		}
+		for (int i = 0; i < 20000; ++i) {
+			long signature = bases[random.nextInt(bases.length)];
+			for (int flips = random.nextInt(6); flips > 0; --flips) {
+				signature ^= 1L << random.nextInt(64);
+			}
+			boolean near = false;
+			for (int j = Math.max(0, kept.size() - capacity); j < kept.size(); ++j) {
+				if (Long.bitCount(kept.get(j) ^ signature) <= 3) {
+					near = true;
+					break;
+				}
+			}
+			Assert.assertEquals(!near, index.addIfUnique(i, signature));
+			if (!near) {
+				kept.add(signature);
+			}
+		}
+		Assert.assertEquals(Math.min(capacity, kept.size()), index.size());
+	}
+}
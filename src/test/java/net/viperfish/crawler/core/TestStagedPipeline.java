@@ -0,0 +1,98 @@
+package net.viperfish.crawler.core;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestStagedPipeline {
+
+	@Test
+	public void testStages() throws InterruptedException {
+		Set<String> written = ConcurrentHashMap.newKeySet();
+		AtomicInteger errors = new AtomicInteger();
+		CountDownLatch done = new CountDownLatch(100);
+		StagedPipeline<Integer> pipeline = StagedPipeline.<Integer>builder()
+			.then("filter", 2, 4, i -> i % 10 == 0 ? null : i)
+			.then("fail", 2, 4, i -> {
+				if (i % 10 == 5) {
+					throw new IllegalStateException();
+				}
+				return "item " + i;
+			})
+			.then("sink", 1, 4, s -> written.add(s) ? null : s)
+			.build();
+		pipeline.start(e -> errors.incrementAndGet(), done::countDown);
+		try {
+			for (int i = 0; i < 100; ++i) {
+				pipeline.submit(i);
+			}
+			// every item is done once, whether dropped, failed or written
+			Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+			Assert.assertEquals(80, written.size());
+			Assert.assertTrue(written.contains("item 1"));
+			Assert.assertEquals(10, errors.get());
+
+			List<StageMetrics> metrics = pipeline.getMetrics();
+			Assert.assertEquals(3, metrics.size());
+			Assert.assertEquals("filter", metrics.get(0).getName());
+			Assert.assertEquals(100, metrics.get(0).getProcessed());
+			Assert.assertEquals(90, metrics.get(1).getProcessed());
+			Assert.assertEquals(80, metrics.get(2).getProcessed());
+			Assert.assertEquals(0, metrics.get(2).getQueued());
+		} finally {
+			pipeline.shutdown();
+		}
+	}
+
+	@Test
+	public void testBackpressure() throws InterruptedException {
+		CountDownLatch release = new CountDownLatch(1);
+		AtomicInteger errors = new AtomicInteger();
+		CountDownLatch done = new CountDownLatch(7);
+		StagedPipeline<Integer> pipeline = StagedPipeline.<Integer>builder()
+			.then("fast", 1, 2, i -> i)
+			.then("slow", 1, 2, i -> {
+				release.await();
+				return i;
+			})
+			.build();
+		pipeline.start(e -> errors.incrementAndGet(), done::countDown);
+		Thread producer = new Thread(() -> {
+			try {
+				for (int i = 0; i < 7; ++i) {
+					pipeline.submit(i);
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+		try {
+			producer.start();
+			// one item in each worker and two in each queue, so the last item is held back
+			producer.join(500);
+			Assert.assertTrue(producer.isAlive());
+			StageMetrics slow = pipeline.getMetrics().get(1);
+			Assert.assertEquals(2, slow.getQueued());
+			Assert.assertEquals(0, slow.getProcessed());
+
+			release.countDown();
+			producer.join(5000);
+			Assert.assertFalse(producer.isAlive());
+			Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+			slow = pipeline.getMetrics().get(1);
+			Assert.assertEquals(7, slow.getProcessed());
+			Assert.assertEquals(0, errors.get());
+			Assert.assertTrue(slow.getUtilization() > 0);
+			Assert.assertTrue(pipeline.getMetrics().get(0).getMeanQueueTime(TimeUnit.NANOSECONDS)
+				> 0);
+		} finally {
+			producer.interrupt();
+			pipeline.shutdown();
+		}
+	}
+}
@@ -1,7 +1,19 @@
 package net.viperfish.crawler.html;
 
+import java.io.File;
+import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import net.viperfish.crawler.html.restrictions.RobotsTxtRestrictionManager;
 import org.junit.Assert;
 import org.junit.Test;
@@ -20,4 +32,158 @@ public class RobotTxtManagerTest {
 		Assert.assertTrue(restriction2.canFetch());
 	}
 
+	@Test
+	public void testSingleFlight() throws Exception {
+		AtomicInteger downloads = new AtomicInteger(0);
+		TestHttpServer server = startRobotsServer(downloads);
+		try {
+			String base = server.getBase();
+			RobotsTxtRestrictionManager manager = new RobotsTxtRestrictionManager("halbot");
+			CountDownLatch start = new CountDownLatch(1);
+			List<Thread> threads = new ArrayList<>();
+			AtomicInteger denied = new AtomicInteger(0);
+			for (int i = 0; i < 8; ++i) {
+				Thread thread = new Thread(() -> {
+					try {
+						start.await();
+						if (!manager.getRestriction(new URL(base + "/private/page")).canFetch()) {
+							denied.incrementAndGet();
+						}
+					} catch (InterruptedException | MalformedURLException e) {
+						throw new RuntimeException(e);
+					}
+				});
+				thread.start();
+				threads.add(thread);
+			}
+			start.countDown();
+			for (Thread thread : threads) {
+				thread.join();
+			}
+			Assert.assertEquals(8, denied.get());
+			Assert.assertEquals(1, downloads.get());
+		} finally {
+			server.close();
+		}
+	}
+
+	@Test
+	public void testPrefetch() throws Exception {
+		AtomicInteger downloads = new AtomicInteger(0);
+		TestHttpServer server = startRobotsServer(downloads);
+		try {
+			String base = server.getBase();
+			RobotsTxtRestrictionManager manager = new RobotsTxtRestrictionManager("halbot");
+			CompletableFuture<?> first = manager.prepare(new URL(base + "/"));
+			CompletableFuture<?> second = manager.prepare(new URL(base + "/other"));
+			Assert.assertSame(first, second);
+			first.get(5, TimeUnit.SECONDS);
+
+			Assert.assertTrue(manager.getRestriction(new URL(base + "/public")).canFetch());
+			Assert.assertFalse(manager.getRestriction(new URL(base + "/private/")).canFetch());
+			Assert.assertEquals(1, downloads.get());
+		} finally {
+			server.close();
+		}
+	}
+
+	@Test
+	public void testPrefetchRejected() throws Exception {
+		AtomicInteger downloads = new AtomicInteger(0);
+		TestHttpServer server = startRobotsServer(downloads);
+		try {
+			String base = server.getBase();
+			RobotsTxtRestrictionManager manager = new RobotsTxtRestrictionManager("halbot",
+				command -> {
+					throw new RejectedExecutionException();
+				});
+			// not fetched in the calling thread
+			CompletableFuture<?> prepared = manager.prepare(new URL(base + "/"));
+			Assert.assertTrue(prepared.isCompletedExceptionally());
+			Assert.assertEquals(0, downloads.get());
+
+			Assert.assertFalse(manager.getRestriction(new URL(base + "/private/")).canFetch());
+			Assert.assertEquals(1, downloads.get());
+		} finally {
+			server.close();
+		}
+	}
+
+	@Test
+	public void testExpiry() throws Exception {
+		AtomicInteger downloads = new AtomicInteger(0);
+		TestHttpServer server = startRobotsServer(downloads);
+		try {
+			String base = server.getBase();
+			RobotsTxtRestrictionManager manager = new RobotsTxtRestrictionManager("halbot",
+				Runnable::run, 100, 500, TimeUnit.MILLISECONDS);
+			Assert.assertFalse(manager.getRestriction(new URL(base + "/private")).canFetch());
+			Assert.assertTrue(manager.getRestriction(new URL(base + "/public")).canFetch());
+			Assert.assertEquals(1, downloads.get());
+			Assert.assertTrue(manager.getLastAccess(new URL(base + "/")) > 0);
+
+			Thread.sleep(600);
+			Assert.assertFalse(manager.getRestriction(new URL(base + "/private")).canFetch());
+			Assert.assertEquals(2, downloads.get());
+			Assert.assertEquals(1, manager.getMissCount());
+			Assert.assertEquals(1, manager.getHitCount());
+			Assert.assertEquals(1, manager.getRefreshCount());
+		} finally {
+			server.close();
+		}
+	}
+
+	@Test
+	public void testSpill() throws Exception {
+		AtomicInteger firstDownloads = new AtomicInteger(0);
+		AtomicInteger secondDownloads = new AtomicInteger(0);
+		TestHttpServer first = startRobotsServer(firstDownloads);
+		TestHttpServer second = startRobotsServer(secondDownloads);
+		File spill = Files.createTempDirectory("robots").toFile();
+		try {
+			URL firstURL = first.url("/private");
+			URL secondURL = second.url("/private");
+			Executor direct = Runnable::run;
+			RobotsTxtRestrictionManager manager = new RobotsTxtRestrictionManager("halbot",
+				direct, 1, 1, TimeUnit.HOURS);
+			manager.setSpillDirectory(spill);
+			Assert.assertFalse(manager.getRestriction(firstURL).canFetch());
+			Assert.assertFalse(manager.getRestriction(secondURL).canFetch());
+			Assert.assertEquals(1, manager.size());
+			Assert.assertEquals(1, manager.getSpillCount());
+
+			// read back after an eviction
+			Assert.assertFalse(manager.getRestriction(firstURL).canFetch());
+			Assert.assertEquals(1, manager.getSpillHitCount());
+			Assert.assertEquals(1, firstDownloads.get());
+
+			// read back after a restart
+			RobotsTxtRestrictionManager restarted = new RobotsTxtRestrictionManager("halbot",
+				direct, 1, 1, TimeUnit.HOURS);
+			restarted.setSpillDirectory(spill);
+			Assert.assertFalse(restarted.getRestriction(secondURL).canFetch());
+			Assert.assertEquals(1, restarted.getSpillHitCount());
+			Assert.assertEquals(1, secondDownloads.get());
+		} finally {
+			first.close();
+			second.close();
+			for (File file : spill.listFiles()) {
+				file.delete();
+			}
+			spill.delete();
+		}
+	}
+
+	private TestHttpServer startRobotsServer(AtomicInteger downloads) throws IOException {
+		return new TestHttpServer(1).handle("/robots.txt", exchange -> {
+			downloads.incrementAndGet();
+			try {
+				Thread.sleep(200);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			TestHttpServer.send(exchange, 200, null,
+				"User-agent: *\nDisallow: /private\n".getBytes(StandardCharsets.UTF_8));
+		});
+	}
 }
@@ -157,11 +157,34 @@ public class RobotTxtTest {
 		Assert.assertTrue(
 			robotTxt.isAllowed(new URL("https://www.reddit.com/test/rand.cgi?test")).canFetch());
 
+		// the dollar sign anchors the end of the path
+		Assert.assertTrue(
+			robotTxt.isAllowed(new URL("https://www.reddit.com/test.html")).canFetch());
+		Assert.assertTrue(
+			robotTxt.isAllowed(new URL("https://www.reddit.com/test/random.html")).canFetch());
+
 		Assert.assertFalse(robotTxt.isAllowed(new URL("https://www.reddit.com/test")).canFetch());
+	}
+
+	@Test
+	public void testAnchoredWildcard() throws MalformedURLException {
+		List<String> disallow = new LinkedList<>();
+		disallow.add("/*.pdf$");
+		disallow.add("/docs/*$");
+		URL baseURL = new URL("https://www.reddit.com");
+		RobotTxt robotTxt = new RobotTxt(baseURL, new LinkedList<>(), disallow, 0);
+
+		Assert.assertTrue(
+			robotTxt.isAllowed(new URL("https://www.reddit.com/a.pdf.html")).canFetch());
+		Assert.assertTrue(
+			robotTxt.isAllowed(new URL("https://www.reddit.com/a.pdf?page=2")).canFetch());
+		Assert.assertTrue(robotTxt.isAllowed(new URL("https://www.reddit.com/pdf")).canFetch());
+
+		Assert.assertFalse(robotTxt.isAllowed(new URL("https://www.reddit.com/a.pdf")).canFetch());
 		Assert.assertFalse(
-			robotTxt.isAllowed(new URL("https://www.reddit.com/test.html")).canFetch());
+			robotTxt.isAllowed(new URL("https://www.reddit.com/a.pdf/b.pdf")).canFetch());
 		Assert.assertFalse(
-			robotTxt.isAllowed(new URL("https://www.reddit.com/test/random.html")).canFetch());
+			robotTxt.isAllowed(new URL("https://www.reddit.com/docs/a.html")).canFetch());
 	}
 
 	@Test
@@ -185,4 +208,50 @@ public class RobotTxtTest {
 			robotTxt.isAllowed(new URL("https://www.reddit.com/test/random.php")).canFetch());
 	}
 
+	@Test
+	public void testLongestMatch() throws MalformedURLException {
+		List<String> disallow = new LinkedList<>();
+		disallow.add("/fish/salmon");
+		disallow.add("/*.gif$");
+		List<String> allow = new LinkedList<>();
+		allow.add("/fish");
+		allow.add("/fish/salmon/public");
+		allow.add("/images/");
+		URL baseURL = new URL("https://www.reddit.com");
+		RobotTxt robotTxt = new RobotTxt(baseURL, allow, disallow, 0);
+
+		Assert
+			.assertTrue(robotTxt.isAllowed(new URL("https://www.reddit.com/fish/cod")).canFetch());
+		Assert.assertFalse(
+			robotTxt.isAllowed(new URL("https://www.reddit.com/fish/salmon.html")).canFetch());
+		Assert.assertTrue(
+			robotTxt.isAllowed(new URL("https://www.reddit.com/fish/salmon/public/a")).canFetch());
+		// the allow rule is longer than the wildcard rule
+		Assert.assertTrue(
+			robotTxt.isAllowed(new URL("https://www.reddit.com/images/a.gif")).canFetch());
+		Assert.assertFalse(robotTxt.isAllowed(new URL("https://www.reddit.com/a.gif")).canFetch());
+	}
+
+	@Test
+	public void testEmptyRule() throws MalformedURLException {
+		List<String> disallow = new LinkedList<>();
+		disallow.add("");
+		URL baseURL = new URL("https://www.reddit.com");
+		RobotTxt robotTxt = new RobotTxt(baseURL, new LinkedList<>(), disallow, 0);
+
+		Assert.assertTrue(robotTxt.isAllowed(new URL("https://www.reddit.com/test")).canFetch());
+	}
+
+	@Test
+	public void testSharedRestriction() throws MalformedURLException {
+		List<String> disallow = new LinkedList<>();
+		disallow.add("/private");
+		URL baseURL = new URL("https://www.reddit.com");
+		RobotTxt robotTxt = new RobotTxt(baseURL, new LinkedList<>(), disallow, 5);
+
+		Restriction denied = robotTxt.isAllowed(new URL("https://www.reddit.com/private/a"));
+		Assert.assertSame(denied, robotTxt.isAllowed(new URL("https://www.reddit.com/private/b")));
+		Assert.assertEquals(5, denied.getCrawlDelay());
+		Assert.assertTrue(robotTxt.isAllowed(new URL("https://other.com/private/a")).canFetch());
+	}
 }
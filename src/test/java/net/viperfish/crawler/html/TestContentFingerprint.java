@@ -0,0 +1,40 @@
+package net.viperfish.crawler.html;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.nio.charset.StandardCharsets;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestContentFingerprint {
+
+	@Test
+	public void testFingerprint() throws Exception {
+		HashCode hash = Hashing.murmur3_128()
+			.hashString("<html><body>page</body></html>", StandardCharsets.UTF_8);
+		ContentFingerprint fingerprint = ContentFingerprint.of(hash);
+		Assert.assertEquals(hash.asLong(), fingerprint.getLow());
+		Assert.assertEquals(hash.toString(), String.format("%016x%016x",
+			Long.reverseBytes(fingerprint.getLow()), Long.reverseBytes(fingerprint.getHigh())));
+		Assert.assertEquals(32, fingerprint.toString().length());
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		fingerprint.writeTo(new DataOutputStream(bytes));
+		Assert.assertEquals(16, bytes.size());
+		ContentFingerprint read = ContentFingerprint.readFrom(
+			new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+		Assert.assertEquals(fingerprint, read);
+		Assert.assertEquals(fingerprint.hashCode(), read.hashCode());
+		Assert.assertNotEquals(fingerprint,
+			new ContentFingerprint(fingerprint.getHigh(), fingerprint.getLow() + 1));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testShortHash() {
+		ContentFingerprint.checkFunction(Hashing.farmHashFingerprint64());
+	}
+}
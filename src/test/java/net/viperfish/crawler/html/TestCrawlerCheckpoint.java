@@ -0,0 +1,161 @@
+package net.viperfish.crawler.html;
+
+import java.io.File;
+import java.net.URL;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import net.viperfish.crawler.core.Checkpointer;
+import net.viperfish.crawler.html.crawlHandler.BaseInMemCrawlChecker;
+import net.viperfish.crawler.html.engine.ApplicationPrioritizedConcurrentHttpFetcher;
+import net.viperfish.crawler.html.engine.PrioritizedURL;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TestCrawlerCheckpoint {
+
+	// a binary tree of pages, so that each page is reachable through one page only
+	private static final int PAGES = 15;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private TestHttpServer server;
+	private String base;
+
+	@Before
+	public void startServer() throws Exception {
+		server = new TestHttpServer(4).handle("/", exchange -> {
+			String path = exchange.getRequestURI().getPath();
+			int status = 404;
+			StringBuilder html = new StringBuilder("<html><head><title>page</title></head><body>");
+			if (path.matches("/[0-9]+")) {
+				status = 200;
+				int index = Integer.parseInt(path.substring(1));
+				// a distinct body for each page, so that no page is a duplicate of another
+				html.append("<p>page ").append(index).append("</p>");
+				for (int child = 2 * index + 1; child <= 2 * index + 2 && child < PAGES; ++child) {
+					html.append("<a href=\"/").append(child).append("\">child</a>");
+				}
+			}
+			TestHttpServer.sendHtml(exchange, status, html.append("</body></html>").toString());
+		});
+		base = server.getBase();
+	}
+
+	@After
+	public void stopServer() {
+		server.close();
+	}
+
+	@Test
+	public void testRestoreMidCrawl() throws Exception {
+		restoreMidCrawl(crawler -> {
+		});
+	}
+
+	@Test
+	public void testRestoreMidCrawlStaged() throws Exception {
+		restoreMidCrawl(crawler -> crawler.setStagedPipeline(1, 2, 1, 1, 4));
+	}
+
+	private void restoreMidCrawl(Consumer<HttpWebCrawler> setup) throws Exception {
+		File directory = folder.newFolder();
+		URL held = new URL(base + "/1");
+		CountDownLatch fetched = new CountDownLatch(1);
+		CountDownLatch crashed = new CountDownLatch(1);
+
+		InMemSiteDatabase before = new InMemSiteDatabase();
+		before.init();
+		Checkpointer checkpointer = new Checkpointer(directory, 1, TimeUnit.HOURS);
+		ApplicationPrioritizedConcurrentHttpFetcher fetcher =
+			new ApplicationPrioritizedConcurrentHttpFetcher(4, "halbot");
+		fetcher.setCheckpointer(checkpointer);
+		fetcher.init();
+		HttpWebCrawler crawler = new ThreadPoolHttpWebCrawler(2, before, fetcher);
+		setup.accept(crawler);
+		crawler.setCheckpointer(checkpointer);
+		crawler.registerCrawlerHandler(new BaseInMemCrawlChecker());
+		// holds a page between its fetch and its processing until the crash
+		crawler.registerCrawlerHandler(new PassingHandler() {
+			@Override
+			public HandlerResponse handlePreParse(FetchedContent content) {
+				if (!content.getUrl().getSource().equals(held)) {
+					return HandlerResponse.GO_AHEAD;
+				}
+				fetched.countDown();
+				try {
+					crashed.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				return HandlerResponse.HALT;
+			}
+		});
+		try {
+			crawler.submit(new URL(base + "/0"));
+			crawler.startProcessing();
+			Assert.assertTrue(fetched.await(10, TimeUnit.SECONDS));
+			// the held page is released by the frontier, and its links are not submitted yet
+			checkpointer.checkpoint();
+		} finally {
+			// a crash, without a last checkpoint
+			crawler.shutdown();
+			fetcher.close();
+			crashed.countDown();
+		}
+
+		InMemSiteDatabase after = new InMemSiteDatabase();
+		after.init();
+		Checkpointer restorer = new Checkpointer(directory, 1, TimeUnit.HOURS);
+		ApplicationPrioritizedConcurrentHttpFetcher restoredFetcher =
+			new ApplicationPrioritizedConcurrentHttpFetcher(4, "halbot");
+		restoredFetcher.setCheckpointer(restorer);
+		restoredFetcher.init();
+		HttpWebCrawler restoredCrawler = new ThreadPoolHttpWebCrawler(2, after, restoredFetcher);
+		setup.accept(restoredCrawler);
+		restoredCrawler.setCheckpointer(restorer);
+		restoredCrawler.registerCrawlerHandler(new BaseInMemCrawlChecker());
+		try {
+			restoredCrawler.startProcessing();
+			restoredCrawler.waitUntiDone();
+			for (int i = 0; i < PAGES; ++i) {
+				URL page = new URL(base + "/" + i);
+				Assert.assertTrue(page + " is lost",
+					before.containsKey(page) || after.containsKey(page));
+			}
+			Assert.assertTrue(after.containsKey(held));
+		} finally {
+			restoredCrawler.shutdown();
+			restoredFetcher.close();
+			restorer.close();
+		}
+	}
+
+	private static class PassingHandler implements HttpCrawlerHandler {
+
+		@Override
+		public HandlerResponse handlePreParse(FetchedContent content) {
+			return HandlerResponse.GO_AHEAD;
+		}
+
+		@Override
+		public HandlerResponse handlePostParse(CrawledData site) {
+			return HandlerResponse.GO_AHEAD;
+		}
+
+		@Override
+		public HandlerResponse handlePreFetch(PrioritizedURL url) {
+			return HandlerResponse.GO_AHEAD;
+		}
+
+		@Override
+		public HandlerResponse handlePostProcess(CrawledData site) {
+			return HandlerResponse.GO_AHEAD;
+		}
+	}
+}
@@ -0,0 +1,166 @@
+package net.viperfish.crawler.html;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import net.viperfish.crawler.html.crawlHandler.BaseInMemCrawlChecker;
+import net.viperfish.crawler.html.crawlHandler.YesCrawlChecker;
+import net.viperfish.crawler.html.engine.ApplicationPrioritizedConcurrentHttpFetcher;
+import net.viperfish.crawler.html.engine.PrioritizedURL;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestCrawlerDeduplication {
+
+	private TestHttpServer server;
+	private String base;
+
+	@Before
+	public void startServer() throws Exception {
+		server = new TestHttpServer(4).handle("/", exchange -> {
+			String path = exchange.getRequestURI().getPath();
+			String html;
+			if (path.equals("/hub")) {
+				html = "<html><head><title>hub</title></head><body>"
+					+ "<a href=\"/a\">a</a><a href=\"/b\">b</a><a href=\"/a\">again</a>"
+					+ "<a href=\"/c\">c</a><a href=\"/c\">again</a></body></html>";
+			} else if (path.equals("/")) {
+				html = "<html><head><title>index</title></head><body>"
+					+ "<a href=\"/page\">page</a><a href=\"/mirror\">mirror</a>"
+					+ "<a href=\"/page?session=1\">session</a></body></html>";
+			} else {
+				// the same bytes under every other url
+				html = "<html><head><title>page</title></head><body>content</body></html>";
+			}
+			TestHttpServer.sendHtml(exchange, 200, html);
+		});
+		base = server.getBase();
+	}
+
+	@After
+	public void stopServer() {
+		server.close();
+	}
+
+	@Test
+	public void testDuplicatesSkipped() throws Exception {
+		InMemSiteDatabase siteDB = new InMemSiteDatabase();
+		siteDB.init();
+		HttpFetcher fetcher = new ApplicationPrioritizedConcurrentHttpFetcher(4, "halbot");
+		fetcher.init();
+		// a single processing thread, so that no two copies are parsed at the same time
+		HttpWebCrawler crawler = new ThreadPoolHttpWebCrawler(1, siteDB, fetcher);
+		crawler.registerCrawlerHandler(new BaseInMemCrawlChecker());
+		try {
+			crawler.submit(new URL(base + "/"));
+			crawler.startProcessing();
+			crawler.waitUntiDone();
+			Assert.assertEquals(2, siteDB.size());
+			Assert.assertEquals(2, crawler.getDuplicateCount());
+			Assert.assertEquals(0.5, crawler.getDuplicateRate(), 0.0001);
+		} finally {
+			crawler.shutdown();
+			fetcher.close();
+		}
+	}
+
+	@Test
+	public void testAnchorsBatched() throws Exception {
+		InMemSiteDatabase siteDB = new InMemSiteDatabase();
+		siteDB.init();
+		HttpFetcher fetcher = new ApplicationPrioritizedConcurrentHttpFetcher(4, "halbot");
+		fetcher.init();
+		HttpWebCrawler crawler = new ThreadPoolHttpWebCrawler(1, siteDB, fetcher);
+		List<List<String>> batches = new ArrayList<>();
+		crawler.registerCrawlerHandler(new YesCrawlChecker() {
+			@Override
+			public HandlerResponse handlePreFetch(PrioritizedURL url) {
+				return url.getSource().getPath().equals("/b") ? HandlerResponse.HALT
+					: HandlerResponse.GO_AHEAD;
+			}
+		});
+		crawler.registerCrawlerHandler(new YesCrawlChecker() {
+			@Override
+			public synchronized HandlerResponse[] handlePreFetch(List<PrioritizedURL> urls) {
+				List<String> paths = new ArrayList<>();
+				for (PrioritizedURL url : urls) {
+					paths.add(url.getSource().getPath());
+				}
+				batches.add(paths);
+				return super.handlePreFetch(urls);
+			}
+		});
+		try {
+			crawler.submit(new URL(base + "/hub"));
+			crawler.startProcessing();
+			crawler.waitUntiDone();
+			// the repeated links are handled once, and the halted link is not handled further
+			Assert.assertEquals(1, batches.size());
+			Assert.assertEquals(Arrays.asList("/a", "/c"), batches.get(0));
+			Assert.assertTrue(siteDB.containsKey(new URL(base + "/a")));
+			Assert.assertFalse(siteDB.containsKey(new URL(base + "/b")));
+		} finally {
+			crawler.shutdown();
+			fetcher.close();
+		}
+	}
+
+	@Test
+	public void testMirrorFetchedOnce() throws Exception {
+		Map<String, AtomicInteger> requests = new ConcurrentHashMap<>();
+		CountDownLatch mirrorFetched = new CountDownLatch(1);
+		TestHttpServer mirrors = new TestHttpServer(4);
+		String mirror = mirrors.getBase() + "/mirror";
+		// on another host, so that it is fetched while the mirror is fetched
+		String later = mirrors.getBase().replace("127.0.0.1", "localhost") + "/later";
+		mirrors.handle("/", exchange -> {
+			String path = exchange.getRequestURI().getPath();
+			requests.computeIfAbsent(path, p -> new AtomicInteger()).incrementAndGet();
+			if (path.equals("/later")) {
+				// links to the mirror again once the mirror has been found to be a duplicate
+				try {
+					mirrorFetched.await(5, TimeUnit.SECONDS);
+					Thread.sleep(300);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				TestHttpServer.sendHtml(exchange, 200, "<html><head><title>later</title></head>"
+					+ "<body><a href=\"" + mirror + "\">mirror</a></body></html>");
+				return;
+			}
+			if (path.equals("/mirror")) {
+				mirrorFetched.countDown();
+			}
+			TestHttpServer.sendHtml(exchange, 200, "<html><head><title>copy</title></head><body>"
+				+ "<a href=\"" + mirror + "\">mirror</a><a href=\"" + later + "\">later</a>"
+				+ "</body></html>");
+		});
+		InMemSiteDatabase siteDB = new InMemSiteDatabase();
+		siteDB.init();
+		HttpFetcher fetcher = new ApplicationPrioritizedConcurrentHttpFetcher(4, "halbot");
+		fetcher.init();
+		HttpWebCrawler crawler = new ThreadPoolHttpWebCrawler(1, siteDB, fetcher);
+		crawler.registerCrawlerHandler(new BaseInMemCrawlChecker());
+		try {
+			crawler.submit(mirrors.url("/page"));
+			crawler.startProcessing();
+			crawler.waitUntiDone();
+			Assert.assertEquals(1, crawler.getDuplicateCount());
+			Assert.assertEquals(1, requests.get("/later").get());
+			Assert.assertEquals(1, requests.get("/mirror").get());
+			Assert.assertEquals(2, siteDB.size());
+		} finally {
+			crawler.shutdown();
+			fetcher.close();
+			mirrors.close();
+		}
+	}
+}
@@ -0,0 +1,98 @@
+package net.viperfish.crawler.html;
+
+import java.net.URL;
+import java.util.List;
+import java.util.function.Consumer;
+import net.viperfish.crawler.core.StageMetrics;
+import net.viperfish.crawler.html.engine.ApplicationNioPrioritizedConcurrentHttpFetcher;
+import net.viperfish.crawler.html.engine.ApplicationPrioritizedConcurrentHttpFetcher;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestCrawlerQuiescence {
+
+	// a binary tree of pages, so that each page is linked to exactly once
+	private static final int PAGES = 31;
+
+	private TestHttpServer server;
+	private String base;
+
+	@Before
+	public void startServer() throws Exception {
+		server = new TestHttpServer(4).handle("/", exchange -> {
+			String path = exchange.getRequestURI().getPath();
+			int status = 404;
+			StringBuilder html = new StringBuilder("<html><head><title>page</title></head><body>");
+			if (path.matches("/[0-9]+")) {
+				status = 200;
+				int index = Integer.parseInt(path.substring(1));
+				for (int child = 2 * index + 1; child <= 2 * index + 2 && child < PAGES; ++child) {
+					html.append("<a href=\"/").append(child).append("\">child</a>");
+				}
+			}
+			TestHttpServer.sendHtml(exchange, status, html.append("</body></html>").toString());
+		});
+		base = server.getBase();
+	}
+
+	@After
+	public void stopServer() {
+		server.close();
+	}
+
+	@Test
+	public void testBlockingFetcher() throws Exception {
+		crawl(new ApplicationPrioritizedConcurrentHttpFetcher(4, "halbot"));
+	}
+
+	@Test
+	public void testNioFetcher() throws Exception {
+		crawl(new ApplicationNioPrioritizedConcurrentHttpFetcher(1, 4, "halbot"));
+	}
+
+	@Test
+	public void testStagedPipeline() throws Exception {
+		crawl(new ApplicationPrioritizedConcurrentHttpFetcher(4, "halbot"),
+			crawler -> crawler.setStagedPipeline(1, 2, 1, 1, 4), crawler -> {
+				List<StageMetrics> metrics = crawler.getStageMetrics();
+				Assert.assertEquals(4, metrics.size());
+				Assert.assertEquals("decode", metrics.get(0).getName());
+				Assert.assertEquals("sink", metrics.get(3).getName());
+				for (StageMetrics stage : metrics) {
+					Assert.assertEquals(PAGES, stage.getProcessed());
+				}
+			});
+	}
+
+	private void crawl(HttpFetcher fetcher) throws Exception {
+		crawl(fetcher, crawler -> {
+		}, crawler -> {
+		});
+	}
+
+	private void crawl(HttpFetcher fetcher, Consumer<HttpWebCrawler> setup,
+		Consumer<HttpWebCrawler> check) throws Exception {
+		InMemSiteDatabase siteDB = new InMemSiteDatabase();
+		siteDB.init();
+		fetcher.init();
+		HttpWebCrawler crawler = new ThreadPoolHttpWebCrawler(2, siteDB, fetcher);
+		setup.accept(crawler);
+		try {
+			crawler.submit(new URL(base + "/0"));
+			crawler.startProcessing();
+			// ends on its own once the last page is processed, without any page left behind
+			crawler.waitUntiDone();
+			Assert.assertTrue(fetcher.isEndReached());
+			Assert.assertEquals(PAGES, siteDB.size());
+			for (int i = 0; i < PAGES; ++i) {
+				Assert.assertTrue(siteDB.containsKey(new URL(base + "/" + i)));
+			}
+			check.accept(crawler);
+		} finally {
+			crawler.shutdown();
+			fetcher.close();
+		}
+	}
+}
@@ -0,0 +1,227 @@
+package net.viperfish.crawler.html;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import net.viperfish.crawler.html.exception.FetchFailedException;
+import org.junit.Assert;
+
+/**
+ * An embedded http server on the loopback interface for the tests that fetch pages, with the
+ * helpers to answer the requests and to collect the results of a {@link HttpFetcher}.
+ */
+public class TestHttpServer implements AutoCloseable {
+
+	private final HttpServer server;
+	private final ExecutorService pool;
+
+	/**
+	 * creates and starts a server on a free port.
+	 *
+	 * @param threads the amount of threads answering the requests.
+	 * @throws IOException if failed to bind the server.
+	 */
+	public TestHttpServer(int threads) throws IOException {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		pool = Executors.newFixedThreadPool(threads);
+		server.setExecutor(pool);
+		server.start();
+	}
+
+	/**
+	 * answers the requests under a path with a handler.
+	 *
+	 * @param path the path prefix.
+	 * @param handler the handler.
+	 * @return this server.
+	 */
+	public TestHttpServer handle(String path, HttpHandler handler) {
+		server.createContext(path, handler);
+		return this;
+	}
+
+	/**
+	 * gets the url of the server, without a trailing slash.
+	 *
+	 * @return the base url.
+	 */
+	public String getBase() {
+		return "http://127.0.0.1:" + server.getAddress().getPort();
+	}
+
+	/**
+	 * gets the url of a path on the server.
+	 *
+	 * @param path the path, starting with a slash.
+	 * @return the url.
+	 * @throws MalformedURLException if the path is not valid.
+	 */
+	public URL url(String path) throws MalformedURLException {
+		return new URL(getBase() + path);
+	}
+
+	@Override
+	public void close() {
+		server.stop(0);
+		pool.shutdownNow();
+	}
+
+	/**
+	 * gets the html of the page that {@link #sendPage(HttpExchange)} sends for a path.
+	 *
+	 * @param path the path of the page.
+	 * @return the html.
+	 */
+	public static String page(String path) {
+		return "<html><body>" + path + "</body></html>";
+	}
+
+	/**
+	 * sends the html page that holds the path of the request.
+	 *
+	 * @param exchange the request.
+	 * @throws IOException if failed to send.
+	 */
+	public static void sendPage(HttpExchange exchange) throws IOException {
+		send(exchange, 200, "text/html; charset=UTF-8",
+			page(exchange.getRequestURI().getPath()).getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * sends a html page.
+	 *
+	 * @param exchange the request.
+	 * @param status the status of the response.
+	 * @param html the html.
+	 * @throws IOException if failed to send.
+	 */
+	public static void sendHtml(HttpExchange exchange, int status, String html)
+		throws IOException {
+		send(exchange, status, "text/html", html.getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * sends a response with a body of a known length.
+	 *
+	 * @param exchange the request.
+	 * @param status the status of the response.
+	 * @param type the content type, or null to send none.
+	 * @param body the body.
+	 * @throws IOException if failed to send.
+	 */
+	public static void send(HttpExchange exchange, int status, String type, byte[] body)
+		throws IOException {
+		if (type != null) {
+			exchange.getResponseHeaders().add("Content-Type", type);
+		}
+		exchange.sendResponseHeaders(status, body.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(body);
+		}
+	}
+
+	/**
+	 * sends a chunked body of zeros, ignoring the client aborting the download.
+	 *
+	 * @param exchange the request.
+	 * @param type the content type.
+	 * @param kilobytes the size of the body in kilobytes.
+	 * @throws IOException if failed to send the headers.
+	 */
+	public static void sendLarge(HttpExchange exchange, String type, int kilobytes)
+		throws IOException {
+		exchange.getResponseHeaders().add("Content-Type", type);
+		exchange.sendResponseHeaders(200, 0);
+		try (OutputStream out = exchange.getResponseBody()) {
+			for (int i = 0; i < kilobytes; ++i) {
+				out.write(new byte[1024]);
+			}
+		} catch (IOException e) {
+			// the client aborted the download
+		}
+	}
+
+	/**
+	 * takes a fixed amount of results from a fetcher, each of which must come within 10 seconds.
+	 *
+	 * @param fetcher the fetcher.
+	 * @param count the amount of results.
+	 * @return the pages and the failures fetched.
+	 */
+	public static Fetched fetchAll(HttpFetcher fetcher, int count) {
+		Fetched fetched = new Fetched();
+		for (int i = 0; i < count; ++i) {
+			try {
+				FetchedContent content = fetcher.next(10, TimeUnit.SECONDS);
+				Assert.assertNotNull(content);
+				fetched.pages.put(content.getUrl().getSource().getPath(), content);
+			} catch (FetchFailedException e) {
+				fetched.failures.add(e);
+			}
+		}
+		return fetched;
+	}
+
+	/**
+	 * waits up to 5 seconds for a fetcher to be done with all its urls.
+	 *
+	 * @param fetcher the fetcher.
+	 * @throws InterruptedException if interrupted while waiting.
+	 */
+	public static void awaitEnd(HttpFetcher fetcher) throws InterruptedException {
+		for (int i = 0; i < 500 && !fetcher.isEndReached(); ++i) {
+			Thread.sleep(10);
+		}
+		Assert.assertTrue(fetcher.isEndReached());
+	}
+
+	/**
+	 * The results taken from a fetcher.
+	 */
+	public static class Fetched {
+
+		private final Map<String, FetchedContent> pages = new HashMap<>();
+		private final List<FetchFailedException> failures = new ArrayList<>();
+
+		/**
+		 * gets the pages fetched by their path.
+		 *
+		 * @return the pages.
+		 */
+		public Map<String, FetchedContent> getPages() {
+			return pages;
+		}
+
+		/**
+		 * gets the page fetched at a path.
+		 *
+		 * @param path the path.
+		 * @return the page, or null if not fetched.
+		 */
+		public FetchedContent get(String path) {
+			return pages.get(path);
+		}
+
+		/**
+		 * gets the failures.
+		 *
+		 * @return the failures.
+		 */
+		public List<FetchFailedException> getFailures() {
+			return failures;
+		}
+	}
+}
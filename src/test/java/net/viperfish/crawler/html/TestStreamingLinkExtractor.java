@@ -0,0 +1,85 @@
+package net.viperfish.crawler.html;
+
+import java.util.ArrayList;
+import java.util.List;
+import net.viperfish.crawler.core.Pair;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestStreamingLinkExtractor {
+
+	private static final String PAGE_URL = "https://www.example.com/news/today/index.html";
+
+	@Test
+	public void testSameAsDocument() {
+		String html = "<!DOCTYPE html><html><head><title>  Today &amp; \n Tomorrow </title>"
+			+ "<script>var s = '<a href=\"/script\">no</a>';</script>"
+			+ "<style>a { color: red; }</style></head><body>"
+			+ "<!-- <a href=\"/commented\">no</a> -->"
+			+ "<div><a href=\"/absolute/path\">Absolute <b>path</b></a>"
+			+ "<a HREF='relative.html?a=1&amp;b=2'>Relative</a>"
+			+ "<a href=../up.html>Up &gt; one</a>"
+			+ "<a href=\"https://other.example.org/x#frag\">  Other\n site </a>"
+			+ "<a href=\"javascript:void(0)\">Script</a>"
+			+ "<a href=\"mailto:someone@example.com\">Mail</a>"
+			+ "<a name=\"anchor\">No href</a>"
+			+ "<a href=\"\">Empty</a>"
+			+ "<p>Some text with a &lt;bracket</p>"
+			+ "<a href=\"/unclosed\">Unclosed"
+			+ "</div></body></html>";
+		assertSameAsDocument(html);
+	}
+
+	@Test
+	public void testBase() {
+		String html = "<html><head><base href=\"/archive/2018/\"><base href=\"/ignored/\">"
+			+ "</head><body><a href=\"page.html\">Page</a><a href=\"/root.html\">Root</a>"
+			+ "<a href=\"https://www.example.com/full\">Full</a></body></html>";
+		assertSameAsDocument(html);
+		List<Pair<String, String>> links = new StreamingLinkExtractor(html, PAGE_URL).extract()
+			.getLinks();
+		Assert.assertEquals("https://www.example.com/archive/2018/page.html",
+			links.get(0).getFirst());
+	}
+
+	@Test
+	public void testUpperCaseTags() {
+		String html = "<HTML><HEAD><Title>Upper</TITLE><SCRIPT>'<a href=\"/script\">no</a>'"
+			+ "</Script></HEAD><BODY><A HREF=\"/upper\">Upper<BR>case</A>"
+			+ "<abbr>no anchor</abbr><a href=\"/lower\">Lower<Div>case</DIV></a></BODY></HTML>";
+		assertSameAsDocument(html);
+		Assert.assertEquals("Upper",
+			new StreamingLinkExtractor(html, PAGE_URL).extract().getTitle());
+	}
+
+	@Test
+	public void testNoTitle() {
+		StreamingLinkExtractor extractor = new StreamingLinkExtractor(
+			"<html><body><a href=\"/a\">A</a></body></html>", PAGE_URL).extract();
+		Assert.assertNull(extractor.getTitle());
+		Assert.assertEquals(1, extractor.getLinks().size());
+	}
+
+	private void assertSameAsDocument(String html) {
+		Document doc = HttpWebCrawler.parseDocument(html, PAGE_URL);
+		List<Pair<String, String>> expected = new ArrayList<>();
+		for (Element e : doc.select("a")) {
+			String href = e.attr("abs:href");
+			if (!href.isEmpty()) {
+				expected.add(new Pair<>(href, e.text()));
+			}
+		}
+		StreamingLinkExtractor extractor = new StreamingLinkExtractor(html, PAGE_URL).extract();
+		List<Pair<String, String>> actual = new ArrayList<>();
+		for (Pair<String, String> link : extractor.getLinks()) {
+			if (!link.getFirst().isEmpty()) {
+				actual.add(link);
+			}
+		}
+		Assert.assertEquals(expected, actual);
+		String title = extractor.getTitle();
+		Assert.assertEquals(doc.title(), title == null ? "" : title);
+	}
+}
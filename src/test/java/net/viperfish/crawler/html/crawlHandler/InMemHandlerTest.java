@@ -2,7 +2,11 @@ package net.viperfish.crawler.html.crawlHandler;
 
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.HashSet;
+import java.util.Set;
+import net.viperfish.crawler.html.ContentFingerprint;
 import net.viperfish.crawler.html.CrawledData;
+import net.viperfish.crawler.html.FetchedContent;
 import net.viperfish.crawler.html.HandlerResponse;
 import net.viperfish.crawler.html.engine.PrioritizedURL;
 import org.junit.Assert;
@@ -14,7 +18,7 @@ public class InMemHandlerTest {
 	@Test
 	public void testURLChecker() throws MalformedURLException {
 		CrawledData existingSite = new CrawledData();
-		existingSite.setChecksum("12345");
+		existingSite.setChecksum(new ContentFingerprint(0, 12345));
 		existingSite.setContent("");
 		existingSite.setTitle("Existing Site");
 		existingSite.setUrl(new URL("https://www.example.com"));
@@ -28,11 +32,11 @@ public class InMemHandlerTest {
 
 		CrawledData exampleSite = new CrawledData();
 		exampleSite.setUrl(new URL("https://exe.com"));
-		exampleSite.setChecksum("7890");
+		exampleSite.setChecksum(new ContentFingerprint(0, 7890));
 
 		CrawledData identicalSite = new CrawledData();
 		identicalSite.setUrl(new URL("https://exe.com/index?parameter=this"));
-		identicalSite.setChecksum("7890");
+		identicalSite.setChecksum(new ContentFingerprint(0, 7890));
 
 		Assert.assertEquals(HandlerResponse.GO_AHEAD, checker.handlePostParse(exampleSite));
 		Assert.assertEquals(HandlerResponse.HALT, checker.handlePostParse(identicalSite));
@@ -40,4 +44,90 @@ public class InMemHandlerTest {
 			.assertEquals(HandlerResponse.HALT,
 				checker.handlePreFetch(new PrioritizedURL(identicalSite.getUrl(), 1)));
 	}
+
+	@Test
+	public void testBloomFilterChecker() throws MalformedURLException {
+		CrawledData existingSite = new CrawledData();
+		existingSite.setChecksum(new ContentFingerprint(0, 12345));
+		existingSite.setContent("");
+		existingSite.setTitle("Existing Site");
+		existingSite.setUrl(new URL("https://www.example.com"));
+		BloomFilterCrawlChecker checker = new BloomFilterCrawlChecker(64 * 1024, 0.001);
+		checker.lock(existingSite);
+
+		Assert.assertEquals(HandlerResponse.HALT,
+			checker.handlePreFetch(new PrioritizedURL(new URL("https://www.example.com"), 1)));
+		Assert.assertEquals(HandlerResponse.GO_AHEAD,
+			checker.handlePreFetch(new PrioritizedURL(new URL("https://google.com"), 1)));
+
+		CrawledData exampleSite = new CrawledData();
+		exampleSite.setUrl(new URL("https://exe.com"));
+		exampleSite.setChecksum(new ContentFingerprint(0, 7890));
+
+		CrawledData identicalSite = new CrawledData();
+		identicalSite.setUrl(new URL("https://exe.com/index?parameter=this"));
+		identicalSite.setChecksum(new ContentFingerprint(0, 7890));
+
+		Assert.assertEquals(HandlerResponse.GO_AHEAD, checker.handlePostParse(exampleSite));
+		Assert.assertEquals(HandlerResponse.HALT, checker.handlePostParse(identicalSite));
+		Assert
+			.assertEquals(HandlerResponse.HALT,
+				checker.handlePreFetch(new PrioritizedURL(identicalSite.getUrl(), 1)));
+		Assert.assertEquals(5, checker.getFilter().getInsertions());
+	}
+
+	@Test
+	public void testPreParseDuplicate() throws MalformedURLException {
+		checkPreParseDuplicate(new BaseInMemCrawlChecker());
+		checkPreParseDuplicate(new BloomFilterCrawlChecker(64 * 1024, 0.001));
+	}
+
+	@Test
+	public void testPreParseWithoutContent() throws MalformedURLException {
+		// a checker written before the content was checked
+		Set<URL> locked = new HashSet<>();
+		BaseCrawlChecker checker = new BaseCrawlChecker() {
+			@Override
+			protected boolean isParsed(CrawledData site) {
+				return locked.contains(site.getUrl());
+			}
+
+			@Override
+			protected boolean lock(CrawledData s) {
+				return locked.add(s.getUrl());
+			}
+
+			@Override
+			protected boolean isFetched(URL url) {
+				return locked.contains(url);
+			}
+		};
+		FetchedContent mirror = new FetchedContent(
+			new PrioritizedURL(new URL("https://mirror.example.com"), 1), 200, new byte[0],
+			"UTF-8", new ContentFingerprint(0, 12345));
+		Assert.assertEquals(HandlerResponse.GO_AHEAD, checker.handlePreParse(mirror));
+		Assert.assertEquals(HandlerResponse.GO_AHEAD, checker.handlePreParse(mirror));
+		Assert.assertTrue(locked.isEmpty());
+	}
+
+	private void checkPreParseDuplicate(BaseCrawlChecker checker) throws MalformedURLException {
+		CrawledData existingSite = new CrawledData();
+		existingSite.setChecksum(new ContentFingerprint(0, 12345));
+		existingSite.setUrl(new URL("https://www.example.com"));
+		checker.lock(existingSite);
+
+		FetchedContent mirror = new FetchedContent(
+			new PrioritizedURL(new URL("https://mirror.example.com"), 1), 200, new byte[0],
+			"UTF-8", new ContentFingerprint(0, 12345));
+		FetchedContent other = new FetchedContent(
+			new PrioritizedURL(new URL("https://other.example.com"), 1), 200, new byte[0],
+			"UTF-8", new ContentFingerprint(0, 67890));
+		FetchedContent unhashed = new FetchedContent(
+			new PrioritizedURL(new URL("https://unhashed.example.com"), 1), 200, "");
+		Assert.assertEquals(HandlerResponse.DUPLICATE, checker.handlePreParse(mirror));
+		Assert.assertEquals(HandlerResponse.GO_AHEAD, checker.handlePreParse(other));
+		Assert.assertEquals(HandlerResponse.GO_AHEAD, checker.handlePreParse(unhashed));
+		// checking does not claim the content
+		Assert.assertEquals(HandlerResponse.GO_AHEAD, checker.handlePreParse(other));
+	}
 }
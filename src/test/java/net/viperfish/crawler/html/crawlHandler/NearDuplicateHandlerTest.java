@@ -0,0 +1,78 @@
+package net.viperfish.crawler.html.crawlHandler;
+
+import java.net.URL;
+import java.util.Collections;
+import java.util.Random;
+import net.viperfish.crawler.html.Anchor;
+import net.viperfish.crawler.html.CrawledData;
+import net.viperfish.crawler.html.HandlerResponse;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class NearDuplicateHandlerTest {
+
+	private static final String[] WORDS = {"crawler", "page", "link", "search", "index", "host",
+		"queue", "fetch", "parse", "text", "html", "robots", "frontier", "anchor", "title"};
+
+	@Test
+	public void testSimHash() {
+		String text = randomText(new Random(1), 2000);
+		long signature = NearDuplicateCrawlHandler.simHash(page("12:00", text));
+		Assert.assertEquals(signature, NearDuplicateCrawlHandler.simHash(
+			"<HTML><!-- cached --><SCRIPT>var x = 1;</SCRIPT><style>p {}</style>" + page("12:00",
+				text).toUpperCase()));
+		Assert.assertTrue(
+			Long.bitCount(signature ^ NearDuplicateCrawlHandler.simHash(page("12:05", text))) <= 3);
+		Assert.assertTrue(Long.bitCount(signature ^ NearDuplicateCrawlHandler
+			.simHash(page("12:00", randomText(new Random(2), 2000)))) > 3);
+		Assert.assertEquals(0, NearDuplicateCrawlHandler.simHash("<html><body></body></html>"));
+	}
+
+	@Test
+	public void testHandler() throws Exception {
+		NearDuplicateCrawlHandler handler = new NearDuplicateCrawlHandler(1024, 3);
+		String text = randomText(new Random(1), 2000);
+		Assert.assertEquals(HandlerResponse.GO_AHEAD,
+			handler.handlePostParse(site("https://example.com/a", page("12:00", text))));
+
+		CrawledData nearDuplicate = site("https://example.com/a?session=2", page("12:05", text));
+		Assert.assertEquals(HandlerResponse.NO_INDEX, handler.handlePostParse(nearDuplicate));
+		Assert.assertTrue(nearDuplicate.getAnchors().isEmpty());
+		// the same page crawled again
+		Assert.assertEquals(HandlerResponse.GO_AHEAD,
+			handler.handlePostParse(site("https://example.com/a", page("12:10", text))));
+		Assert.assertEquals(HandlerResponse.GO_AHEAD, handler.handlePostParse(
+			site("https://example.com/b", page("12:00", randomText(new Random(2), 2000)))));
+		Assert.assertEquals(1, handler.getNearDuplicateCount());
+
+		handler.setNoIndex(false);
+		handler.setFollowAnchors(true);
+		CrawledData followed = site("https://mirror.com/a", page("13:00", text));
+		Assert.assertEquals(HandlerResponse.GO_AHEAD, handler.handlePostParse(followed));
+		Assert.assertEquals(1, followed.getAnchors().size());
+		Assert.assertEquals(2, handler.getNearDuplicateCount());
+	}
+
+	private static CrawledData site(String url, String html) throws Exception {
+		CrawledData site = new CrawledData();
+		site.setUrl(new URL(url));
+		site.setContent(html);
+		Anchor anchor = new Anchor();
+		anchor.setTargetURL(new URL("https://example.com/next"));
+		site.setAnchors(Collections.singletonList(anchor));
+		return site;
+	}
+
+	private static String page(String time, String text) {
+		return "<html><head><title>news</title></head><body><p>updated at " + time + "</p><p>"
+			+ text + "</p></body></html>";
+	}
+
+	private static String randomText(Random random, int words) {
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i < words; ++i) {
+			text.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+		}
+		return text.toString();
+	}
+}
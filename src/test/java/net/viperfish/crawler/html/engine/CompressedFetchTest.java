@@ -0,0 +1,127 @@
+package net.viperfish.crawler.html.engine;
+
+import com.sun.net.httpserver.HttpExchange;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+import net.viperfish.crawler.html.TestHttpServer;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CompressedFetchTest {
+
+	private static final String PAGE;
+
+	static {
+		StringBuilder sb = new StringBuilder("<html><body>");
+		for (int i = 0; i < 500; ++i) {
+			sb.append("<p>paragraph ").append(i).append(" caf\u00e9</p>");
+		}
+		PAGE = sb.append("</body></html>").toString();
+	}
+
+	private static final String LATIN_PAGE =
+		"<html><head><meta charset=\"ISO-8859-1\"></head><body>caf\u00e9</body></html>";
+
+	private TestHttpServer server;
+
+	@Before
+	public void startServer() throws IOException {
+		server = new TestHttpServer(4)
+			.handle("/gzip", exchange -> {
+				ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+				try (OutputStream out = new GZIPOutputStream(compressed)) {
+					out.write(PAGE.getBytes(StandardCharsets.UTF_8));
+				}
+				send(exchange, "text/html; charset=\"utf-8\"", "gzip", compressed.toByteArray());
+			})
+			.handle("/deflate", exchange -> {
+				ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+				try (OutputStream out = new DeflaterOutputStream(compressed)) {
+					out.write(PAGE.getBytes(StandardCharsets.UTF_8));
+				}
+				send(exchange, "text/html; charset=utf-8", "deflate", compressed.toByteArray());
+			})
+			.handle("/raw", exchange -> {
+				// some servers send deflate without the zlib wrapper
+				ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+				try (OutputStream out = new DeflaterOutputStream(compressed,
+					new Deflater(Deflater.DEFAULT_COMPRESSION, true))) {
+					out.write(PAGE.getBytes(StandardCharsets.UTF_8));
+				}
+				send(exchange, "text/html; charset=utf-8", "deflate", compressed.toByteArray());
+			})
+			.handle("/latin", exchange -> send(exchange, "text/html", null,
+				LATIN_PAGE.getBytes(StandardCharsets.ISO_8859_1)))
+			.handle("/unknown", exchange -> {
+				exchange.getResponseHeaders().add("Content-Encoding", "br");
+				TestHttpServer.send(exchange, 200, "text/html", new byte[]{1, 2, 3});
+			});
+	}
+
+	@After
+	public void stopServer() {
+		server.close();
+	}
+
+	@Test
+	public void testBlockingFetcher() throws Exception {
+		PrioritizedConcurrentHttpFetcher fetcher =
+			new ApplicationPrioritizedConcurrentHttpFetcher(2, "halbot");
+		fetchAll(fetcher);
+	}
+
+	@Test
+	public void testNioFetcher() throws Exception {
+		PrioritizedConcurrentHttpFetcher fetcher =
+			new ApplicationNioPrioritizedConcurrentHttpFetcher(1, 4, "halbot");
+		fetchAll(fetcher);
+	}
+
+	@Test
+	public void testDeclaredCharset() {
+		Assert.assertEquals("UTF-8", FetchSupport.getDeclaredCharset("text/html;charset=UTF-8"));
+		Assert.assertEquals("utf-8",
+			FetchSupport.getDeclaredCharset("text/html; foo=bar; charset=\"utf-8\""));
+		Assert.assertNull(FetchSupport.getDeclaredCharset("text/html"));
+		Assert.assertNull(FetchSupport.getDeclaredCharset(null));
+	}
+
+	private void fetchAll(PrioritizedConcurrentHttpFetcher fetcher) throws Exception {
+		fetcher.init();
+		for (String path : new String[]{"/gzip", "/deflate", "/raw", "/latin", "/unknown"}) {
+			fetcher.submit(server.url(path));
+		}
+		TestHttpServer.Fetched fetched = TestHttpServer.fetchAll(fetcher, 5);
+		// the unsupported encoding fails rather than being parsed as garbage
+		Assert.assertEquals(1, fetched.getFailures().size());
+		Assert.assertEquals(PAGE, fetched.get("/gzip").getHtml());
+		Assert.assertEquals(PAGE, fetched.get("/deflate").getHtml());
+		Assert.assertEquals(PAGE, fetched.get("/raw").getHtml());
+		Assert.assertEquals(LATIN_PAGE, fetched.get("/latin").getHtml());
+		Assert.assertEquals("ISO-8859-1", fetched.get("/latin").getCharset());
+
+		FetchMetrics metrics = fetcher.getFetchMetrics();
+		Assert.assertTrue(metrics.getTransferredBytes() < metrics.getDecodedBytes() / 4);
+		fetcher.close();
+	}
+
+	private static void send(HttpExchange exchange, String type, String encoding, byte[] body)
+		throws IOException {
+		String accepted = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+		if (encoding != null && (accepted == null || !accepted.contains(encoding))) {
+			exchange.sendResponseHeaders(406, -1);
+			return;
+		}
+		if (encoding != null) {
+			exchange.getResponseHeaders().add("Content-Encoding", encoding);
+		}
+		TestHttpServer.send(exchange, 200, type, body);
+	}
+}
@@ -0,0 +1,127 @@
+package net.viperfish.crawler.html.engine;
+
+import com.sun.net.httpserver.HttpExchange;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import net.viperfish.crawler.html.FetchedContent;
+import net.viperfish.crawler.html.TestHttpServer;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ConditionalFetchTest {
+
+	private static final String LAST_MODIFIED = "Wed, 21 Oct 2015 07:28:00 GMT";
+	private static final String[] PATHS = {"/tagged", "/dated", "/plain"};
+
+	private TestHttpServer server;
+	private AtomicInteger bodiesSent;
+
+	@Before
+	public void startServer() throws IOException {
+		bodiesSent = new AtomicInteger(0);
+		server = new TestHttpServer(4)
+			.handle("/tagged", exchange -> {
+				exchange.getResponseHeaders().add("ETag", "\"v1\"");
+				respond(exchange, "\"v1\"".equals(exchange.getRequestHeaders()
+					.getFirst("If-None-Match")));
+			})
+			.handle("/dated", exchange -> {
+				exchange.getResponseHeaders().add("Last-Modified", LAST_MODIFIED);
+				respond(exchange, LAST_MODIFIED.equals(exchange.getRequestHeaders()
+					.getFirst("If-Modified-Since")));
+			})
+			.handle("/plain", exchange -> respond(exchange, false));
+	}
+
+	@After
+	public void stopServer() {
+		server.close();
+	}
+
+	@Test
+	public void testBlockingFetcher() throws Exception {
+		ValidatorStore store = new ValidatorStore();
+		Map<String, FetchedContent> first = fetchAll(
+			new ApplicationPrioritizedConcurrentHttpFetcher(2, "halbot"), store);
+		Assert.assertEquals(2, store.size());
+		Map<String, FetchedContent> second = fetchAll(
+			new ApplicationPrioritizedConcurrentHttpFetcher(2, "halbot"), store);
+		assertRevisit(first, second);
+		Assert.assertEquals(2, store.getNotModifiedCount());
+		Assert.assertEquals(4, bodiesSent.get());
+	}
+
+	@Test
+	public void testNioFetcher() throws Exception {
+		ValidatorStore store = new ValidatorStore();
+		Map<String, FetchedContent> first = fetchAll(
+			new ApplicationNioPrioritizedConcurrentHttpFetcher(1, 4, "halbot"), store);
+		Map<String, FetchedContent> second = fetchAll(
+			new ApplicationNioPrioritizedConcurrentHttpFetcher(1, 4, "halbot"), store);
+		assertRevisit(first, second);
+		Assert.assertEquals(4, bodiesSent.get());
+	}
+
+	@Test
+	public void testRestoredStore() throws Exception {
+		ValidatorStore store = new ValidatorStore();
+		Map<String, FetchedContent> first = fetchAll(
+			new ApplicationPrioritizedConcurrentHttpFetcher(2, "halbot"), store);
+
+		ByteArrayOutputStream checkpoint = new ByteArrayOutputStream();
+		store.checkpoint(new DataOutputStream(checkpoint));
+		ValidatorStore restored = new ValidatorStore();
+		restored.restore(new DataInputStream(new ByteArrayInputStream(checkpoint.toByteArray())));
+		Assert.assertEquals(2, restored.size());
+		URL dated = server.url("/dated");
+		Assert.assertEquals(LAST_MODIFIED, restored.get(dated).getLastModified());
+		Assert.assertNull(restored.get(dated).getETag());
+
+		Map<String, FetchedContent> second = fetchAll(
+			new ApplicationPrioritizedConcurrentHttpFetcher(2, "halbot"), restored);
+		assertRevisit(first, second);
+	}
+
+	private void assertRevisit(Map<String, FetchedContent> first,
+		Map<String, FetchedContent> second) {
+		for (String path : new String[]{"/tagged", "/dated"}) {
+			Assert.assertFalse(first.get(path).isNotModified());
+			Assert.assertTrue(second.get(path).isNotModified());
+			Assert.assertEquals(0, second.get(path).getBody().length);
+			Assert.assertEquals(first.get(path).getChecksum(), second.get(path).getChecksum());
+		}
+		Assert.assertFalse(second.get("/plain").isNotModified());
+		Assert.assertEquals(first.get("/plain").getHtml(), second.get("/plain").getHtml());
+	}
+
+	private Map<String, FetchedContent> fetchAll(PrioritizedConcurrentHttpFetcher fetcher,
+		ValidatorStore store) throws Exception {
+		fetcher.setValidatorStore(store);
+		fetcher.init();
+		for (String path : PATHS) {
+			fetcher.submit(server.url(path));
+		}
+		TestHttpServer.Fetched fetched = TestHttpServer.fetchAll(fetcher, PATHS.length);
+		Assert.assertEquals(PATHS.length, fetched.getPages().size());
+		fetcher.close();
+		return fetched.getPages();
+	}
+
+	private void respond(HttpExchange exchange, boolean notModified) throws IOException {
+		if (notModified) {
+			exchange.sendResponseHeaders(304, -1);
+			exchange.close();
+			return;
+		}
+		bodiesSent.incrementAndGet();
+		TestHttpServer.sendPage(exchange);
+	}
+}
@@ -0,0 +1,86 @@
+package net.viperfish.crawler.html.engine;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import net.viperfish.crawler.html.FetchedContent;
+import net.viperfish.crawler.html.HttpFetcher;
+import net.viperfish.crawler.html.TestHttpServer;
+import net.viperfish.crawler.html.exception.FetchFailedException;
+import net.viperfish.crawler.html.exception.PageTooLargeException;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class NioFetcherTest {
+
+	private static final int PAGE_COUNT = 64;
+
+	private TestHttpServer server;
+
+	@Before
+	public void startServer() throws IOException {
+		server = new TestHttpServer(PAGE_COUNT)
+			.handle("/page", exchange -> {
+				try {
+					Thread.sleep(250);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				TestHttpServer.sendPage(exchange);
+			})
+			.handle("/image", exchange -> TestHttpServer
+				.send(exchange, 200, "image/png", new byte[]{1, 2, 3}))
+			.handle("/video", exchange -> TestHttpServer.sendLarge(exchange, "video/mp4", 256));
+	}
+
+	@After
+	public void stopServer() {
+		server.close();
+	}
+
+	@Test
+	public void testConcurrentFetch() throws Exception {
+		PrioritizedURLBlockingQueue queue = new HostPartitionedURLBlockingQueue(PAGE_COUNT, 0,
+			TimeUnit.MILLISECONDS);
+		HttpFetcher fetcher = new ApplicationNioPrioritizedConcurrentHttpFetcher(1, PAGE_COUNT,
+			"halbot", queue);
+		fetcher.init();
+		fetcher.submit(server.url("/image"));
+		for (int i = 0; i < PAGE_COUNT; ++i) {
+			fetcher.submit(server.url("/page/" + i));
+		}
+
+		long begin = System.currentTimeMillis();
+		TestHttpServer.Fetched fetched = TestHttpServer.fetchAll(fetcher, PAGE_COUNT);
+		long elapsed = System.currentTimeMillis() - begin;
+
+		Assert.assertEquals(PAGE_COUNT, fetched.getPages().size());
+		for (FetchedContent content : fetched.getPages().values()) {
+			Assert.assertEquals(200, content.getStatus());
+			Assert.assertEquals(TestHttpServer.page(content.getUrl().getSource().getPath()),
+				content.getHtml());
+		}
+		// a single selector thread keeps all requests in flight at once
+		Assert.assertTrue(elapsed < PAGE_COUNT * 250 / 4);
+		TestHttpServer.awaitEnd(fetcher);
+		Assert.assertNull(fetcher.next(100, TimeUnit.MILLISECONDS));
+		fetcher.close();
+	}
+
+	@Test
+	public void testLargeNonHtml() throws Exception {
+		ApplicationNioPrioritizedConcurrentHttpFetcher fetcher =
+			new ApplicationNioPrioritizedConcurrentHttpFetcher(1, 2, "halbot");
+		fetcher.setMaxPageSize(16 * 1024);
+		fetcher.init();
+		fetcher.submit(server.url("/video"));
+		try {
+			fetcher.next(10, TimeUnit.SECONDS);
+			Assert.fail("The download should be aborted");
+		} catch (FetchFailedException e) {
+			Assert.assertTrue(e.getCause() instanceof PageTooLargeException);
+		}
+		fetcher.close();
+	}
+}
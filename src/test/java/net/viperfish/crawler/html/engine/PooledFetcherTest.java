@@ -0,0 +1,111 @@
+package net.viperfish.crawler.html.engine;
+
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+import net.viperfish.crawler.html.FetchedContent;
+import net.viperfish.crawler.html.TestHttpServer;
+import net.viperfish.crawler.html.exception.FetchFailedException;
+import net.viperfish.crawler.html.exception.PageTooLargeException;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PooledFetcherTest {
+
+	private static final int PAGE_COUNT = 32;
+
+	private TestHttpServer server;
+
+	@Before
+	public void startServer() throws Exception {
+		server = new TestHttpServer(4)
+			.handle("/page", TestHttpServer::sendPage)
+			.handle("/large", exchange -> TestHttpServer
+				.sendLarge(exchange, "text/html; charset=UTF-8", 64));
+	}
+
+	@After
+	public void stopServer() {
+		server.close();
+	}
+
+	@Test
+	public void testConnectionReuse() throws Exception {
+		FetchMetrics metrics = fetchAll(true);
+		Assert.assertEquals(PAGE_COUNT, metrics.getFetchCount());
+		Assert.assertEquals(0, metrics.getFailureCount());
+		// one request in flight per host, so a single connection is enough
+		Assert.assertEquals(1, metrics.getConnectionCount());
+	}
+
+	@Test
+	public void testWithoutKeepAlive() throws Exception {
+		FetchMetrics metrics = fetchAll(false);
+		Assert.assertEquals(PAGE_COUNT, metrics.getFetchCount());
+		Assert.assertEquals(PAGE_COUNT, metrics.getConnectionCount());
+		Assert.assertTrue(metrics.getMaxLatency(TimeUnit.NANOSECONDS) >= metrics
+			.getMeanLatency(TimeUnit.NANOSECONDS));
+	}
+
+	@Test
+	public void testPageTooLarge() throws Exception {
+		ApplicationPrioritizedConcurrentHttpFetcher fetcher =
+			new ApplicationPrioritizedConcurrentHttpFetcher(2, "halbot");
+		fetcher.setMaxPageSize(16 * 1024);
+		fetcher.init();
+		fetcher.submit(server.url("/large"));
+		try {
+			fetcher.next(10, TimeUnit.SECONDS);
+			Assert.fail("The page should be too large");
+		} catch (FetchFailedException e) {
+			Assert.assertTrue(e.getCause() instanceof PageTooLargeException);
+		}
+		Assert.assertEquals(1, fetcher.getFetchMetrics().getFailureCount());
+		fetcher.close();
+	}
+
+	@Test
+	public void testPoolFitsConcurrencyLimit() throws Exception {
+		ApplicationPrioritizedConcurrentHttpFetcher fetcher =
+			new ApplicationPrioritizedConcurrentHttpFetcher(2, "halbot",
+				new HostPartitionedURLBlockingQueue(1, 0, TimeUnit.MILLISECONDS));
+		fetcher.setConcurrencyLimiter(new HostConcurrencyLimiter(1, 16, 0.5, 1.5));
+		fetcher.init();
+		URL page = server.url("/page/0");
+		fetcher.submit(page);
+		Assert.assertNotNull(fetcher.next(10, TimeUnit.SECONDS));
+		// as many connections to the host as the limiter can let fetches in flight
+		Assert.assertEquals(16, fetcher.connectionPool()
+			.getHostStats(page.getHost(), page.getPort(), page.getProtocol()).getMax());
+		fetcher.close();
+	}
+
+	private FetchMetrics fetchAll(boolean keepAlive) throws Exception {
+		ApplicationPrioritizedConcurrentHttpFetcher fetcher =
+			new ApplicationPrioritizedConcurrentHttpFetcher(4, "halbot",
+				new HostPartitionedURLBlockingQueue(1, 0, TimeUnit.MILLISECONDS));
+		FetchMetrics metrics = fetcher.getFetchMetrics();
+		HttpConnectionPool pool = new HttpConnectionPool("halbot", metrics, 4, 16, 30,
+			TimeUnit.SECONDS, keepAlive);
+		fetcher.setConnectionPool(pool);
+		fetcher.init();
+		for (int i = 0; i < PAGE_COUNT; ++i) {
+			fetcher.submit(server.url("/page/" + i));
+		}
+		TestHttpServer.Fetched fetched = TestHttpServer.fetchAll(fetcher, PAGE_COUNT);
+		Assert.assertEquals(PAGE_COUNT, fetched.getPages().size());
+		for (FetchedContent content : fetched.getPages().values()) {
+			Assert.assertEquals(TestHttpServer.page(content.getUrl().getSource().getPath()),
+				content.getHtml());
+			Assert.assertNotNull(content.getChecksum());
+		}
+		TestHttpServer.awaitEnd(fetcher);
+		if (keepAlive) {
+			Assert.assertEquals(1, pool.getIdleConnections());
+		}
+		Assert.assertEquals(0, pool.getLeasedConnections());
+		fetcher.close();
+		return metrics;
+	}
+}
@@ -0,0 +1,61 @@
+package net.viperfish.crawler.html.engine;
+
+import com.google.common.hash.Hashing;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Random;
+import net.viperfish.crawler.html.ContentFingerprint;
+import net.viperfish.crawler.html.exception.PageTooLargeException;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestBodyBuffer {
+
+	@Test
+	public void testHeapBuffers() throws Exception {
+		testRead(new BufferPool(1000, 16, false));
+	}
+
+	@Test
+	public void testDirectBuffers() throws Exception {
+		testRead(new BufferPool(1000, 16, true));
+	}
+
+	@Test(expected = PageTooLargeException.class)
+	public void testDeclaredLengthTooLarge() throws PageTooLargeException {
+		BodyBuffer body = new BodyBuffer(new BufferPool(1000, 16, false), 100);
+		body.expect(-1);
+		body.expect(100);
+		body.expect(101);
+	}
+
+	@Test
+	public void testTooLarge() throws IOException {
+		BufferPool pool = new BufferPool(1000, 16, false);
+		BodyBuffer body = new BodyBuffer(pool, 2500);
+		try {
+			body.readFrom(new ByteArrayInputStream(new byte[5000]));
+			Assert.fail("The body should be too large");
+		} catch (PageTooLargeException e) {
+			Assert.assertEquals(2500, e.getMaxSize());
+		}
+		Assert.assertTrue(body.size() <= 3000);
+		body.release();
+		Assert.assertEquals(3, pool.getFreeCount());
+	}
+
+	private void testRead(BufferPool pool) throws Exception {
+		byte[] data = new byte[4567];
+		new Random(5).nextBytes(data);
+		for (int round = 0; round < 2; ++round) {
+			BodyBuffer body = new BodyBuffer(pool, data.length);
+			body.readFrom(new ByteArrayInputStream(data));
+			Assert.assertEquals(data.length, body.size());
+			Assert.assertArrayEquals(data, body.toByteArray());
+			Assert.assertEquals(ContentFingerprint.of(Hashing.murmur3_128().hashBytes(data)),
+				body.checksum());
+			body.release();
+			Assert.assertEquals(5, pool.getFreeCount());
+		}
+	}
+}
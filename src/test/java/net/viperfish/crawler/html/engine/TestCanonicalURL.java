@@ -0,0 +1,55 @@
+package net.viperfish.crawler.html.engine;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestCanonicalURL {
+
+	@Test
+	public void testNormalization() throws MalformedURLException {
+		CanonicalURL expected = CanonicalURL.of(new URL("https://www.example.com/"));
+		Assert.assertEquals("https://www.example.com/", expected.getNormalized());
+		Assert.assertEquals(expected, CanonicalURL.of(new URL("https://www.example.com")));
+		Assert.assertEquals(expected, CanonicalURL.of(new URL("HTTPS://WWW.Example.com:443/")));
+		Assert.assertEquals(expected, CanonicalURL.of(new URL("https://www.example.com/#top")));
+		Assert.assertEquals(expected.hashCode(),
+			CanonicalURL.of(new URL("https://www.example.com")).hashCode());
+		Assert.assertEquals(expected.getFingerprint(),
+			CanonicalURL.of(new URL("https://www.example.com")).getFingerprint());
+
+		Assert.assertNotEquals(expected, CanonicalURL.of(new URL("http://www.example.com/")));
+		Assert.assertNotEquals(expected, CanonicalURL.of(new URL("https://www.example.com:8443/")));
+		Assert.assertNotEquals(expected, CanonicalURL.of(new URL("https://www.example.com/?q=1")));
+		Assert.assertNotEquals(expected, CanonicalURL.of(new URL("https://www.example.com/A")));
+	}
+
+	@Test
+	public void testPrioritizedURLIdentity() throws MalformedURLException {
+		PrioritizedURL first = new PrioritizedURL(new URL("https://www.example.com/a#one"), 1);
+		PrioritizedURL second = new PrioritizedURL(new URL("https://WWW.EXAMPLE.COM/a#two"), 5);
+		Assert.assertEquals(first.getKey(), second.getKey());
+		Assert.assertEquals(first, second);
+
+		PrioritizedURLBlockingQueue queue = new IndexedPrioritizedURLBlockingQueue();
+		queue.offer(first);
+		queue.offer(second);
+		Assert.assertEquals(1, queue.size());
+	}
+
+	@Test
+	public void testDerivedURL() throws MalformedURLException {
+		Assert.assertEquals("www.example.com",
+			CanonicalURL.of(new URL("https://WWW.Example.com:8443/a?q=1")).getHost());
+		Assert.assertEquals("[::1]", CanonicalURL.of(new URL("http://[::1]:8080/a")).getHost());
+		Assert.assertEquals("www.example.com",
+			CanonicalURL.of(new URL("https://www.example.com")).getHost());
+
+		PrioritizedURL url = new PrioritizedURL(new URL("https://user@WWW.Example.com/a?q=1#top"),
+			1);
+		URL source = url.getSource();
+		Assert.assertEquals("https://www.example.com/a?q=1", source.toExternalForm());
+		Assert.assertEquals(url.getKey(), CanonicalURL.of(source));
+	}
+}
@@ -0,0 +1,110 @@
+package net.viperfish.crawler.html.engine;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import net.viperfish.crawler.core.Pair;
+import net.viperfish.crawler.html.FetchedContent;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestFetchResultQueue {
+
+	@Test
+	public void testPageLimit() throws InterruptedException, MalformedURLException {
+		FetchResultQueue queue = new FetchResultQueue(3, Long.MAX_VALUE);
+		for (int i = 0; i < 5; ++i) {
+			queue.offer(page(i, "<html></html>"));
+		}
+		Assert.assertEquals(5, queue.size());
+		Assert.assertEquals(5, queue.getPeakSize());
+		Assert.assertFalse(queue.awaitCapacity(10, TimeUnit.MILLISECONDS));
+		queue.take();
+		queue.take();
+		Assert.assertFalse(queue.awaitCapacity(0, TimeUnit.MILLISECONDS));
+		queue.take();
+		Assert.assertTrue(queue.awaitCapacity(0, TimeUnit.MILLISECONDS));
+		Assert.assertEquals(2, queue.getBlockedCount());
+		Assert.assertTrue(queue.getBlockedTime(TimeUnit.NANOSECONDS) > 0);
+	}
+
+	@Test
+	public void testByteLimit() throws InterruptedException, MalformedURLException {
+		FetchResultQueue queue = new FetchResultQueue(100, 1000);
+		queue.offer(page(0, new String(new char[800])));
+		Assert.assertEquals(800, queue.byteSize());
+		Assert.assertTrue(queue.awaitCapacity(0, TimeUnit.MILLISECONDS));
+		queue.offer(page(1, new String(new char[200])));
+		queue.offer(new Pair<>(null, new RuntimeException()));
+		Assert.assertEquals(1000, queue.byteSize());
+		Assert.assertFalse(queue.awaitCapacity(0, TimeUnit.MILLISECONDS));
+		Assert.assertEquals("http://example.com/0",
+			queue.poll(0, TimeUnit.MILLISECONDS).getFirst().getUrl().getSource().toString());
+		Assert.assertEquals(200, queue.byteSize());
+		Assert.assertTrue(queue.awaitCapacity(0, TimeUnit.MILLISECONDS));
+		queue.poll(0, TimeUnit.MILLISECONDS);
+		Assert.assertNotNull(queue.poll(0, TimeUnit.MILLISECONDS).getSecond());
+		Assert.assertNull(queue.poll(0, TimeUnit.MILLISECONDS));
+		Assert.assertEquals(0, queue.byteSize());
+	}
+
+	@Test
+	public void testWakeUpOnTake() throws InterruptedException, MalformedURLException {
+		FetchResultQueue queue = new FetchResultQueue(1, Long.MAX_VALUE);
+		queue.offer(page(0, "<html></html>"));
+		CountDownLatch resumed = new CountDownLatch(1);
+		Thread producer = new Thread(() -> {
+			try {
+				if (queue.awaitCapacity(10, TimeUnit.SECONDS)) {
+					resumed.countDown();
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+		producer.start();
+		Assert.assertFalse(resumed.await(50, TimeUnit.MILLISECONDS));
+		queue.take();
+		Assert.assertTrue(resumed.await(5, TimeUnit.SECONDS));
+		producer.join();
+		Assert.assertEquals(1, queue.getBlockedCount());
+		Assert.assertTrue(queue.getBlockedTime(TimeUnit.NANOSECONDS) > 0);
+	}
+
+	@Test
+	public void testTakeUntilEnded() throws Exception {
+		FetchResultQueue queue = new FetchResultQueue(10, Long.MAX_VALUE);
+		AtomicBoolean ended = new AtomicBoolean(false);
+		queue.offer(page(0, "<html></html>"));
+		Assert.assertNotNull(queue.take(ended::get));
+
+		AtomicReference<Pair<FetchedContent, Throwable>> taken = new AtomicReference<>();
+		CountDownLatch returned = new CountDownLatch(1);
+		Thread consumer = new Thread(() -> {
+			try {
+				taken.set(queue.take(ended::get));
+				returned.countDown();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+		consumer.start();
+		Assert.assertFalse(returned.await(50, TimeUnit.MILLISECONDS));
+		// the condition is only checked again once woken up
+		ended.set(true);
+		Assert.assertFalse(returned.await(50, TimeUnit.MILLISECONDS));
+		queue.wakeUp();
+		Assert.assertTrue(returned.await(5, TimeUnit.SECONDS));
+		Assert.assertNull(taken.get());
+		consumer.join();
+	}
+
+	private Pair<FetchedContent, Throwable> page(int index, String html)
+		throws MalformedURLException {
+		PrioritizedURL url = new PrioritizedURL(new URL("http://example.com/" + index), 1);
+		return new Pair<>(new FetchedContent(url, 200, html), null);
+	}
+}
@@ -0,0 +1,145 @@
+package net.viperfish.crawler.html.engine;
+
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import net.viperfish.crawler.html.FetchedContent;
+import net.viperfish.crawler.html.TestHttpServer;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.message.BasicHttpResponse;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestHostConcurrencyLimiter {
+
+	private static final long MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+
+	@Test
+	public void testAdditiveIncrease() throws Exception {
+		HostConcurrencyLimiter limiter = new HostConcurrencyLimiter(1, 3, 0.5, 1.5);
+		URL url = new URL("https://fast.com/page");
+		Assert.assertEquals(1, limiter.getLimit("fast.com"));
+
+		// a window is as many responses as the limit
+		limiter.onResponse(url, 200, 10 * MILLI, 0);
+		Assert.assertEquals(2, limiter.getLimit("fast.com"));
+		limiter.onResponse(url, 200, 10 * MILLI, 0);
+		Assert.assertEquals(2, limiter.getLimit("fast.com"));
+		limiter.onResponse(url, 200, 11 * MILLI, 0);
+		Assert.assertEquals(3, limiter.getLimit("fast.com"));
+		for (int i = 0; i < 3; ++i) {
+			limiter.onResponse(url, 200, 10 * MILLI, 0);
+		}
+		// capped at the maximum
+		Assert.assertEquals(3, limiter.getLimit("FAST.com"));
+		Assert.assertEquals(2, limiter.getIncreaseCount());
+	}
+
+	@Test
+	public void testLatencyHoldsLimit() throws Exception {
+		HostConcurrencyLimiter limiter = new HostConcurrencyLimiter(1, 8, 0.5, 1.5);
+		URL url = new URL("https://slowing.com/page");
+		limiter.onResponse(url, 200, 10 * MILLI, 0);
+		Assert.assertEquals(2, limiter.getLimit("slowing.com"));
+		limiter.onResponse(url, 200, 40 * MILLI, 0);
+		limiter.onResponse(url, 200, 40 * MILLI, 0);
+		Assert.assertEquals(2, limiter.getLimit("slowing.com"));
+	}
+
+	@Test
+	public void testMultiplicativeDecrease() throws Exception {
+		HostConcurrencyLimiter limiter = new HostConcurrencyLimiter(8, 16, 0.5, 1.5);
+		URL url = new URL("https://origin.com/page");
+
+		Assert.assertEquals(0, limiter.onResponse(url, 503, MILLI, 0));
+		Assert.assertEquals(4, limiter.getLimit("origin.com"));
+		// sent before the cut, so part of the same burst
+		limiter.onResponse(url, 429, TimeUnit.SECONDS.toNanos(10), 0);
+		Assert.assertEquals(4, limiter.getLimit("origin.com"));
+
+		Thread.sleep(5);
+		Assert.assertEquals(2000, limiter.onResponse(url, 429, MILLI, 2000));
+		Assert.assertEquals(2, limiter.getLimit("origin.com"));
+		Thread.sleep(5);
+		limiter.onTimeout(url, MILLI);
+		Assert.assertEquals(1, limiter.getLimit("origin.com"));
+		Assert.assertEquals(3, limiter.getBackoffCount());
+
+		// other errors are not a sign of overload
+		limiter.onResponse(url, 500, MILLI, 0);
+		Assert.assertEquals(1, limiter.getLimit("origin.com"));
+		Assert.assertEquals(Integer.valueOf(1), limiter.getLimits().get("origin.com"));
+		// the pause is capped
+		Thread.sleep(5);
+		Assert.assertEquals(TimeUnit.MINUTES.toMillis(10),
+			limiter.onResponse(url, 503, MILLI, TimeUnit.DAYS.toMillis(1)));
+	}
+
+	@Test
+	public void testQueueLimits() throws Exception {
+		HostConcurrencyLimiter limiter = new HostConcurrencyLimiter(1, 4, 0.5, 1.5);
+		HostPartitionedURLBlockingQueue queue = new HostPartitionedURLBlockingQueue();
+		queue.setConcurrencyLimiter(limiter);
+		for (int i = 0; i < 4; ++i) {
+			queue.offer(new URL("https://cdn.com/" + i));
+		}
+		PrioritizedURL first = queue.take();
+		Assert.assertNull(queue.take(50, TimeUnit.MILLISECONDS));
+
+		limiter.onResponse(first.getSource(), 200, MILLI, 0);
+		queue.release(first, 0, TimeUnit.SECONDS);
+		Assert.assertNotNull(queue.take(50, TimeUnit.MILLISECONDS));
+		Assert.assertNotNull(queue.take(50, TimeUnit.MILLISECONDS));
+		Assert.assertNull(queue.take(50, TimeUnit.MILLISECONDS));
+	}
+
+	@Test
+	public void testFetcher() throws Exception {
+		AtomicInteger overloaded = new AtomicInteger(0);
+		TestHttpServer server = new TestHttpServer(8).handle("/", exchange -> {
+			int status = 200;
+			if (exchange.getRequestURI().getPath().equals("/busy")
+				&& overloaded.getAndIncrement() == 0) {
+				exchange.getResponseHeaders().add("Retry-After", "1");
+				status = 503;
+			}
+			TestHttpServer.sendHtml(exchange, status, "<html><body>ok</body></html>");
+		});
+		HostConcurrencyLimiter limiter = new HostConcurrencyLimiter();
+		PrioritizedConcurrentHttpFetcher fetcher =
+			new ApplicationPrioritizedConcurrentHttpFetcher(8, "halbot");
+		fetcher.setConcurrencyLimiter(limiter);
+		try {
+			fetcher.init();
+			fetcher.submit(server.url("/busy"));
+			FetchedContent busy = fetcher.next(5, TimeUnit.SECONDS);
+			Assert.assertEquals(503, busy.getStatus());
+			long pausedAt = System.nanoTime();
+			for (int i = 0; i < 30; ++i) {
+				fetcher.submit(server.url("/" + i));
+			}
+			Assert.assertEquals(30, TestHttpServer.fetchAll(fetcher, 30).getPages().size());
+			// the host was left alone for the Retry-After
+			Assert.assertTrue(System.nanoTime() - pausedAt >= TimeUnit.MILLISECONDS.toNanos(900));
+			Assert.assertEquals(1, limiter.getBackoffCount());
+			Assert.assertTrue(limiter.getLimit("127.0.0.1") > 1);
+		} finally {
+			fetcher.close();
+			server.close();
+		}
+	}
+
+	@Test
+	public void testRetryAfter() throws Exception {
+		HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, 503,
+			"Service Unavailable");
+		Assert.assertEquals(0, FetchSupport.getRetryAfter(response));
+		response.setHeader("Retry-After", "120");
+		Assert.assertEquals(120000, FetchSupport.getRetryAfter(response));
+		response.setHeader("Retry-After", "Wed, 21 Oct 2015 07:28:00 GMT");
+		Assert.assertEquals(0, FetchSupport.getRetryAfter(response));
+		response.setHeader("Retry-After", "soon");
+		Assert.assertEquals(0, FetchSupport.getRetryAfter(response));
+	}
+}
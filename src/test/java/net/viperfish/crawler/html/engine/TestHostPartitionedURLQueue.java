@@ -0,0 +1,152 @@
+package net.viperfish.crawler.html.engine;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestHostPartitionedURLQueue {
+
+	@Test
+	public void testPriority() throws MalformedURLException, InterruptedException {
+		PrioritizedURLBlockingQueue queue = new HostPartitionedURLBlockingQueue();
+		URL least = new URL("https://www.least.com");
+		URL second = new URL("https://www.second.com");
+		URL first = new URL("https://www.first.com");
+
+		for (int i = 0; i < 2; ++i) {
+			queue.offer(least);
+		}
+
+		for (int i = 0; i < 5; ++i) {
+			queue.offer(second);
+		}
+
+		for (int i = 0; i < 100; ++i) {
+			queue.offer(first);
+		}
+
+		Assert.assertEquals(3, queue.size());
+		Assert.assertEquals(CanonicalURL.of(first), queue.take().getKey());
+		Assert.assertEquals(CanonicalURL.of(second), queue.take().getKey());
+		Assert.assertEquals(CanonicalURL.of(least), queue.take().getKey());
+	}
+
+	@Test
+	public void testOneFetchPerHost() throws MalformedURLException, InterruptedException {
+		PrioritizedURLBlockingQueue queue = new HostPartitionedURLBlockingQueue();
+		URL busyFirst = new URL("https://busy.com/1");
+		URL busySecond = new URL("https://busy.com/2");
+		URL other = new URL("https://other.com/1");
+
+		queue.offer(new PrioritizedURL(busyFirst, 10));
+		queue.offer(new PrioritizedURL(busySecond, 9));
+		queue.offer(new PrioritizedURL(other, 1));
+
+		PrioritizedURL taken = queue.take();
+		Assert.assertEquals(busyFirst, taken.getSource());
+		// the busy host is not handed out again until released
+		Assert.assertEquals(other, queue.take().getSource());
+		Assert.assertNull(queue.take(100, TimeUnit.MILLISECONDS));
+
+		queue.release(taken, 0, TimeUnit.SECONDS);
+		Assert.assertEquals(busySecond, queue.take(100, TimeUnit.MILLISECONDS).getSource());
+		Assert.assertEquals(0, queue.size());
+	}
+
+	@Test
+	public void testCrawlDelay() throws MalformedURLException, InterruptedException {
+		HostPartitionedURLBlockingQueue queue = new HostPartitionedURLBlockingQueue();
+		queue.offer(new URL("https://slow.com/1"));
+		queue.offer(new URL("https://slow.com/2"));
+
+		PrioritizedURL taken = queue.take();
+		long released = System.nanoTime();
+		queue.release(taken, 300, TimeUnit.MILLISECONDS);
+		Assert.assertNull(queue.take(100, TimeUnit.MILLISECONDS));
+
+		Assert.assertNotNull(queue.take(1, TimeUnit.SECONDS));
+		Assert.assertTrue(System.nanoTime() - released >= TimeUnit.MILLISECONDS.toNanos(300));
+
+		// the host is forgotten once it has nothing pending and its delay has passed
+		queue.release(taken, 0, TimeUnit.SECONDS);
+		Assert.assertEquals(0, queue.hostCount());
+	}
+
+	@Test
+	public void testHostGate() throws MalformedURLException, InterruptedException {
+		HostPartitionedURLBlockingQueue queue = new HostPartitionedURLBlockingQueue();
+		CompletableFuture<Void> robots = new CompletableFuture<>();
+		queue.setHostGate(url -> url.getHost().equals("new.com") ? robots : null);
+		queue.offer(new PrioritizedURL(new URL("https://new.com/1"), 10));
+		queue.offer(new PrioritizedURL(new URL("https://new.com/2"), 10));
+		queue.offer(new PrioritizedURL(new URL("https://known.com/1"), 1));
+
+		// the new host waits for its gate while the other hosts go on
+		Assert.assertEquals("known.com", queue.take(100, TimeUnit.MILLISECONDS).getSource()
+			.getHost());
+		Assert.assertNull(queue.take(100, TimeUnit.MILLISECONDS));
+		Assert.assertEquals(2, queue.size());
+
+		new Thread(() -> robots.complete(null)).start();
+		Assert.assertEquals("new.com", queue.take(1, TimeUnit.SECONDS).getSource().getHost());
+	}
+
+	@Test
+	public void testOutstanding() throws MalformedURLException, InterruptedException {
+		HostPartitionedURLBlockingQueue queue = new HostPartitionedURLBlockingQueue();
+		queue.offer(new URL("https://one.com/1"));
+		queue.offer(new URL("https://one.com/1"));
+		queue.offer(new URL("https://two.com/1"));
+		Assert.assertEquals(2, queue.outstanding());
+
+		// handed out but not released
+		PrioritizedURL taken = queue.take();
+		Assert.assertEquals(1, queue.size());
+		Assert.assertEquals(2, queue.outstanding());
+		queue.release(taken, 0, TimeUnit.SECONDS);
+		Assert.assertEquals(1, queue.outstanding());
+		queue.release(queue.take(), 0, TimeUnit.SECONDS);
+		Assert.assertEquals(0, queue.outstanding());
+	}
+
+	@Test
+	public void testOfferToWaitingHost() throws Exception {
+		HostPartitionedURLBlockingQueue queue = new HostPartitionedURLBlockingQueue();
+		queue.offer(new URL("https://slow.com/1"));
+		queue.release(queue.take(), 200, TimeUnit.MILLISECONDS);
+
+		// the host is kept without urls for its delay while a take is already waiting
+		AtomicReference<PrioritizedURL> taken = new AtomicReference<>();
+		Thread consumer = new Thread(() -> {
+			try {
+				taken.set(queue.take());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+		consumer.start();
+		Thread.sleep(50);
+		queue.offer(new URL("https://slow.com/2"));
+		consumer.join(2000);
+		Assert.assertNotNull(taken.get());
+		Assert.assertEquals("/2", taken.get().getSource().getPath());
+	}
+
+	@Test
+	public void testOfferAll() throws MalformedURLException, InterruptedException {
+		HostPartitionedURLBlockingQueue queue = new HostPartitionedURLBlockingQueue();
+		queue.offerAll(Arrays.asList(new PrioritizedURL(new URL("https://one.com/1"), 1),
+			new PrioritizedURL(new URL("https://one.com/2"), 5),
+			new PrioritizedURL(new URL("https://two.com/1"), 3)));
+		queue.offerAll(Arrays.asList(new PrioritizedURL(new URL("https://one.com/1"), 1)));
+		Assert.assertEquals(3, queue.size());
+
+		Assert.assertEquals("/2", queue.take().getSource().getPath());
+		Assert.assertEquals("two.com", queue.take().getSource().getHost());
+	}
+}
@@ -2,6 +2,9 @@ package net.viperfish.crawler.html.engine;
 
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -27,9 +30,55 @@ public class TestPrioritizedURLQueue {
 		}
 
 		Assert.assertEquals(3, queue.size());
-		Assert.assertEquals(first, queue.take().getSource());
-		Assert.assertEquals(second, queue.take().getSource());
-		Assert.assertEquals(least, queue.take().getSource());
+		Assert.assertEquals(CanonicalURL.of(first), queue.take().getKey());
+		Assert.assertEquals(CanonicalURL.of(second), queue.take().getKey());
+		Assert.assertEquals(CanonicalURL.of(least), queue.take().getKey());
+	}
+
+	@Test
+	public void testIndexedPriority() throws MalformedURLException, InterruptedException {
+		PrioritizedURLBlockingQueue queue = new IndexedPrioritizedURLBlockingQueue();
+		URL least = new URL("https://www.least.com");
+		URL second = new URL("https://www.second.com");
+		URL first = new URL("https://www.first.com");
+
+		for (int i = 0; i < 2; ++i) {
+			queue.offer(least);
+		}
+
+		for (int i = 0; i < 5; ++i) {
+			queue.offer(second);
+		}
+
+		for (int i = 0; i < 100; ++i) {
+			queue.offer(first);
+		}
+
+		Assert.assertEquals(3, queue.size());
+		Assert.assertEquals(CanonicalURL.of(first), queue.take().getKey());
+		Assert.assertEquals(CanonicalURL.of(second), queue.take().getKey());
+		Assert.assertEquals(CanonicalURL.of(least), queue.take().getKey());
+	}
+
+	@Test
+	public void testIndexedIncreaseKey() throws MalformedURLException, InterruptedException {
+		PrioritizedURLBlockingQueue queue = new IndexedPrioritizedURLBlockingQueue();
+		Map<URL, Integer> sightings = new HashMap<>();
+		Random random = new Random(7);
+		for (int i = 0; i < 5000; ++i) {
+			URL url = new URL("https://www.example.com/" + random.nextInt(500));
+			queue.offer(url);
+			sightings.merge(url, 1, Integer::sum);
+		}
+
+		Assert.assertEquals(sightings.size(), queue.size());
+		int last = Integer.MAX_VALUE;
+		while (queue.size() > 0) {
+			PrioritizedURL next = queue.take();
+			Assert.assertEquals(sightings.get(next.getSource()).intValue(), next.getPriority());
+			Assert.assertTrue(next.getPriority() <= last);
+			last = next.getPriority();
+		}
 	}
 
 }
@@ -0,0 +1,167 @@
+package net.viperfish.crawler.html.engine;
+
+import com.sun.net.httpserver.HttpExchange;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.ServerSocket;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import net.viperfish.crawler.html.TestHttpServer;
+import net.viperfish.crawler.html.exception.FetchFailedException;
+import net.viperfish.crawler.html.exception.PageTooLargeException;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestRetryScheduler {
+
+	@Test
+	public void testClassification() throws Exception {
+		URL url = new URL("http://127.0.0.1/");
+		Assert.assertTrue(RetryScheduler.isRetryable(new SocketTimeoutException()));
+		Assert.assertTrue(RetryScheduler
+			.isRetryable(new FetchFailedException(new ConnectException(), url)));
+		Assert.assertFalse(RetryScheduler.isRetryable(new UnknownHostException("nowhere")));
+		Assert.assertFalse(RetryScheduler.isRetryable(new PageTooLargeException(10)));
+		Assert.assertFalse(RetryScheduler.isRetryable(new IllegalStateException()));
+		Assert.assertTrue(RetryScheduler.isRetryable(503));
+		Assert.assertTrue(RetryScheduler.isRetryable(429));
+		Assert.assertFalse(RetryScheduler.isRetryable(404));
+		Assert.assertFalse(RetryScheduler.isRetryable(200));
+	}
+
+	@Test
+	public void testBackoff() {
+		RetryScheduler scheduler = new RetryScheduler(10, 100, 1000, TimeUnit.MILLISECONDS);
+		try {
+			for (int i = 0; i < 100; ++i) {
+				long first = scheduler.backoff(1);
+				Assert.assertTrue(first >= 50 && first <= 100);
+				long third = scheduler.backoff(3);
+				Assert.assertTrue(third >= 200 && third <= 400);
+				long capped = scheduler.backoff(60);
+				Assert.assertTrue(capped >= 500 && capped <= 1000);
+			}
+		} finally {
+			scheduler.close();
+		}
+	}
+
+	@Test
+	public void testTimingWheel() throws Exception {
+		TimingWheel wheel = new TimingWheel(10, TimeUnit.MILLISECONDS, 8, Thread::new);
+		try {
+			List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+			CountDownLatch done = new CountDownLatch(3);
+			long start = System.nanoTime();
+			// further than a turn of the wheel
+			wheel.schedule(() -> {
+				order.add(3);
+				done.countDown();
+			}, 250, TimeUnit.MILLISECONDS);
+			wheel.schedule(() -> {
+				order.add(2);
+				done.countDown();
+			}, 40, TimeUnit.MILLISECONDS);
+			wheel.schedule(() -> {
+				order.add(1);
+				done.countDown();
+			}, 0, TimeUnit.MILLISECONDS);
+			Assert.assertEquals(3, wheel.size());
+			Assert.assertTrue(done.await(2, TimeUnit.SECONDS));
+			Assert.assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(250));
+			// a task is pending until it has returned
+			for (int i = 0; i < 50 && wheel.size() != 0; ++i) {
+				Thread.sleep(10);
+			}
+			Assert.assertEquals(0, wheel.size());
+			Assert.assertEquals(3, order.size());
+			Assert.assertEquals(Integer.valueOf(1), order.get(0));
+			Assert.assertEquals(Integer.valueOf(2), order.get(1));
+			Assert.assertEquals(Integer.valueOf(3), order.get(2));
+		} finally {
+			wheel.close();
+		}
+	}
+
+	@Test
+	public void testBlockingFetcher() throws Exception {
+		testFetcher(new ApplicationPrioritizedConcurrentHttpFetcher(2, "halbot"));
+	}
+
+	@Test
+	public void testNioFetcher() throws Exception {
+		testFetcher(new ApplicationNioPrioritizedConcurrentHttpFetcher(1, 4, "halbot"));
+	}
+
+	private void testFetcher(PrioritizedConcurrentHttpFetcher fetcher) throws Exception {
+		AtomicInteger flakyAttempts = new AtomicInteger(0);
+		AtomicInteger downAttempts = new AtomicInteger(0);
+		AtomicInteger truncatedAttempts = new AtomicInteger(0);
+		TestHttpServer server = new TestHttpServer(4)
+			.handle("/flaky",
+				exchange -> respond(exchange, flakyAttempts.incrementAndGet() < 3 ? 503 : 200))
+			.handle("/down", exchange -> {
+				downAttempts.incrementAndGet();
+				respond(exchange, 503);
+			})
+			.handle("/missing", exchange -> respond(exchange, 404))
+			.handle("/truncated", exchange -> {
+				if (truncatedAttempts.incrementAndGet() > 1) {
+					respond(exchange, 200);
+					return;
+				}
+				// the connection is closed in the middle of the body
+				exchange.getResponseHeaders().add("Content-Type", "text/html");
+				exchange.sendResponseHeaders(200, 1024);
+				exchange.getResponseBody().write(new byte[16]);
+				exchange.getResponseBody().flush();
+				exchange.close();
+			});
+		int closedPort;
+		try (ServerSocket socket = new ServerSocket(0)) {
+			closedPort = socket.getLocalPort();
+		}
+		RetryScheduler retries = new RetryScheduler(3, 50, 200, TimeUnit.MILLISECONDS);
+		fetcher.setRetryScheduler(retries);
+		try {
+			fetcher.init();
+			fetcher.submit(server.url("/flaky"));
+			fetcher.submit(server.url("/down"));
+			fetcher.submit(server.url("/missing"));
+			fetcher.submit(server.url("/truncated"));
+			fetcher.submit(new URL("http://localhost:" + closedPort + "/refused"));
+			TestHttpServer.Fetched fetched = TestHttpServer.fetchAll(fetcher, 5);
+			Assert.assertEquals(4, fetched.getPages().size());
+			Assert.assertEquals(200, fetched.get("/flaky").getStatus());
+			Assert.assertEquals(503, fetched.get("/down").getStatus());
+			Assert.assertEquals(404, fetched.get("/missing").getStatus());
+			// a truncated body is retried instead of being taken as an empty page
+			Assert.assertEquals("<html><body>200</body></html>",
+				fetched.get("/truncated").getHtml());
+			Assert.assertEquals(2, truncatedAttempts.get());
+			Assert.assertEquals(1, fetched.getFailures().size());
+			Assert.assertEquals(3, flakyAttempts.get());
+			Assert.assertEquals(3, downAttempts.get());
+			Assert.assertEquals(7, retries.getRetryCount());
+			Assert.assertEquals(2, retries.getGiveUpCount());
+			Assert.assertEquals(2, retries.getRecoveryCount());
+			// the last retry and task deregister right after the result is handed out
+			TestHttpServer.awaitEnd(fetcher);
+			Assert.assertEquals(0, retries.getPendingCount());
+		} finally {
+			fetcher.close();
+			server.close();
+		}
+	}
+
+	private static void respond(HttpExchange exchange, int status) throws IOException {
+		TestHttpServer.sendHtml(exchange, status, "<html><body>" + status + "</body></html>");
+	}
+}
@@ -0,0 +1,150 @@
+package net.viperfish.crawler.html.engine;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TestSpillingURLQueue {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testPriority() throws MalformedURLException, InterruptedException, IOException {
+		try (SpillingPrioritizedURLBlockingQueue queue = new SpillingPrioritizedURLBlockingQueue(
+			folder.newFolder(), 10, 4096)) {
+			URL least = new URL("https://www.least.com");
+			URL second = new URL("https://www.second.com");
+			URL first = new URL("https://www.first.com");
+
+			queue.offer(least);
+			for (int i = 0; i < 5; ++i) {
+				queue.offer(second);
+			}
+			queue.offer(new PrioritizedURL(first, 100));
+
+			Assert.assertEquals(3, queue.size());
+			Assert.assertEquals(CanonicalURL.of(first), queue.take().getKey());
+			Assert.assertEquals(CanonicalURL.of(second), queue.take().getKey());
+			Assert.assertEquals(CanonicalURL.of(least), queue.take().getKey());
+		}
+	}
+
+	@Test
+	public void testSpilling() throws MalformedURLException, InterruptedException, IOException {
+		File directory = folder.newFolder();
+		int count = 5000;
+		try (SpillingPrioritizedURLBlockingQueue queue = new SpillingPrioritizedURLBlockingQueue(
+			directory, 50, 4096)) {
+			for (int i = 0; i < count; ++i) {
+				queue.offer(new PrioritizedURL(new URL("https://www.example.com/page/" + i),
+					1 + i % 40));
+			}
+			Assert.assertEquals(count, queue.size());
+			Assert.assertEquals(count - 50 * 6, queue.spilledSize());
+			Assert.assertTrue(directory.listFiles().length > 1);
+
+			Set<URL> taken = new HashSet<>();
+			int lastBand = Integer.MAX_VALUE;
+			for (int i = 0; i < count; ++i) {
+				PrioritizedURL url = queue.take();
+				Assert.assertTrue(taken.add(url.getSource()));
+				int band = 31 - Integer.numberOfLeadingZeros(url.getPriority());
+				Assert.assertTrue(band <= lastBand);
+				lastBand = band;
+			}
+			Assert.assertEquals(0, queue.size());
+			Assert.assertEquals(0, queue.spilledSize());
+			Assert.assertNull(queue.take(10, TimeUnit.MILLISECONDS));
+		}
+		Assert.assertEquals(0, directory.listFiles().length);
+	}
+
+	@Test
+	public void testOfferAll() throws MalformedURLException, InterruptedException, IOException {
+		try (SpillingPrioritizedURLBlockingQueue queue = new SpillingPrioritizedURLBlockingQueue(
+			folder.newFolder(), 10, 4096)) {
+			List<PrioritizedURL> urls = new ArrayList<>();
+			for (int i = 0; i < 30; ++i) {
+				urls.add(new PrioritizedURL(new URL("https://www.example.com/page/" + i), 1 + i));
+			}
+			queue.offerAll(urls);
+			Assert.assertEquals(30, queue.size());
+			Assert.assertTrue(queue.spilledSize() > 0);
+			Set<URL> taken = new HashSet<>();
+			int lastBand = Integer.MAX_VALUE;
+			for (int i = 0; i < 30; ++i) {
+				PrioritizedURL url = queue.take();
+				Assert.assertTrue(taken.add(url.getSource()));
+				int band = 31 - Integer.numberOfLeadingZeros(url.getPriority());
+				Assert.assertTrue(band <= lastBand);
+				lastBand = band;
+			}
+		}
+	}
+
+	@Test
+	public void testSpilledOfferedAgain()
+		throws MalformedURLException, InterruptedException, IOException {
+		try (SpillingPrioritizedURLBlockingQueue queue = new SpillingPrioritizedURLBlockingQueue(
+			folder.newFolder(), 10, 4096)) {
+			for (int i = 0; i < 30; ++i) {
+				queue.offer(new URL("https://www.example.com/page/" + i));
+			}
+			Assert.assertEquals(20, queue.spilledSize());
+			// spilled urls, at the same and at a higher priority
+			queue.offer(new URL("https://www.example.com/page/25"));
+			queue.offer(new PrioritizedURL(new URL("https://www.example.com/page/29"), 100));
+			Assert.assertEquals(30, queue.size());
+			Assert.assertEquals(20, queue.spilledSize());
+
+			Set<URL> taken = new HashSet<>();
+			PrioritizedURL url = queue.take(10, TimeUnit.MILLISECONDS);
+			while (url != null) {
+				Assert.assertTrue(taken.add(url.getSource()));
+				url = queue.take(10, TimeUnit.MILLISECONDS);
+			}
+			Assert.assertEquals(30, taken.size());
+		}
+	}
+
+	@Test
+	public void testHeapFlatWhileSpilling()
+		throws MalformedURLException, InterruptedException, IOException {
+		try (SpillingPrioritizedURLBlockingQueue queue = new SpillingPrioritizedURLBlockingQueue(
+			folder.newFolder(), 10, 1024 * 1024, 64 * 1024)) {
+			int offered = 0;
+			for (; offered < 20000; ++offered) {
+				queue.offer(new URL("https://www.example.com/page/" + offered));
+			}
+			long before = usedHeap();
+			for (; offered < 300000; ++offered) {
+				queue.offer(new URL("https://www.example.com/page/" + offered));
+			}
+			long after = usedHeap();
+			// up to the false positive rate of the filter may be dropped as spilled already
+			Assert.assertTrue(queue.size() > offered - offered / 1000);
+			// an exact set of the spilled urls would take more than 10 MB here
+			Assert.assertTrue("The heap grew by " + (after - before) + " bytes",
+				after - before < 2 * 1024 * 1024);
+		}
+	}
+
+	private static long usedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; ++i) {
+			System.gc();
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+}